@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.crdt;
+
+import io.datakernel.common.sharding.ConsistentHashRing;
+import io.datakernel.datastream.processor.MultiSharder;
+
+import java.util.List;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Sharder which places keys and their replicas on a {@link ConsistentHashRing} of partitions.
+ * <p>
+ * In contrast to {@link RendezvousHashSharder}, no bucket table is recomputed over all partitions
+ * when membership changes, and only keys adjacent to points of an added or removed partition move.
+ */
+public final class ConsistentHashSharder<I, K> implements MultiSharder<K> {
+	private final int virtualNodes;
+	private ConsistentHashRing<I> ring;
+	private int topShards;
+
+	private ConsistentHashSharder(int virtualNodes) {
+		this.virtualNodes = virtualNodes;
+	}
+
+	public static <I, K> ConsistentHashSharder<I, K> create(List<I> partitionIds, int topShards) {
+		return create(partitionIds, topShards, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+	}
+
+	public static <I, K> ConsistentHashSharder<I, K> create(List<I> partitionIds, int topShards, int virtualNodes) {
+		ConsistentHashSharder<I, K> sharder = new ConsistentHashSharder<>(virtualNodes);
+		sharder.recompute(partitionIds, topShards);
+		return sharder;
+	}
+
+	public void recompute(List<I> partitionIds, int topShards) {
+		checkArgument(topShards > 0, "Top number of partitions must be positive");
+		checkArgument(topShards <= partitionIds.size(), "Top number of partitions must less than or equal to number of partitions");
+
+		this.ring = ConsistentHashRing.create(partitionIds, virtualNodes);
+		this.topShards = topShards;
+	}
+
+	@Override
+	public int[] shard(K key) {
+		return ring.getShards(key.hashCode(), topShards);
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.crdt;
+
+import io.datakernel.async.service.EventloopService;
+import io.datakernel.datastream.StreamConsumer;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
+import io.datakernel.jmx.api.JmxAttribute;
+import io.datakernel.jmx.api.JmxOperation;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.jmx.PromiseStats;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Replicates changes of a local CRDT storage to a target storage (e.g. a {@link CrdtStorageCluster})
+ * as delta states instead of full states.
+ * <p>
+ * Deltas are produced by delta mutators of CRDT types (like {@link io.datakernel.crdt.primitives.GSet#addDelta})
+ * and are put into this replicator, which applies them to the local storage and buffers them,
+ * merging deltas of the same key together.
+ * Each {@link #flush()} ships buffered deltas to the target, and every n-th flush
+ * ships full local states instead, which also delivers whatever deltas were lost due to failures.
+ */
+public final class CrdtDeltaReplicator<K extends Comparable<K>, S> implements EventloopService, EventloopJmxMBeanEx {
+	private static final Logger logger = LoggerFactory.getLogger(CrdtDeltaReplicator.class);
+
+	public static final int DEFAULT_FULL_SYNC_INTERVAL = 10;
+
+	private final Eventloop eventloop;
+	private final CrdtStorage<K, S> local;
+	private final CrdtStorage<K, S> target;
+	private final CrdtFunction<S> function;
+
+	private int fullSyncInterval = DEFAULT_FULL_SYNC_INTERVAL;
+
+	private SortedMap<K, S> deltas = new TreeMap<>();
+	private int flushes;
+
+	@Nullable
+	private Promise<Void> flushPromise;
+
+	// region JMX
+	private final PromiseStats deltaFlushPromiseStats = PromiseStats.create(Duration.ofMinutes(5));
+	private final PromiseStats fullSyncPromiseStats = PromiseStats.create(Duration.ofMinutes(5));
+
+	private long totalDeltas;
+	private long shippedDeltas;
+	// endregion
+
+	private CrdtDeltaReplicator(Eventloop eventloop, CrdtStorage<K, S> local, CrdtStorage<K, S> target, CrdtFunction<S> function) {
+		this.eventloop = eventloop;
+		this.local = local;
+		this.target = target;
+		this.function = function;
+	}
+
+	public static <K extends Comparable<K>, S> CrdtDeltaReplicator<K, S> create(Eventloop eventloop,
+			CrdtStorage<K, S> local, CrdtStorage<K, S> target, CrdtFunction<S> function) {
+		return new CrdtDeltaReplicator<>(eventloop, local, target, function);
+	}
+
+	/**
+	 * Sets how often full states are shipped instead of deltas, 1 meaning every flush, and 0 meaning never.
+	 */
+	public CrdtDeltaReplicator<K, S> withFullSyncInterval(int fullSyncInterval) {
+		checkArgument(fullSyncInterval >= 0, "Full sync interval cannot be negative");
+		this.fullSyncInterval = fullSyncInterval;
+		return this;
+	}
+
+	@NotNull
+	@Override
+	public Eventloop getEventloop() {
+		return eventloop;
+	}
+
+	/**
+	 * Applies a delta state to the local storage and buffers it to be shipped on next flush.
+	 */
+	public Promise<Void> put(K key, S delta) {
+		totalDeltas++;
+		deltas.merge(key, delta, function::merge);
+		return StreamSupplier.of(new CrdtData<>(key, delta))
+				.streamTo(StreamConsumer.ofPromise(local.upload()));
+	}
+
+	public Promise<Void> flush() {
+		if (flushPromise != null) {
+			return flushPromise;
+		}
+		boolean fullSync = fullSyncInterval != 0 && ++flushes % fullSyncInterval == 0;
+		SortedMap<K, S> flushed = deltas;
+		deltas = new TreeMap<>();
+		Promise<Void> promise = fullSync ?
+				fullSync(flushed) :
+				flushDeltas(flushed);
+		return flushPromise = promise
+				.whenComplete(() -> flushPromise = null);
+	}
+
+	private Promise<Void> flushDeltas(SortedMap<K, S> flushed) {
+		if (flushed.isEmpty()) {
+			return Promise.complete();
+		}
+		return StreamSupplier.ofStream(flushed.entrySet().stream().map(entry -> new CrdtData<>(entry.getKey(), entry.getValue())))
+				.streamTo(StreamConsumer.ofPromise(target.upload()))
+				.whenResult($ -> shippedDeltas += flushed.size())
+				.whenException(e -> restore(flushed))
+				.whenComplete(deltaFlushPromiseStats.recordStats());
+	}
+
+	// full local states include all of the flushed deltas, so they are dropped
+	private Promise<Void> fullSync(SortedMap<K, S> flushed) {
+		return local.download()
+				.then(supplier -> supplier.streamTo(StreamConsumer.ofPromise(target.upload())))
+				.whenException(e -> restore(flushed))
+				.whenComplete(fullSyncPromiseStats.recordStats());
+	}
+
+	private void restore(SortedMap<K, S> flushed) {
+		flushed.forEach((key, delta) -> deltas.merge(key, delta, function::merge));
+	}
+
+	@NotNull
+	@Override
+	public Promise<Void> start() {
+		return Promise.complete();
+	}
+
+	/**
+	 * Waits for the flush in progress, if any, and then flushes until no deltas are buffered.
+	 * If some deltas could not be shipped, they are reported and the returned promise fails.
+	 */
+	@NotNull
+	@Override
+	public Promise<Void> stop() {
+		return flushAll()
+				.thenEx(($, e) -> {
+					if (e == null) {
+						return Promise.complete();
+					}
+					if (!deltas.isEmpty()) {
+						logger.warn("{} buffered deltas have not been shipped to the target on stop", deltas.size(), e);
+					}
+					return Promise.ofException(e);
+				});
+	}
+
+	private Promise<Void> flushAll() {
+		if (flushPromise != null) {
+			// whatever the flush in progress fails to ship is buffered again
+			return flushPromise.thenEx(($, e) -> flushAll());
+		}
+		if (deltas.isEmpty()) {
+			return Promise.complete();
+		}
+		return flush().then($ -> flushAll());
+	}
+
+	// region JMX
+	@JmxOperation
+	public void flushNow() {
+		flush();
+	}
+
+	@JmxAttribute
+	public int getBufferedDeltas() {
+		return deltas.size();
+	}
+
+	@JmxAttribute
+	public long getTotalDeltas() {
+		return totalDeltas;
+	}
+
+	@JmxAttribute
+	public long getShippedDeltas() {
+		return shippedDeltas;
+	}
+
+	@JmxAttribute
+	public PromiseStats getDeltaFlushPromiseStats() {
+		return deltaFlushPromiseStats;
+	}
+
+	@JmxAttribute
+	public PromiseStats getFullSyncPromiseStats() {
+		return fullSyncPromiseStats;
+	}
+	// endregion
+}
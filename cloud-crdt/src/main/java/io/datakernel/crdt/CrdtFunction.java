@@ -11,6 +11,17 @@ public interface CrdtFunction<S> {
 	 */
 	S merge(S first, S second);
 
+	/**
+	 * Same as {@link #merge}, but may modify the first state instead of copying it.
+	 * <p>
+	 * This method may only be called with the first state which is owned by the caller
+	 * and is not shared with anyone else, e.g. with a state created by {@link #merge}
+	 * which is neither of its arguments. The second state is never modified.
+	 */
+	default S mergeInPlace(S owned, S other) {
+		return merge(owned, other);
+	}
+
 	/**
 	 * Extract partial CRDT state from given state, which contains only the
 	 * changes to it since given timestamp.
@@ -44,6 +55,11 @@ public interface CrdtFunction<S> {
 				return first.merge(second);
 			}
 
+			@Override
+			public S mergeInPlace(S owned, S other) {
+				return owned.mergeInPlace(other);
+			}
+
 			@Nullable
 			@Override
 			public S extract(S state, long timestamp) {
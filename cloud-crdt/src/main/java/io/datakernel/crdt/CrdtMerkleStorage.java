@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.crdt;
+
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.promise.Promise;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CRDT storage which maintains a {@link CrdtMerkleTree} over its contents,
+ * so that it can be compared with other replicas without transferring the data.
+ *
+ * @see CrdtMerkleSync
+ */
+public interface CrdtMerkleStorage<K extends Comparable<K>, S> extends CrdtStorage<K, S> {
+
+	/**
+	 * Returns nodes of the Merkle tree with given indices.
+	 *
+	 * @param depth   expected depth of the tree, the call fails if it differs from the actual one
+	 * @param indices indices of the nodes in the tree
+	 * @return stage of list of nodes in the same order as indices
+	 */
+	Promise<List<CrdtMerkleTree.Node>> getMerkleNodes(int depth, List<Integer> indices);
+
+	/**
+	 * Returns a producer of key-state pairs which belong to given buckets of the Merkle tree.
+	 * Pairs are sorted by key.
+	 *
+	 * @param depth   expected depth of the tree, the call fails if it differs from the actual one
+	 * @param buckets indices of buckets (not of the leaf nodes)
+	 * @return stage of stream producer of key-state pairs
+	 */
+	Promise<StreamSupplier<CrdtData<K, S>>> downloadBuckets(int depth, Set<Integer> buckets);
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.crdt;
+
+import io.datakernel.datastream.StreamConsumer;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
+import io.datakernel.jmx.api.JmxAttribute;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.promise.jmx.PromiseStats;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static java.util.Collections.singletonList;
+
+/**
+ * Anti-entropy synchronization of two CRDT replicas.
+ * <p>
+ * Merkle trees of both replicas are compared top-down, one level per round trip,
+ * descending only into the subtrees whose digests differ.
+ * Then only key-state pairs from differing buckets are exchanged in both directions,
+ * instead of streaming full datasets through each other.
+ */
+public final class CrdtMerkleSync<K extends Comparable<K>, S> implements EventloopJmxMBeanEx {
+	private static final Logger logger = LoggerFactory.getLogger(CrdtMerkleSync.class);
+
+	// estimated size of a node request and response in binary form
+	private static final int NODE_BYTES = Integer.BYTES + 2 * Long.BYTES;
+
+	private final Eventloop eventloop;
+	private final CrdtMerkleStorage<K, S> local;
+	private final CrdtMerkleStorage<K, S> remote;
+
+	private int depth = CrdtMerkleTree.DEFAULT_DEPTH;
+
+	// region JMX
+	private final PromiseStats syncPromiseStats = PromiseStats.create(Duration.ofMinutes(5));
+
+	private int lastDifferingBuckets;
+	private long lastTreeBytes;
+	private long lastTransferredBytes;
+	private long lastFullSyncBytes;
+	private long totalSavedBytes;
+	// endregion
+
+	private CrdtMerkleSync(Eventloop eventloop, CrdtMerkleStorage<K, S> local, CrdtMerkleStorage<K, S> remote) {
+		this.eventloop = eventloop;
+		this.local = local;
+		this.remote = remote;
+	}
+
+	public static <K extends Comparable<K>, S> CrdtMerkleSync<K, S> create(Eventloop eventloop, CrdtMerkleStorage<K, S> local, CrdtMerkleStorage<K, S> remote) {
+		return new CrdtMerkleSync<>(eventloop, local, remote);
+	}
+
+	/**
+	 * Sets depth of Merkle trees of both replicas, which should be the same.
+	 */
+	public CrdtMerkleSync<K, S> withDepth(int depth) {
+		checkArgument(depth >= 0 && depth <= CrdtMerkleTree.MAX_DEPTH, "Depth should be in range [0, " + CrdtMerkleTree.MAX_DEPTH + "]");
+		this.depth = depth;
+		return this;
+	}
+
+	@NotNull
+	@Override
+	public Eventloop getEventloop() {
+		return eventloop;
+	}
+
+	public Promise<Void> sync() {
+		SyncState state = new SyncState();
+		return compare(singletonList(1), state)
+				.then($ -> exchange(state.buckets))
+				.whenResult($ -> {
+					lastDifferingBuckets = state.buckets.size();
+					lastTreeBytes = state.treeBytes;
+					lastTransferredBytes = state.transferredBytes;
+					lastFullSyncBytes = state.fullSyncBytes;
+					totalSavedBytes += getLastSavedBytes();
+					logger.info("Synchronized {} differing buckets out of {}, transferred {} bytes of data and {} bytes of tree nodes instead of {} bytes of full sync",
+							lastDifferingBuckets, 1 << depth, lastTransferredBytes, lastTreeBytes, lastFullSyncBytes);
+				})
+				.whenComplete(syncPromiseStats.recordStats());
+	}
+
+	private Promise<Void> compare(List<Integer> indices, SyncState state) {
+		if (indices.isEmpty()) {
+			return Promise.complete();
+		}
+		return Promises.toTuple(local.getMerkleNodes(depth, indices), remote.getMerkleNodes(depth, indices))
+				.then(nodes -> {
+					List<CrdtMerkleTree.Node> localNodes = nodes.getValue1();
+					List<CrdtMerkleTree.Node> remoteNodes = nodes.getValue2();
+					state.treeBytes += (long) indices.size() * NODE_BYTES;
+					if (indices.get(0) == 1) {
+						state.fullSyncBytes = localNodes.get(0).getSize() + remoteNodes.get(0).getSize();
+					}
+
+					List<Integer> next = new ArrayList<>();
+					for (int i = 0; i < indices.size(); i++) {
+						CrdtMerkleTree.Node localNode = localNodes.get(i);
+						CrdtMerkleTree.Node remoteNode = remoteNodes.get(i);
+						if (localNode.getDigest() == remoteNode.getDigest()) {
+							continue;
+						}
+						int index = indices.get(i);
+						if (index >= 1 << depth) {
+							state.buckets.add(index - (1 << depth));
+							state.transferredBytes += localNode.getSize() + remoteNode.getSize();
+						} else {
+							next.add(2 * index);
+							next.add(2 * index + 1);
+						}
+					}
+					return compare(next, state);
+				});
+	}
+
+	private Promise<Void> exchange(Set<Integer> buckets) {
+		if (buckets.isEmpty()) {
+			return Promise.complete();
+		}
+		return Promises.all(
+				remote.downloadBuckets(depth, buckets)
+						.then(supplier -> supplier.streamTo(StreamConsumer.ofPromise(local.upload()))),
+				local.downloadBuckets(depth, buckets)
+						.then(supplier -> supplier.streamTo(StreamConsumer.ofPromise(remote.upload()))));
+	}
+
+	private static final class SyncState {
+		final Set<Integer> buckets = new HashSet<>();
+		long treeBytes;
+		long transferredBytes;
+		long fullSyncBytes;
+	}
+
+	// region JMX
+	@JmxAttribute
+	public PromiseStats getSyncPromiseStats() {
+		return syncPromiseStats;
+	}
+
+	@JmxAttribute
+	public int getLastDifferingBuckets() {
+		return lastDifferingBuckets;
+	}
+
+	@JmxAttribute
+	public long getLastTreeBytes() {
+		return lastTreeBytes;
+	}
+
+	@JmxAttribute
+	public long getLastTransferredBytes() {
+		return lastTransferredBytes;
+	}
+
+	@JmxAttribute
+	public long getLastFullSyncBytes() {
+		return lastFullSyncBytes;
+	}
+
+	/**
+	 * Estimated number of bytes that the last synchronization saved compared to a full sync,
+	 * which would stream both datasets through each other.
+	 */
+	@JmxAttribute
+	public long getLastSavedBytes() {
+		return lastFullSyncBytes - lastTreeBytes - lastTransferredBytes;
+	}
+
+	@JmxAttribute
+	public long getTotalSavedBytes() {
+		return totalSavedBytes;
+	}
+	// endregion
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.crdt;
+
+import io.datakernel.serializer.BinarySerializer;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.ToLongFunction;
+
+import static io.datakernel.common.HashUtils.murmur3hash;
+import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.common.Preconditions.checkState;
+
+/**
+ * Hash tree over the contents of a CRDT storage, which is used to find
+ * the parts of two replicas that differ without transferring the data itself.
+ * <p>
+ * Keys are spread over <code>2^depth</code> buckets by the hash of their serialized form.
+ * Each bucket (leaf) holds a XOR of hashes of its serialized key-state pairs,
+ * and each inner node holds a XOR of its children, so that a change of a single pair
+ * is applied to the tree in <code>O(depth)</code> without rehashing anything else.
+ * Nodes are stored in a heap order: root has index 1, children of node <code>i</code>
+ * are <code>2i</code> and <code>2i + 1</code>, and leaves occupy indices starting from {@link #getLeafCount()}.
+ * <p>
+ * Along with hashes, nodes keep total serialized size of their pairs,
+ * which is used to estimate the cost of transferring them.
+ * <p>
+ * By default, the hash of a pair is taken from its serialized bytes, so state serializer
+ * <b>must</b> be canonical, that is, equal states must always serialize to the same bytes on every replica.
+ * Serializers of hash-based collections (e.g. {@link io.datakernel.serializer.BinarySerializers#ofSet}
+ * or states of {@link io.datakernel.crdt.primitives.GSet}) are not canonical, as their iteration order depends
+ * on insertion history, so for such states an order-independent hash should be set with {@link #withStateHash}.
+ */
+public final class CrdtMerkleTree<K extends Comparable<K>, S> {
+	public static final int DEFAULT_DEPTH = 10;
+	public static final int MAX_DEPTH = 24;
+
+	private final BinarySerializer<K> keySerializer;
+	private final BinarySerializer<S> stateSerializer;
+	private final int depth;
+	private final long[] digests;
+	private final long[] sizes;
+
+	@Nullable
+	private ToLongFunction<S> stateHash;
+
+	private byte[] buffer = new byte[256];
+
+	private CrdtMerkleTree(CrdtDataSerializer<K, S> serializer, int depth) {
+		this.keySerializer = serializer.getKeySerializer();
+		this.stateSerializer = serializer.getStateSerializer();
+		this.depth = depth;
+		this.digests = new long[2 << depth];
+		this.sizes = new long[2 << depth];
+	}
+
+	public static <K extends Comparable<K>, S> CrdtMerkleTree<K, S> create(CrdtDataSerializer<K, S> serializer) {
+		return new CrdtMerkleTree<>(serializer, DEFAULT_DEPTH);
+	}
+
+	public static <K extends Comparable<K>, S> CrdtMerkleTree<K, S> create(CrdtDataSerializer<K, S> serializer, int depth) {
+		checkArgument(depth >= 0 && depth <= MAX_DEPTH, "Depth should be in range [0, " + MAX_DEPTH + "]");
+		return new CrdtMerkleTree<>(serializer, depth);
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getLeafCount() {
+		return 1 << depth;
+	}
+
+	public boolean isLeaf(int index) {
+		return index >= getLeafCount();
+	}
+
+	public long getDigest(int index) {
+		return digests[index];
+	}
+
+	public long getSize(int index) {
+		return sizes[index];
+	}
+
+	/**
+	 * Returns index of the bucket (in range <code>[0, 2^depth)</code>) which given key belongs to.
+	 * Leaf node of the bucket has index <code>getLeafCount() + bucket</code>.
+	 */
+	public int getBucket(K key) {
+		return (int) (hash(buffer, 0, encode(keySerializer, key, 0)) & (getLeafCount() - 1));
+	}
+
+	public Node getNode(int index) {
+		return new Node(digests[index], sizes[index]);
+	}
+
+	/**
+	 * Sets a function which hashes states instead of their serialized bytes.
+	 * Equal states must have equal hashes on every replica, regardless of how the states were built,
+	 * see {@link #unorderedHash}. Should be set before any pair is added to the tree.
+	 */
+	public CrdtMerkleTree<K, S> withStateHash(ToLongFunction<S> stateHash) {
+		checkState(digests[1] == 0 && sizes[1] == 0, "Cannot change state hash of a non-empty tree");
+		this.stateHash = stateHash;
+		return this;
+	}
+
+	/**
+	 * Combines hashes of given items so that the result does not depend on their iteration order,
+	 * which makes it usable as a state hash for hash-based collections.
+	 */
+	public static <T> long unorderedHash(Iterable<T> items, ToLongFunction<T> itemHash) {
+		long hash = 0;
+		for (T item : items) {
+			hash += murmur3hash(itemHash.applyAsLong(item));
+		}
+		return hash;
+	}
+
+	/**
+	 * Adds a key-state pair to the tree.
+	 */
+	public void add(K key, S state) {
+		apply(key, state, 1);
+	}
+
+	/**
+	 * Removes a key-state pair from the tree.
+	 * Given state should be equal to the one that was added,
+	 * so in-place merges should call this method before the state gets modified.
+	 */
+	public void remove(K key, S state) {
+		apply(key, state, -1);
+	}
+
+	private void apply(K key, S state, int sign) {
+		int keyLength = encode(keySerializer, key, 0);
+		int length = encode(stateSerializer, state, keyLength);
+		long keyHash = hash(buffer, 0, keyLength);
+		long digest = stateHash != null ?
+				murmur3hash(keyHash ^ murmur3hash(stateHash.applyAsLong(state))) :
+				hash(buffer, 0, length);
+		for (int index = getLeafCount() + (int) (keyHash & (getLeafCount() - 1)); index != 0; index >>>= 1) {
+			digests[index] ^= digest;
+			sizes[index] += sign * length;
+		}
+	}
+
+	/**
+	 * Encodes an item into the buffer after first <code>pos</code> bytes, preserving them
+	 * and growing the buffer if needed, and returns position after the encoded item.
+	 */
+	private <T> int encode(BinarySerializer<T> serializer, T item, int pos) {
+		while (true) {
+			try {
+				return serializer.encode(buffer, pos, item);
+			} catch (ArrayIndexOutOfBoundsException e) {
+				byte[] newBuffer = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, newBuffer, 0, pos);
+				buffer = newBuffer;
+			}
+		}
+	}
+
+	// 64-bit FNV-1a, finalized with murmur3 mixer for better distribution of low bits
+	private static long hash(byte[] array, int from, int to) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = from; i < to; i++) {
+			hash ^= array[i] & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return murmur3hash(hash);
+	}
+
+	public static final class Node {
+		private final long digest;
+		private final long size;
+
+		public Node(long digest, long size) {
+			this.digest = digest;
+			this.size = size;
+		}
+
+		public long getDigest() {
+			return digest;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (o == null || getClass() != o.getClass()) {
+				return false;
+			}
+			Node node = (Node) o;
+			return digest == node.digest && size == node.size;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Long.hashCode(digest) + Long.hashCode(size);
+		}
+
+		@Override
+		public String toString() {
+			return "Node{digest=" + Long.toHexString(digest) + ", size=" + size + '}';
+		}
+	}
+}
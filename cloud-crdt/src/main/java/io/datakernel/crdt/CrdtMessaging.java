@@ -18,6 +18,12 @@ package io.datakernel.crdt;
 
 import io.datakernel.codec.CodecSubtype;
 import io.datakernel.codec.StructuredCodec;
+import io.datakernel.serializer.BinarySerializer;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 
 import static io.datakernel.codec.StructuredCodecs.*;
 
@@ -26,11 +32,25 @@ public final class CrdtMessaging {
 	public static final StructuredCodec<CrdtMessage> MESSAGE_CODEC = CodecSubtype.<CrdtMessage>create()
 			.with(Download.class, object(Download::new,
 					"token", Download::getToken, LONG64_CODEC))
+			.with(DownloadRange.class, object(DownloadRange::new,
+					"token", DownloadRange::getToken, LONG64_CODEC,
+					"from", DownloadRange::getFrom, BYTES_CODEC.nullable(),
+					"to", DownloadRange::getTo, BYTES_CODEC.nullable()))
+			.with(GetMerkleNodes.class, object(GetMerkleNodes::new,
+					"depth", GetMerkleNodes::getDepth, INT_CODEC,
+					"indices", GetMerkleNodes::getIndices, ofList(INT_CODEC)))
+			.with(DownloadBuckets.class, object(DownloadBuckets::new,
+					"depth", DownloadBuckets::getDepth, INT_CODEC,
+					"buckets", DownloadBuckets::getBuckets, ofSet(INT_CODEC)))
 			.with(CrdtMessages.class, ofEnum(CrdtMessages.class));
 
 	public static final StructuredCodec<CrdtResponse> RESPONSE_CODEC = CodecSubtype.<CrdtResponse>create()
 			.with(CrdtResponses.class, ofEnum(CrdtResponses.class))
 			.with(DownloadStarted.class, object(DownloadStarted::new))
+			.with(MerkleNodes.class, object(MerkleNodes::new,
+					"nodes", MerkleNodes::getNodes, ofList(object(CrdtMerkleTree.Node::new,
+							"digest", CrdtMerkleTree.Node::getDigest, LONG64_CODEC,
+							"size", CrdtMerkleTree.Node::getSize, LONG64_CODEC))))
 			.with(ServerError.class, object(ServerError::new,
 					"msg", ServerError::getMsg, STRING_CODEC));
 
@@ -61,6 +81,85 @@ public final class CrdtMessaging {
 		}
 	}
 
+	public final static class DownloadRange implements CrdtMessage {
+		private final long token;
+		@Nullable
+		private final byte[] from;
+		@Nullable
+		private final byte[] to;
+
+		public DownloadRange(long token, @Nullable byte[] from, @Nullable byte[] to) {
+			this.token = token;
+			this.from = from;
+			this.to = to;
+		}
+
+		public long getToken() {
+			return token;
+		}
+
+		@Nullable
+		public byte[] getFrom() {
+			return from;
+		}
+
+		@Nullable
+		public byte[] getTo() {
+			return to;
+		}
+
+		@Override
+		public String toString() {
+			return "DownloadRange{token=" + token + ", from=" + Arrays.toString(from) + ", to=" + Arrays.toString(to) + '}';
+		}
+	}
+
+	public final static class GetMerkleNodes implements CrdtMessage {
+		private final int depth;
+		private final List<Integer> indices;
+
+		public GetMerkleNodes(int depth, List<Integer> indices) {
+			this.depth = depth;
+			this.indices = indices;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		public List<Integer> getIndices() {
+			return indices;
+		}
+
+		@Override
+		public String toString() {
+			return "GetMerkleNodes{depth=" + depth + ", indices=" + indices + '}';
+		}
+	}
+
+	public final static class DownloadBuckets implements CrdtMessage {
+		private final int depth;
+		private final Set<Integer> buckets;
+
+		public DownloadBuckets(int depth, Set<Integer> buckets) {
+			this.depth = depth;
+			this.buckets = buckets;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		public Set<Integer> getBuckets() {
+			return buckets;
+		}
+
+		@Override
+		public String toString() {
+			return "DownloadBuckets{depth=" + depth + ", buckets=" + buckets + '}';
+		}
+	}
+
 	public enum CrdtResponses implements CrdtResponse {
 		UPLOAD_FINISHED,
 		REMOVE_FINISHED,
@@ -74,6 +173,23 @@ public final class CrdtMessaging {
 		}
 	}
 
+	public final static class MerkleNodes implements CrdtResponse {
+		private final List<CrdtMerkleTree.Node> nodes;
+
+		public MerkleNodes(List<CrdtMerkleTree.Node> nodes) {
+			this.nodes = nodes;
+		}
+
+		public List<CrdtMerkleTree.Node> getNodes() {
+			return nodes;
+		}
+
+		@Override
+		public String toString() {
+			return "MerkleNodes{nodes=" + nodes + '}';
+		}
+	}
+
 	public final static class ServerError implements CrdtResponse {
 		private final String msg;
 
@@ -90,4 +206,24 @@ public final class CrdtMessaging {
 			return "ServerError{msg=" + msg + '}';
 		}
 	}
+
+	@Nullable
+	static <K> byte[] encodeKey(BinarySerializer<K> keySerializer, @Nullable K key) {
+		if (key == null) {
+			return null;
+		}
+		byte[] array = new byte[256];
+		while (true) {
+			try {
+				return Arrays.copyOf(array, keySerializer.encode(array, 0, key));
+			} catch (ArrayIndexOutOfBoundsException e) {
+				array = new byte[array.length * 2];
+			}
+		}
+	}
+
+	@Nullable
+	static <K> K decodeKey(BinarySerializer<K> keySerializer, @Nullable byte[] bytes) {
+		return bytes != null ? keySerializer.decode(bytes, 0) : null;
+	}
 }
@@ -33,6 +33,8 @@ import static io.datakernel.crdt.CrdtMessaging.*;
 import static io.datakernel.csp.binary.ByteBufSerializer.ofJsonCodec;
 
 public final class CrdtServer<K extends Comparable<K>, S> extends AbstractServer<CrdtServer<K, S>> {
+	private static final StacklessException NO_MERKLE_STORAGE = new StacklessException(CrdtServer.class, "Storage does not maintain a Merkle tree");
+
 	private final CrdtStorage<K, S> client;
 	private final CrdtDataSerializer<K, S> serializer;
 	private final BinarySerializer<K> keySerializer;
@@ -53,6 +55,12 @@ public final class CrdtServer<K extends Comparable<K>, S> extends AbstractServer
 		return new CrdtServer<>(eventloop, client, new CrdtDataSerializer<>(keySerializer, stateSerializer));
 	}
 
+	private Promise<CrdtMerkleStorage<K, S>> merkleStorage() {
+		return client instanceof CrdtMerkleStorage ?
+				Promise.of((CrdtMerkleStorage<K, S>) client) :
+				Promise.ofException(NO_MERKLE_STORAGE);
+	}
+
 	@Override
 	protected void serve(AsyncTcpSocket socket, InetAddress remoteAddress) {
 		MessagingWithBinaryStreaming<CrdtMessage, CrdtResponse> messaging =
@@ -86,6 +94,31 @@ public final class CrdtServer<K extends Comparable<K>, S> extends AbstractServer
 										.transformWith(ChannelSerializer.create(serializer))
 										.streamTo(messaging.sendBinaryStream()));
 					}
+					if (msg instanceof DownloadRange) {
+						DownloadRange range = (DownloadRange) msg;
+						return client.download(decodeKey(keySerializer, range.getFrom()), decodeKey(keySerializer, range.getTo()), range.getToken())
+								.whenResult($ -> messaging.send(new DownloadStarted()))
+								.then(supplier -> supplier
+										.transformWith(ChannelSerializer.create(serializer))
+										.streamTo(messaging.sendBinaryStream()));
+					}
+					if (msg instanceof GetMerkleNodes) {
+						GetMerkleNodes request = (GetMerkleNodes) msg;
+						return merkleStorage()
+								.then(storage -> storage.getMerkleNodes(request.getDepth(), request.getIndices()))
+								.then(nodes -> messaging.send(new MerkleNodes(nodes)))
+								.then($ -> messaging.sendEndOfStream())
+								.whenResult($ -> messaging.close());
+					}
+					if (msg instanceof DownloadBuckets) {
+						DownloadBuckets request = (DownloadBuckets) msg;
+						return merkleStorage()
+								.then(storage -> storage.downloadBuckets(request.getDepth(), request.getBuckets()))
+								.whenResult($ -> messaging.send(new DownloadStarted()))
+								.then(supplier -> supplier
+										.transformWith(ChannelSerializer.create(serializer))
+										.streamTo(messaging.sendBinaryStream()));
+					}
 					return Promise.ofException(new StacklessException(CrdtServer.class, "Message type was added, but no handling code for it"));
 				})
 				.whenComplete(($, e) -> {
@@ -19,6 +19,7 @@ package io.datakernel.crdt;
 import io.datakernel.datastream.StreamConsumer;
 import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Interface for various CRDT client implementations.
@@ -36,13 +37,27 @@ public interface CrdtStorage<K extends Comparable<K>, S> {
 	 */
 	Promise<StreamConsumer<CrdtData<K, S>>> upload();
 
+	/**
+	 * Returns a producer of key-state pairs in the CRDT storage with keys in range [from, to)
+	 * that were put AFTER given timestamp was received.
+	 * Pairs are sorted by key.
+	 *
+	 * @param from      inclusive lower bound of keys, or <code>null</code> if unbounded
+	 * @param to        exclusive upper bound of keys, or <code>null</code> if unbounded
+	 * @param timestamp only changes made after this timestamp are downloaded
+	 * @return stage of stream producer of key-state pairs
+	 */
+	Promise<StreamSupplier<CrdtData<K, S>>> download(@Nullable K from, @Nullable K to, long timestamp);
+
 	/**
 	 * Returns a producer if all key-state pairs in the CRDT storage that were put AFTER given timestamp was received.
 	 * Pairs are sorted by key.
 	 *
 	 * @return stage of stream producer of key-state pairs
 	 */
-	Promise<StreamSupplier<CrdtData<K, S>>> download(long timestamp);
+	default Promise<StreamSupplier<CrdtData<K, S>>> download(long timestamp) {
+		return download(null, null, timestamp);
+	}
 
 	/**
 	 * Same as above, but downloads all possible key-state pairs.
@@ -53,6 +68,32 @@ public interface CrdtStorage<K extends Comparable<K>, S> {
 		return download(0);
 	}
 
+	/**
+	 * Returns a producer of key-state pairs of given storage whose keys start with given prefix
+	 * and that were put AFTER given timestamp was received.
+	 * Pairs are sorted by key.
+	 *
+	 * @return stage of stream producer of key-state pairs
+	 */
+	static <S> Promise<StreamSupplier<CrdtData<String, S>>> downloadPrefix(CrdtStorage<String, S> storage, String prefix, long timestamp) {
+		return storage.download(prefix.isEmpty() ? null : prefix, prefixEnd(prefix), timestamp);
+	}
+
+	/**
+	 * Returns the smallest string that is greater than every string with given prefix,
+	 * or <code>null</code> if there is no such string.
+	 */
+	@Nullable
+	static String prefixEnd(String prefix) {
+		for (int i = prefix.length() - 1; i >= 0; i--) {
+			char c = prefix.charAt(i);
+			if (c != Character.MAX_VALUE) {
+				return prefix.substring(0, i) + (char) (c + 1);
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Returns a consumer of keys to be removed from the CRDT storage.
 	 * This operation is not persistent and not guaranteed.
@@ -37,8 +37,11 @@ import io.datakernel.net.AsyncTcpSocketNio;
 import io.datakernel.promise.Promise;
 import io.datakernel.serializer.BinarySerializer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
 
 import static io.datakernel.crdt.CrdtMessaging.*;
@@ -46,7 +49,7 @@ import static io.datakernel.crdt.CrdtMessaging.CrdtMessages.PING;
 import static io.datakernel.crdt.CrdtMessaging.CrdtResponses.*;
 import static io.datakernel.csp.binary.ByteBufSerializer.ofJsonCodec;
 
-public final class CrdtStorageClient<K extends Comparable<K>, S> implements CrdtStorage<K, S>, EventloopService, EventloopJmxMBeanEx {
+public final class CrdtStorageClient<K extends Comparable<K>, S> implements CrdtMerkleStorage<K, S>, EventloopService, EventloopJmxMBeanEx {
 	private final Eventloop eventloop;
 	private final InetSocketAddress address;
 	private final CrdtDataSerializer<K, S> serializer;
@@ -113,9 +116,41 @@ public final class CrdtStorageClient<K extends Comparable<K>, S> implements Crdt
 	}
 
 	@Override
-	public Promise<StreamSupplier<CrdtData<K, S>>> download(long timestamp) {
+	public Promise<StreamSupplier<CrdtData<K, S>>> download(@Nullable K from, @Nullable K to, long timestamp) {
+		// plain download message is kept for unbounded downloads, so that older servers are still supported
+		return download(from == null && to == null ?
+				new Download(timestamp) :
+				new DownloadRange(timestamp, encodeKey(keySerializer, from), encodeKey(keySerializer, to)));
+	}
+
+	@Override
+	public Promise<StreamSupplier<CrdtData<K, S>>> downloadBuckets(int depth, Set<Integer> buckets) {
+		return download(new DownloadBuckets(depth, buckets));
+	}
+
+	@Override
+	public Promise<List<CrdtMerkleTree.Node>> getMerkleNodes(int depth, List<Integer> indices) {
+		return connect()
+				.then(messaging -> messaging.send(new GetMerkleNodes(depth, indices))
+						.then($ -> messaging.receive())
+						.then(response -> {
+							if (response == null) {
+								return Promise.ofException(new IllegalStateException("Unexpected end of stream"));
+							}
+							if (response.getClass() == MerkleNodes.class) {
+								return Promise.of(((MerkleNodes) response).getNodes());
+							}
+							if (response instanceof ServerError) {
+								return Promise.ofException(new StacklessException(CrdtStorageClient.class, ((ServerError) response).getMsg()));
+							}
+							return Promise.<List<CrdtMerkleTree.Node>>ofException(new IllegalStateException("Received message " + response + " instead of " + MerkleNodes.class.getSimpleName()));
+						})
+						.whenComplete(messaging::close));
+	}
+
+	private Promise<StreamSupplier<CrdtData<K, S>>> download(CrdtMessage request) {
 		return connect()
-				.then(messaging -> messaging.send(new Download(timestamp))
+				.then(messaging -> messaging.send(request)
 						.then($ -> messaging.receive())
 						.then(response -> {
 							if (response == null) {
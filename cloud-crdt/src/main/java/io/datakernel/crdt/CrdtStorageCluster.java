@@ -38,6 +38,7 @@ import io.datakernel.jmx.api.JmxOperation;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +46,7 @@ import java.util.*;
 import java.util.function.Function;
 
 import static io.datakernel.async.util.LogUtils.toLogger;
+import static io.datakernel.common.Preconditions.checkArgument;
 import static java.util.stream.Collectors.toList;
 
 public final class CrdtStorageCluster<I extends Comparable<I>, K extends Comparable<K>, S> implements CrdtStorage<K, S>, Initializable<CrdtStorageCluster<I, K, S>>, EventloopService, EventloopJmxMBeanEx {
@@ -56,11 +58,12 @@ public final class CrdtStorageCluster<I extends Comparable<I>, K extends Compara
 	private final Map<I, CrdtStorage<K, S>> deadClients;
 
 	private final CrdtFunction<S> function;
-	private final RendezvousHashSharder<I, K> shardingFunction;
+	private MultiSharder<K> shardingFunction;
 
 	private List<I> orderedIds;
 
 	private int replicationCount = 1;
+	private int virtualNodes;
 	private CrdtFilter<S> filter = $ -> true;
 
 	// region JMX
@@ -81,7 +84,7 @@ public final class CrdtStorageCluster<I extends Comparable<I>, K extends Compara
 		this.aliveClients = new LinkedHashMap<>(clients); // to keep order for indexed sharding
 		this.deadClients = new HashMap<>();
 		this.function = function;
-		shardingFunction = RendezvousHashSharder.create(orderedIds = new ArrayList<>(aliveClients.keySet()), replicationCount);
+		recompute();
 	}
 
 	public static <I extends Comparable<I>, K extends Comparable<K>, S> CrdtStorageCluster<I, K, S> create(
@@ -109,6 +112,18 @@ public final class CrdtStorageCluster<I extends Comparable<I>, K extends Compara
 		return this;
 	}
 
+	/**
+	 * Switches sharding of keys from rendezvous hashing to a consistent hash ring
+	 * with given number of virtual nodes per partition, so that fewer keys move
+	 * when partitions are marked dead or alive
+	 */
+	public CrdtStorageCluster<I, K, S> withConsistentHashing(int virtualNodes) {
+		checkArgument(virtualNodes > 0, "Number of virtual nodes must be positive");
+		this.virtualNodes = virtualNodes;
+		recompute();
+		return this;
+	}
+
 	public CrdtStorageCluster<I, K, S> withFilter(CrdtFilter<S> filter) {
 		this.filter = filter;
 		return this;
@@ -193,7 +208,10 @@ public final class CrdtStorageCluster<I extends Comparable<I>, K extends Compara
 	}
 
 	private void recompute() {
-		shardingFunction.recompute(orderedIds = new ArrayList<>(aliveClients.keySet()), replicationCount);
+		orderedIds = new ArrayList<>(aliveClients.keySet());
+		shardingFunction = virtualNodes == 0 ?
+				RendezvousHashSharder.create(orderedIds, replicationCount) :
+				ConsistentHashSharder.create(orderedIds, replicationCount, virtualNodes);
 	}
 
 	private <T> Promise<List<T>> connect(Function<CrdtStorage<K, S>, Promise<T>> method) {
@@ -230,8 +248,8 @@ public final class CrdtStorageCluster<I extends Comparable<I>, K extends Compara
 	}
 
 	@Override
-	public Promise<StreamSupplier<CrdtData<K, S>>> download(long timestamp) {
-		return connect(storage -> storage.download(timestamp))
+	public Promise<StreamSupplier<CrdtData<K, S>>> download(@Nullable K from, @Nullable K to, long timestamp) {
+		return connect(storage -> storage.download(from, to, timestamp))
 				.then(successes -> {
 					StreamReducerSimple<K, CrdtData<K, S>, CrdtData<K, S>, CrdtData<K, S>> reducer =
 							StreamReducerSimple.create(CrdtData::getKey, Comparator.naturalOrder(),
@@ -22,6 +22,7 @@ import io.datakernel.bytebuf.ByteBufQueue;
 import io.datakernel.common.Initializable;
 import io.datakernel.crdt.*;
 import io.datakernel.crdt.primitives.CrdtType;
+import io.datakernel.csp.AbstractChannelSupplier;
 import io.datakernel.csp.ChannelConsumer;
 import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.datastream.StreamConsumer;
@@ -169,7 +170,7 @@ public final class CrdtStorageFs<K extends Comparable<K>, S> implements CrdtStor
 	}
 
 	@Override
-	public Promise<StreamSupplier<CrdtData<K, S>>> download(long timestamp) {
+	public Promise<StreamSupplier<CrdtData<K, S>>> download(@Nullable K from, @Nullable K to, long timestamp) {
 		return Promises.toTuple(client.list("*"), tombstoneFolderClient.list("*"))
 				.map(f -> {
 					StreamReducerSimple<K, CrdtReducingData<K, S>, CrdtData<K, S>, CrdtAccumulator<S>> reducer =
@@ -180,6 +181,7 @@ public final class CrdtStorageFs<K extends Comparable<K>, S> implements CrdtStor
 					Stream<Promise<Void>> files = (timestamp == 0 ? stream : stream.filter(m -> m.getTimestamp() >= timestamp))
 							.map(meta -> ChannelSupplier.ofPromise(client.download(meta.getName()))
 									.transformWith(ChannelDeserializer.create(serializer))
+									.transformWith(supplier -> range(supplier, CrdtData::getKey, from, to))
 									.transformWith(StreamMapper.create(data -> {
 										S partial = function.extract(data.getState(), timestamp);
 										return partial != null ? new CrdtReducingData<>(data.getKey(), partial, meta.getTimestamp()) : null;
@@ -191,6 +193,7 @@ public final class CrdtStorageFs<K extends Comparable<K>, S> implements CrdtStor
 					Stream<Promise<Void>> tombstones = (timestamp == 0 ? stream : stream.filter(m -> m.getTimestamp() >= timestamp))
 							.map(meta -> ChannelSupplier.ofPromise(tombstoneFolderClient.download(meta.getName()))
 									.transformWith(ChannelDeserializer.create(serializer.getKeySerializer()))
+									.transformWith(supplier -> range(supplier, Function.identity(), from, to))
 									.transformWith(StreamMapper.create(key -> new CrdtReducingData<>(key, (S) null, meta.getTimestamp())))
 									.streamTo(reducer.newInput()));
 
@@ -202,6 +205,39 @@ public final class CrdtStorageFs<K extends Comparable<K>, S> implements CrdtStor
 				});
 	}
 
+	/**
+	 * Files are not indexed, so instead of seeking, items before the range are skipped
+	 * and the file download is closed as soon as the first item past the range is met,
+	 * relying on the fact that every file is sorted by key.
+	 */
+	private <T> StreamSupplier<T> range(StreamSupplier<T> supplier, Function<T, K> keyFn, @Nullable K from, @Nullable K to) {
+		if (from == null && to == null) {
+			return supplier;
+		}
+		ChannelSupplier<T> items = supplier.asSerialSupplier();
+		if (from != null) {
+			items = items.filter(item -> keyFn.apply(item).compareTo(from) >= 0);
+		}
+		if (to != null) {
+			ChannelSupplier<T> upstream = items;
+			items = new AbstractChannelSupplier<T>(upstream) {
+				@Override
+				protected Promise<T> doGet() {
+					return upstream.get()
+							.map(item -> {
+								if (item != null && keyFn.apply(item).compareTo(to) >= 0) {
+									// closing is posted, as the item may still be in the middle of being produced
+									eventloop.post(upstream::close);
+									return null;
+								}
+								return item;
+							});
+				}
+			};
+		}
+		return StreamSupplier.ofChannelSupplier(items);
+	}
+
 	@Override
 	public Promise<StreamConsumer<K>> remove() {
 		return tombstoneFolderClient.upload(namingStrategy.apply("tomb"))
@@ -18,10 +18,12 @@ package io.datakernel.crdt.local;
 
 import io.datakernel.async.service.EventloopService;
 import io.datakernel.common.Initializable;
+import io.datakernel.common.exception.StacklessException;
 import io.datakernel.crdt.CrdtData;
 import io.datakernel.crdt.CrdtFilter;
 import io.datakernel.crdt.CrdtFunction;
-import io.datakernel.crdt.CrdtStorage;
+import io.datakernel.crdt.CrdtMerkleStorage;
+import io.datakernel.crdt.CrdtMerkleTree;
 import io.datakernel.crdt.primitives.CrdtType;
 import io.datakernel.datastream.StreamConsumer;
 import io.datakernel.datastream.StreamSupplier;
@@ -38,14 +40,15 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.time.Duration;
-import java.util.Iterator;
-import java.util.Objects;
-import java.util.SortedMap;
+import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.stream.Stream;
 
-public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtStorage<K, S>, Initializable<CrdtStorageMap<K, S>>, EventloopService, EventloopJmxMBeanEx {
+import static java.util.stream.Collectors.toList;
+
+public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtMerkleStorage<K, S>, Initializable<CrdtStorageMap<K, S>>, EventloopService, EventloopJmxMBeanEx {
 	private static final Duration DEFAULT_SMOOTHING_WINDOW = Duration.ofMinutes(5);
+	private static final StacklessException NO_MERKLE_TREE = new StacklessException(CrdtStorageMap.class, "Merkle tree is not maintained by this storage");
 
 	private final Eventloop eventloop;
 	private final CrdtFunction<S> function;
@@ -54,6 +57,16 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 
 	private final SortedMap<K, CrdtData<K, S>> storage = new ConcurrentSkipListMap<>();
 
+	/**
+	 * Keys of states which were created by merges of this storage and have not been exposed since,
+	 * only these states are merged into in place. Incoming states are stored as is and still belong to
+	 * whoever has put them, and states given away by downloads or gets may be retained by their receivers.
+	 */
+	private final Set<K> ownedStates = new HashSet<>();
+
+	@Nullable
+	private CrdtMerkleTree<K, S> merkleTree;
+
 	// region JMX
 	private boolean detailedStats;
 
@@ -82,6 +95,23 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 		return new CrdtStorageMap<>(eventloop, CrdtFunction.<S>ofCrdtType());
 	}
 
+	/**
+	 * Makes this storage maintain given Merkle tree, so that it can be synchronized
+	 * with other replicas by {@link io.datakernel.crdt.CrdtMerkleSync}.
+	 * Equal states must have equal hashes in the tree, so unless the state serializer is canonical,
+	 * the tree should be created with an order-independent {@link CrdtMerkleTree#withStateHash state hash}.
+	 */
+	public CrdtStorageMap<K, S> withMerkleTree(CrdtMerkleTree<K, S> merkleTree) {
+		storage.values().forEach(data -> merkleTree.add(data.getKey(), data.getState()));
+		this.merkleTree = merkleTree;
+		return this;
+	}
+
+	@Nullable
+	public CrdtMerkleTree<K, S> getMerkleTree() {
+		return merkleTree;
+	}
+
 	@NotNull
 	@Override
 	public Eventloop getEventloop() {
@@ -97,8 +127,8 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 	}
 
 	@Override
-	public Promise<StreamSupplier<CrdtData<K, S>>> download(long timestamp) {
-		return Promise.of(StreamSupplier.ofStream(extract(timestamp))
+	public Promise<StreamSupplier<CrdtData<K, S>>> download(@Nullable K from, @Nullable K to, long timestamp) {
+		return Promise.of(StreamSupplier.ofStream(extract(range(from, to), timestamp).peek(this::disown))
 				.transformWith(detailedStats ? downloadStatsDetailed : downloadStats)
 				.withLateBinding());
 	}
@@ -106,11 +136,50 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 	@SuppressWarnings("deprecation") // StreamConsumer#of
 	@Override
 	public Promise<StreamConsumer<K>> remove() {
-		return Promise.of(StreamConsumer.<K>of(storage::remove)
+		return Promise.of(StreamConsumer.<K>of(this::doRemove)
 				.transformWith(detailedStats ? removeStatsDetailed : removeStats)
 				.withLateBinding());
 	}
 
+	@Override
+	public Promise<List<CrdtMerkleTree.Node>> getMerkleNodes(int depth, List<Integer> indices) {
+		if (merkleTree == null) {
+			return Promise.ofException(NO_MERKLE_TREE);
+		}
+		if (merkleTree.getDepth() != depth) {
+			return Promise.ofException(depthMismatch(depth));
+		}
+		for (int index : indices) {
+			if (index < 1 || index >= 2 << depth) {
+				return Promise.ofException(new StacklessException(CrdtStorageMap.class,
+						"Merkle tree node index " + index + " is out of range [1, " + (2 << depth) + ')'));
+			}
+		}
+		return Promise.of(indices.stream()
+				.map(merkleTree::getNode)
+				.collect(toList()));
+	}
+
+	@Override
+	public Promise<StreamSupplier<CrdtData<K, S>>> downloadBuckets(int depth, Set<Integer> buckets) {
+		if (merkleTree == null) {
+			return Promise.ofException(NO_MERKLE_TREE);
+		}
+		if (merkleTree.getDepth() != depth) {
+			return Promise.ofException(depthMismatch(depth));
+		}
+		CrdtMerkleTree<K, S> tree = merkleTree;
+		return Promise.of(StreamSupplier.ofStream(storage.values().stream()
+				.filter(data -> buckets.contains(tree.getBucket(data.getKey())))
+				.peek(this::disown))
+				.transformWith(detailedStats ? downloadStatsDetailed : downloadStats)
+				.withLateBinding());
+	}
+
+	private StacklessException depthMismatch(int depth) {
+		return new StacklessException(CrdtStorageMap.class, "Merkle tree depth mismatch, expected " + depth + ", actual " + merkleTree.getDepth());
+	}
+
 	@Override
 	public Promise<Void> ping() {
 		return Promise.complete();
@@ -128,8 +197,21 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 		return Promise.complete();
 	}
 
-	private Stream<CrdtData<K, S>> extract(long timestamp) {
-		Stream<CrdtData<K, S>> stream = storage.values().stream();
+	private SortedMap<K, CrdtData<K, S>> range(@Nullable K from, @Nullable K to) {
+		if (from != null && to != null) {
+			return from.compareTo(to) < 0 ? storage.subMap(from, to) : Collections.emptySortedMap();
+		}
+		if (from != null) {
+			return storage.tailMap(from);
+		}
+		if (to != null) {
+			return storage.headMap(to);
+		}
+		return storage;
+	}
+
+	private Stream<CrdtData<K, S>> extract(SortedMap<K, CrdtData<K, S>> map, long timestamp) {
+		Stream<CrdtData<K, S>> stream = map.values().stream();
 		if (timestamp == 0) {
 			return stream;
 		}
@@ -143,10 +225,57 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 
 	private void doPut(CrdtData<K, S> data) {
 		K key = data.getKey();
-		storage.merge(key, data, (a, b) -> {
-			S merged = function.merge(a.getState(), b.getState());
-			return filter.test(merged) ? new CrdtData<>(key, merged) : null;
-		});
+		CrdtData<K, S> previous = storage.get(key);
+		if (previous == null) {
+			storage.put(key, data);
+			if (merkleTree != null) {
+				merkleTree.add(key, data.getState());
+			}
+			return;
+		}
+		S state = previous.getState();
+		if (merkleTree != null) {
+			// state is removed from the tree before merging, as merge could modify it in place
+			merkleTree.remove(key, state);
+		}
+		boolean owned = ownedStates.contains(key);
+		S merged = owned ?
+				function.mergeInPlace(state, data.getState()) :
+				function.merge(state, data.getState());
+		if (!filter.test(merged)) {
+			storage.remove(key);
+			ownedStates.remove(key);
+			return;
+		}
+		if (merged != state) {
+			storage.put(key, new CrdtData<>(key, merged));
+			// a new state created by the merge is owned, unless it is the incoming one
+			owned = merged != data.getState();
+		}
+		if (owned) {
+			ownedStates.add(key);
+		} else {
+			ownedStates.remove(key);
+		}
+		if (merkleTree != null) {
+			merkleTree.add(key, merged);
+		}
+	}
+
+	private boolean doRemove(K key) {
+		CrdtData<K, S> removed = storage.remove(key);
+		if (removed == null) {
+			return false;
+		}
+		ownedStates.remove(key);
+		if (merkleTree != null) {
+			merkleTree.remove(key, removed.getState());
+		}
+		return true;
+	}
+
+	private void disown(CrdtData<K, S> data) {
+		ownedStates.remove(data.getKey());
 	}
 
 	public void put(K key, S state) {
@@ -162,16 +291,20 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 	public S get(K key) {
 		singleGets.recordEvent();
 		CrdtData<K, S> data = storage.get(key);
-		return data != null ? data.getState() : null;
+		if (data == null) {
+			return null;
+		}
+		ownedStates.remove(key);
+		return data.getState();
 	}
 
 	public boolean remove(K key) {
 		singleRemoves.recordEvent();
-		return storage.remove(key) != null;
+		return doRemove(key);
 	}
 
 	public Iterator<CrdtData<K, S>> iterator(long timestamp) {
-		Iterator<CrdtData<K, S>> iterator = extract(timestamp).iterator();
+		Iterator<CrdtData<K, S>> iterator = extract(storage, timestamp).iterator();
 
 		// had to hook the remove so it would be reflected in the storage
 		return new Iterator<CrdtData<K, S>>() {
@@ -184,7 +317,9 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 
 			@Override
 			public CrdtData<K, S> next() {
-				return current = iterator.next();
+				current = iterator.next();
+				disown(current);
+				return current;
 			}
 
 			@Override
@@ -39,6 +39,7 @@ import io.datakernel.promise.Promise;
 import io.datakernel.serializer.BinaryInput;
 import io.datakernel.serializer.BinarySerializer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.rocksdb.*;
 
 import java.time.Duration;
@@ -139,7 +140,8 @@ public final class CrdtStorageRocksDB<K extends Comparable<K>, S> implements Crd
 
 		// custom merge operators in RocksJava are yet to come
 		if (possibleState != null) {
-			state = function.merge(state, stateSerializer.decode(possibleState, 0));
+			// decoded state is not shared with anyone, so the incoming state is merged into it in place
+			state = function.mergeInPlace(stateSerializer.decode(possibleState, 0), state);
 			if (!filter.test(state)) {
 				try {
 					db.delete(keyBytes);
@@ -178,23 +180,32 @@ public final class CrdtStorageRocksDB<K extends Comparable<K>, S> implements Crd
 	}
 
 	@Override
-	public Promise<StreamSupplier<CrdtData<K, S>>> download(long timestamp) {
+	public Promise<StreamSupplier<CrdtData<K, S>>> download(@Nullable K from, @Nullable K to, long timestamp) {
 		return Promise.ofBlockingCallable(executor,
 				() -> {
 					RocksIterator iterator = db.newIterator();
-					iterator.seekToFirst();
+					if (from != null) {
+						ByteBuf buf = ByteBufPool.allocate(bufferSize);
+						buf.tail(keySerializer.encode(buf.array(), buf.tail(), from));
+						iterator.seek(buf.asArray());
+					} else {
+						iterator.seekToFirst();
+					}
 					return iterator;
 				})
 				.map(iterator -> StreamSupplier.ofChannelSupplier(ChannelSupplier.of(
 						() -> Promise.ofBlockingCallable(executor, () -> {
 							while (iterator.isValid()) {
-								byte[] keyBytes = iterator.key();
+								K key = keySerializer.decode(iterator.key(), 0);
+								if (to != null && key.compareTo(to) >= 0) {
+									return null;
+								}
 								byte[] stateBytes = iterator.value();
 								iterator.next();
 
 								S partial = function.extract(stateSerializer.decode(stateBytes, 0), timestamp);
 								if (partial != null) {
-									return new CrdtData<>(keySerializer.decode(keyBytes, 0), partial);
+									return new CrdtData<>(key, partial);
 								}
 							}
 							return null;
@@ -3,4 +3,15 @@ package io.datakernel.crdt.primitives;
 public interface CrdtMergable<S extends CrdtMergable<S>> {
 
 	S merge(S other);
+
+	/**
+	 * Merges other state into this one, possibly modifying this state instead of copying it,
+	 * so that merging a small delta takes time proportional to the delta rather than to this state.
+	 * <p>
+	 * This method may only be called on a state which is not shared with anyone else, e.g. on a state
+	 * created by {@link #merge} which is neither of its arguments. The other state is never modified.
+	 */
+	default S mergeInPlace(S other) {
+		return merge(other);
+	}
 }
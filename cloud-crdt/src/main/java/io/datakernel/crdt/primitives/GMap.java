@@ -23,13 +23,41 @@ public final class GMap<K, V extends CrdtMergable<V>> implements Map<K, V>, Crdt
 		this(new HashMap<>());
 	}
 
+	/**
+	 * Copies the bigger of the maps and merges the smaller one into it,
+	 * which takes time proportional to the size of the bigger map even when merging a small delta
+	 * (see {@link #putDelta}), see {@link #mergeInPlace}.
+	 */
 	@Override
 	public GMap<K, V> merge(GMap<K, V> other) {
-		HashMap<K, V> newMap = new HashMap<>(map);
-		other.map.forEach((k, v) -> newMap.merge(k, v, CrdtMergable::merge));
+		Map<K, V> bigger = map.size() >= other.map.size() ? map : other.map;
+		Map<K, V> smaller = bigger == map ? other.map : map;
+		HashMap<K, V> newMap = new HashMap<>(bigger);
+		smaller.forEach((k, v) -> newMap.merge(k, v, CrdtMergable::merge));
 		return new GMap<>(newMap);
 	}
 
+	/**
+	 * Merges entries of the other map into this one in time proportional to the other map.
+	 * Values are merged with {@link CrdtMergable#merge}, as they may be shared with other maps.
+	 */
+	@Override
+	public GMap<K, V> mergeInPlace(GMap<K, V> other) {
+		other.map.forEach((k, v) -> map.merge(k, v, CrdtMergable::merge));
+		return this;
+	}
+
+	/**
+	 * Delta mutator, which merges a value into this map and returns a delta state,
+	 * merging which into another replica has the same effect as this put.
+	 */
+	public GMap<K, V> putDelta(K key, V value) {
+		put(key, value);
+		GMap<K, V> delta = new GMap<>();
+		delta.map.put(key, value);
+		return delta;
+	}
+
 	@Override
 	public int size() {
 		return map.size();
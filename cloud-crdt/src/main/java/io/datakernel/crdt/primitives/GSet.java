@@ -41,13 +41,41 @@ public final class GSet<E> implements Set<E>, CrdtMergable<GSet<E>> {
 		return set;
 	}
 
+	/**
+	 * Returns the bigger of the sets if it already includes the smaller one, which takes time proportional
+	 * to the smaller set. Otherwise copies the bigger set, which takes time proportional to its size,
+	 * so merging a new delta (see {@link #addDelta}) into a big set this way is costly, see {@link #mergeInPlace}.
+	 */
 	@Override
 	public GSet<E> merge(GSet<E> other) {
-		Set<E> newSet = new HashSet<>(set);
-		newSet.addAll(other.set);
+		Set<E> bigger = set.size() >= other.set.size() ? set : other.set;
+		Set<E> smaller = bigger == set ? other.set : set;
+		if (bigger.containsAll(smaller)) {
+			return bigger == set ? this : other;
+		}
+		Set<E> newSet = new HashSet<>(bigger);
+		newSet.addAll(smaller);
 		return new GSet<>(newSet);
 	}
 
+	/**
+	 * Adds elements of the other set to this one in time proportional to the other set.
+	 */
+	@Override
+	public GSet<E> mergeInPlace(GSet<E> other) {
+		set.addAll(other.set);
+		return this;
+	}
+
+	/**
+	 * Delta mutator, which adds an element to this set and returns a delta state,
+	 * merging which into another replica has the same effect as this addition.
+	 */
+	public GSet<E> addDelta(E e) {
+		set.add(e);
+		return GSet.of(e);
+	}
+
 	@Override
 	public int size() {
 		return set.size();
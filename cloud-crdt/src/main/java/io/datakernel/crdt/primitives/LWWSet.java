@@ -51,15 +51,75 @@ public final class LWWSet<E> implements Set<E>, CrdtType<LWWSet<E>> {
 		return set;
 	}
 
+	/**
+	 * Returns the bigger of the sets if it already includes the smaller one, which takes time proportional
+	 * to the smaller set. Otherwise copies the bigger set, which takes time proportional to its size,
+	 * so merging a new delta (see {@link #addDelta} and {@link #removeDelta}) into a big set this way
+	 * is costly, see {@link #mergeInPlace}.
+	 */
 	@Override
 	public LWWSet<E> merge(LWWSet<E> other) {
-		Map<E, Timestamps> newSet = new HashMap<>(set);
-		for (Entry<E, Timestamps> entry : other.set.entrySet()) {
-			newSet.merge(entry.getKey(), entry.getValue(), (ts1, ts2) -> new Timestamps(max(ts1.added, ts2.added), max(ts1.removed, ts2.removed)));
+		LWWSet<E> bigger = set.size() >= other.set.size() ? this : other;
+		LWWSet<E> smaller = bigger == this ? other : this;
+		if (bigger.includes(smaller)) {
+			return bigger;
 		}
+		Map<E, Timestamps> newSet = new HashMap<>(bigger.set);
+		mergeTimestamps(newSet, smaller.set);
 		return new LWWSet<>(newSet);
 	}
 
+	/**
+	 * Merges timestamps of the other set into this one in time proportional to the other set.
+	 */
+	@Override
+	public LWWSet<E> mergeInPlace(LWWSet<E> other) {
+		mergeTimestamps(set, other.set);
+		return this;
+	}
+
+	private static <E> void mergeTimestamps(Map<E, Timestamps> target, Map<E, Timestamps> source) {
+		// timestamps may be shared with the merged sets, so they are replaced rather than modified
+		for (Entry<E, Timestamps> entry : source.entrySet()) {
+			target.merge(entry.getKey(), entry.getValue(), (ts1, ts2) -> new Timestamps(max(ts1.added, ts2.added), max(ts1.removed, ts2.removed)));
+		}
+	}
+
+	private boolean includes(LWWSet<E> other) {
+		for (Entry<E, Timestamps> entry : other.set.entrySet()) {
+			Timestamps timestamps = set.get(entry.getKey());
+			if (timestamps == null || timestamps.added < entry.getValue().added || timestamps.removed < entry.getValue().removed) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Delta mutator, which adds an element to this set and returns a delta state,
+	 * merging which into another replica has the same effect as this addition.
+	 */
+	public LWWSet<E> addDelta(E e) {
+		add(e);
+		return delta(e);
+	}
+
+	/**
+	 * Delta mutator, which removes an element from this set and returns a delta state,
+	 * merging which into another replica has the same effect as this removal.
+	 */
+	public LWWSet<E> removeDelta(E e) {
+		remove(e);
+		return delta(e);
+	}
+
+	private LWWSet<E> delta(E e) {
+		Timestamps timestamps = set.get(e);
+		Map<E, Timestamps> delta = new HashMap<>();
+		delta.put(e, new Timestamps(timestamps.added, timestamps.removed));
+		return new LWWSet<>(delta);
+	}
+
 	@Override
 	@Nullable
 	public LWWSet<E> extract(long timestamp) {
@@ -49,6 +49,22 @@ public final class TPSet<E> implements Set<E>, CrdtMergable<TPSet<E>> {
 		return new TPSet<>(adds.merge(other.adds), removes.merge(other.removes));
 	}
 
+	/**
+	 * Delta mutator, which adds an element to this set and returns a delta state,
+	 * merging which into another replica has the same effect as this addition.
+	 */
+	public TPSet<E> addDelta(E e) {
+		return new TPSet<>(adds.addDelta(e), new GSet<>());
+	}
+
+	/**
+	 * Delta mutator, which removes an element from this set and returns a delta state,
+	 * merging which into another replica has the same effect as this removal.
+	 */
+	public TPSet<E> removeDelta(E e) {
+		return new TPSet<>(new GSet<>(), removes.addDelta(e));
+	}
+
 	@Override
 	public Stream<E> stream() {
 		return adds.stream().filter(item -> !removes.contains(item));
@@ -17,6 +17,7 @@
 package io.datakernel.crdt;
 
 import io.datakernel.crdt.local.CrdtStorageFs;
+import io.datakernel.crdt.local.CrdtStorageMap;
 import io.datakernel.crdt.local.CrdtStorageRocksDB;
 import io.datakernel.datastream.StreamConsumer;
 import io.datakernel.datastream.StreamSupplier;
@@ -44,6 +45,7 @@ import java.util.concurrent.Executors;
 import static io.datakernel.promise.TestUtils.await;
 import static io.datakernel.serializer.BinarySerializers.INT_SERIALIZER;
 import static io.datakernel.serializer.BinarySerializers.UTF8_SERIALIZER;
+import static java.util.Collections.emptyList;
 import static org.junit.Assert.assertEquals;
 
 @RunWith(Parameterized.class)
@@ -97,6 +99,11 @@ public class CrdtStorageAPITest {
 							return CrdtStorageFs.create(eventloop, LocalFsClient.create(eventloop, testFolder), serializer, crdtFunction);
 						}
 				},
+				new Object[]{
+						"MapCrdtClient",
+						(ICrdtClientFactory<String, TimestampContainer<Integer>>) (executor, testFolder, crdtFunction) ->
+								CrdtStorageMap.create(Eventloop.getCurrentEventloop(), crdtFunction)
+				},
 				new Object[]{
 						"RocksDBCrdtClient",
 						(ICrdtClientFactory<String, TimestampContainer<Integer>>) (executor, testFolder, crdtFunction) -> {
@@ -158,4 +165,44 @@ public class CrdtStorageAPITest {
 		System.out.println(list);
 		assertEquals(expected, list);
 	}
+
+	@Test
+	public void testRangeDownload() {
+		await(StreamSupplier.of(
+				new CrdtData<>("a_1", new TimestampContainer<>(123, 1)),
+				new CrdtData<>("b_1", new TimestampContainer<>(123, 2)),
+				new CrdtData<>("b_3", new TimestampContainer<>(123, 3))).streamTo(client.upload()));
+		await(StreamSupplier.of(
+				new CrdtData<>("b_2", new TimestampContainer<>(123, 4)),
+				new CrdtData<>("c_1", new TimestampContainer<>(123, 5))).streamTo(client.upload()));
+
+		assertEquals(Arrays.asList(
+				new CrdtData<>("b_1", new TimestampContainer<>(123, 2)),
+				new CrdtData<>("b_2", new TimestampContainer<>(123, 4))),
+				await(await(client.download("b_1", "b_3", 0)).toList()));
+		assertEquals(Arrays.asList(
+				new CrdtData<>("b_3", new TimestampContainer<>(123, 3)),
+				new CrdtData<>("c_1", new TimestampContainer<>(123, 5))),
+				await(await(client.download("b_25", null, 0)).toList()));
+		assertEquals(Arrays.asList(
+				new CrdtData<>("a_1", new TimestampContainer<>(123, 1)),
+				new CrdtData<>("b_1", new TimestampContainer<>(123, 2))),
+				await(await(client.download(null, "b_2", 0)).toList()));
+		assertEquals(emptyList(), await(await(client.download("c", "b", 0)).toList()));
+	}
+
+	@Test
+	public void testPrefixDownload() {
+		await(StreamSupplier.of(
+				new CrdtData<>("tenant1/a", new TimestampContainer<>(123, 1)),
+				new CrdtData<>("tenant1/b", new TimestampContainer<>(123, 2)),
+				new CrdtData<>("tenant10/a", new TimestampContainer<>(123, 3)),
+				new CrdtData<>("tenant2/a", new TimestampContainer<>(123, 4))).streamTo(client.upload()));
+
+		assertEquals(Arrays.asList(
+				new CrdtData<>("tenant1/a", new TimestampContainer<>(123, 1)),
+				new CrdtData<>("tenant1/b", new TimestampContainer<>(123, 2))),
+				await(await(CrdtStorage.downloadPrefix(client, "tenant1/", 0)).toList()));
+		assertEquals(4, await(await(CrdtStorage.downloadPrefix(client, "", 0)).toList()).size());
+	}
 }
@@ -36,6 +36,7 @@ import static io.datakernel.promise.TestUtils.await;
 import static io.datakernel.serializer.BinarySerializers.INT_SERIALIZER;
 import static io.datakernel.serializer.BinarySerializers.UTF8_SERIALIZER;
 import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
 
 public final class TestCrdtCluster {
 	private static final BinarySerializer<Set<Integer>> INT_SET_SERIALIZER = BinarySerializers.ofSet(INT_SERIALIZER);
@@ -129,4 +130,63 @@ public final class TestCrdtCluster {
 			storage.iterator().forEachRemaining(System.out::println);
 		});
 	}
+
+	@Test
+	public void testUploadWithConsistentHashing() {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		CrdtFunction<TimestampContainer<Integer>> function = TimestampContainer.createCrdtFunction(Integer::max);
+
+		Map<String, CrdtStorageMap<String, TimestampContainer<Integer>>> storages = new LinkedHashMap<>();
+		for (int i = 0; i < 5; i++) {
+			storages.put("storage_" + i, CrdtStorageMap.create(eventloop, function));
+		}
+		CrdtStorageCluster<String, String, TimestampContainer<Integer>> cluster = CrdtStorageCluster.create(eventloop, storages, function)
+				.withReplicationCount(2)
+				.withConsistentHashing(64);
+
+		List<CrdtData<String, TimestampContainer<Integer>>> data = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			data.add(new CrdtData<>("key_" + i, TimestampContainer.now(i)));
+		}
+		await(StreamSupplier.ofIterable(data).streamTo(StreamConsumer.ofPromise(cluster.upload())));
+
+		for (CrdtData<String, TimestampContainer<Integer>> item : data) {
+			long replicas = storages.values().stream()
+					.filter(storage -> storage.get(item.getKey()) != null)
+					.count();
+			assertEquals(2, replicas);
+		}
+	}
+
+	@Test
+	public void testRangeDownload() throws IOException {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		CrdtFunction<TimestampContainer<Integer>> function = TimestampContainer.createCrdtFunction(Integer::max);
+		CrdtDataSerializer<String, TimestampContainer<Integer>> serializer = new CrdtDataSerializer<>(UTF8_SERIALIZER, TimestampContainer.createSerializer(INT_SERIALIZER));
+
+		List<CrdtServer<String, TimestampContainer<Integer>>> servers = new ArrayList<>();
+		Map<String, CrdtStorage<String, TimestampContainer<Integer>>> clients = new HashMap<>();
+		for (int i = 0; i < 3; i++) {
+			CrdtStorageMap<String, TimestampContainer<Integer>> storage = CrdtStorageMap.create(eventloop, function);
+			for (int j = 0; j < 10; j++) {
+				storage.put("key_" + j, new TimestampContainer<>(123, i * j));
+			}
+			InetSocketAddress address = new InetSocketAddress(5555 + i);
+			CrdtServer<String, TimestampContainer<Integer>> server = CrdtServer.create(eventloop, storage, serializer);
+			server.withListenAddresses(address).listen();
+			servers.add(server);
+			clients.put("server_" + i, CrdtStorageClient.create(eventloop, address, serializer));
+		}
+		CrdtStorageCluster<String, String, TimestampContainer<Integer>> cluster = CrdtStorageCluster.create(eventloop, clients, function);
+
+		List<CrdtData<String, TimestampContainer<Integer>>> result = await(cluster.download("key_3", "key_6", 0)
+				.then(StreamSupplier::toList)
+				.whenComplete(() -> servers.forEach(AbstractServer::close)));
+
+		assertEquals(Arrays.asList(
+				new CrdtData<>("key_3", new TimestampContainer<>(123, 6)),
+				new CrdtData<>("key_4", new TimestampContainer<>(123, 8)),
+				new CrdtData<>("key_5", new TimestampContainer<>(123, 10))),
+				result);
+	}
 }
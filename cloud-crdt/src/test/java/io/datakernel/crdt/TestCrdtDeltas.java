@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.crdt;
+
+import io.datakernel.crdt.local.CrdtStorageMap;
+import io.datakernel.crdt.primitives.GCounterInt;
+import io.datakernel.crdt.primitives.GMap;
+import io.datakernel.crdt.primitives.GSet;
+import io.datakernel.crdt.primitives.LWWSet;
+import io.datakernel.crdt.primitives.TPSet;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.stream.IntStream;
+
+import static io.datakernel.promise.TestUtils.await;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.*;
+
+public final class TestCrdtDeltas {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Test
+	public void testGSetDelta() {
+		GSet<Integer> replica1 = new GSet<>();
+		IntStream.range(0, 1000).forEach(replica1::add);
+		GSet<Integer> replica2 = GSet.of();
+		replica2 = replica2.merge(replica1);
+
+		GSet<Integer> delta = replica1.addDelta(1000);
+		assertEquals(1, delta.size());
+
+		replica2 = replica2.merge(delta);
+		assertEquals(new HashSet<>(replica1), new HashSet<>(replica2));
+
+		// merging a delta which is already included does not copy the state
+		assertSame(replica2, replica2.merge(delta));
+		assertSame(replica2, delta.merge(replica2));
+	}
+
+	@Test
+	public void testTPSetDelta() {
+		TPSet<String> replica1 = TPSet.of("a", "b");
+		TPSet<String> replica2 = TPSet.of("a", "b");
+
+		replica2 = replica2.merge(replica1.addDelta("c"));
+		replica2 = replica2.merge(replica1.removeDelta("a"));
+
+		assertEquals(new HashSet<>(asList("b", "c")), new HashSet<>(replica1));
+		assertEquals(new HashSet<>(replica1), new HashSet<>(replica2));
+	}
+
+	@Test
+	public void testLWWSetDelta() {
+		LWWSet<String> replica1 = LWWSet.of("a", "b", "c");
+		LWWSet<String> replica2 = new LWWSet<String>().merge(replica1);
+
+		LWWSet<String> removeDelta = replica1.removeDelta("a");
+		LWWSet<String> addDelta = replica1.addDelta("d");
+		assertEquals(1, addDelta.size());
+
+		// deltas can be merged together before being shipped
+		replica2 = replica2.merge(addDelta.merge(removeDelta));
+		assertEquals(replica1.stream().collect(toSet()), replica2.stream().collect(toSet()));
+		assertSame(replica2, replica2.merge(addDelta));
+	}
+
+	@Test
+	public void testGMapDelta() {
+		GMap<String, GCounterInt> replica1 = new GMap<>();
+		GMap<String, GCounterInt> replica2 = new GMap<>();
+		GCounterInt counter = new GCounterInt(2);
+		counter.increment(0);
+		replica2 = replica2.merge(replica1.putDelta("x", counter));
+
+		GCounterInt other = new GCounterInt(2);
+		other.increment(1);
+		other.increment(1);
+		replica2 = replica2.merge(replica1.putDelta("x", other));
+
+		assertEquals(3, replica1.get("x").value());
+		assertEquals(3, replica2.get("x").value());
+	}
+
+	@Test
+	public void testStorageMergesOnlyOwnedStatesInPlace() {
+		CrdtStorageMap<String, LWWSet<Integer>> storage = CrdtStorageMap.create(Eventloop.getCurrentEventloop());
+		LWWSet<Integer> first = LWWSet.of(1);
+		LWWSet<Integer> second = LWWSet.of(2);
+		LWWSet<Integer> third = LWWSet.of(3);
+
+		// incoming states are never modified, the state created by the first merge is modified in place
+		storage.put("key", first);
+		storage.put("key", second);
+		storage.put("key", third);
+		assertEquals(new HashSet<>(asList(1)), first.stream().collect(toSet()));
+		assertEquals(new HashSet<>(asList(2)), second.stream().collect(toSet()));
+		assertEquals(new HashSet<>(asList(3)), third.stream().collect(toSet()));
+
+		// a state which has been given away is copied on the next merge
+		LWWSet<Integer> state = storage.get("key");
+		storage.put("key", LWWSet.of(4));
+		assertEquals(new HashSet<>(asList(1, 2, 3)), state.stream().collect(toSet()));
+		assertEquals(new HashSet<>(asList(1, 2, 3, 4)), storage.get("key").stream().collect(toSet()));
+	}
+
+	@Test
+	public void testReplicator() {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		CrdtFunction<LWWSet<Integer>> function = CrdtFunction.ofCrdtType();
+		CrdtStorageMap<String, LWWSet<Integer>> local = CrdtStorageMap.create(eventloop, function);
+		CrdtStorageMap<String, LWWSet<Integer>> target = CrdtStorageMap.create(eventloop, function);
+		CrdtDeltaReplicator<String, LWWSet<Integer>> replicator = CrdtDeltaReplicator.create(eventloop, local, target, function)
+				.withFullSyncInterval(3);
+
+		LWWSet<Integer> set = new LWWSet<>();
+		await(replicator.put("key", set.addDelta(1)));
+		await(replicator.put("key", set.addDelta(2)));
+		await(replicator.put("other", LWWSet.of(3)));
+		assertEquals(2, replicator.getBufferedDeltas());
+		assertNull(target.get("key"));
+
+		await(replicator.flush());
+		assertEquals(0, replicator.getBufferedDeltas());
+		assertEquals(2, replicator.getShippedDeltas());
+		assertEquals(new HashSet<>(asList(1, 2)), target.get("key").stream().collect(toSet()));
+		assertEquals(new HashSet<>(asList(1, 2)), local.get("key").stream().collect(toSet()));
+
+		// an update which target has missed is delivered by the full sync
+		local.put("missed", LWWSet.of(4));
+		await(replicator.put("key", set.addDelta(5)));
+		await(replicator.flush());
+		assertNull(target.get("missed"));
+		await(replicator.flush());
+		assertEquals(new HashSet<>(asList(1, 2, 5)), target.get("key").stream().collect(toSet()));
+		assertEquals(new HashSet<>(asList(4)), target.get("missed").stream().collect(toSet()));
+		assertEquals(3, replicator.getShippedDeltas());
+	}
+
+	@Test
+	public void testReplicatorStopShipsAllDeltas() {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		CrdtFunction<LWWSet<Integer>> function = CrdtFunction.ofCrdtType();
+		CrdtStorageMap<String, LWWSet<Integer>> local = CrdtStorageMap.create(eventloop, function);
+		CrdtStorageMap<String, LWWSet<Integer>> target = CrdtStorageMap.create(eventloop, function);
+		CrdtDeltaReplicator<String, LWWSet<Integer>> replicator = CrdtDeltaReplicator.create(eventloop, local, target, function)
+				.withFullSyncInterval(0);
+
+		LWWSet<Integer> set = new LWWSet<>();
+		await(replicator.put("key", set.addDelta(1)));
+		// deltas put while a flush is in progress are shipped by the stop as well
+		replicator.flush();
+		await(replicator.put("other", LWWSet.of(2)));
+
+		await(replicator.stop());
+		assertEquals(0, replicator.getBufferedDeltas());
+		assertEquals(new HashSet<>(asList(1)), target.get("key").stream().collect(toSet()));
+		assertEquals(new HashSet<>(asList(2)), target.get("other").stream().collect(toSet()));
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.crdt;
+
+import io.datakernel.crdt.local.CrdtStorageMap;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.serializer.BinarySerializers;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.*;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static io.datakernel.serializer.BinarySerializers.INT_SERIALIZER;
+import static io.datakernel.serializer.BinarySerializers.UTF8_SERIALIZER;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public final class TestCrdtMerkleSync {
+	private static final CrdtDataSerializer<String, TimestampContainer<Set<Integer>>> SERIALIZER =
+			new CrdtDataSerializer<>(UTF8_SERIALIZER, TimestampContainer.createSerializer(BinarySerializers.ofSet(INT_SERIALIZER)));
+
+	// merges in place, so that tree updates have to be done before merging
+	private static final CrdtFunction<TimestampContainer<Set<Integer>>> UNION = TimestampContainer.createCrdtFunction((a, b) -> {
+		a.addAll(b);
+		return a;
+	});
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Test
+	public void testTreeIsUpdatedIncrementally() {
+		CrdtStorageMap<String, TimestampContainer<Set<Integer>>> first = createStorage();
+		CrdtStorageMap<String, TimestampContainer<Set<Integer>>> second = createStorage();
+		CrdtMerkleTree<String, TimestampContainer<Set<Integer>>> firstTree = first.getMerkleTree();
+		CrdtMerkleTree<String, TimestampContainer<Set<Integer>>> secondTree = second.getMerkleTree();
+		assert firstTree != null && secondTree != null;
+
+		for (int i = 0; i < 100; i++) {
+			first.put("key_" + i, state(i));
+			first.put("key_" + i, state(i + 1));
+		}
+		for (int i = 99; i >= 0; i--) {
+			second.put("key_" + i, state(i + 1));
+			second.put("key_" + i, state(i));
+		}
+		assertEquals(firstTree.getNode(1), secondTree.getNode(1));
+
+		second.put("key_42", state(1000));
+		assertNotEquals(firstTree.getDigest(1), secondTree.getDigest(1));
+		int leaf = secondTree.getLeafCount() + secondTree.getBucket("key_42");
+		assertNotEquals(firstTree.getDigest(leaf), secondTree.getDigest(leaf));
+
+		first.put("key_42", state(1000));
+		assertEquals(firstTree.getNode(1), secondTree.getNode(1));
+
+		first.remove("key_0");
+		second.remove("key_0");
+		assertEquals(firstTree.getNode(1), secondTree.getNode(1));
+
+		for (int i = 0; i < 100; i++) {
+			first.remove("key_" + i);
+		}
+		assertEquals(new CrdtMerkleTree.Node(0, 0), firstTree.getNode(1));
+	}
+
+	@Test
+	public void testSyncIdenticalReplicas() {
+		CrdtStorageMap<String, TimestampContainer<Set<Integer>>> local = createStorage();
+		CrdtStorageMap<String, TimestampContainer<Set<Integer>>> remote = createStorage();
+		for (int i = 0; i < 100; i++) {
+			local.put("key_" + i, state(i));
+			remote.put("key_" + i, state(i));
+		}
+		CrdtMerkleSync<String, TimestampContainer<Set<Integer>>> sync = CrdtMerkleSync.create(Eventloop.getCurrentEventloop(), local, remote);
+
+		await(sync.sync());
+
+		assertEquals(0, sync.getLastDifferingBuckets());
+		assertEquals(0, sync.getLastTransferredBytes());
+		assertTrue(sync.getLastSavedBytes() > 0);
+	}
+
+	@Test
+	public void testSyncOverNetwork() throws IOException {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		CrdtStorageMap<String, TimestampContainer<Set<Integer>>> local = createStorage();
+		CrdtStorageMap<String, TimestampContainer<Set<Integer>>> remote = createStorage();
+		for (int i = 0; i < 1000; i++) {
+			local.put("key_" + i, state(i));
+			remote.put("key_" + i, state(i));
+		}
+		local.put("key_10", state(-1));
+		local.put("only_local", state(1));
+		remote.put("key_500", state(-2));
+		remote.put("only_remote", state(2));
+
+		InetSocketAddress address = new InetSocketAddress(5555);
+		CrdtServer<String, TimestampContainer<Set<Integer>>> server = CrdtServer.create(eventloop, remote, SERIALIZER);
+		server.withListenAddress(address).listen();
+		CrdtStorageClient<String, TimestampContainer<Set<Integer>>> client = CrdtStorageClient.create(eventloop, address, SERIALIZER);
+
+		CrdtMerkleSync<String, TimestampContainer<Set<Integer>>> sync = CrdtMerkleSync.create(eventloop, local, client);
+		await(sync.sync().whenComplete(server::close));
+
+		assertEquals(4, sync.getLastDifferingBuckets());
+		assertTrue(sync.getLastTransferredBytes() * 10 < sync.getLastFullSyncBytes());
+		assertTrue(sync.getLastSavedBytes() > 0);
+
+		assert local.getMerkleTree() != null && remote.getMerkleTree() != null;
+		assertEquals(local.getMerkleTree().getNode(1), remote.getMerkleTree().getNode(1));
+		assertEquals(new HashSet<>(Arrays.asList(10, -1)), getState(local, "key_10"));
+		assertEquals(new HashSet<>(Arrays.asList(10, -1)), getState(remote, "key_10"));
+		assertEquals(new HashSet<>(Arrays.asList(500, -2)), getState(local, "key_500"));
+		assertEquals(singleton(2), getState(local, "only_remote"));
+		assertEquals(singleton(1), getState(remote, "only_local"));
+	}
+
+	@Test
+	public void testDepthMismatch() {
+		CrdtStorageMap<String, TimestampContainer<Set<Integer>>> local = createStorage();
+		CrdtStorageMap<String, TimestampContainer<Set<Integer>>> remote = createStorage();
+		CrdtMerkleSync<String, TimestampContainer<Set<Integer>>> sync = CrdtMerkleSync.create(Eventloop.getCurrentEventloop(), local, remote)
+				.withDepth(4);
+
+		assertNotNull(awaitException(sync.sync()));
+	}
+
+	@Test
+	public void testNodeIndicesOutOfRange() {
+		CrdtStorageMap<String, TimestampContainer<Set<Integer>>> storage = createStorage();
+		CrdtMerkleTree<String, TimestampContainer<Set<Integer>>> tree = storage.getMerkleTree();
+		assert tree != null;
+		int depth = tree.getDepth();
+
+		assertNotNull(awaitException(storage.getMerkleNodes(depth, singletonList(0))));
+		assertNotNull(awaitException(storage.getMerkleNodes(depth, asList(1, 2 << depth))));
+		assertEquals(2, await(storage.getMerkleNodes(depth, asList(1, (2 << depth) - 1))).size());
+	}
+
+	@Test
+	public void testHashSetStatesBuiltInDifferentOrder() {
+		CrdtDataSerializer<String, TimestampContainer<Set<String>>> serializer =
+				new CrdtDataSerializer<>(UTF8_SERIALIZER, TimestampContainer.createSerializer(BinarySerializers.ofSet(UTF8_SERIALIZER)));
+		CrdtFunction<TimestampContainer<Set<String>>> union = TimestampContainer.createCrdtFunction((a, b) -> {
+			a.addAll(b);
+			return a;
+		});
+		CrdtStorageMap<String, TimestampContainer<Set<String>>> local = CrdtStorageMap.<String, TimestampContainer<Set<String>>>create(Eventloop.getCurrentEventloop(), union)
+				.withMerkleTree(CrdtMerkleTree.create(serializer)
+						.withStateHash(state -> 31 * state.getTimestamp() + CrdtMerkleTree.unorderedHash(state.getState(), String::hashCode)));
+		CrdtStorageMap<String, TimestampContainer<Set<String>>> remote = CrdtStorageMap.<String, TimestampContainer<Set<String>>>create(Eventloop.getCurrentEventloop(), union)
+				.withMerkleTree(CrdtMerkleTree.create(serializer)
+						.withStateHash(state -> 31 * state.getTimestamp() + CrdtMerkleTree.unorderedHash(state.getState(), String::hashCode)));
+
+		// "Aa" and "BB" have the same hash code, so hash sets iterate over them in insertion order
+		for (int i = 0; i < 100; i++) {
+			local.put("key_" + i, new TimestampContainer<>(0, new HashSet<>(asList("Aa", "BB", "value_" + i))));
+			remote.put("key_" + i, new TimestampContainer<>(0, new HashSet<>(asList("value_" + i, "BB", "Aa"))));
+		}
+		TimestampContainer<Set<String>> localState = local.get("key_0");
+		TimestampContainer<Set<String>> remoteState = remote.get("key_0");
+		assert localState != null && remoteState != null;
+		assertEquals(localState.getState(), remoteState.getState());
+		assertNotEquals(new ArrayList<>(localState.getState()), new ArrayList<>(remoteState.getState()));
+
+		CrdtMerkleSync<String, TimestampContainer<Set<String>>> sync = CrdtMerkleSync.create(Eventloop.getCurrentEventloop(), local, remote);
+		await(sync.sync());
+
+		assertEquals(0, sync.getLastDifferingBuckets());
+		assertEquals(0, sync.getLastTransferredBytes());
+	}
+
+	private static CrdtStorageMap<String, TimestampContainer<Set<Integer>>> createStorage() {
+		return CrdtStorageMap.<String, TimestampContainer<Set<Integer>>>create(Eventloop.getCurrentEventloop(), UNION)
+				.withMerkleTree(CrdtMerkleTree.create(SERIALIZER));
+	}
+
+	private static TimestampContainer<Set<Integer>> state(int value) {
+		return new TimestampContainer<>(0, new HashSet<>(singleton(value)));
+	}
+
+	private static Set<Integer> getState(CrdtStorageMap<String, TimestampContainer<Set<Integer>>> storage, String key) {
+		TimestampContainer<Set<Integer>> state = storage.get(key);
+		assertNotNull(state);
+		return state.getState();
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import io.datakernel.common.time.CurrentTimeProvider;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Token bucket which limits the rate of bytes transferred by all of its users together.
+ * <p>
+ * Bytes are acquired before being sent, and an acquisition which makes the bucket go into debt
+ * is delayed for as long as it takes to repay the debt, so that concurrent users are paced fairly.
+ * Up to one second worth of bytes can be accumulated while the bandwidth is not used.
+ */
+final class BandwidthLimiter {
+	private final CurrentTimeProvider timeProvider;
+	private final long bytesPerSecond;
+
+	private double available;
+	private long lastRefill;
+
+	BandwidthLimiter(CurrentTimeProvider timeProvider, long bytesPerSecond) {
+		checkArgument(bytesPerSecond > 0, "Bandwidth must be positive");
+		this.timeProvider = timeProvider;
+		this.bytesPerSecond = bytesPerSecond;
+		this.available = bytesPerSecond;
+		this.lastRefill = timeProvider.currentTimeMillis();
+	}
+
+	Promise<Void> acquire(long bytes) {
+		long now = timeProvider.currentTimeMillis();
+		available = Math.min(bytesPerSecond, available + (now - lastRefill) * bytesPerSecond / 1000.0);
+		lastRefill = now;
+		available -= bytes;
+		if (available >= 0) {
+			return Promise.complete();
+		}
+		return Promises.delay((long) Math.ceil(-available * 1000 / bytesPerSecond));
+	}
+
+	long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+}
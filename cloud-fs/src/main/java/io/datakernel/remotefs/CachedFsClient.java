@@ -20,8 +20,11 @@ import io.datakernel.async.function.AsyncSupplier;
 import io.datakernel.async.function.AsyncSuppliers;
 import io.datakernel.async.service.EventloopService;
 import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.codec.StructuredCodec;
 import io.datakernel.common.MemSize;
 import io.datakernel.common.exception.StacklessException;
+import io.datakernel.common.parse.ParseException;
 import io.datakernel.common.ref.RefLong;
 import io.datakernel.common.time.CurrentTimeProvider;
 import io.datakernel.csp.ChannelConsumer;
@@ -31,15 +34,27 @@ import io.datakernel.csp.process.ChannelSplitter;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
+import io.datakernel.remotefs.WindowTinyLfuPolicy.Segment;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.stream.LongStream;
 
+import static io.datakernel.codec.StructuredCodecs.*;
+import static io.datakernel.codec.json.JsonUtils.fromJson;
+import static io.datakernel.codec.json.JsonUtils.toJson;
 import static io.datakernel.common.Preconditions.checkArgument;
 import static io.datakernel.common.Preconditions.checkState;
+import static io.datakernel.remotefs.RemoteFsResponses.FILE_META_CODEC;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 
 /**
  * Represents a cached filesystem client which is an implementation of {@link FsClient}.
@@ -48,9 +63,28 @@ import static io.datakernel.common.Preconditions.checkState;
  * which connects to a remote server.
  * It is backed up by second one, which acts as a cache folder, typically it is a local filesystem client ({@link LocalFsClient})
  * Cache replacement policy is defined by supplying a {@link Comparator} of {@link FullCacheStat}.
+ * <p>
+ * Alternatively, with {@link #withBlockSize block size} specified, files are cached by fixed-size blocks,
+ * so that only the byte ranges which are actually read get cached.
+ * Blocks are evicted by a W-TinyLFU policy in constant time, and the block index is saved to the cache client
+ * on {@link #stop()} and loaded back on {@link #start()}, so that cached blocks survive restarts.
  */
 public final class CachedFsClient implements FsClient, EventloopService {
+	private static final Logger logger = LoggerFactory.getLogger(CachedFsClient.class);
+
 	private static final double LOAD_FACTOR = 0.75;
+	public static final String BLOCKS_FOLDER = "blocks/";
+	public static final String BLOCK_INDEX_FILE = "blocks.index";
+
+	private static final StructuredCodec<BlockEntry> BLOCK_ENTRY_CODEC = object(BlockEntry::new,
+			"name", BlockEntry::getName, STRING_CODEC,
+			"index", BlockEntry::getIndex, LONG_CODEC,
+			"weight", BlockEntry::getWeight, LONG_CODEC,
+			"segment", BlockEntry::getSegment, ofEnum(Segment.class));
+	private static final StructuredCodec<BlockIndex> BLOCK_INDEX_CODEC = object(BlockIndex::new,
+			"files", BlockIndex::getFiles, ofList(FILE_META_CODEC),
+			"blocks", BlockIndex::getBlocks, ofList(BLOCK_ENTRY_CODEC));
+
 	private final Eventloop eventloop;
 	private final FsClient mainClient;
 	private final FsClient cacheClient;
@@ -62,6 +96,13 @@ public final class CachedFsClient implements FsClient, EventloopService {
 	private long totalCacheSize;
 	CurrentTimeProvider timeProvider = CurrentTimeProvider.ofSystem();
 
+	@Nullable
+	private MemSize blockSize;
+	private WindowTinyLfuPolicy<Block> blockPolicy;
+	private final Map<String, CachedFile> cachedFiles = new HashMap<>();
+	// last pending upload or deletion of each block file, which the next operation on that file waits for
+	private final Map<String, Promise<Void>> blockOperations = new HashMap<>();
+
 	// region creators
 	private CachedFsClient(Eventloop eventloop, FsClient mainClient, FsClient cacheClient, Comparator<FullCacheStat> comparator) {
 		this.eventloop = eventloop;
@@ -83,10 +124,24 @@ public final class CachedFsClient implements FsClient, EventloopService {
 		this.timeProvider = timeProvider;
 		return this;
 	}
+
+	/**
+	 * Switches the cache to block mode, in which files are cached by blocks of given size
+	 * and the comparator is not used. Blocks are stored in {@link #BLOCKS_FOLDER} of the cache client
+	 * and each block is read from the main client into memory, so block size should be moderate.
+	 */
+	public CachedFsClient withBlockSize(@NotNull MemSize blockSize) {
+		checkArgument(blockSize.toLong() > 0 && blockSize.toLong() <= Integer.MAX_VALUE, "Block size must be positive and fit into a byte buffer");
+		this.blockSize = blockSize;
+		return this;
+	}
 	// endregion
 
 	public Promise<Void> setCacheSizeLimit(@NotNull MemSize cacheSizeLimit) {
 		this.cacheSizeLimit = cacheSizeLimit;
+		if (blockPolicy != null) {
+			blockPolicy.setCapacity(cacheSizeLimit.toLong());
+		}
 		return ensureSpace();
 	}
 
@@ -109,6 +164,10 @@ public final class CachedFsClient implements FsClient, EventloopService {
 	@Override
 	public Promise<Void> start() {
 		checkState(cacheSizeLimit != null, "Cannot start cached client without specifying cache size limit");
+		if (blockSize != null) {
+			return loadBlockIndex()
+					.then($ -> ensureSpace());
+		}
 		return getTotalCacheSize()
 				.then(size -> {
 					totalCacheSize = size.toLong();
@@ -139,6 +198,10 @@ public final class CachedFsClient implements FsClient, EventloopService {
 		checkArgument(offset >= 0, "Data offset must be greater than or equal to zero");
 		checkArgument(length >= -1, "Data length must be either -1 or greater than or equal to zero");
 
+		if (blockSize != null) {
+			return downloadBlocks(name, offset, length);
+		}
+
 		return cacheClient.getMetadata(name)
 				.then(cacheMetadata -> {
 					if (cacheMetadata == null) {
@@ -173,6 +236,14 @@ public final class CachedFsClient implements FsClient, EventloopService {
 
 								long sizeInMain = mainMetadata.getSize();
 
+								if (sizeInCache == sizeInMain && !FileMetadata.isSameContent(cacheMetadata, mainMetadata)) {
+									// cached copy has the same size but different checksum, so it is stale or corrupted
+									cacheStats.remove(name);
+									return cacheClient.delete(name)
+											.whenResult($ -> totalCacheSize -= sizeInCache)
+											.then($ -> downloadToCache(name, offset, length, 0, sizeInMain));
+								}
+
 								if (sizeInCache >= sizeInMain) {
 									return cacheClient.download(name, offset, length)
 											.whenComplete(() -> updateCacheStats(name));
@@ -220,6 +291,275 @@ public final class CachedFsClient implements FsClient, EventloopService {
 				});
 	}
 
+	private Promise<ChannelSupplier<ByteBuf>> downloadBlocks(String name, long offset, long length) {
+		return mainClient.getMetadata(name)
+				.then(meta -> {
+					if (meta == null) {
+						invalidateBlocks(name);
+						return Promise.ofException(FILE_NOT_FOUND);
+					}
+					long size = meta.getSize();
+					long end = length == -1 ? size : offset + length;
+					if (offset > size) {
+						return Promise.ofException(OFFSET_TOO_BIG);
+					}
+					if (end > size) {
+						return Promise.ofException(LENGTH_TOO_BIG);
+					}
+					CachedFile cachedFile = cachedFiles.get(name);
+					if (cachedFile != null && !cachedFile.version.equals(meta)) {
+						invalidateBlocks(name);
+					}
+					long block = blockSize.toLong();
+					// blocks are requested lazily, one after another, as the concatenated supplier is consumed
+					Iterator<ChannelSupplier<ByteBuf>> blocks = LongStream.range(offset / block, (end + block - 1) / block)
+							.mapToObj(index -> ChannelSupplier.ofPromise(downloadBlock(meta,
+									index, Math.max(offset, index * block), Math.min(end, (index + 1) * block))))
+							.iterator();
+					return Promise.of(ChannelSuppliers.concat(blocks));
+				});
+	}
+
+	private Promise<ChannelSupplier<ByteBuf>> downloadBlock(FileMetadata meta, long index, long from, long to) {
+		Block block = new Block(meta.getName(), index);
+		getBlockPolicy().recordAccess(block);
+		if (!isStored(meta, index)) {
+			return fetchBlock(meta, index, from, to);
+		}
+		long blockOffset = index * blockSize.toLong();
+		return cacheClient.download(blockPath(meta, index), from - blockOffset, to - from)
+				.thenEx((supplier, e) -> {
+					if (e == null) {
+						return Promise.of(supplier);
+					}
+					// block file has been lost, so it is forgotten and read from the main client again
+					evictBlocks(singletonList(block));
+					blockPolicy.remove(block);
+					return fetchBlock(meta, index, from, to);
+				});
+	}
+
+	private Promise<ChannelSupplier<ByteBuf>> fetchBlock(FileMetadata meta, long index, long from, long to) {
+		long blockOffset = index * blockSize.toLong();
+		long blockLength = Math.min(blockSize.toLong(), meta.getSize() - blockOffset);
+		return mainClient.download(meta.getName(), blockOffset, blockLength)
+				.then(supplier -> supplier.toCollector(ByteBufQueue.collector()))
+				.then(buf -> {
+					if (buf.readRemaining() != blockLength) {
+						buf.recycle();
+						return Promise.ofException(new StacklessException(CachedFsClient.class, "File has been changed while reading: " + meta.getName()));
+					}
+					cacheBlock(meta, index, buf.slice());
+					buf.moveHead((int) (from - blockOffset));
+					buf.tail(buf.head() + (int) (to - from));
+					return Promise.of(ChannelSupplier.of(buf));
+				});
+	}
+
+	private void cacheBlock(FileMetadata meta, long index, ByteBuf data) {
+		String name = meta.getName();
+		CachedFile cachedFile = cachedFiles.computeIfAbsent(name, $ -> new CachedFile(meta));
+		if (!cachedFile.version.equals(meta) || cachedFile.blocks.contains(index) || cachedFile.pending.contains(index)) {
+			data.recycle();
+			return;
+		}
+		Block block = new Block(name, index);
+		List<Block> evicted = getBlockPolicy().add(block, data.readRemaining());
+		evictBlocks(evicted);
+		if (evicted.contains(block)) {
+			// the block has not been admitted to the cache
+			removeIfEmpty(cachedFile);
+			data.recycle();
+			return;
+		}
+		cachedFile.pending.add(index);
+		String path = blockPath(meta, index);
+		registerBlockOperation(path, afterBlockOperations(singleton(path))
+				.then($ -> {
+					if (cachedFiles.get(name) != cachedFile || !cachedFile.pending.contains(index)) {
+						// the block has been evicted or invalidated while waiting
+						data.recycle();
+						return Promise.complete();
+					}
+					return ChannelSupplier.of(data).streamTo(ChannelConsumer.ofPromise(cacheClient.upload(path)))
+							.thenEx(($2, e) -> {
+								if (cachedFiles.get(name) == cachedFile && cachedFile.pending.remove(index)) {
+									if (e == null) {
+										cachedFile.blocks.add(index);
+										return Promise.complete();
+									}
+									blockPolicy.remove(block);
+									removeIfEmpty(cachedFile);
+								}
+								if (isStored(meta, index)) {
+									return Promise.complete();
+								}
+								// this is a part of the registered operation, so it does not wait for itself
+								return cacheClient.delete(path)
+										.thenEx(($3, e2) -> {
+											if (e2 != null) {
+												logger.warn("Failed to delete cached block " + path + ": " + this, e2);
+											}
+											return Promise.complete();
+										});
+							});
+				}));
+	}
+
+	private Promise<Void> evictBlocks(List<Block> evicted) {
+		Set<String> paths = new HashSet<>();
+		for (Block block : evicted) {
+			CachedFile cachedFile = cachedFiles.get(block.name);
+			if (cachedFile == null) {
+				continue;
+			}
+			if (cachedFile.blocks.remove(block.index)) {
+				paths.add(blockPath(cachedFile.version, block.index));
+			}
+			cachedFile.pending.remove(block.index);
+			removeIfEmpty(cachedFile);
+		}
+		return deleteBlocks(paths);
+	}
+
+	private Promise<Void> invalidateBlocks(String name) {
+		if (blockSize == null) {
+			return Promise.complete();
+		}
+		CachedFile cachedFile = cachedFiles.remove(name);
+		if (cachedFile == null) {
+			return Promise.complete();
+		}
+		Set<String> paths = new HashSet<>();
+		for (long index : cachedFile.blocks) {
+			getBlockPolicy().remove(new Block(name, index));
+			paths.add(blockPath(cachedFile.version, index));
+		}
+		for (long index : cachedFile.pending) {
+			getBlockPolicy().remove(new Block(name, index));
+		}
+		return deleteBlocks(paths);
+	}
+
+	/**
+	 * Deletes block files from the cache client, failures are only logged, as callers
+	 * which have already forgotten the blocks do not wait for the deletion.
+	 * Deletion is ordered after pending operations on the same files, and later uploads of them wait for it
+	 */
+	private Promise<Void> deleteBlocks(Set<String> paths) {
+		if (paths.isEmpty()) {
+			return Promise.complete();
+		}
+		Promise<Void> deletion = afterBlockOperations(paths)
+				.then($ -> cacheClient.deleteAll(paths))
+				.thenEx(($, e) -> {
+					if (e != null) {
+						logger.warn("Failed to delete cached blocks " + paths + ": " + this, e);
+					}
+					return Promise.complete();
+				});
+		paths.forEach(path -> registerBlockOperation(path, deletion));
+		return deletion;
+	}
+
+	private Promise<Void> afterBlockOperations(Set<String> paths) {
+		return Promises.all(paths.stream()
+				.map(blockOperations::get)
+				.filter(Objects::nonNull));
+	}
+
+	private void registerBlockOperation(String path, Promise<Void> operation) {
+		if (operation.isComplete()) {
+			return;
+		}
+		blockOperations.put(path, operation);
+		operation.whenComplete(() -> blockOperations.remove(path, operation));
+	}
+
+	private void removeIfEmpty(CachedFile cachedFile) {
+		if (cachedFile.blocks.isEmpty() && cachedFile.pending.isEmpty()) {
+			cachedFiles.remove(cachedFile.version.getName(), cachedFile);
+		}
+	}
+
+	private boolean isStored(FileMetadata version, long index) {
+		CachedFile cachedFile = cachedFiles.get(version.getName());
+		return cachedFile != null && cachedFile.version.equals(version) && cachedFile.blocks.contains(index);
+	}
+
+	private WindowTinyLfuPolicy<Block> getBlockPolicy() {
+		if (blockPolicy == null) {
+			checkState(cacheSizeLimit != null, "Cannot use cached client without specifying cache size limit");
+			blockPolicy = new WindowTinyLfuPolicy<>(cacheSizeLimit.toLong(), (int) Math.min(Integer.MAX_VALUE, cacheSizeLimit.toLong() / blockSize.toLong()));
+		}
+		return blockPolicy;
+	}
+
+	private static String blockPath(FileMetadata version, long index) {
+		// blocks of different versions of a file are stored separately, so that stale blocks are never read
+		return BLOCKS_FOLDER + version.getName() + '/' + version.getTimestamp() + '-' + version.getSize() + '-' + version.getRevision() +
+				(version.hasChecksum() ? '-' + Long.toHexString(version.getChecksum()) : "") + '/' + index;
+	}
+
+	/**
+	 * Loads the block index saved by {@link #saveBlockIndex()}.
+	 * Block files which are not in the index are deleted, and index entries without block files are ignored
+	 */
+	private Promise<Void> loadBlockIndex() {
+		return cacheClient.getMetadata(BLOCK_INDEX_FILE)
+				.then(meta -> meta == null ?
+						Promise.of(new BlockIndex(emptyList(), emptyList())) :
+						cacheClient.download(BLOCK_INDEX_FILE)
+								.then(supplier -> supplier.toCollector(ByteBufQueue.collector()))
+								.then(buf -> {
+									try {
+										return Promise.of(fromJson(BLOCK_INDEX_CODEC, buf.asString(UTF_8)));
+									} catch (ParseException ignored) {
+										// corrupted index is dropped along with all of the blocks
+										return Promise.of(new BlockIndex(emptyList(), emptyList()));
+									}
+								}))
+				.combine(cacheClient.list(BLOCKS_FOLDER + "**")
+						.map(list -> list.stream().map(FileMetadata::getName).collect(toSet())), (index, stored) -> {
+					WindowTinyLfuPolicy<Block> policy = getBlockPolicy();
+					Map<String, FileMetadata> versions = new HashMap<>();
+					index.getFiles().forEach(version -> versions.put(version.getName(), version));
+					Set<String> orphans = new HashSet<>(stored);
+					for (BlockEntry entry : index.getBlocks()) {
+						FileMetadata version = versions.get(entry.getName());
+						if (version == null || !orphans.remove(blockPath(version, entry.getIndex()))) {
+							continue;
+						}
+						cachedFiles.computeIfAbsent(entry.getName(), $ -> new CachedFile(version)).blocks.add(entry.getIndex());
+						policy.restore(new Block(entry.getName(), entry.getIndex()), entry.getWeight(), entry.getSegment());
+					}
+					return orphans;
+				})
+				.then(orphans -> orphans.isEmpty() ? Promise.complete() : cacheClient.deleteAll(orphans));
+	}
+
+	/**
+	 * Saves the block index to the cache client, so that cached blocks may be reused after restart
+	 */
+	public Promise<Void> saveBlockIndex() {
+		checkState(blockSize != null, "Block index is only used in block mode");
+		List<BlockEntry> entries = new ArrayList<>();
+		getBlockPolicy().forEach((block, weight, segment) -> {
+			CachedFile cachedFile = cachedFiles.get(block.name);
+			if (cachedFile != null && cachedFile.blocks.contains(block.index)) {
+				entries.add(new BlockEntry(block.name, block.index, weight, segment));
+			}
+		});
+		List<FileMetadata> files = cachedFiles.values().stream()
+				.filter(cachedFile -> !cachedFile.blocks.isEmpty())
+				.map(cachedFile -> cachedFile.version)
+				.collect(toList());
+		String json = toJson(BLOCK_INDEX_CODEC, new BlockIndex(files, entries));
+		return cacheClient.delete(BLOCK_INDEX_FILE)
+				.then($ -> ChannelSupplier.of(ByteBuf.wrapForReading(json.getBytes(UTF_8)))
+						.streamTo(ChannelConsumer.ofPromise(cacheClient.upload(BLOCK_INDEX_FILE))));
+	}
+
 	@Override
 	public Promise<Void> move(@NotNull String name, @NotNull String target, long targetRevision, long tombstoneRevision) {
 		return mainClient.move(name, target, targetRevision, tombstoneRevision);
@@ -230,6 +570,16 @@ public final class CachedFsClient implements FsClient, EventloopService {
 		return mainClient.copy(name, target, targetRevision);
 	}
 
+	@Override
+	public Promise<Void> moveAll(@NotNull Map<String, String> sourceToTarget, long targetRevision, long tombstoneRevision) {
+		return mainClient.moveAll(sourceToTarget, targetRevision, tombstoneRevision);
+	}
+
+	@Override
+	public Promise<Void> copyAll(@NotNull Map<String, String> sourceToTarget, long targetRevision) {
+		return mainClient.copyAll(sourceToTarget, targetRevision);
+	}
+
 	/**
 	 * Lists files that are matched by glob. List is combined from cache folder files and files that are on server.
 	 *
@@ -238,12 +588,18 @@ public final class CachedFsClient implements FsClient, EventloopService {
 	 */
 	@Override
 	public Promise<List<FileMetadata>> listEntities(@NotNull String glob) {
+		if (blockSize != null) {
+			return mainClient.listEntities(glob);
+		}
 		return Promises.toList(cacheClient.listEntities(glob), mainClient.listEntities(glob))
 				.map(lists -> FileMetadata.flatten(lists.stream()));
 	}
 
 	@Override
 	public Promise<List<FileMetadata>> list(@NotNull String glob) {
+		if (blockSize != null) {
+			return mainClient.list(glob);
+		}
 		return Promises.toList(cacheClient.list(glob), mainClient.list(glob))
 				.map(lists -> FileMetadata.flatten(lists.stream()));
 	}
@@ -255,13 +611,30 @@ public final class CachedFsClient implements FsClient, EventloopService {
 	 */
 	@Override
 	public Promise<Void> delete(@NotNull String name, long revision) {
+		if (blockSize != null) {
+			return Promises.all(invalidateBlocks(name), mainClient.delete(name, revision));
+		}
 		cacheStats.remove(name);
 		return Promises.all(cacheClient.delete(name, revision), mainClient.delete(name, revision));
 	}
 
+	@Override
+	public Promise<Void> deleteAll(@NotNull Set<String> names, long revision) {
+		if (blockSize != null) {
+			return Promises.all(names.stream().map(this::invalidateBlocks))
+					.both(mainClient.deleteAll(names, revision));
+		}
+		names.forEach(cacheStats::remove);
+		return Promises.all(cacheClient.deleteAll(names, revision), mainClient.deleteAll(names, revision));
+	}
+
 	@NotNull
 	@Override
 	public Promise<Void> stop() {
+		if (blockSize != null) {
+			return ensureSpace()
+					.then($ -> saveBlockIndex());
+		}
 		return ensureSpace();
 	}
 
@@ -282,6 +655,9 @@ public final class CachedFsClient implements FsClient, EventloopService {
 
 	@NotNull
 	private Promise<Void> doEnsureSpace() {
+		if (blockSize != null) {
+			return evictBlocks(getBlockPolicy().evictExcess());
+		}
 		if (totalCacheSize + downloadingNowSize <= cacheSizeLimit.toLong()) {
 			return Promise.complete();
 		}
@@ -306,6 +682,92 @@ public final class CachedFsClient implements FsClient, EventloopService {
 								}))));
 	}
 
+	private static final class Block {
+		private final String name;
+		private final long index;
+
+		private Block(String name, long index) {
+			this.name = name;
+			this.index = index;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Block block = (Block) o;
+			return index == block.index && name.equals(block.name);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * name.hashCode() + Long.hashCode(index);
+		}
+
+		@Override
+		public String toString() {
+			return name + '#' + index;
+		}
+	}
+
+	private static final class CachedFile {
+		private final FileMetadata version;
+		private final Set<Long> blocks = new HashSet<>();
+		private final Set<Long> pending = new HashSet<>();
+
+		private CachedFile(FileMetadata version) {
+			this.version = version;
+		}
+	}
+
+	private static final class BlockEntry {
+		private final String name;
+		private final long index;
+		private final long weight;
+		private final Segment segment;
+
+		private BlockEntry(String name, long index, long weight, Segment segment) {
+			this.name = name;
+			this.index = index;
+			this.weight = weight;
+			this.segment = segment;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getIndex() {
+			return index;
+		}
+
+		public long getWeight() {
+			return weight;
+		}
+
+		public Segment getSegment() {
+			return segment;
+		}
+	}
+
+	private static final class BlockIndex {
+		private final List<FileMetadata> files;
+		private final List<BlockEntry> blocks;
+
+		private BlockIndex(List<FileMetadata> files, List<BlockEntry> blocks) {
+			this.files = files;
+			this.blocks = blocks;
+		}
+
+		public List<FileMetadata> getFiles() {
+			return files;
+		}
+
+		public List<BlockEntry> getBlocks() {
+			return blocks;
+		}
+	}
+
 	private static final class CacheStat {
 		private long numberOfHits;
 		private long lastHitTimestamp;
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.remotefs;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.common.collection.Try;
+import io.datakernel.common.exception.StacklessException;
+import io.datakernel.csp.AbstractChannelSupplier;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.csp.binary.BinaryChannelSupplier;
+import io.datakernel.csp.binary.ByteBufsParser;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.csp.binary.ByteBufsParser.ofFixedSize;
+import static io.datakernel.remotefs.ChannelErasureEncoder.BLOCK_HEADER_SIZE;
+import static io.datakernel.remotefs.ChannelErasureEncoder.SHARD_TRAILER_SIZE;
+
+/**
+ * A supplier which restores the data encoded by {@link ChannelErasureEncoder}
+ * from any {@code dataShards} of its shards.
+ * <p>
+ * Shards may be read starting from any block, which allows to read only a range of the original data.
+ * If {@link SpareShards} are given, a shard which fails while being read is replaced by a spare one,
+ * which is read starting from the block the failed shard stopped at.
+ */
+final class ChannelErasureDecoder extends AbstractChannelSupplier<ByteBuf> {
+	public static final StacklessException CORRUPTED_SHARD = new StacklessException(ChannelErasureDecoder.class, "Shard is corrupted or does not belong to the file");
+
+	private final ReedSolomon codec;
+	private final int blockSize;
+	private final int stripeSize;
+	private final long endBlock;
+	private final long totalBlocks;
+	private final List<BinaryChannelSupplier> shards;
+
+	@Nullable
+	private SpareShards spareShards;
+
+	private long block;
+	private boolean finished;
+	private long requiredLength;
+	private Throwable tooShort = FsClient.LENGTH_TOO_BIG;
+
+	private ChannelErasureDecoder(ReedSolomon codec, int blockSize, long startBlock, long endBlock, long totalBlocks, List<BinaryChannelSupplier> shards) {
+		this.codec = codec;
+		this.blockSize = blockSize;
+		this.stripeSize = codec.getDataShards() * blockSize;
+		this.block = startBlock;
+		this.endBlock = endBlock;
+		this.totalBlocks = totalBlocks;
+		this.shards = shards;
+	}
+
+	/**
+	 * @param startBlock  index of the block which shard suppliers start from
+	 * @param endBlock    index of the block which shard suppliers end before,
+	 *                    if it is equal to {@code totalBlocks} then shard suppliers should also supply shard trailers
+	 * @param totalBlocks total number of blocks in each of the shards
+	 * @param shards      suppliers of exactly {@code dataShards} distinct shards, in any order
+	 */
+	static ChannelErasureDecoder create(ReedSolomon codec, int blockSize, long startBlock, long endBlock, long totalBlocks, List<ChannelSupplier<ByteBuf>> shards) {
+		checkArgument(blockSize > 0, "Block size should be positive");
+		checkArgument(0 <= startBlock && startBlock <= endBlock && endBlock <= totalBlocks, "Blocks are out of bounds");
+		checkArgument(shards.size() == codec.getDataShards(), "Number of shard suppliers should match number of data shards");
+		return new ChannelErasureDecoder(codec, blockSize, startBlock, endBlock, totalBlocks,
+				shards.stream().map(BinaryChannelSupplier::of).collect(Collectors.toCollection(ArrayList::new)));
+	}
+
+	/**
+	 * Opens suppliers of other shards of the same file instead of the failed ones
+	 */
+	@FunctionalInterface
+	interface SpareShards {
+		/**
+		 * @param index index of the failed shard supplier in the list given to {@link #create}
+		 * @param block index of the block which a spare shard supplier should start from,
+		 *              it should end at the same block as the failed one
+		 * @param e     exception which the failed shard supplier failed with
+		 * @return supplier of a shard which is not read yet, or an exception if there are no spare shards left
+		 */
+		Promise<ChannelSupplier<ByteBuf>> open(int index, long block, Throwable e);
+	}
+
+	/**
+	 * Returns the number of blocks in a shard of given size, or -1 if size is not valid
+	 */
+	static long getShardBlocks(long shardSize, int blockSize) {
+		long blocksSize = shardSize - SHARD_TRAILER_SIZE;
+		if (blocksSize < 0 || blocksSize % (BLOCK_HEADER_SIZE + blockSize) != 0) {
+			return -1;
+		}
+		return blocksSize / (BLOCK_HEADER_SIZE + blockSize);
+	}
+
+	/**
+	 * Makes this supplier fail with given exception at the end of the stream
+	 * if the original data is shorter than given length
+	 */
+	ChannelErasureDecoder withRequiredLength(long requiredLength, Throwable tooShort) {
+		this.requiredLength = requiredLength;
+		this.tooShort = tooShort;
+		return this;
+	}
+
+	ChannelErasureDecoder withSpareShards(SpareShards spareShards) {
+		this.spareShards = spareShards;
+		return this;
+	}
+
+	@Override
+	protected Promise<ByteBuf> doGet() {
+		if (finished) {
+			return Promise.of(null);
+		}
+		if (block == endBlock) {
+			finished = true;
+			return (endBlock == totalBlocks ?
+					readTrailer().toVoid() :
+					Promises.all(shards.stream().map(BinaryChannelSupplier::endOfStream)))
+					.map($ -> (ByteBuf) null)
+					.thenEx(this::sanitize);
+		}
+		return readAll(ofFixedSize(BLOCK_HEADER_SIZE + blockSize))
+				.then(blocks -> {
+					ByteBuf stripe;
+					try {
+						stripe = decodeStripe(blocks);
+					} catch (StacklessException e) {
+						return Promise.ofException(e);
+					} finally {
+						blocks.forEach(ByteBuf::recycle);
+					}
+					if (++block != totalBlocks) {
+						return Promise.of(stripe);
+					}
+					finished = true;
+					return readTrailer()
+							.thenEx((totalLength, e) -> {
+								if (e != null) {
+									stripe.recycle();
+									return Promise.ofException(e);
+								}
+								stripe.tail((int) (totalLength - (totalBlocks - 1) * stripeSize));
+								return Promise.of(stripe);
+							});
+				})
+				.thenEx(this::sanitize);
+	}
+
+	private ByteBuf decodeStripe(List<ByteBuf> blocks) throws StacklessException {
+		int totalShards = codec.getTotalShards();
+		int dataShards = codec.getDataShards();
+
+		ByteBuf stripe = ByteBufPool.allocate(stripeSize);
+		byte[][] arrays = new byte[totalShards][];
+		int[] offsets = new int[totalShards];
+		boolean[] present = new boolean[totalShards];
+		for (int i = 0; i < dataShards; i++) {
+			arrays[i] = stripe.array();
+			offsets[i] = i * blockSize;
+		}
+		for (ByteBuf block : blocks) {
+			int index = block.readByte() & 0xFF;
+			if (index >= totalShards || present[index]) {
+				stripe.recycle();
+				throw CORRUPTED_SHARD;
+			}
+			present[index] = true;
+			if (index < dataShards) {
+				System.arraycopy(block.array(), block.head(), stripe.array(), index * blockSize, blockSize);
+			} else {
+				arrays[index] = block.array();
+				offsets[index] = block.head();
+			}
+		}
+		codec.decodeMissing(arrays, offsets, present, blockSize);
+		stripe.tail(stripeSize);
+		return stripe;
+	}
+
+	private Promise<Long> readTrailer() {
+		return readAll(ofFixedSize(SHARD_TRAILER_SIZE), true)
+				.then(trailers -> {
+					long totalLength = trailers.get(0).readLong();
+					boolean consistent = true;
+					for (int i = 1; i < trailers.size(); i++) {
+						consistent &= trailers.get(i).readLong() == totalLength;
+					}
+					trailers.forEach(ByteBuf::recycle);
+					if (!consistent || totalLength < 0 ||
+							(totalLength + stripeSize - 1) / stripeSize != totalBlocks) {
+						return Promise.ofException(CORRUPTED_SHARD);
+					}
+					if (totalLength < requiredLength) {
+						return Promise.ofException(tooShort);
+					}
+					return Promise.of(totalLength);
+				});
+	}
+
+	private Promise<List<ByteBuf>> readAll(ByteBufsParser<ByteBuf> parser) {
+		return readAll(parser, false);
+	}
+
+	private Promise<List<ByteBuf>> readAll(ByteBufsParser<ByteBuf> parser, boolean remaining) {
+		return Promises.toList(IntStream.range(0, shards.size()).mapToObj(index -> read(index, parser, remaining).toTry()))
+				.then(tries -> {
+					if (tries.stream().allMatch(Try::isSuccess)) {
+						return Promise.of(tries.stream().map(Try::get).collect(Collectors.toList()));
+					}
+					tries.stream().filter(Try::isSuccess).forEach(t -> t.get().recycle());
+					//noinspection OptionalGetWithoutIsPresent
+					return Promise.ofException(tries.stream().filter(t -> !t.isSuccess()).findFirst().get().getException());
+				});
+	}
+
+	private Promise<ByteBuf> read(int index, ByteBufsParser<ByteBuf> parser, boolean remaining) {
+		BinaryChannelSupplier shard = shards.get(index);
+		return (remaining ? shard.parseRemaining(parser) : shard.parse(parser))
+				.thenEx((buf, e) -> {
+					if (e == null) {
+						return Promise.of(buf);
+					}
+					shard.close(e);
+					if (spareShards == null || isClosed()) {
+						return Promise.ofException(e);
+					}
+					return spareShards.open(index, block, e)
+							.then(spare -> {
+								if (isClosed()) {
+									spare.close(getException());
+									return Promise.ofException(getException());
+								}
+								shards.set(index, BinaryChannelSupplier.of(spare));
+								return read(index, parser, remaining);
+							});
+				});
+	}
+
+	@Override
+	protected void onClosed(@NotNull Throwable e) {
+		shards.forEach(shard -> shard.close(e));
+	}
+}
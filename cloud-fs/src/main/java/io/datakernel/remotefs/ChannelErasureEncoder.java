@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.csp.AbstractChannelConsumer;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * A consumer which splits the data into stripes of {@code dataShards * blockSize} bytes
+ * and streams each stripe as {@code dataShards} data blocks and {@code parityShards} parity blocks
+ * to the corresponding shard consumers.
+ * <p>
+ * Each shard is a sequence of blocks, each prefixed with a byte containing the index of the shard,
+ * followed by a trailer with the total length of the original data.
+ * Last stripe is padded with zeroes.
+ *
+ * @see ChannelErasureDecoder
+ */
+final class ChannelErasureEncoder extends AbstractChannelConsumer<ByteBuf> {
+	static final int BLOCK_HEADER_SIZE = 1;
+	static final int SHARD_TRAILER_SIZE = 8;
+
+	private final ReedSolomon codec;
+	private final int blockSize;
+	private final int stripeSize;
+	private final List<ChannelConsumer<ByteBuf>> shards;
+
+	private final ByteBufQueue queue = new ByteBufQueue();
+	private long totalLength;
+
+	private ChannelErasureEncoder(ReedSolomon codec, int blockSize, List<ChannelConsumer<ByteBuf>> shards) {
+		this.codec = codec;
+		this.blockSize = blockSize;
+		this.stripeSize = codec.getDataShards() * blockSize;
+		this.shards = shards;
+	}
+
+	/**
+	 * @param shards consumers of the shards, in the order of shard indices
+	 */
+	static ChannelErasureEncoder create(ReedSolomon codec, int blockSize, List<ChannelConsumer<ByteBuf>> shards) {
+		checkArgument(blockSize > 0, "Block size should be positive");
+		checkArgument(shards.size() == codec.getTotalShards(), "Number of shard consumers should match total number of shards");
+		return new ChannelErasureEncoder(codec, blockSize, shards);
+	}
+
+	/**
+	 * Returns the size of each of the shards for the data of given length
+	 */
+	static long getShardSize(long length, int dataShards, int blockSize) {
+		long stripeSize = (long) dataShards * blockSize;
+		long blocks = (length + stripeSize - 1) / stripeSize;
+		return blocks * (BLOCK_HEADER_SIZE + blockSize) + SHARD_TRAILER_SIZE;
+	}
+
+	@Override
+	protected Promise<Void> doAccept(@Nullable ByteBuf buf) {
+		if (buf == null) {
+			return flushLastStripe()
+					.then($ -> Promises.all(shards.stream()
+							.map(shard -> {
+								ByteBuf trailer = ByteBufPool.allocate(SHARD_TRAILER_SIZE);
+								trailer.writeLong(totalLength);
+								return shard.accept(trailer);
+							})))
+					.then($ -> Promises.all(shards.stream().map(shard -> shard.accept(null))))
+					.thenEx(this::sanitize);
+		}
+		totalLength += buf.readRemaining();
+		queue.add(buf);
+		return flushStripes();
+	}
+
+	private Promise<Void> flushStripes() {
+		if (!queue.hasRemainingBytes(stripeSize)) {
+			return Promise.complete();
+		}
+		ByteBuf stripe = queue.takeExactSize(stripeSize);
+		return sendStripe(stripe)
+				.then($ -> flushStripes());
+	}
+
+	private Promise<Void> flushLastStripe() {
+		if (queue.isEmpty()) {
+			return Promise.complete();
+		}
+		ByteBuf stripe = ByteBufPool.allocate(stripeSize);
+		int remaining = queue.drainTo(stripe.array(), 0, stripeSize);
+		Arrays.fill(stripe.array(), remaining, stripeSize, (byte) 0);
+		stripe.tail(stripeSize);
+		return sendStripe(stripe);
+	}
+
+	private Promise<Void> sendStripe(ByteBuf stripe) {
+		int totalShards = codec.getTotalShards();
+		int dataShards = codec.getDataShards();
+		ByteBuf[] blocks = new ByteBuf[totalShards];
+		byte[][] arrays = new byte[totalShards][];
+		int[] offsets = new int[totalShards];
+		for (int i = 0; i < totalShards; i++) {
+			ByteBuf block = ByteBufPool.allocate(BLOCK_HEADER_SIZE + blockSize);
+			block.writeByte((byte) i);
+			if (i < dataShards) {
+				block.put(stripe.array(), stripe.head() + i * blockSize, blockSize);
+				arrays[i] = stripe.array();
+				offsets[i] = stripe.head() + i * blockSize;
+			} else {
+				arrays[i] = block.array();
+				offsets[i] = block.tail();
+				block.moveTail(blockSize);
+			}
+			blocks[i] = block;
+		}
+		codec.encodeParity(arrays, offsets, blockSize);
+		stripe.recycle();
+
+		Promise<?>[] accepts = new Promise[totalShards];
+		for (int i = 0; i < totalShards; i++) {
+			accepts[i] = shards.get(i).accept(blocks[i]);
+		}
+		return sanitize(Promises.all(accepts));
+	}
+
+	@Override
+	protected void onClosed(@NotNull Throwable e) {
+		queue.recycle();
+		shards.forEach(shard -> shard.close(e));
+	}
+}
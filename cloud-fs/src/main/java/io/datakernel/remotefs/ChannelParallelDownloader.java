@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.csp.AbstractChannelSupplier;
+import io.datakernel.promise.Promise;
+
+import java.util.ArrayDeque;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * A supplier which splits a range of a file into fixed-size chunks, downloads up to
+ * {@code parallelism} of them concurrently and supplies them in order.
+ * <p>
+ * New chunks are requested only as the already downloaded ones are taken from this supplier,
+ * so at most {@code parallelism} chunks are buffered at any time.
+ */
+final class ChannelParallelDownloader extends AbstractChannelSupplier<ByteBuf> {
+	@FunctionalInterface
+	interface ChunkDownloader {
+		/**
+		 * Downloads a chunk with given index which starts at {@code offset} of the file
+		 * and is exactly {@code length} bytes long
+		 */
+		Promise<ByteBuf> download(int index, long offset, int length);
+	}
+
+	private final ChunkDownloader downloader;
+	private final long endOffset;
+	private final int chunkSize;
+	private final int parallelism;
+	private final ArrayDeque<Promise<ByteBuf>> pending = new ArrayDeque<>();
+
+	private long nextOffset;
+	private int nextIndex;
+
+	private ChannelParallelDownloader(ChunkDownloader downloader, long offset, long endOffset, int chunkSize, int parallelism) {
+		this.downloader = downloader;
+		this.nextOffset = offset;
+		this.endOffset = endOffset;
+		this.chunkSize = chunkSize;
+		this.parallelism = parallelism;
+	}
+
+	static ChannelParallelDownloader create(ChunkDownloader downloader, long offset, long length, int chunkSize, int parallelism) {
+		checkArgument(offset >= 0 && length >= 0, "Offset and length cannot be negative");
+		checkArgument(chunkSize > 0 && parallelism > 0, "Chunk size and parallelism should be positive");
+		return new ChannelParallelDownloader(downloader, offset, offset + length, chunkSize, parallelism);
+	}
+
+	@Override
+	protected Promise<ByteBuf> doGet() {
+		while (pending.size() < parallelism && nextOffset < endOffset) {
+			int length = (int) Math.min(chunkSize, endOffset - nextOffset);
+			pending.add(downloader.download(nextIndex++, nextOffset, length)
+					.then(chunk -> {
+						if (chunk.readRemaining() != length) {
+							chunk.recycle();
+							return Promise.ofException(FsClient.LENGTH_TOO_BIG);
+						}
+						return Promise.of(chunk);
+					}));
+			nextOffset += length;
+		}
+		Promise<ByteBuf> chunk = pending.poll();
+		if (chunk == null) {
+			return Promise.of(null);
+		}
+		return chunk.thenEx(this::sanitize);
+	}
+
+	@Override
+	protected void onClosed(Throwable e) {
+		pending.forEach(chunk -> chunk.whenResult(ByteBuf::recycle));
+		pending.clear();
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.common.exception.StacklessException;
+import io.datakernel.csp.AbstractChannelConsumer;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.promise.RetryPolicy;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * A consumer which uploads a file to a given {@link FsClient} and, when the connection fails,
+ * reconnects according to the {@link RetryPolicy} and continues the upload from the size of the
+ * partially uploaded file instead of failing.
+ * <p>
+ * Up to {@code bufferSize} of the most recently sent bytes are retained to be sent again after reconnection,
+ * so the upload can be resumed only if the partition received all of the bytes that were sent before them.
+ * Errors received from the partition itself (such as a {@link StacklessException} sent by a server) are not retried.
+ */
+final class ChannelResumableUploader extends AbstractChannelConsumer<ByteBuf> {
+	private static final Logger logger = LoggerFactory.getLogger(ChannelResumableUploader.class);
+
+	private final FsClient client;
+	private final String name;
+	@Nullable
+	private final Long revision;
+	private final RetryPolicy<?> retryPolicy;
+	private final int bufferSize;
+
+	private final ByteBufQueue window = new ByteBufQueue();
+	private long windowOffset;
+
+	private ChannelConsumer<ByteBuf> consumer;
+	private int resumes;
+
+	private ChannelResumableUploader(FsClient client, String name, long offset, @Nullable Long revision,
+			ChannelConsumer<ByteBuf> consumer, RetryPolicy<?> retryPolicy, int bufferSize) {
+		this.client = client;
+		this.name = name;
+		this.revision = revision;
+		this.retryPolicy = retryPolicy;
+		this.bufferSize = bufferSize;
+		this.windowOffset = offset;
+		this.consumer = consumer;
+	}
+
+	/**
+	 * @param offset   offset the upload was started at
+	 * @param revision revision the upload was started with or {@code null} for the default one
+	 * @param consumer consumer of an upload already started at given offset and revision
+	 */
+	static ChannelResumableUploader create(FsClient client, String name, long offset, @Nullable Long revision,
+			ChannelConsumer<ByteBuf> consumer, RetryPolicy<?> retryPolicy, int bufferSize) {
+		checkArgument(offset >= 0, "Offset cannot be negative");
+		checkArgument(bufferSize > 0, "Buffer size should be positive");
+		return new ChannelResumableUploader(client, name, offset, revision, consumer, retryPolicy, bufferSize);
+	}
+
+	/**
+	 * Returns how many times the upload was resumed
+	 */
+	int getResumes() {
+		return resumes;
+	}
+
+	@Override
+	protected Promise<Void> doAccept(@Nullable ByteBuf buf) {
+		if (buf == null) {
+			return finish()
+					.whenResult($ -> window.recycle())
+					.thenEx(this::sanitize);
+		}
+		ByteBuf slice = buf.slice();
+		window.add(buf);
+		int excess = window.remainingBytes() - bufferSize;
+		if (excess > 0) {
+			windowOffset += window.skip(excess);
+		}
+		return consumer.accept(slice)
+				.thenEx(($, e) -> e == null ? Promise.complete() : resume(e))
+				.thenEx(this::sanitize);
+	}
+
+	private Promise<Void> finish() {
+		return consumer.accept(null)
+				.thenEx(($, e) -> e == null ? Promise.complete() : resume(e).then($2 -> finish()));
+	}
+
+	private Promise<Void> resume(Throwable e) {
+		if (isClosed() || e.getClass() == StacklessException.class) {
+			return Promise.ofException(e);
+		}
+		logger.warn("Upload of {} to {} failed, trying to resume it from offset {}", name, client, windowOffset, e);
+		return Promises.retry(() -> client.getMetadata(name)
+						.then(metadata -> {
+							// resending the whole window, since there is no way to know
+							// which of the received bytes were actually written by the partition
+							long size = metadata != null ? metadata.getSize() : 0;
+							if (size < windowOffset || metadata != null && revision != null && metadata.getRevision() != revision) {
+								return Promise.ofException(e);
+							}
+							return revision == null ?
+									client.upload(name, windowOffset) :
+									client.upload(name, windowOffset, revision);
+						}),
+				($, e2) -> e2 == null || e2 == e || e2.getClass() == StacklessException.class,
+				retryPolicy)
+				.then(newConsumer -> {
+					if (isClosed()) {
+						newConsumer.close(new StacklessException(ChannelResumableUploader.class, "Upload is closed"));
+						return Promise.ofException(e);
+					}
+					consumer = newConsumer;
+					resumes++;
+					List<ByteBuf> bufs = new ArrayList<>(window.remainingBufs());
+					for (int i = 0; i < window.remainingBufs(); i++) {
+						bufs.add(window.peekBuf(i).slice());
+					}
+					return consumer.acceptAll(bufs)
+							.thenEx(($, e2) -> e2 == null ? Promise.complete() : resume(e2));
+				});
+	}
+
+	@Override
+	protected void onClosed(Throwable e) {
+		window.recycle();
+		consumer.close(e);
+	}
+}
@@ -26,7 +26,7 @@ import java.util.stream.Stream;
 import static io.datakernel.common.Preconditions.checkArgument;
 
 /**
- * This is a POJO for holding name, size, timestamp and revision of some file
+ * This is a POJO for holding name, size, timestamp, revision and an optional checksum of some file
  */
 public final class FileMetadata {
 	public static final Comparator<FileMetadata> COMPARATOR =
@@ -35,43 +35,70 @@ public final class FileMetadata {
 					.thenComparing(FileMetadata::getSize)
 					.thenComparing(FileMetadata::getTimestamp);
 
+	/**
+	 * A value of the checksum for files which have no known checksum
+	 */
+	public static final long NO_CHECKSUM = -1;
+
 	private final String name;
 	private final long size;
 	private final long timestamp;
 	private final long revision;
+	private final long checksum;
 
-	private FileMetadata(String name, long size, long timestamp, long revision) {
+	private FileMetadata(String name, long size, long timestamp, long revision, long checksum) {
 		this.name = name;
 		this.size = size;
 		this.timestamp = timestamp;
 		this.revision = revision;
+		this.checksum = checksum;
 	}
 
 	public static FileMetadata of(@NotNull String name, long size, long timestamp, long revision) {
+		return of(name, size, timestamp, revision, NO_CHECKSUM);
+	}
+
+	/**
+	 * @param checksum CRC32 of the file content or {@link #NO_CHECKSUM}
+	 */
+	public static FileMetadata of(@NotNull String name, long size, long timestamp, long revision, long checksum) {
 		checkArgument(size >= 0, "size >= 0");
-		return new FileMetadata(name, size, timestamp, revision);
+		checkArgument(checksum >= NO_CHECKSUM, "checksum >= -1");
+		return new FileMetadata(name, size, timestamp, revision, checksum);
 	}
 
 	public static FileMetadata parse(String name, long size, long timestamp, long revision) throws ParseException {
+		return parse(name, size, timestamp, revision, NO_CHECKSUM);
+	}
+
+	public static FileMetadata parse(String name, long size, long timestamp, long revision, long checksum) throws ParseException {
 		if (name == null) {
 			throw new ParseException(FileMetadata.class, "Name is null");
 		}
 		if (size < -1) {
 			throw new ParseException(FileMetadata.class, "Size is less than zero and not -1");
 		}
-		return new FileMetadata(name, size, timestamp, revision);
+		if (checksum < NO_CHECKSUM) {
+			throw new ParseException(FileMetadata.class, "Checksum is less than zero and not -1");
+		}
+		return new FileMetadata(name, size, timestamp, revision, checksum);
 	}
 
 	public static FileMetadata tombstone(String name, long timestamp, long revision) {
-		return new FileMetadata(name, -1, timestamp, revision);
+		return new FileMetadata(name, -1, timestamp, revision, NO_CHECKSUM);
 	}
 
 	public FileMetadata withName(String name) {
-		return new FileMetadata(name, size, timestamp, revision);
+		return new FileMetadata(name, size, timestamp, revision, checksum);
+	}
+
+	public FileMetadata withChecksum(long checksum) {
+		checkArgument(checksum >= NO_CHECKSUM, "checksum >= -1");
+		return new FileMetadata(name, size, timestamp, revision, checksum);
 	}
 
 	public FileMetadata asTombstone() {
-		return new FileMetadata(name, -1, timestamp, revision);
+		return new FileMetadata(name, -1, timestamp, revision, NO_CHECKSUM);
 	}
 
 	public boolean isTombstone() {
@@ -94,9 +121,18 @@ public final class FileMetadata {
 		return revision;
 	}
 
+	public boolean hasChecksum() {
+		return checksum != NO_CHECKSUM;
+	}
+
+	public long getChecksum() {
+		return checksum;
+	}
+
 	@Override
 	public String toString() {
-		return name + "(size=" + size + ", timestamp=" + timestamp + ", revision=" + revision + ')';
+		return name + "(size=" + size + ", timestamp=" + timestamp + ", revision=" + revision +
+				(checksum != NO_CHECKSUM ? ", checksum=" + Long.toHexString(checksum) : "") + ')';
 	}
 
 	@Override
@@ -110,15 +146,27 @@ public final class FileMetadata {
 
 		FileMetadata that = (FileMetadata) o;
 
-		return size == that.size && timestamp == that.timestamp && revision == that.revision && name.equals(that.name);
+		return size == that.size && timestamp == that.timestamp && revision == that.revision && checksum == that.checksum && name.equals(that.name);
 	}
 
 	@Override
 	public int hashCode() {
-		return 29791 * name.hashCode()
-				+ 961 * ((int) (size ^ (size >>> 32)))
-				+ 31 * ((int) (timestamp ^ (timestamp >>> 32)))
-				+ (int) (revision ^ (revision >>> 32));
+		return 923521 * name.hashCode()
+				+ 29791 * ((int) (size ^ (size >>> 32)))
+				+ 961 * ((int) (timestamp ^ (timestamp >>> 32)))
+				+ 31 * ((int) (revision ^ (revision >>> 32)))
+				+ (int) (checksum ^ (checksum >>> 32));
+	}
+
+	/**
+	 * Checks if two files have the same content judging by their metadata.
+	 * Checksums are compared when both of the files have them, otherwise only the sizes are compared
+	 */
+	public static boolean isSameContent(FileMetadata first, FileMetadata second) {
+		if (first.size != second.size) {
+			return false;
+		}
+		return first.checksum == NO_CHECKSUM || second.checksum == NO_CHECKSUM || first.checksum == second.checksum;
 	}
 
 	@Nullable
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static io.datakernel.remotefs.LocalFsClient.FILE_SEPARATOR;
+import static io.datakernel.remotefs.LocalFsClient.FILE_SEPARATOR_CHAR;
+import static io.datakernel.remotefs.RemoteFsUtils.getGlobPathMatcher;
+import static io.datakernel.remotefs.RemoteFsUtils.isWildcard;
+
+/**
+ * In-memory index of metadata of files, sorted by their names,
+ * so that glob queries are answered by scanning only the range of names which share the literal prefix of the glob.
+ * <p>
+ * The index is updated from executor threads and read from the eventloop thread, so it is thread-safe.
+ * Updates are serialized, while reads are lock-free.
+ * <p>
+ * Reconciliation with the storage directory merges the results of a walk into the index instead of replacing it,
+ * since the walk is not atomic: the names which were updated by operations after the walk started
+ * are recognized by their versions and are left as the operations set them.
+ */
+final class FileMetadataIndex {
+	private static final String GLOB_METACHARS = "*?[]{}\\";
+
+	private final ConcurrentSkipListMap<String, FileMetadata> entries = new ConcurrentSkipListMap<>();
+	private volatile boolean ready;
+
+	// guarded by this
+	private long version;
+	private int reconciliations;
+	private final Map<String, Long> changedNames = new HashMap<>();
+	private final Map<String, Long> changedFolders = new HashMap<>();
+
+	boolean isReady() {
+		return ready;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	@Nullable
+	FileMetadata get(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Updates the metadata of the file, or removes the file from the index if metadata is {@code null}
+	 */
+	synchronized void update(String name, @Nullable FileMetadata metadata) {
+		if (metadata != null) {
+			entries.put(name, metadata);
+		} else {
+			entries.remove(name);
+		}
+		recordChange(changedNames, name);
+	}
+
+	synchronized void removeFolder(String folder) {
+		subMap(folder).clear();
+		recordChange(changedFolders, folder);
+	}
+
+	/**
+	 * Must be called before the storage directory is walked for {@link #endReconcile}
+	 *
+	 * @return version of the index at the start of the walk
+	 */
+	synchronized long beginReconcile() {
+		reconciliations++;
+		return version;
+	}
+
+	/**
+	 * Merges metadata of the files under the given prefix, collected by a walk which started at the given version.
+	 * Entries which are missing from the walk are removed, unless they were changed after the walk started,
+	 * and walked entries are put, unless they were changed after the walk started
+	 */
+	synchronized void endReconcile(long startVersion, String prefix, Collection<FileMetadata> files) {
+		Set<String> walked = new HashSet<>();
+		for (FileMetadata file : files) {
+			walked.add(file.getName());
+		}
+		subMap(prefix).keySet().removeIf(name -> !walked.contains(name) && !isChangedSince(name, startVersion));
+		for (FileMetadata file : files) {
+			if (!isChangedSince(file.getName(), startVersion)) {
+				entries.put(file.getName(), file);
+			}
+		}
+		if (prefix.isEmpty()) {
+			ready = true;
+		}
+		finishReconcile();
+	}
+
+	synchronized void cancelReconcile() {
+		finishReconcile();
+	}
+
+	private void finishReconcile() {
+		if (--reconciliations == 0) {
+			changedNames.clear();
+			changedFolders.clear();
+		}
+	}
+
+	private void recordChange(Map<String, Long> changes, String name) {
+		version++;
+		if (reconciliations != 0) {
+			changes.put(name, version);
+		}
+	}
+
+	private boolean isChangedSince(String name, long startVersion) {
+		Long changed = changedNames.get(name);
+		if (changed != null && changed > startVersion) {
+			return true;
+		}
+		for (Map.Entry<String, Long> entry : changedFolders.entrySet()) {
+			if (entry.getValue() > startVersion && name.startsWith(entry.getKey())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	List<FileMetadata> find(String glob, boolean includeTombstones) {
+		List<FileMetadata> result = new ArrayList<>();
+		if (glob.isEmpty()) {
+			return result;
+		}
+		if (!isWildcard(glob) && glob.indexOf('\\') == -1) {
+			FileMetadata metadata = entries.get(glob);
+			if (metadata != null && (includeTombstones || !metadata.isTombstone())) {
+				result.add(metadata);
+			}
+			return result;
+		}
+
+		// the same strict prefix folder as LocalFsClient uses for walking the file tree
+		StringBuilder sb = new StringBuilder();
+		String[] split = glob.split(FILE_SEPARATOR);
+		for (int i = 0; i < split.length - 1; i++) {
+			String part = split[i];
+			if (isWildcard(part)) {
+				break;
+			}
+			sb.append(part).append(FILE_SEPARATOR_CHAR);
+		}
+		String folder = sb.toString();
+		String subglob = glob.substring(folder.length());
+		PathMatcher matcher = "**".equals(subglob) ? null : getGlobPathMatcher(subglob);
+
+		for (FileMetadata metadata : subMap(folder + literalPrefix(subglob)).values()) {
+			if (metadata.isTombstone() && !includeTombstones) {
+				continue;
+			}
+			if (matcher == null || matcher.matches(Paths.get(metadata.getName().substring(folder.length())))) {
+				result.add(metadata);
+			}
+		}
+		return result;
+	}
+
+	private NavigableMap<String, FileMetadata> subMap(String prefix) {
+		return prefix.isEmpty() ? entries : entries.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+	}
+
+	private static String literalPrefix(String glob) {
+		int i = 0;
+		while (i < glob.length() && GLOB_METACHARS.indexOf(glob.charAt(i)) == -1) {
+			i++;
+		}
+		return glob.substring(0, i);
+	}
+}
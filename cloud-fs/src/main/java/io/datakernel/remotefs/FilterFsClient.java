@@ -24,9 +24,11 @@ import io.datakernel.promise.Promise;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Predicate;
 
-import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.*;
 
 final class FilterFsClient implements FsClient {
 	private final FsClient parent;
@@ -77,6 +79,22 @@ final class FilterFsClient implements FsClient {
 		return parent.copy(name, target);
 	}
 
+	@Override
+	public Promise<Void> moveAll(@NotNull Map<String, String> sourceToTarget, long targetRevision, long tombstoneRevision) {
+		return parent.moveAll(filterPairs(sourceToTarget), targetRevision, tombstoneRevision);
+	}
+
+	@Override
+	public Promise<Void> copyAll(@NotNull Map<String, String> sourceToTarget, long targetRevision) {
+		return parent.copyAll(filterPairs(sourceToTarget), targetRevision);
+	}
+
+	private Map<String, String> filterPairs(Map<String, String> sourceToTarget) {
+		return sourceToTarget.entrySet().stream()
+				.filter(entry -> predicate.test(entry.getKey()) && predicate.test(entry.getValue()))
+				.collect(toMap(Map.Entry::getKey, Map.Entry::getValue));
+	}
+
 	@Override
 	public Promise<List<FileMetadata>> listEntities(@NotNull String glob) {
 		return parent.listEntities(glob)
@@ -97,4 +115,14 @@ final class FilterFsClient implements FsClient {
 		}
 		return parent.delete(name, revision);
 	}
+
+	@Override
+	public Promise<Void> deleteAll(@NotNull Set<String> names, long revision) {
+		return parent.deleteAll(names.stream().filter(predicate).collect(toSet()), revision);
+	}
+
+	@Override
+	public Promise<Map<String, FileMetadata>> getMetadataAll(@NotNull Set<String> names) {
+		return parent.getMetadataAll(names.stream().filter(predicate).collect(toSet()));
+	}
 }
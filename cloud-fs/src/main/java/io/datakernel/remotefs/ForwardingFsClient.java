@@ -24,7 +24,9 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -95,6 +97,36 @@ public abstract class ForwardingFsClient implements FsClient {
 		return peer.move(filename, target, targetRevision, tombstoneRevision);
 	}
 
+	@Override
+	public Promise<Void> deleteAll(@NotNull Set<String> names) {
+		return peer.deleteAll(names);
+	}
+
+	@Override
+	public Promise<Void> deleteAll(@NotNull Set<String> names, long revision) {
+		return peer.deleteAll(names, revision);
+	}
+
+	@Override
+	public Promise<Void> copyAll(@NotNull Map<String, String> sourceToTarget) {
+		return peer.copyAll(sourceToTarget);
+	}
+
+	@Override
+	public Promise<Void> copyAll(@NotNull Map<String, String> sourceToTarget, long targetRevision) {
+		return peer.copyAll(sourceToTarget, targetRevision);
+	}
+
+	@Override
+	public Promise<Void> moveAll(@NotNull Map<String, String> sourceToTarget) {
+		return peer.moveAll(sourceToTarget);
+	}
+
+	@Override
+	public Promise<Void> moveAll(@NotNull Map<String, String> sourceToTarget, long targetRevision, long tombstoneRevision) {
+		return peer.moveAll(sourceToTarget, targetRevision, tombstoneRevision);
+	}
+
 	@Override
 	public Promise<List<FileMetadata>> listEntities(@NotNull String glob) {
 		return peer.listEntities(glob);
@@ -110,6 +142,11 @@ public abstract class ForwardingFsClient implements FsClient {
 		return peer.getMetadata(name);
 	}
 
+	@Override
+	public Promise<Map<String, FileMetadata>> getMetadataAll(@NotNull Set<String> names) {
+		return peer.getMetadataAll(names);
+	}
+
 	@Override
 	public Promise<Void> ping() {
 		return peer.ping();
@@ -26,8 +26,7 @@ import io.datakernel.promise.Promises;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -47,6 +46,7 @@ public interface FsClient {
 	StacklessException BAD_RANGE = new StacklessException(FsClient.class, "Given offset or length don't make sense");
 	StacklessException MOVING_DIRS = new StacklessException(FsClient.class, "Tried to move, copy delete or replace a directory");
 	StacklessException UNSUPPORTED_REVISION = new StacklessException(FsClient.class, "Given revision is not supported");
+	StacklessException CHECKSUM_MISMATCH = new StacklessException(FsClient.class, "Checksum of the file content does not match");
 
 	long DEFAULT_REVISION = 0;
 
@@ -186,6 +186,56 @@ public interface FsClient {
 		return move(name, target, DEFAULT_REVISION, DEFAULT_REVISION);
 	}
 
+	/**
+	 * Deletes given files.
+	 * <p>
+	 * Default implementation simply deletes each file one by one,
+	 * implementations are encouraged to do it in a single batch
+	 * (e.g. in a single round trip for remote clients).
+	 * The operation is not atomic, so if the returned promise fails
+	 * some of the files may have already been deleted.
+	 *
+	 * @param names names of the files to be deleted
+	 * @return marker promise that completes when all of the deletions complete
+	 */
+	default Promise<Void> deleteAll(@NotNull Set<String> names, long revision) {
+		return Promises.all(names.stream().map(name -> delete(name, revision)));
+	}
+
+	default Promise<Void> deleteAll(@NotNull Set<String> names) {
+		return deleteAll(names, DEFAULT_REVISION);
+	}
+
+	/**
+	 * Duplicates given files, a batch counterpart of {@link #copy}.
+	 * Same non-atomicity considerations as with {@link #deleteAll} apply.
+	 *
+	 * @param sourceToTarget map from names of the files to be copied to their new names
+	 */
+	default Promise<Void> copyAll(@NotNull Map<String, String> sourceToTarget, long targetRevision) {
+		return Promises.all(sourceToTarget.entrySet().stream()
+				.map(entry -> copy(entry.getKey(), entry.getValue(), targetRevision)));
+	}
+
+	default Promise<Void> copyAll(@NotNull Map<String, String> sourceToTarget) {
+		return copyAll(sourceToTarget, DEFAULT_REVISION);
+	}
+
+	/**
+	 * Moves (renames) given files, a batch counterpart of {@link #move}.
+	 * Same non-atomicity considerations as with {@link #deleteAll} apply.
+	 *
+	 * @param sourceToTarget map from names of the files to be moved to their new names
+	 */
+	default Promise<Void> moveAll(@NotNull Map<String, String> sourceToTarget, long targetRevision, long tombstoneRevision) {
+		return Promises.all(sourceToTarget.entrySet().stream()
+				.map(entry -> move(entry.getKey(), entry.getValue(), targetRevision, tombstoneRevision)));
+	}
+
+	default Promise<Void> moveAll(@NotNull Map<String, String> sourceToTarget) {
+		return moveAll(sourceToTarget, DEFAULT_REVISION, DEFAULT_REVISION);
+	}
+
 	default Promise<Void> moveDir(@NotNull String name, @NotNull String target, long targetRevision, long removeRevision) {
 		String finalName = name.endsWith("/") ? name : name + '/';
 		String finalTarget = target.endsWith("/") ? target : target + '/';
@@ -243,6 +293,27 @@ public interface FsClient {
 				.map(list -> list.isEmpty() ? null : list.get(0));
 	}
 
+	/**
+	 * Batch counterpart of {@link #getMetadata}.
+	 *
+	 * @param names names of files to fetch their metadata
+	 * @return promise of a map from file names to their descriptions, names of files which were not found are absent from it
+	 */
+	default Promise<Map<String, FileMetadata>> getMetadataAll(@NotNull Set<String> names) {
+		List<String> list = new ArrayList<>(names);
+		return Promises.toList(list.stream().map(this::getMetadata))
+				.map(metas -> {
+					Map<String, FileMetadata> result = new HashMap<>();
+					for (int i = 0; i < metas.size(); i++) {
+						FileMetadata meta = metas.get(i);
+						if (meta != null) {
+							result.put(list.get(i), meta);
+						}
+					}
+					return result;
+				});
+	}
+
 	/**
 	 * Send a ping request.
 	 * <p>
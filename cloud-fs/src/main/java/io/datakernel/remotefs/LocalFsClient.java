@@ -16,19 +16,23 @@
 
 package io.datakernel.remotefs;
 
+import io.datakernel.async.file.AsyncFileService;
 import io.datakernel.async.service.EventloopService;
 import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.common.MemSize;
 import io.datakernel.common.exception.StacklessException;
 import io.datakernel.common.exception.UncheckedException;
 import io.datakernel.common.time.CurrentTimeProvider;
+import io.datakernel.common.tuple.Tuple2;
 import io.datakernel.csp.ChannelConsumer;
 import io.datakernel.csp.ChannelConsumers;
 import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.csp.file.ChannelFileReader;
 import io.datakernel.csp.file.ChannelFileWriter;
+import io.datakernel.csp.file.FsyncGroup;
 import io.datakernel.csp.process.ChannelByteRanger;
 import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.ScheduledRunnable;
 import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.jmx.PromiseStats;
@@ -41,19 +45,27 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.nio.ByteBuffer;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.function.Function;
+import java.util.zip.CRC32;
 
 import static io.datakernel.async.util.LogUtils.Level.TRACE;
 import static io.datakernel.async.util.LogUtils.toLogger;
 import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.common.Preconditions.checkState;
+import static io.datakernel.common.Utils.nullify;
 import static io.datakernel.common.collection.CollectionUtils.set;
+import static io.datakernel.remotefs.FileMetadata.NO_CHECKSUM;
 import static io.datakernel.remotefs.FileNamingScheme.FilenameInfo;
+import static io.datakernel.remotefs.RemoteFsUtils.escapeGlob;
 import static io.datakernel.remotefs.RemoteFsUtils.isWildcard;
+import static io.datakernel.remotefs.RemoteFsUtils.verifyChecksum;
 import static java.nio.file.FileVisitResult.CONTINUE;
 import static java.nio.file.FileVisitResult.SKIP_SUBTREE;
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
@@ -118,6 +130,9 @@ public final class LocalFsClient implements FsClient, EventloopService {
 
 	public static final Duration DEFAULT_TOMBSTONE_TTL = Duration.ofHours(1);
 
+	private static final String CHECKSUM_ATTRIBUTE = "datakernel.checksum";
+	private static final int CHECKSUM_ATTRIBUTE_SIZE = 24;
+
 	public static final char FILE_SEPARATOR_CHAR = '/';
 
 	public static final String FILE_SEPARATOR = String.valueOf(FILE_SEPARATOR_CHAR);
@@ -135,7 +150,15 @@ public final class LocalFsClient implements FsClient, EventloopService {
 	private final Executor executor;
 
 	private MemSize readerBufferSize = MemSize.kilobytes(256);
+	@Nullable
+	private AsyncFileService readerFileService;
+	@Nullable
+	private MemSize writerCoalesceBytes;
+	private Duration writerCoalesceDelay = Duration.ZERO;
+	@Nullable
+	private FsyncGroup fsyncGroup;
 	private boolean lazyOverrides = true;
+	private boolean checksums;
 	@Nullable
 	private Long defaultRevision = DEFAULT_REVISION;
 
@@ -143,6 +166,16 @@ public final class LocalFsClient implements FsClient, EventloopService {
 
 	private FileNamingScheme namingScheme = new NoopNamingScheme(DEFAULT_REVISION);
 
+	@Nullable
+	private FileMetadataIndex metadataIndex;
+	private String metadataIndexPrefix = "";
+	private long reconcileInterval;
+	@Nullable
+	private ScheduledRunnable reconcileTask;
+	@Nullable
+	private Promise<Void> reconciling;
+	private boolean stopped;
+
 	CurrentTimeProvider now;
 
 	//region JMX
@@ -157,6 +190,8 @@ public final class LocalFsClient implements FsClient, EventloopService {
 	private final PromiseStats singleCopyPromise = PromiseStats.create(Duration.ofMinutes(5));
 	private final PromiseStats deletePromise = PromiseStats.create(Duration.ofMinutes(5));
 	private final PromiseStats singleDeletePromise = PromiseStats.create(Duration.ofMinutes(5));
+	private final PromiseStats reconcilePromise = PromiseStats.create(Duration.ofMinutes(5));
+	private final ChannelFileWriter.JmxInspector writerInspector = new ChannelFileWriter.JmxInspector();
 	//endregion
 
 	// region creators
@@ -199,6 +234,21 @@ public final class LocalFsClient implements FsClient, EventloopService {
 		return this;
 	}
 
+	/**
+	 * Keeps metadata of all files in memory, so that {@link #list}, {@link #listEntities} and {@link #getMetadata}
+	 * are answered without walking the storage directory.
+	 * <p>
+	 * The index is built on {@link #start()} and is updated by the operations of this client.
+	 * Files which are changed by anyone else are picked up by reconciliation of the index with the storage directory,
+	 * which runs with the given interval
+	 */
+	public LocalFsClient withMetadataIndex(Duration reconcileInterval) {
+		checkArgument(!reconcileInterval.isNegative() && !reconcileInterval.isZero(), "Reconcile interval must be positive");
+		this.metadataIndex = new FileMetadataIndex();
+		this.reconcileInterval = reconcileInterval.toMillis();
+		return this;
+	}
+
 	/**
 	 * Sets the buffer size for reading files from the filesystem.
 	 */
@@ -206,6 +256,50 @@ public final class LocalFsClient implements FsClient, EventloopService {
 		readerBufferSize = size;
 		return this;
 	}
+
+	/**
+	 * Sets the file service which is used for reading files, such as
+	 * {@link io.datakernel.async.file.ReadAheadAsyncFileService} or {@link io.datakernel.async.file.MemoryMappedAsyncFileService}.
+	 * By default, each read is a separate blocking call on the executor
+	 */
+	public LocalFsClient withReaderFileService(AsyncFileService fileService) {
+		readerFileService = fileService;
+		return this;
+	}
+
+	/**
+	 * Uploaded data is accumulated and written by gathering writes,
+	 * see {@link ChannelFileWriter#withWriteCoalescing}
+	 */
+	public LocalFsClient withWriteCoalescing(MemSize maxBytes, Duration maxDelay) {
+		writerCoalesceBytes = maxBytes;
+		writerCoalesceDelay = maxDelay;
+		return this;
+	}
+
+	/**
+	 * Enables content checksums.
+	 * CRC32 of each uploaded file is computed while it is being written and is stored in a user-defined
+	 * extended attribute of the file along with the size and modification time of the file, so that
+	 * the checksum is ignored once the file is changed by anyone else.
+	 * Checksums are reported in {@link FileMetadata} and downloads of whole files with known checksums
+	 * fail with {@link #CHECKSUM_MISMATCH} at the end of the stream if the content does not match.
+	 * <p>
+	 * When the underlying file system does not support user-defined attributes files simply have no checksums.
+	 */
+	public LocalFsClient withChecksums(boolean checksums) {
+		this.checksums = checksums;
+		return this;
+	}
+
+	/**
+	 * Uploads are acknowledged only after their data has been forced to the storage device
+	 * by the given group, which may be shared with other clients
+	 */
+	public LocalFsClient withFsyncGroup(FsyncGroup fsyncGroup) {
+		this.fsyncGroup = fsyncGroup;
+		return this;
+	}
 	// endregion
 
 	private Promise<ChannelConsumer<ByteBuf>> doUpload(Path path, long size, long offset) throws StacklessException, IOException {
@@ -215,9 +309,41 @@ public final class LocalFsClient implements FsClient, EventloopService {
 		long skip = lazyOverrides ? size - offset : 0;
 
 		FileChannel channel = FileChannel.open(path, set(CREATE, WRITE));
-		return Promise.of(ChannelFileWriter.create(executor, channel)
+		ChannelFileWriter writer = ChannelFileWriter.create(executor, channel)
 				.withOffset(offset + skip)
-				.transformWith(ChannelByteRanger.drop(skip)));
+				.withInspector(writerInspector);
+		if (writerCoalesceBytes != null) {
+			writer.withWriteCoalescing(writerCoalesceBytes, writerCoalesceDelay);
+		}
+		if (fsyncGroup != null) {
+			writer.withFsyncGroup(fsyncGroup);
+		}
+		ChannelConsumer<ByteBuf> consumer = writer.transformWith(ChannelByteRanger.drop(skip));
+		return Promise.of(checksums ? withChecksum(consumer, path, offset == 0 && skip == 0) : consumer);
+	}
+
+	/**
+	 * Computes CRC32 of the data while it is uploaded and stores it once the upload is finished.
+	 * If the upload does not cover the whole file, the checksum is computed by reading the file instead
+	 */
+	private ChannelConsumer<ByteBuf> withChecksum(ChannelConsumer<ByteBuf> consumer, Path path, boolean wholeFile) {
+		CRC32 crc = new CRC32();
+		long[] streamed = {0};
+		return consumer
+				.peek(buf -> {
+					if (wholeFile) {
+						crc.update(buf.array(), buf.head(), buf.readRemaining());
+					}
+					streamed[0] += buf.readRemaining();
+				})
+				.withAcknowledgement(ack -> ack
+						.then($ -> Promise.ofBlockingRunnable(executor, () -> {
+							try {
+								writeChecksum(path, wholeFile && streamed[0] == Files.size(path) ? crc.getValue() : computeChecksum(path));
+							} catch (IOException e) {
+								throw new UncheckedException(e);
+							}
+						})));
 	}
 
 	@Override
@@ -256,6 +382,7 @@ public final class LocalFsClient implements FsClient, EventloopService {
 				}).map(consumer -> consumer
 						// calling withAcknowledgement in eventloop thread
 						.withAcknowledgement(ack -> ack
+								.thenEx((v, e) -> reindexAsync(name).thenEx(($, e2) -> e == null ? Promise.complete() : Promise.<Void>ofException(e)))
 								.whenComplete(writeFinishPromise.recordStats())
 								.whenComplete(toLogger(logger, TRACE, "writing to file", name, offset, revision, this))))
 				.whenComplete(writeBeginPromise.recordStats())
@@ -273,13 +400,26 @@ public final class LocalFsClient implements FsClient, EventloopService {
 					if (info == null || info.isTombstone()) {
 						throw FILE_NOT_FOUND;
 					}
-					return info;
+					Path path = info.getFilePath();
+					long checksum = NO_CHECKSUM;
+					if (checksums && offset == 0) {
+						// only downloads of whole files can be verified
+						long size = Files.size(path);
+						if (length == -1 || length == size) {
+							checksum = readChecksum(path, size);
+						}
+					}
+					return new Tuple2<>(path, checksum);
 				})
-				.then(info -> ChannelFileReader.open(executor, info.getFilePath()))
-				.map(consumer -> consumer
-						.withBufferSize(readerBufferSize)
-						.withOffset(offset)
-						.withLength(length == -1 ? Long.MAX_VALUE : length)
+				.then(pathAndChecksum -> (readerFileService != null ?
+						ChannelFileReader.open(executor, readerFileService, pathAndChecksum.getValue1()) :
+						ChannelFileReader.open(executor, pathAndChecksum.getValue1()))
+						.map(reader -> verifyChecksum(reader
+										.withBufferSize(readerBufferSize)
+										.withOffset(offset)
+										.withLength(length == -1 ? Long.MAX_VALUE : length),
+								pathAndChecksum.getValue2())))
+				.map(supplier -> supplier
 						// call withAcknowledgement in eventloop thread
 						.withEndOfStream(eos -> eos.whenComplete(readFinishPromise.recordStats())))
 				.whenComplete(toLogger(logger, TRACE, "download", name, offset, length, this))
@@ -288,14 +428,14 @@ public final class LocalFsClient implements FsClient, EventloopService {
 
 	@Override
 	public Promise<List<FileMetadata>> listEntities(@NotNull String glob) {
-		return Promise.ofBlockingCallable(executor, () -> doList(glob, true))
+		return (isIndexed() ? Promise.of(findIndexed(glob, true)) : Promise.ofBlockingCallable(executor, () -> doList(glob, true)))
 				.whenComplete(toLogger(logger, TRACE, "listEntities", glob, this))
 				.whenComplete(listPromise.recordStats());
 	}
 
 	@Override
 	public Promise<List<FileMetadata>> list(@NotNull String glob) {
-		return Promise.ofBlockingCallable(executor, () -> doList(glob, false))
+		return (isIndexed() ? Promise.of(findIndexed(glob, false)) : Promise.ofBlockingCallable(executor, () -> doList(glob, false)))
 				.whenComplete(toLogger(logger, TRACE, "list", glob, this))
 				.whenComplete(listPromise.recordStats());
 	}
@@ -307,41 +447,27 @@ public final class LocalFsClient implements FsClient, EventloopService {
 
 		return Promise.ofBlockingCallable(executor,
 				() -> {
-					if (defaultRevision == null) {
-						doCopy(name, target, targetRevision);
-						doDelete(name, tombstoneRevision);
-						return (Void) null;
-					}
-
-					// old logic (optimization that uses atomic moves)
-					if (tombstoneRevision != defaultRevision) {
-						throw UNSUPPORTED_REVISION;
-					}
-					Path path = resolve(name);
-					Path targetPath = resolve(target);
+					doMove(name, target, targetRevision, tombstoneRevision);
+					return (Void) null;
+				})
+				.whenComplete(toLogger(logger, TRACE, "move", name, target, this))
+				.whenComplete(singleMovePromise.recordStats());
+	}
 
-					if (Files.isDirectory(path) || Files.isDirectory(targetPath)) {
-						throw MOVING_DIRS;
-					}
-					// noop when paths are equal
-					if (path.equals(targetPath)) {
-						return null;
-					}
-					// cannot move into existing file
-					if (Files.isRegularFile(targetPath)) {
-						throw FILE_EXISTS;
-					}
+	@Override
+	public Promise<Void> moveAll(@NotNull Map<String, String> sourceToTarget, long targetRevision, long tombstoneRevision) {
+		checkArgument(defaultRevision == null || targetRevision == defaultRevision, "unsupported revision");
+		checkArgument(defaultRevision == null || tombstoneRevision == defaultRevision, "unsupported revision");
 
-					if (Files.isRegularFile(path)) {
-						Files.createDirectories(targetPath.getParent());
-						Files.move(path, targetPath, ATOMIC_MOVE);
-					} else {
-						Files.deleteIfExists(targetPath);
+		return Promise.ofBlockingCallable(executor,
+				() -> {
+					for (Map.Entry<String, String> entry : sourceToTarget.entrySet()) {
+						doMove(entry.getKey(), entry.getValue(), targetRevision, tombstoneRevision);
 					}
-					return null;
+					return (Void) null;
 				})
-				.whenComplete(toLogger(logger, TRACE, "move", name, target, this))
-				.whenComplete(singleMovePromise.recordStats());
+				.whenComplete(toLogger(logger, TRACE, "moveAll", sourceToTarget.size(), this))
+				.whenComplete(movePromise.recordStats());
 	}
 
 	@Override
@@ -349,6 +475,20 @@ public final class LocalFsClient implements FsClient, EventloopService {
 		if (defaultRevision == null) {
 			return FsClient.super.moveDir(name, target, targetRevision, removeRevision);
 		}
+		if (metadataIndex != null) {
+			String finalName = name.endsWith("/") ? name : name + '/';
+			String finalTarget = target.endsWith("/") ? target : target + '/';
+			return doMoveDir(name, target, targetRevision, removeRevision)
+					.thenEx((v, e) -> Promise.ofBlockingCallable(executor, () -> {
+						reindexFolder(finalName);
+						reindexFolder(finalTarget);
+						return (Void) null;
+					}).thenEx(($, e2) -> e == null ? Promise.complete() : Promise.<Void>ofException(e)));
+		}
+		return doMoveDir(name, target, targetRevision, removeRevision);
+	}
+
+	private Promise<Void> doMoveDir(@NotNull String name, @NotNull String target, long targetRevision, long removeRevision) {
 		String finalName = name.endsWith("/") ? name : name + '/';
 		String finalTarget = target.endsWith("/") ? target : target + '/';
 
@@ -392,6 +532,7 @@ public final class LocalFsClient implements FsClient, EventloopService {
 		return Promise.ofBlockingCallable(executor,
 				() -> {
 					doCopy(name, target, targetRevision);
+					reindex(target);
 					return (Void) null;
 				})
 				.whenComplete(toLogger(logger, TRACE, "copy", name, target, this))
@@ -405,12 +546,45 @@ public final class LocalFsClient implements FsClient, EventloopService {
 		return Promise.ofBlockingCallable(executor,
 				() -> {
 					doDelete(name, revision);
+					reindex(name);
 					return (Void) null;
 				})
 				.whenComplete(toLogger(logger, TRACE, "delete", name, this))
 				.whenComplete(singleDeletePromise.recordStats());
 	}
 
+	@Override
+	public Promise<Void> copyAll(@NotNull Map<String, String> sourceToTarget, long targetRevision) {
+		checkArgument(defaultRevision == null || targetRevision == defaultRevision, "unsupported revision");
+
+		return Promise.ofBlockingCallable(executor,
+				() -> {
+					for (Map.Entry<String, String> entry : sourceToTarget.entrySet()) {
+						doCopy(entry.getKey(), entry.getValue(), targetRevision);
+						reindex(entry.getValue());
+					}
+					return (Void) null;
+				})
+				.whenComplete(toLogger(logger, TRACE, "copyAll", sourceToTarget.size(), this))
+				.whenComplete(copyPromise.recordStats());
+	}
+
+	@Override
+	public Promise<Void> deleteAll(@NotNull Set<String> names, long revision) {
+		checkArgument(defaultRevision == null || revision == defaultRevision, "unsupported revision");
+
+		return Promise.ofBlockingCallable(executor,
+				() -> {
+					for (String name : names) {
+						doDelete(name, revision);
+						reindex(name);
+					}
+					return (Void) null;
+				})
+				.whenComplete(toLogger(logger, TRACE, "deleteAll", names.size(), this))
+				.whenComplete(deletePromise.recordStats());
+	}
+
 	@Override
 	public Promise<Void> ping() {
 		return Promise.complete(); // local fs is always available
@@ -418,12 +592,42 @@ public final class LocalFsClient implements FsClient, EventloopService {
 
 	@Override
 	public Promise<FileMetadata> getMetadata(@NotNull String name) {
+		if (isIndexed()) {
+			assert metadataIndex != null;
+			FileMetadata metadata = metadataIndex.get(metadataIndexPrefix + name);
+			return Promise.of(metadata != null ? metadata.withName(name) : null);
+		}
 		return Promise.ofBlockingCallable(executor, () -> {
 			FilenameInfo info = getInfo(name);
 			return info != null ? toFileMetadata(info) : null;
 		});
 	}
 
+	@Override
+	public Promise<Map<String, FileMetadata>> getMetadataAll(@NotNull Set<String> names) {
+		if (isIndexed()) {
+			assert metadataIndex != null;
+			Map<String, FileMetadata> result = new HashMap<>();
+			for (String name : names) {
+				FileMetadata metadata = metadataIndex.get(metadataIndexPrefix + name);
+				if (metadata != null) {
+					result.put(name, metadata.withName(name));
+				}
+			}
+			return Promise.of(result);
+		}
+		return Promise.ofBlockingCallable(executor, () -> {
+			Map<String, FileMetadata> result = new HashMap<>();
+			for (String name : names) {
+				FilenameInfo info = getInfo(name);
+				if (info != null) {
+					result.put(name, toFileMetadata(info));
+				}
+			}
+			return result;
+		});
+	}
+
 	@Override
 	public FsClient subfolder(@NotNull String folder) {
 		if (folder.length() == 0) {
@@ -432,10 +636,17 @@ public final class LocalFsClient implements FsClient, EventloopService {
 		try {
 			LocalFsClient client = new LocalFsClient(eventloop, resolve(folder), executor);
 			client.readerBufferSize = readerBufferSize;
+			client.readerFileService = readerFileService;
+			client.writerCoalesceBytes = writerCoalesceBytes;
+			client.writerCoalesceDelay = writerCoalesceDelay;
+			client.fsyncGroup = fsyncGroup;
 			client.lazyOverrides = lazyOverrides;
 			client.defaultRevision = defaultRevision;
 			client.tombstoneTtl = tombstoneTtl;
 			client.namingScheme = namingScheme;
+			client.checksums = checksums;
+			client.metadataIndex = metadataIndex;
+			client.metadataIndexPrefix = metadataIndexPrefix + folder + (folder.endsWith(FILE_SEPARATOR) ? "" : FILE_SEPARATOR);
 			return client;
 		} catch (StacklessException e) {
 			// when folder points outside of the storage directory
@@ -460,15 +671,56 @@ public final class LocalFsClient implements FsClient, EventloopService {
 						throw new UncheckedException(e);
 					}
 				})
-				.then($ -> cleanup());
+				.then($ -> cleanup())
+				.then($ -> {
+					stopped = false;
+					return metadataIndex != null ? reconcile() : Promise.complete();
+				});
 	}
 
 	@NotNull
 	@Override
 	public Promise<Void> stop() {
+		stopped = true;
+		reconcileTask = nullify(reconcileTask, ScheduledRunnable::cancel);
 		return Promise.complete();
 	}
 
+	/**
+	 * Reconciles the metadata index with the storage directory.
+	 * If reconciliation is already running, returns its promise instead of starting another walk
+	 */
+	public Promise<Void> reconcile() {
+		checkState(metadataIndex != null, "Metadata index is not enabled");
+		if (reconciling != null) return reconciling;
+		reconcileTask = nullify(reconcileTask, ScheduledRunnable::cancel);
+		long startVersion = metadataIndex.beginReconcile();
+		reconciling = Promise.ofBlockingCallable(executor,
+				() -> {
+					List<FileMetadata> files = doList("**", true);
+					if (!metadataIndexPrefix.isEmpty()) {
+						files = files.stream()
+								.map(metadata -> metadata.withName(metadataIndexPrefix + metadata.getName()))
+								.collect(toList());
+					}
+					metadataIndex.endReconcile(startVersion, metadataIndexPrefix, files);
+					return (Void) null;
+				})
+				.whenComplete(($, e) -> {
+					reconciling = null;
+					if (e != null) {
+						metadataIndex.cancelReconcile();
+						logger.warn("Failed to reconcile metadata index of {}", this, e);
+					}
+					if (!stopped) {
+						reconcileTask = eventloop.delayBackground(reconcileInterval, this::reconcile);
+					}
+				})
+				.whenComplete(toLogger(logger, TRACE, "reconcile", this))
+				.whenComplete(reconcilePromise.recordStats());
+		return reconciling;
+	}
+
 	public Promise<Void> cleanup() {
 		return Promise.ofBlockingCallable(executor, () -> {
 			long border = now.currentTimeMillis() - tombstoneTtl;
@@ -485,7 +737,8 @@ public final class LocalFsClient implements FsClient, EventloopService {
 						if (ts < border) {
 							try {
 								Files.deleteIfExists(info.getFilePath());
-							} catch (IOException e) {
+								reindex(info.getName());
+							} catch (IOException | StacklessException e) {
 								logger.warn("Failed clean up expired tombstone {}", info.getName());
 							}
 						}
@@ -499,6 +752,7 @@ public final class LocalFsClient implements FsClient, EventloopService {
 			FilenameInfo info = getInfo(name);
 			if (info != null) {
 				Files.deleteIfExists(info.getFilePath());
+				reindex(name);
 			}
 			return null;
 		});
@@ -527,9 +781,74 @@ public final class LocalFsClient implements FsClient, EventloopService {
 		} catch (UnsupportedOperationException | SecurityException e) {
 			// if couldn't, then just actually copy it
 			Files.copy(path, targetPath);
+			if (checksums) {
+				long checksum = readChecksum(path, Files.size(path));
+				if (checksum != NO_CHECKSUM) {
+					writeChecksum(targetPath, checksum);
+				}
+			}
 		}
 	}
 
+	private static long computeChecksum(Path path) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[64 * 1024];
+		try (FileChannel channel = FileChannel.open(path)) {
+			ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+			int read;
+			while ((read = channel.read(byteBuffer)) != -1) {
+				crc.update(buffer, 0, read);
+				byteBuffer.clear();
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Stores the checksum of the file along with its current size and modification time
+	 */
+	private static void writeChecksum(Path path, long checksum) throws IOException {
+		UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+		if (view == null) {
+			return;
+		}
+		ByteBuffer value = ByteBuffer.allocate(CHECKSUM_ATTRIBUTE_SIZE)
+				.putLong(Files.size(path))
+				.putLong(Files.getLastModifiedTime(path).toMillis())
+				.putLong(checksum);
+		value.flip();
+		try {
+			view.write(CHECKSUM_ATTRIBUTE, value);
+		} catch (IOException | UnsupportedOperationException e) {
+			logger.debug("Could not store checksum of {}", path, e);
+		}
+	}
+
+	/**
+	 * Returns the stored checksum of the file, or {@link FileMetadata#NO_CHECKSUM}
+	 * if there is none or if the file has been changed since the checksum was stored
+	 */
+	private static long readChecksum(Path path, long size) throws IOException {
+		UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+		if (view == null) {
+			return NO_CHECKSUM;
+		}
+		ByteBuffer value = ByteBuffer.allocate(CHECKSUM_ATTRIBUTE_SIZE);
+		try {
+			if (view.read(CHECKSUM_ATTRIBUTE, value) != CHECKSUM_ATTRIBUTE_SIZE) {
+				return NO_CHECKSUM;
+			}
+		} catch (IOException | UnsupportedOperationException e) {
+			// no such attribute or attributes are not supported
+			return NO_CHECKSUM;
+		}
+		value.flip();
+		if (value.getLong() != size || value.getLong() != Files.getLastModifiedTime(path).toMillis()) {
+			return NO_CHECKSUM;
+		}
+		return value.getLong();
+	}
+
 	private void doCopy(String name, String target, long targetRevision) throws StacklessException, IOException {
 		FilenameInfo info = getInfo(name);
 		if (info == null || info.isTombstone()) {
@@ -554,6 +873,44 @@ public final class LocalFsClient implements FsClient, EventloopService {
 		tryHardlinkOrCopy(path, targetPath);
 	}
 
+	private void doMove(String name, String target, long targetRevision, long tombstoneRevision) throws StacklessException, IOException {
+		if (defaultRevision == null) {
+			doCopy(name, target, targetRevision);
+			doDelete(name, tombstoneRevision);
+			reindex(name);
+			reindex(target);
+			return;
+		}
+
+		// old logic (optimization that uses atomic moves)
+		if (tombstoneRevision != defaultRevision) {
+			throw UNSUPPORTED_REVISION;
+		}
+		Path path = resolve(name);
+		Path targetPath = resolve(target);
+
+		if (Files.isDirectory(path) || Files.isDirectory(targetPath)) {
+			throw MOVING_DIRS;
+		}
+		// noop when paths are equal
+		if (path.equals(targetPath)) {
+			return;
+		}
+		// cannot move into existing file
+		if (Files.isRegularFile(targetPath)) {
+			throw FILE_EXISTS;
+		}
+
+		if (Files.isRegularFile(path)) {
+			Files.createDirectories(targetPath.getParent());
+			Files.move(path, targetPath, ATOMIC_MOVE);
+		} else {
+			Files.deleteIfExists(targetPath);
+		}
+		reindex(name);
+		reindex(target);
+	}
+
 	private void doDelete(String name, long revision) throws IOException, StacklessException {
 		Path path = resolve(namingScheme.encode(name, revision, true));
 
@@ -604,6 +961,53 @@ public final class LocalFsClient implements FsClient, EventloopService {
 		return matched.hasNext() ? matched.next() : null;
 	}
 
+	private boolean isIndexed() {
+		return metadataIndex != null && metadataIndex.isReady();
+	}
+
+	private List<FileMetadata> findIndexed(String glob, boolean includeTombstones) {
+		assert metadataIndex != null;
+		if (metadataIndexPrefix.isEmpty()) {
+			return metadataIndex.find(glob, includeTombstones);
+		}
+		if (glob.isEmpty()) {
+			return emptyList();
+		}
+		return metadataIndex.find(escapeGlob(metadataIndexPrefix) + glob, includeTombstones).stream()
+				.map(metadata -> metadata.withName(metadata.getName().substring(metadataIndexPrefix.length())))
+				.collect(toList());
+	}
+
+	/**
+	 * Updates the metadata index entry of the file after it was changed, must be called from executor
+	 */
+	private void reindex(String name) throws IOException, StacklessException {
+		if (metadataIndex == null) return;
+		FilenameInfo info = getInfo(name);
+		FileMetadata metadata = info != null ? toFileMetadata(info) : null;
+		metadataIndex.update(metadataIndexPrefix + name,
+				metadata != null ? metadata.withName(metadataIndexPrefix + metadata.getName()) : null);
+	}
+
+	private Promise<Void> reindexAsync(String name) {
+		if (metadataIndex == null) return Promise.complete();
+		return Promise.ofBlockingCallable(executor, () -> {
+			reindex(name);
+			return null;
+		});
+	}
+
+	private void reindexFolder(String folder) throws IOException, StacklessException {
+		assert metadataIndex != null;
+		metadataIndex.removeFolder(metadataIndexPrefix + folder);
+		for (FilenameInfo info : findMatching(folder, "**", true)) {
+			FileMetadata metadata = toFileMetadata(info);
+			if (metadata != null) {
+				metadataIndex.update(metadataIndexPrefix + metadata.getName(), metadata.withName(metadataIndexPrefix + metadata.getName()));
+			}
+		}
+	}
+
 	private List<FileMetadata> doList(String glob, boolean includeTombstones) throws IOException, StacklessException {
 		return findMatching(glob, includeTombstones).stream()
 				.map(this::toFileMetadata)
@@ -627,12 +1031,22 @@ public final class LocalFsClient implements FsClient, EventloopService {
 			}
 			sb.append(part).append(FILE_SEPARATOR_CHAR);
 		}
-		String subglob = glob.substring(sb.length());
-		Path subfolder = resolve(sb.toString());
+		return findMatching(sb.toString(), glob.substring(sb.length()), includeTombstones);
+	}
+
+	/**
+	 * Finds files of the folder which match the glob
+	 *
+	 * @param folder a path of the folder, which is not a glob, so it does not need escaping;
+	 *               it is either empty or ends with a separator
+	 * @param glob   a glob relative to the folder
+	 */
+	private Collection<FilenameInfo> findMatching(String folder, String glob, boolean includeTombstones) throws IOException, StacklessException {
+		Path subfolder = resolve(folder);
 
 		return defaultRevision != null ?
-				simpleFindMatching(subfolder, subglob) :
-				findMatchingWithRevision(subfolder, subglob, includeTombstones);
+				simpleFindMatching(subfolder, glob) :
+				findMatchingWithRevision(subfolder, glob, includeTombstones);
 	}
 
 	private FilenameInfo simpleFileInfo(Path path) {
@@ -722,9 +1136,11 @@ public final class LocalFsClient implements FsClient, EventloopService {
 			String name = toRemoteName.apply(info.getName());
 			Path path = info.getFilePath();
 			long timestamp = Files.getLastModifiedTime(path).toMillis();
-			return info.isTombstone() ?
-					FileMetadata.tombstone(name, timestamp, info.getRevision()) :
-					FileMetadata.of(name, Files.size(path), timestamp, info.getRevision());
+			if (info.isTombstone()) {
+				return FileMetadata.tombstone(name, timestamp, info.getRevision());
+			}
+			long size = Files.size(path);
+			return FileMetadata.of(name, size, timestamp, info.getRevision(), checksums ? readChecksum(path, size) : NO_CHECKSUM);
 		} catch (Exception e) {
 			logger.warn("error while getting metadata for file {}", info.getFilePath());
 			return null;
@@ -874,5 +1290,20 @@ public final class LocalFsClient implements FsClient, EventloopService {
 	public PromiseStats getSingleDeletePromise() {
 		return singleDeletePromise;
 	}
+
+	@JmxAttribute
+	public PromiseStats getReconcilePromise() {
+		return reconcilePromise;
+	}
+
+	@JmxAttribute
+	public int getIndexedFiles() {
+		return metadataIndex != null ? metadataIndex.size() : 0;
+	}
+
+	@JmxAttribute
+	public ChannelFileWriter.JmxInspector getWriterStats() {
+		return writerInspector;
+	}
 	//endregion
 }
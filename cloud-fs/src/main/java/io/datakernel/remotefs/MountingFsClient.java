@@ -23,9 +23,8 @@ import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.BiFunction;
 import java.util.stream.Stream;
 
 import static io.datakernel.remotefs.RemoteFsUtils.copyFile;
@@ -103,6 +102,63 @@ final class MountingFsClient implements FsClient {
 		return findMount(name).delete(name, revision);
 	}
 
+	@Override
+	public Promise<Void> moveAll(@NotNull Map<String, String> sourceToTarget, long targetRevision, long tombstoneRevision) {
+		return renamingBatch(sourceToTarget,
+				(client, batch) -> client.moveAll(batch, targetRevision, tombstoneRevision),
+				(name, target) -> move(name, target, targetRevision, tombstoneRevision));
+	}
+
+	@Override
+	public Promise<Void> copyAll(@NotNull Map<String, String> sourceToTarget, long targetRevision) {
+		return renamingBatch(sourceToTarget,
+				(client, batch) -> client.copyAll(batch, targetRevision),
+				(name, target) -> copy(name, target, targetRevision));
+	}
+
+	private Promise<Void> renamingBatch(Map<String, String> sourceToTarget,
+			BiFunction<FsClient, Map<String, String>, Promise<Void>> batchOp,
+			BiFunction<String, String, Promise<Void>> singleOp) {
+		Map<FsClient, Map<String, String>> batches = new HashMap<>();
+		List<Promise<Void>> crossMount = new ArrayList<>();
+		sourceToTarget.forEach((name, target) -> {
+			FsClient first = findMount(name);
+			if (first == findMount(target)) {
+				batches.computeIfAbsent(first, $ -> new HashMap<>()).put(name, target);
+			} else {
+				crossMount.add(singleOp.apply(name, target));
+			}
+		});
+		return Promises.all(Stream.concat(
+				batches.entrySet().stream().map(entry -> batchOp.apply(entry.getKey(), entry.getValue())),
+				crossMount.stream()));
+	}
+
+	@Override
+	public Promise<Void> deleteAll(@NotNull Set<String> names, long revision) {
+		return Promises.all(groupByMount(names).entrySet().stream()
+				.map(entry -> entry.getKey().deleteAll(entry.getValue(), revision)));
+	}
+
+	@Override
+	public Promise<Map<String, FileMetadata>> getMetadataAll(@NotNull Set<String> names) {
+		return Promises.toList(groupByMount(names).entrySet().stream()
+				.map(entry -> entry.getKey().getMetadataAll(entry.getValue())))
+				.map(maps -> {
+					Map<String, FileMetadata> result = new HashMap<>();
+					maps.forEach(result::putAll);
+					return result;
+				});
+	}
+
+	private Map<FsClient, Set<String>> groupByMount(Set<String> names) {
+		Map<FsClient, Set<String>> groups = new HashMap<>();
+		for (String name : names) {
+			groups.computeIfAbsent(findMount(name), $ -> new HashSet<>()).add(name);
+		}
+		return groups;
+	}
+
 	@Override
 	public FsClient mount(@NotNull String mountpoint, @NotNull FsClient client) {
 		Map<String, FsClient> map = new HashMap<>(mounts);
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * A systematic Reed-Solomon erasure code over GF(2^8).
+ * <p>
+ * Splits data into {@code dataShards} shards and computes {@code parityShards} additional shards,
+ * so that the data can be restored from any {@code dataShards} shards out of the total.
+ * Encoding matrix is derived from a Vandermonde matrix, so that its top part is an identity matrix
+ * and data shards are stored as is.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public final class ReedSolomon {
+	public static final int MAX_TOTAL_SHARDS = 256;
+
+	private static final int FIELD_SIZE = 256;
+	private static final int PRIMITIVE_POLYNOMIAL = 0x11D;
+
+	private static final byte[] EXP = new byte[FIELD_SIZE * 2];
+	private static final int[] LOG = new int[FIELD_SIZE];
+	private static final byte[][] MUL = new byte[FIELD_SIZE][FIELD_SIZE];
+
+	static {
+		int x = 1;
+		for (int i = 0; i < FIELD_SIZE - 1; i++) {
+			EXP[i] = (byte) x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x >= FIELD_SIZE) {
+				x ^= PRIMITIVE_POLYNOMIAL;
+			}
+		}
+		for (int i = FIELD_SIZE - 1; i < EXP.length; i++) {
+			EXP[i] = EXP[i - (FIELD_SIZE - 1)];
+		}
+		for (int a = 0; a < FIELD_SIZE; a++) {
+			for (int b = 0; b < FIELD_SIZE; b++) {
+				MUL[a][b] = multiply(a, b);
+			}
+		}
+	}
+
+	private final int dataShards;
+	private final int parityShards;
+	private final byte[][] matrix;
+
+	private ReedSolomon(int dataShards, int parityShards) {
+		this.dataShards = dataShards;
+		this.parityShards = parityShards;
+		this.matrix = buildMatrix(dataShards, dataShards + parityShards);
+	}
+
+	public static ReedSolomon create(int dataShards, int parityShards) {
+		checkArgument(dataShards > 0, "Number of data shards should be positive");
+		checkArgument(parityShards >= 0, "Number of parity shards cannot be negative");
+		checkArgument(dataShards + parityShards <= MAX_TOTAL_SHARDS, "Total number of shards cannot exceed " + MAX_TOTAL_SHARDS);
+		return new ReedSolomon(dataShards, parityShards);
+	}
+
+	public int getDataShards() {
+		return dataShards;
+	}
+
+	public int getParityShards() {
+		return parityShards;
+	}
+
+	public int getTotalShards() {
+		return dataShards + parityShards;
+	}
+
+	/**
+	 * Computes parity shards from the data shards.
+	 *
+	 * @param shards  arrays of all the shards, first {@link #getDataShards()} are read and the rest are written
+	 * @param offsets offsets of shard data in corresponding arrays
+	 * @param length  number of bytes in each of the shards
+	 */
+	public void encodeParity(byte[][] shards, int[] offsets, int length) {
+		checkArgument(shards.length == getTotalShards() && offsets.length == shards.length, "Wrong number of shards");
+		for (int p = 0; p < parityShards; p++) {
+			byte[] row = matrix[dataShards + p];
+			byte[] output = shards[dataShards + p];
+			int outputOffset = offsets[dataShards + p];
+			combine(row, shards, offsets, output, outputOffset, length);
+		}
+	}
+
+	/**
+	 * Restores missing data shards from any {@link #getDataShards()} present shards.
+	 * Missing parity shards are not restored.
+	 *
+	 * @param shards  arrays of all the shards, arrays of missing data shards are written to
+	 * @param offsets offsets of shard data in corresponding arrays
+	 * @param present which of the shards are present
+	 * @param length  number of bytes in each of the shards
+	 * @throws IllegalArgumentException if there are not enough shards present
+	 */
+	public void decodeMissing(byte[][] shards, int[] offsets, boolean[] present, int length) {
+		checkArgument(shards.length == getTotalShards() && offsets.length == shards.length && present.length == shards.length,
+				"Wrong number of shards");
+
+		boolean complete = true;
+		for (int i = 0; i < dataShards; i++) {
+			complete &= present[i];
+		}
+		if (complete) {
+			return;
+		}
+
+		int[] indices = new int[dataShards];
+		int found = 0;
+		for (int i = 0; i < shards.length && found < dataShards; i++) {
+			if (present[i]) {
+				indices[found++] = i;
+			}
+		}
+		checkArgument(found == dataShards, "Not enough shards to restore data: " + found + " of " + dataShards);
+
+		byte[][] subMatrix = new byte[dataShards][];
+		byte[][] subShards = new byte[dataShards][];
+		int[] subOffsets = new int[dataShards];
+		for (int i = 0; i < dataShards; i++) {
+			subMatrix[i] = matrix[indices[i]];
+			subShards[i] = shards[indices[i]];
+			subOffsets[i] = offsets[indices[i]];
+		}
+		byte[][] decodeMatrix = invert(subMatrix);
+
+		for (int i = 0; i < dataShards; i++) {
+			if (!present[i]) {
+				combine(decodeMatrix[i], subShards, subOffsets, shards[i], offsets[i], length);
+			}
+		}
+	}
+
+	private void combine(byte[] coefficients, byte[][] inputs, int[] inputOffsets, byte[] output, int outputOffset, int length) {
+		byte[] table = MUL[coefficients[0] & 0xFF];
+		byte[] input = inputs[0];
+		int inputOffset = inputOffsets[0];
+		for (int b = 0; b < length; b++) {
+			output[outputOffset + b] = table[input[inputOffset + b] & 0xFF];
+		}
+		for (int j = 1; j < dataShards; j++) {
+			table = MUL[coefficients[j] & 0xFF];
+			input = inputs[j];
+			inputOffset = inputOffsets[j];
+			for (int b = 0; b < length; b++) {
+				output[outputOffset + b] ^= table[input[inputOffset + b] & 0xFF];
+			}
+		}
+	}
+
+	// region matrix arithmetic
+	private static byte[][] buildMatrix(int dataShards, int totalShards) {
+		byte[][] vandermonde = new byte[totalShards][dataShards];
+		for (int r = 0; r < totalShards; r++) {
+			for (int c = 0; c < dataShards; c++) {
+				vandermonde[r][c] = power(r, c);
+			}
+		}
+		byte[][] top = new byte[dataShards][];
+		System.arraycopy(vandermonde, 0, top, 0, dataShards);
+		return multiply(vandermonde, invert(top));
+	}
+
+	private static byte[][] multiply(byte[][] left, byte[][] right) {
+		int rows = left.length;
+		int inner = right.length;
+		int columns = right[0].length;
+		byte[][] result = new byte[rows][columns];
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				int value = 0;
+				for (int i = 0; i < inner; i++) {
+					value ^= MUL[left[r][i] & 0xFF][right[i][c] & 0xFF];
+				}
+				result[r][c] = (byte) value;
+			}
+		}
+		return result;
+	}
+
+	private static byte[][] invert(byte[][] matrix) {
+		int size = matrix.length;
+		byte[][] work = new byte[size][size * 2];
+		for (int r = 0; r < size; r++) {
+			System.arraycopy(matrix[r], 0, work[r], 0, size);
+			work[r][size + r] = 1;
+		}
+		for (int c = 0; c < size; c++) {
+			int pivot = c;
+			while (pivot < size && work[pivot][c] == 0) {
+				pivot++;
+			}
+			if (pivot == size) {
+				throw new IllegalArgumentException("Matrix is singular");
+			}
+			byte[] tmp = work[c];
+			work[c] = work[pivot];
+			work[pivot] = tmp;
+
+			byte[] inverse = MUL[inverse(work[c][c] & 0xFF) & 0xFF];
+			for (int i = 0; i < size * 2; i++) {
+				work[c][i] = inverse[work[c][i] & 0xFF];
+			}
+			for (int r = 0; r < size; r++) {
+				int factor = work[r][c] & 0xFF;
+				if (r != c && factor != 0) {
+					byte[] table = MUL[factor];
+					for (int i = 0; i < size * 2; i++) {
+						work[r][i] ^= table[work[c][i] & 0xFF];
+					}
+				}
+			}
+		}
+		byte[][] result = new byte[size][size];
+		for (int r = 0; r < size; r++) {
+			System.arraycopy(work[r], size, result[r], 0, size);
+		}
+		return result;
+	}
+	// endregion
+
+	// region field arithmetic
+	private static byte multiply(int a, int b) {
+		if (a == 0 || b == 0) {
+			return 0;
+		}
+		return EXP[LOG[a] + LOG[b]];
+	}
+
+	private static byte inverse(int a) {
+		return EXP[FIELD_SIZE - 1 - LOG[a]];
+	}
+
+	private static byte power(int a, int n) {
+		if (n == 0) {
+			return 1;
+		}
+		if (a == 0) {
+			return 0;
+		}
+		return EXP[(LOG[a] * n) % (FIELD_SIZE - 1)];
+	}
+	// endregion
+
+	@Override
+	public String toString() {
+		return "ReedSolomon{" + dataShards + '+' + parityShards + '}';
+	}
+}
@@ -23,7 +23,6 @@ import io.datakernel.common.ref.RefLong;
 import io.datakernel.csp.ChannelConsumer;
 import io.datakernel.csp.ChannelConsumers;
 import io.datakernel.csp.ChannelSupplier;
-import io.datakernel.csp.binary.ByteBufSerializer;
 import io.datakernel.csp.net.MessagingWithBinaryStreaming;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.eventloop.net.SocketSettings;
@@ -41,11 +40,19 @@ import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static io.datakernel.async.util.LogUtils.toLogger;
-import static io.datakernel.csp.binary.ByteBufSerializer.ofJsonCodec;
+import static io.datakernel.remotefs.RemoteFsProtocol.clientSerializer;
+import static io.datakernel.remotefs.RemoteFsProtocol.handshake;
 import static io.datakernel.remotefs.RemoteFsUtils.KNOWN_ERRORS;
+import static io.datakernel.remotefs.RemoteFsUtils.verifyChecksum;
+import static java.util.Collections.emptySet;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
 
 /**
  * An implementation of {@link FsClient} which connects to a single {@link RemoteFsServer} and communicates with it.
@@ -58,13 +65,21 @@ public final class RemoteFsClient implements FsClient, EventloopService {
 	public static final StacklessException UNEXPECTED_END_OF_STREAM = new StacklessException(RemoteFsClient.class, "Unexpected end of stream");
 	public static final StacklessException UNKNOWN_SERVER_ERROR = new StacklessException(RemoteFsClient.class, "Unknown server error occured");
 
-	private static final ByteBufSerializer<FsResponse, FsCommand> SERIALIZER =
-			ofJsonCodec(RemoteFsResponses.CODEC, RemoteFsCommands.CODEC);
+	public static final Duration DEFAULT_PROTOCOL_RECHECK_INTERVAL = Duration.ofMinutes(1);
 
 	private final Eventloop eventloop;
 	private final InetSocketAddress address;
 
 	private SocketSettings socketSettings = SocketSettings.create();
+	private boolean binaryProtocol = true;
+	private Duration protocolRecheckInterval = DEFAULT_PROTOCOL_RECHECK_INTERVAL;
+
+	// what is known about the protocols of the server, which is forgotten after the recheck interval or a connection failure
+	private boolean binaryProtocolConfirmed;
+	private boolean jsonFallback;
+	@Nullable
+	private Boolean batchCommands;
+	private long protocolCheckTimestamp;
 
 	//region JMX
 	private final PromiseStats connectPromise = PromiseStats.create(Duration.ofMinutes(5));
@@ -92,6 +107,25 @@ public final class RemoteFsClient implements FsClient, EventloopService {
 		this.socketSettings = socketSettings;
 		return this;
 	}
+
+	/**
+	 * Binary protocol is used by default, falling back to JSON for servers which do not support it.
+	 * Disabling it saves a failed round trip when the server is known to be an older one
+	 */
+	public RemoteFsClient withBinaryProtocol(boolean binaryProtocol) {
+		this.binaryProtocol = binaryProtocol;
+		return this;
+	}
+
+	/**
+	 * Sets how long the protocols supported by the server are trusted before they are probed again,
+	 * so that the client picks up servers which are upgraded or downgraded in place.
+	 * They are also probed again after any connection failure
+	 */
+	public RemoteFsClient withProtocolRecheckInterval(Duration protocolRecheckInterval) {
+		this.protocolRecheckInterval = protocolRecheckInterval;
+		return this;
+	}
 	// endregion
 
 	@NotNull
@@ -102,76 +136,76 @@ public final class RemoteFsClient implements FsClient, EventloopService {
 
 	@Override
 	public Promise<ChannelConsumer<ByteBuf>> upload(@NotNull String filename, long offset, long revision) {
-		return connect(address)
-				.then(messaging ->
-						messaging.send(new Upload(filename, offset, revision))
-								.then($ -> messaging.receive())
-								.then(msg -> {
-									if (!(msg instanceof UploadAck)) {
-										return handleInvalidResponse(msg);
-									}
-									if (!((UploadAck) msg).isOk()) {
-										return Promise.of(ChannelConsumers.<ByteBuf>recycling());
-									}
-									return Promise.of(messaging.sendBinaryStream()
-											.withAcknowledgement(ack -> ack
-													.then($2 -> messaging.receive())
-													.then(msg2 -> {
-														messaging.close();
-														return msg2 instanceof UploadFinished ?
-																Promise.complete() :
-																handleInvalidResponse(msg2);
-													})
-													.whenException(e -> {
-														messaging.close(e);
-														logger.warn("Cancelled while trying to upload file " + filename + " (" + e + "): " + this);
-													})
-													.whenComplete(uploadFinishPromise.recordStats())));
-								})
-								.whenException(e -> {
-									messaging.close(e);
-									logger.warn("Error while trying to upload file " + filename + " (" + e + "): " + this);
-								}))
+		return connect().then(messaging ->
+				messaging.send(new Upload(filename, offset, revision))
+						.then($ -> messaging.receive())
+						.then(msg -> {
+							if (!(msg instanceof UploadAck)) {
+								return handleInvalidResponse(msg);
+							}
+							if (!((UploadAck) msg).isOk()) {
+								return Promise.of(ChannelConsumers.<ByteBuf>recycling());
+							}
+							return Promise.of(messaging.sendBinaryStream()
+									.withAcknowledgement(ack -> ack
+											.then($2 -> messaging.receive())
+											.then(msg2 -> {
+												messaging.close();
+												return msg2 instanceof UploadFinished ?
+														Promise.complete() :
+														handleInvalidResponse(msg2);
+											})
+											.whenException(e -> {
+												messaging.close(e);
+												logger.warn("Cancelled while trying to upload file " + filename + " (" + e + "): " + this);
+											})
+											.whenComplete(uploadFinishPromise.recordStats())));
+						})
+						.whenException(e -> {
+							messaging.close(e);
+							logger.warn("Error while trying to upload file " + filename + " (" + e + "): " + this);
+						}))
 				.whenComplete(toLogger(logger, "upload", filename, this))
 				.whenComplete(uploadStartPromise.recordStats());
 	}
 
 	@Override
 	public Promise<ChannelSupplier<ByteBuf>> download(@NotNull String name, long offset, long length) {
-		return connect(address)
-				.then(messaging ->
-						messaging.send(new Download(name, offset, length))
-								.then($ -> messaging.receive())
-								.then(msg -> {
-									if (!(msg instanceof DownloadSize)) {
-										return handleInvalidResponse(msg);
-									}
-									long receivingSize = ((DownloadSize) msg).getSize();
-
-									logger.trace("download size for file {} is {}: {}", name, receivingSize, this);
-
-									RefLong size = new RefLong(0);
-									return Promise.of(messaging.receiveBinaryStream()
-											.peek(buf -> size.inc(buf.readRemaining()))
-											.withEndOfStream(eos -> eos
-													.then($ -> messaging.sendEndOfStream())
-													.then(result -> {
-														if (size.get() == receivingSize) {
-															return Promise.of(result);
-														}
-														logger.error("invalid stream size for file " + name +
-																" (offset " + offset + ", length " + length + ")," +
-																" expected: " + receivingSize +
-																" actual: " + size.get());
-														return Promise.ofException(size.get() < receivingSize ? UNEXPECTED_END_OF_STREAM : TOO_MUCH_DATA);
-													})
-													.whenComplete(downloadFinishPromise.recordStats())
-													.whenResult($1 -> messaging.close())));
-								})
-								.whenException(e -> {
-									messaging.close(e);
-									logger.warn("error trying to download file " + name + " (offset=" + offset + ", length=" + length + ") (" + e + "): " + this);
-								}))
+		return connect().then(messaging ->
+				messaging.send(new Download(name, offset, length))
+						.then($ -> messaging.receive())
+						.then(msg -> {
+							if (!(msg instanceof DownloadSize)) {
+								return handleInvalidResponse(msg);
+							}
+							long receivingSize = ((DownloadSize) msg).getSize();
+							long checksum = ((DownloadSize) msg).getChecksum();
+
+							logger.trace("download size for file {} is {}: {}", name, receivingSize, this);
+
+							RefLong size = new RefLong(0);
+							return Promise.of(verifyChecksum(messaging.receiveBinaryStream(), checksum)
+									.peek(buf -> size.inc(buf.readRemaining()))
+									.withEndOfStream(eos -> eos
+											.then($ -> messaging.sendEndOfStream())
+											.then(result -> {
+												if (size.get() == receivingSize) {
+													return Promise.of(result);
+												}
+												logger.error("invalid stream size for file " + name +
+														" (offset " + offset + ", length " + length + ")," +
+														" expected: " + receivingSize +
+														" actual: " + size.get());
+												return Promise.ofException(size.get() < receivingSize ? UNEXPECTED_END_OF_STREAM : TOO_MUCH_DATA);
+											})
+											.whenComplete(downloadFinishPromise.recordStats())
+											.whenException(messaging::close)
+											.whenResult($1 -> messaging.close())));
+						})
+						.whenException(e -> {
+							messaging.close(e);
+							logger.warn("error trying to download file " + name + " (offset=" + offset + ", length=" + length + ") (" + e + "): " + this);
+						}))
 				.whenComplete(toLogger(logger, "download", name, offset, length, this))
 				.whenComplete(downloadStartPromise.recordStats());
 	}
@@ -197,6 +231,39 @@ public final class RemoteFsClient implements FsClient, EventloopService {
 				.whenComplete(deletePromise.recordStats());
 	}
 
+	@Override
+	public Promise<Void> moveAll(@NotNull Map<String, String> sourceToTarget, long targetRevision, long tombstoneRevision) {
+		return batchCommand(new MoveAll(sourceToTarget, targetRevision, tombstoneRevision), MoveFinished.class, $ -> (Void) null,
+				() -> FsClient.super.moveAll(sourceToTarget, targetRevision, tombstoneRevision))
+				.whenComplete(toLogger(logger, "moveAll", sourceToTarget.size(), targetRevision, tombstoneRevision, this))
+				.whenComplete(movePromise.recordStats());
+	}
+
+	@Override
+	public Promise<Void> copyAll(@NotNull Map<String, String> sourceToTarget, long targetRevision) {
+		return batchCommand(new CopyAll(sourceToTarget, targetRevision), CopyFinished.class, $ -> (Void) null,
+				() -> FsClient.super.copyAll(sourceToTarget, targetRevision))
+				.whenComplete(toLogger(logger, "copyAll", sourceToTarget.size(), targetRevision, this))
+				.whenComplete(copyPromise.recordStats());
+	}
+
+	@Override
+	public Promise<Void> deleteAll(@NotNull Set<String> names, long revision) {
+		return batchCommand(new DeleteAll(names, revision), DeleteFinished.class, $ -> (Void) null,
+				() -> FsClient.super.deleteAll(names, revision))
+				.whenComplete(toLogger(logger, "deleteAll", names.size(), revision, this))
+				.whenComplete(deletePromise.recordStats());
+	}
+
+	@Override
+	public Promise<Map<String, FileMetadata>> getMetadataAll(@NotNull Set<String> names) {
+		return batchCommand(new GetMetadataAll(names), ListFinished.class,
+				msg -> msg.getFiles().stream().collect(toMap(FileMetadata::getName, identity())),
+				() -> FsClient.super.getMetadataAll(names))
+				.whenComplete(toLogger(logger, "getMetadataAll", names.size(), this))
+				.whenComplete(listPromise.recordStats());
+	}
+
 	@Override
 	public Promise<List<FileMetadata>> listEntities(@NotNull String glob) {
 		return simpleCommand(new RemoteFsCommands.List(glob, true), ListFinished.class, ListFinished::getFiles)
@@ -211,17 +278,53 @@ public final class RemoteFsClient implements FsClient, EventloopService {
 				.whenComplete(listPromise.recordStats());
 	}
 
-	private Promise<MessagingWithBinaryStreaming<FsResponse, FsCommand>> connect(InetSocketAddress address) {
+	/**
+	 * Connects to the server using the binary protocol, unless the server is known to speak JSON only.
+	 * Until the server has confirmed the binary protocol, binary magic is exchanged before any command is sent,
+	 * so that falling back to JSON never replays a command which may have reached the server
+	 */
+	private Promise<MessagingWithBinaryStreaming<FsResponse, FsCommand>> connect() {
+		expireProtocols();
+		return doConnect();
+	}
+
+	private Promise<MessagingWithBinaryStreaming<FsResponse, FsCommand>> doConnect() {
+		boolean binary = binaryProtocol && !jsonFallback;
+		if (!binary || binaryProtocolConfirmed) {
+			return connectSocket()
+					.map(socket -> MessagingWithBinaryStreaming.create(socket, clientSerializer(binary, false)));
+		}
+		return connectSocket()
+				.then(socket -> handshake(socket)
+						.then(accepted -> {
+							protocolCheckTimestamp = eventloop.currentTimeMillis();
+							if (accepted) {
+								binaryProtocolConfirmed = true;
+								return Promise.of(MessagingWithBinaryStreaming.create(socket, clientSerializer(true, true)));
+							}
+							socket.close();
+							logger.warn("server does not support binary protocol, falling back to JSON: {}", this);
+							jsonFallback = true;
+							return doConnect();
+						})
+						.whenException(socket::close));
+	}
+
+	private Promise<AsyncTcpSocketNio> connectSocket() {
 		return AsyncTcpSocketNio.connect(address, 0, socketSettings)
-				.map(socket -> MessagingWithBinaryStreaming.create(socket, SERIALIZER))
 				.whenResult($ -> logger.trace("connected to [{}]: {}", address, this))
-				.whenException(e -> logger.warn("failed connecting to [" + address + "] (" + e + "): " + this))
+				.whenException(e -> {
+					logger.warn("failed connecting to [" + address + "] (" + e + "): " + this);
+					resetProtocols();
+				})
 				.whenComplete(connectPromise.recordStats());
 	}
 
 	private <T> Promise<T> handleInvalidResponse(@Nullable FsResponse msg) {
 		if (msg == null) {
 			logger.warn(this + ": Received unexpected end of stream");
+			// the server may have been restarted with another version
+			resetProtocols();
 			return Promise.ofException(UNEXPECTED_END_OF_STREAM);
 		}
 		if (msg instanceof ServerError) {
@@ -233,21 +336,68 @@ public final class RemoteFsClient implements FsClient, EventloopService {
 	}
 
 	private <T, R extends FsResponse> Promise<T> simpleCommand(FsCommand command, Class<R> responseType, Function<R, T> answerExtractor) {
-		return connect(address)
-				.then(messaging ->
-						messaging.send(command)
-								.then($ -> messaging.receive())
-								.then(msg -> {
-									messaging.close();
-									if (msg != null && msg.getClass() == responseType) {
-										return Promise.of(answerExtractor.apply(responseType.cast(msg)));
-									}
-									return handleInvalidResponse(msg);
-								})
-								.whenException(e -> {
-									messaging.close(e);
-									logger.warn("Error while processing command " + command + " (" + e + ") : " + this);
-								}));
+		return connect().then(messaging ->
+				messaging.send(command)
+						.then($ -> messaging.receive())
+						.then(msg -> {
+							messaging.close();
+							if (msg != null && msg.getClass() == responseType) {
+								return Promise.of(answerExtractor.apply(responseType.cast(msg)));
+							}
+							return handleInvalidResponse(msg);
+						})
+						.whenException(e -> {
+							messaging.close(e);
+							logger.warn("Error while processing command " + command + " (" + e + ") : " + this);
+						}));
+	}
+
+	/**
+	 * Batch commands are sent only to servers which are known to support them, otherwise they are emulated with single ones.
+	 * A failed batch command is never replayed, as some of its operations may have already been applied
+	 */
+	private <T, R extends FsResponse> Promise<T> batchCommand(FsCommand command, Class<R> responseType, Function<R, T> answerExtractor, Supplier<Promise<T>> fallback) {
+		return supportsBatchCommands()
+				.then(supported -> supported ?
+						simpleCommand(command, responseType, answerExtractor) :
+						fallback.get());
+	}
+
+	private Promise<Boolean> supportsBatchCommands() {
+		expireProtocols();
+		// any server which speaks binary protocol knows batch commands too
+		if (binaryProtocolConfirmed) {
+			return Promise.of(true);
+		}
+		if (batchCommands != null) {
+			return Promise.of(batchCommands);
+		}
+		// older servers close the connection on commands they cannot parse, so a read-only batch command is used as a probe
+		return simpleCommand(new GetMetadataAll(emptySet()), ListFinished.class, $ -> true)
+				.thenEx((result, e) -> {
+					protocolCheckTimestamp = eventloop.currentTimeMillis();
+					if (e == null) {
+						batchCommands = true;
+					} else if (e == UNEXPECTED_END_OF_STREAM || e == UNKNOWN_SERVER_ERROR) {
+						logger.warn("server does not support batch commands, falling back to single commands: {}", this);
+						batchCommands = false;
+					} else {
+						return Promise.ofException(e);
+					}
+					return Promise.of(batchCommands);
+				});
+	}
+
+	private void expireProtocols() {
+		if (eventloop.currentTimeMillis() - protocolCheckTimestamp >= protocolRecheckInterval.toMillis()) {
+			resetProtocols();
+		}
+	}
+
+	private void resetProtocols() {
+		binaryProtocolConfirmed = false;
+		jsonFallback = false;
+		batchCommands = null;
 	}
 
 	@NotNull
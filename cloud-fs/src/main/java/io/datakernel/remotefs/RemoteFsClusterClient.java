@@ -18,19 +18,25 @@ package io.datakernel.remotefs;
 
 import io.datakernel.async.process.Cancellable;
 import io.datakernel.async.service.EventloopService;
+import io.datakernel.async.function.AsyncSupplier;
 import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
 import io.datakernel.common.Initializable;
+import io.datakernel.common.MemSize;
 import io.datakernel.common.collection.Try;
+import io.datakernel.common.exception.CloseException;
 import io.datakernel.common.exception.StacklessException;
 import io.datakernel.common.tuple.Tuple2;
 import io.datakernel.csp.ChannelConsumer;
 import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.csp.process.ChannelByteRanger;
 import io.datakernel.csp.process.ChannelSplitter;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
 import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
+import io.datakernel.promise.RetryPolicy;
 import io.datakernel.promise.jmx.PromiseStats;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -40,11 +46,14 @@ import org.slf4j.LoggerFactory;
 import java.time.Duration;
 import java.util.*;
 import java.util.function.BiFunction;
+import java.util.stream.IntStream;
 
 import static io.datakernel.async.util.LogUtils.toLogger;
 import static io.datakernel.common.Preconditions.checkArgument;
 import static io.datakernel.common.Preconditions.checkState;
 import static io.datakernel.csp.ChannelConsumer.getAcknowledgement;
+import static io.datakernel.remotefs.FileMetadata.NO_CHECKSUM;
+import static io.datakernel.remotefs.RemoteFsUtils.verifyChecksum;
 import static io.datakernel.remotefs.ServerSelector.RENDEZVOUS_HASH_SHARDER;
 import static java.util.Collections.emptyList;
 import static java.util.stream.Collectors.joining;
@@ -62,9 +71,25 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 	private final Map<Object, FsClient> aliveClients = new HashMap<>();
 	private final Map<Object, FsClient> deadClients = new HashMap<>();
 
+	public static final MemSize DEFAULT_ERASURE_CODING_BLOCK_SIZE = MemSize.kilobytes(64);
+	public static final MemSize DEFAULT_RESUME_BUFFER_SIZE = MemSize.megabytes(1);
+
+	public static final StacklessException ERASURE_CODED_APPEND = new StacklessException(RemoteFsClusterClient.class, "Appending to erasure-coded files is not supported");
+
 	private int replicationCount = 1;
 	private ServerSelector serverSelector = RENDEZVOUS_HASH_SHARDER;
 
+	@Nullable
+	private ReedSolomon erasureCoding;
+	private int erasureCodingBlockSize = DEFAULT_ERASURE_CODING_BLOCK_SIZE.toInt();
+
+	private int parallelDownloadChunkSize;
+	private int parallelDownloads;
+
+	@Nullable
+	private RetryPolicy<?> resumeRetryPolicy;
+	private int resumeBufferSize = DEFAULT_RESUME_BUFFER_SIZE.toInt();
+
 	// region JMX
 	private final PromiseStats connectPromise = PromiseStats.create(Duration.ofMinutes(5));
 	private final PromiseStats uploadStartPromise = PromiseStats.create(Duration.ofMinutes(5));
@@ -110,6 +135,70 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 		return this;
 	}
 
+	/**
+	 * Switches the cluster into erasure-coded mode.
+	 * Instead of storing full replicas, each uploaded file is split into stripes of
+	 * {@code dataShards} blocks, {@code parityShards} Reed-Solomon parity blocks are computed for each stripe,
+	 * and the resulting shards are streamed in parallel to {@code dataShards + parityShards} partitions chosen
+	 * by the {@link ServerSelector}, so that the file is stored with {@code (dataShards + parityShards) / dataShards}
+	 * overhead and can be downloaded from any {@code dataShards} partitions.
+	 * <p>
+	 * Shard files are stored on partitions under the name of the original file, so moves, copies, deletes and listings
+	 * operate on them as usual, but note that listed sizes are the sizes of the shards and not of the original files.
+	 * All the clients of the cluster should use the same erasure coding parameters.
+	 * Replication count is ignored in this mode.
+	 * <p>
+	 * Shards of a file are indistinguishable from its replicas by name, so erasure-coded clusters
+	 * cannot be repartitioned by {@link RemoteFsRepartitionController}, which would treat them as replicas
+	 * and copy or delete them, destroying the file.
+	 */
+	public RemoteFsClusterClient withErasureCoding(int dataShards, int parityShards) {
+		return withErasureCoding(dataShards, parityShards, DEFAULT_ERASURE_CODING_BLOCK_SIZE);
+	}
+
+	public RemoteFsClusterClient withErasureCoding(int dataShards, int parityShards, MemSize blockSize) {
+		checkArgument(dataShards >= 1 && parityShards >= 1, "Number of data shards and parity shards should be positive");
+		checkArgument(dataShards + parityShards <= clients.size(), "Total number of shards cannot be more than number of clients");
+		checkArgument(blockSize.toLong() > 0, "Block size should be positive");
+		this.erasureCoding = ReedSolomon.create(dataShards, parityShards);
+		this.erasureCodingBlockSize = blockSize.toInt();
+		return this;
+	}
+
+	/**
+	 * Enables parallel downloads of large files.
+	 * Downloads of ranges longer than {@code chunkSize} are split into chunks of {@code chunkSize} bytes,
+	 * which are downloaded from the replicas of the file in a round-robin fashion, up to {@code parallelism}
+	 * chunks at a time, and are supplied in order.
+	 * Chunk which failed to download from one replica is downloaded from the next one.
+	 * <p>
+	 * Up to {@code parallelism} chunks are buffered in memory for each of the downloads.
+	 * Does not affect erasure-coded downloads.
+	 */
+	public RemoteFsClusterClient withParallelDownloads(MemSize chunkSize, int parallelism) {
+		checkArgument(chunkSize.toLong() > 0 && parallelism > 0, "Chunk size and parallelism should be positive");
+		this.parallelDownloadChunkSize = chunkSize.toInt();
+		this.parallelDownloads = parallelism;
+		return this;
+	}
+
+	/**
+	 * Makes uploads to each of the partitions resumable.
+	 * When a connection to a partition fails in the middle of the upload, the cluster client reconnects to it
+	 * according to given retry policy and continues the upload from where the partition stopped,
+	 * resending up to {@code bufferSize} of the last sent bytes, instead of failing the upload to this partition.
+	 */
+	public RemoteFsClusterClient withResumableUploads(RetryPolicy<?> retryPolicy, MemSize bufferSize) {
+		checkArgument(bufferSize.toLong() > 0, "Buffer size should be positive");
+		this.resumeRetryPolicy = retryPolicy;
+		this.resumeBufferSize = bufferSize.toInt();
+		return this;
+	}
+
+	public RemoteFsClusterClient withResumableUploads(RetryPolicy<?> retryPolicy) {
+		return withResumableUploads(retryPolicy, DEFAULT_RESUME_BUFFER_SIZE);
+	}
+
 	/**
 	 * Sets the server selection strategy based on file name, alive partitions, and replication count.
 	 */
@@ -217,8 +306,9 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 
 	private void markIfDead(Object partitionId, Throwable e) {
 		// marking as dead only on lower level connection and other I/O exceptions,
-		// remote fs exceptions are the ones actually received with an ServerError response (so the node is obviously not dead)
-		if (e.getClass() != StacklessException.class) {
+		// remote fs exceptions are the ones actually received with an ServerError response (so the node is obviously not dead),
+		// close exceptions are caused by cancelling redundant downloads
+		if (e.getClass() != StacklessException.class && !(e instanceof CloseException)) {
 			markDead(partitionId, e);
 		}
 	}
@@ -233,6 +323,22 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 		};
 	}
 
+	/**
+	 * Returns the number of partitions which should fail for a file to become unavailable
+	 */
+	private int getRedundancy() {
+		return erasureCoding != null ? erasureCoding.getParityShards() + 1 : replicationCount;
+	}
+
+	private boolean tooManyDead() {
+		return deadClients.size() >= getRedundancy();
+	}
+
+	private <T, U> Promise<T> ofTooManyDead(List<Try<U>> failed) {
+		return ofFailure("There are more dead partitions than the cluster can tolerate (" +
+				deadClients.size() + " dead, redundancy is " + getRedundancy() + "), aborting", failed);
+	}
+
 	// shortcut for creating single Exception from list of possibly failed tries
 	private static <T, U> Promise<T> ofFailure(String message, List<Try<U>> failed) {
 		StacklessException exception = new StacklessException(RemoteFsClusterClient.class, message);
@@ -244,6 +350,9 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 	}
 
 	private Promise<ChannelConsumer<ByteBuf>> upload(@NotNull String filename, long offset, @Nullable Long revision) {
+		if (erasureCoding != null) {
+			return uploadErasureCoded(erasureCoding, filename, offset, revision);
+		}
 		List<Object> selected = serverSelector.selectFrom(filename, aliveClients.keySet(), replicationCount);
 
 		checkState(!selected.isEmpty(), "Selected no servers to upload file " + filename);
@@ -265,7 +374,7 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 					return (revision == null ? client.upload(filename, offset) : client.upload(filename, offset, revision))
 							.thenEx(wrapDeath(id))
 							.map(consumer -> new ConsumerWithId(id,
-									consumer.withAcknowledgement(ack ->
+									resumable(client, filename, offset, revision, consumer).withAcknowledgement(ack ->
 											ack.whenException(e -> markIfDead(id, e)))))
 							.toTry();
 				}))
@@ -316,6 +425,51 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 				.whenComplete(uploadStartPromise.recordStats());
 	}
 
+	private Promise<ChannelConsumer<ByteBuf>> uploadErasureCoded(ReedSolomon codec, @NotNull String filename, long offset, @Nullable Long revision) {
+		if (offset > 0) {
+			return Promise.ofException(ERASURE_CODED_APPEND);
+		}
+		int totalShards = codec.getTotalShards();
+		List<Object> selected = serverSelector.selectFrom(filename, aliveClients.keySet(), totalShards);
+
+		checkState(aliveClients.keySet().containsAll(selected), "Selected an id that is not one of client ids");
+		if (selected.size() < totalShards) {
+			return ofFailure("Not enough alive partitions to upload erasure-coded file " + filename +
+					", " + selected.size() + " selected, " + totalShards + " needed", emptyList());
+		}
+
+		return Promises.toList(selected.stream()
+				.map(id -> {
+					FsClient client = aliveClients.get(id);
+					return (revision == null ? client.upload(filename, offset) : client.upload(filename, offset, revision))
+							.thenEx(wrapDeath(id))
+							.map(consumer -> resumable(client, filename, offset, revision, consumer).withAcknowledgement(ack ->
+									ack.whenException(e -> markIfDead(id, e))))
+							.toTry();
+				}))
+				.then(tries -> {
+					if (!tries.stream().allMatch(Try::isSuccess)) {
+						tries.stream().filter(Try::isSuccess).forEach(t -> t.get().close(new StacklessException(RemoteFsClusterClient.class, "Cancelled")));
+						return ofFailure("Couldn't connect to all of the " + totalShards + " partitions to upload erasure-coded file " + filename, tries);
+					}
+					List<ChannelConsumer<ByteBuf>> shards = tries.stream().map(Try::get).collect(toList());
+
+					if (logger.isTraceEnabled()) {
+						logger.trace("uploading erasure-coded file {} to {}, {}", filename, selected, this);
+					}
+
+					return Promise.of(ChannelErasureEncoder.create(codec, erasureCodingBlockSize, shards)
+							.withAcknowledgement(ack -> ack.whenComplete(uploadFinishPromise.recordStats())));
+				})
+				.whenComplete(uploadStartPromise.recordStats());
+	}
+
+	private ChannelConsumer<ByteBuf> resumable(FsClient client, String filename, long offset, @Nullable Long revision, ChannelConsumer<ByteBuf> consumer) {
+		return resumeRetryPolicy == null ?
+				consumer :
+				ChannelResumableUploader.create(client, filename, offset, revision, consumer, resumeRetryPolicy, resumeBufferSize);
+	}
+
 	@Override
 	public Promise<ChannelConsumer<ByteBuf>> upload(@NotNull String name, long offset) {
 		return upload(name, offset, null);
@@ -328,9 +482,11 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 
 	@Override
 	public Promise<ChannelSupplier<ByteBuf>> download(@NotNull String name, long offset, long length) {
-		if (deadClients.size() >= replicationCount) {
-			return ofFailure("There are more dead partitions than replication count(" +
-					deadClients.size() + " dead, replication count is " + replicationCount + "), aborting", emptyList());
+		if (erasureCoding != null) {
+			return downloadErasureCoded(erasureCoding, name, offset, length);
+		}
+		if (tooManyDead()) {
+			return ofTooManyDead(emptyList());
 		}
 
 		return Promises.toList(
@@ -349,9 +505,8 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 							.collect(toList());
 
 					// recheck if our download request marked any partitions as dead
-					if (deadClients.size() >= replicationCount) {
-						return ofFailure("There are more dead partitions than replication count(" +
-								deadClients.size() + " dead, replication count is " + replicationCount + "), aborting", tries);
+					if (tooManyDead()) {
+						return ofTooManyDead(tries);
 					}
 
 					// filter partitions where file was found
@@ -366,6 +521,27 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 					}
 					Tuple2<Object, FileMetadata> best = maybeBest.get();
 
+					if (parallelDownloadChunkSize != 0) {
+						long size = best.getValue2().getSize();
+						if (offset > size) {
+							return Promise.ofException(OFFSET_TOO_BIG);
+						}
+						if (length != -1 && offset + length > size) {
+							return Promise.ofException(LENGTH_TOO_BIG);
+						}
+						long rangeLength = length == -1 ? size - offset : length;
+						if (rangeLength > parallelDownloadChunkSize) {
+							List<Object> replicas = found.stream()
+									.filter(piwfs -> piwfs.getValue2().getRevision() == best.getValue2().getRevision() &&
+											FileMetadata.isSameContent(piwfs.getValue2(), best.getValue2()))
+									.map(Tuple2::getValue1)
+									.collect(toList());
+							// like single-stream downloads, only whole files are verified
+							long checksum = offset == 0 && rangeLength == size ? best.getValue2().getChecksum() : NO_CHECKSUM;
+							return Promise.of(verifyChecksum(downloadParallel(name, replicas, offset, rangeLength), checksum));
+						}
+					}
+
 					return Promises.any(found.stream()
 							.filter(piwfs -> piwfs.getValue2().getRevision() == best.getValue2().getRevision())
 							.map(piwfs -> {
@@ -386,11 +562,164 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 				.whenComplete(downloadStartPromise.recordStats());
 	}
 
+	private ChannelSupplier<ByteBuf> downloadParallel(String name, List<Object> replicas, long offset, long length) {
+		logger.trace("downloading file {} in parallel from {}", name, replicas);
+		return ChannelParallelDownloader.create(
+				(index, chunkOffset, chunkLength) -> Promises.firstSuccessful(IntStream.range(0, replicas.size())
+						.mapToObj(i -> replicas.get((index + i) % replicas.size()))
+						.map(id -> (AsyncSupplier<ByteBuf>) () -> downloadChunk(id, name, chunkOffset, chunkLength))),
+				offset, length, parallelDownloadChunkSize, parallelDownloads)
+				.withEndOfStream(eos -> eos.whenComplete(downloadFinishPromise.recordStats()));
+	}
+
+	private Promise<ByteBuf> downloadChunk(Object partitionId, String name, long offset, int length) {
+		FsClient client = aliveClients.get(partitionId);
+		if (client == null) { // marked as dead already by somebody
+			return Promise.ofException(new StacklessException(RemoteFsClusterClient.class, "Client " + partitionId + " is not alive"));
+		}
+		return client.download(name, offset, length)
+				.then(supplier -> supplier.toCollector(ByteBufQueue.collector()))
+				.whenException(e -> markIfDead(partitionId, e));
+	}
+
+	private Promise<ChannelSupplier<ByteBuf>> downloadErasureCoded(ReedSolomon codec, @NotNull String name, long offset, long length) {
+		if (offset < 0 || length < -1) {
+			return Promise.ofException(BAD_RANGE);
+		}
+		if (tooManyDead()) {
+			return ofTooManyDead(emptyList());
+		}
+
+		return Promises.toList(
+				aliveClients.entrySet().stream()
+						.map(entry -> {
+							Object partitionId = entry.getKey();
+							return entry.getValue().getMetadata(name)
+									.map(res -> res != null ? new Tuple2<>(partitionId, res) : null)
+									.thenEx(wrapDeath(partitionId))
+									.toTry();
+						}))
+				.then(tries -> {
+					if (tooManyDead()) {
+						return ofTooManyDead(tries);
+					}
+
+					List<Tuple2<Object, FileMetadata>> found = tries.stream()
+							.filter(Try::isSuccess)
+							.map(Try::get)
+							.filter(Objects::nonNull)
+							.collect(toList());
+
+					Optional<FileMetadata> maybeBest = found.stream()
+							.map(Tuple2::getValue2)
+							.max(FileMetadata.COMPARATOR);
+					if (!maybeBest.isPresent()) {
+						return ofFailure("File not found: " + name, tries);
+					}
+					FileMetadata best = maybeBest.get();
+					long blocks = ChannelErasureDecoder.getShardBlocks(best.getSize(), erasureCodingBlockSize);
+					if (blocks == -1) {
+						return ofFailure("Invalid shard size of erasure-coded file " + name + ": " + best.getSize(), tries);
+					}
+
+					long stripeSize = (long) codec.getDataShards() * erasureCodingBlockSize;
+					if (offset > blocks * stripeSize || length != -1 && offset + length > blocks * stripeSize) {
+						return Promise.ofException(offset > blocks * stripeSize ? OFFSET_TOO_BIG : LENGTH_TOO_BIG);
+					}
+					long startBlock = Math.min(offset / stripeSize, blocks);
+					// when the range ends before the last block, neither it nor shard trailers are downloaded
+					long endBlock = length == -1 ? blocks : Math.min((offset + length + stripeSize - 1) / stripeSize, blocks);
+
+					// shards which were uploaded to first partitions of the server selector are most probably data shards,
+					// so prefer them to avoid reconstruction of the data
+					List<Object> preferred = serverSelector.selectFrom(name, clients.keySet(), clients.size());
+					List<Object> candidates = found.stream()
+							.filter(t -> t.getValue2().getRevision() == best.getRevision() && t.getValue2().getSize() == best.getSize())
+							.map(Tuple2::getValue1)
+							.sorted(Comparator.comparingInt(id -> {
+								int index = preferred.indexOf(id);
+								return index == -1 ? Integer.MAX_VALUE : index;
+							}))
+							.collect(toList());
+
+					if (candidates.size() < codec.getDataShards()) {
+						return ofFailure("Not enough shards of erasure-coded file " + name + " found, " +
+								candidates.size() + " found, " + codec.getDataShards() + " needed", tries);
+					}
+
+					int blockBytes = ChannelErasureEncoder.BLOCK_HEADER_SIZE + erasureCodingBlockSize;
+					long shardOffset = startBlock * blockBytes;
+					long shardLength = endBlock == blocks ? -1 : (endBlock - startBlock) * blockBytes;
+					Iterator<Object> spares = candidates.iterator();
+					return openShards(name, shardOffset, shardLength, spares, codec.getDataShards(), new ArrayList<>())
+							.map(shards -> {
+								logger.trace("downloading erasure-coded file {} from {}", name, shards.keySet());
+								// partitions of the shards which are being read, in the order of shard suppliers
+								List<Object> partitions = new ArrayList<>(shards.keySet());
+								ChannelSupplier<ByteBuf> supplier = ChannelErasureDecoder.create(codec, erasureCodingBlockSize, startBlock, endBlock, blocks, new ArrayList<>(shards.values()))
+										.withRequiredLength(length == -1 ? offset : offset + length, length == -1 ? OFFSET_TOO_BIG : LENGTH_TOO_BIG)
+										.withSpareShards((index, block, e) -> {
+											logger.warn("Failed to download shard of erasure-coded file {} from {}, switching to a spare shard", name, partitions.get(index), e);
+											markIfDead(partitions.get(index), e);
+											return openShards(name, block * blockBytes, endBlock == blocks ? -1 : (endBlock - block) * blockBytes, spares, 1, new ArrayList<>())
+													.map(spare -> {
+														Map.Entry<Object, ChannelSupplier<ByteBuf>> entry = spare.entrySet().iterator().next();
+														partitions.set(index, entry.getKey());
+														return entry.getValue();
+													});
+										})
+										.transformWith(ChannelByteRanger.drop(offset - startBlock * stripeSize));
+								if (length != -1) {
+									supplier = supplier.transformWith(ChannelByteRanger.limit(length));
+								}
+								return supplier
+										.withEndOfStream(eos -> eos
+												.whenException(e -> partitions.forEach(id -> markIfDead(id, e)))
+												.whenComplete(downloadFinishPromise.recordStats()));
+							});
+				})
+				.whenComplete(downloadStartPromise.recordStats());
+	}
+
+	private Promise<Map<Object, ChannelSupplier<ByteBuf>>> openShards(String name, long offset, long length, Iterator<Object> candidates, int needed,
+			List<Try<Tuple2<Object, ChannelSupplier<ByteBuf>>>> opened) {
+		long openedCount = opened.stream().filter(Try::isSuccess).count();
+		if (openedCount == needed) {
+			Map<Object, ChannelSupplier<ByteBuf>> shards = new LinkedHashMap<>();
+			opened.stream().filter(Try::isSuccess).map(Try::get).forEach(t -> shards.put(t.getValue1(), t.getValue2()));
+			return Promise.of(shards);
+		}
+		List<Object> batch = new ArrayList<>();
+		while (batch.size() < needed - openedCount && candidates.hasNext()) {
+			batch.add(candidates.next());
+		}
+		if (batch.isEmpty()) {
+			StacklessException e = new StacklessException(RemoteFsClusterClient.class, "Cancelled");
+			opened.stream().filter(Try::isSuccess).forEach(t -> t.get().getValue2().close(e));
+			return ofFailure("Couldn't open enough shards to download erasure-coded file " + name, opened);
+		}
+		return Promises.toList(batch.stream()
+				.map(id -> {
+					FsClient client = aliveClients.get(id);
+					if (client == null) { // marked as dead already by somebody
+						return Promise.<Tuple2<Object, ChannelSupplier<ByteBuf>>>ofException(new StacklessException(RemoteFsClusterClient.class, "Client " + id + " is not alive"))
+								.toTry();
+					}
+					return client.download(name, offset, length)
+							.thenEx(wrapDeath(id))
+							.map(supplier -> new Tuple2<>(id, supplier))
+							.toTry();
+				}))
+				.then(tries -> {
+					opened.addAll(tries);
+					return openShards(name, offset, length, candidates, needed, opened);
+				});
+	}
+
 	@Override
 	public Promise<Void> move(@NotNull String name, @NotNull String target, long targetRevision, long tombstoneRevision) {
-		if (deadClients.size() >= replicationCount) {
-			return ofFailure("There are more dead partitions than replication count(" +
-					deadClients.size() + " dead, replication count is " + replicationCount + "), aborting", emptyList());
+		if (tooManyDead()) {
+			return ofTooManyDead(emptyList());
 		}
 
 		return Promises.all(aliveClients.entrySet().stream().map(e -> e.getValue().move(name, target, targetRevision, tombstoneRevision).thenEx(wrapDeath(e.getKey()))))
@@ -399,9 +728,8 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 
 	@Override
 	public Promise<Void> copy(@NotNull String name, @NotNull String target, long targetRevision) {
-		if (deadClients.size() >= replicationCount) {
-			return ofFailure("There are more dead partitions than replication count(" +
-					deadClients.size() + " dead, replication count is " + replicationCount + "), aborting", emptyList());
+		if (tooManyDead()) {
+			return ofTooManyDead(emptyList());
 		}
 
 		return Promises.all(aliveClients.entrySet().stream().map(e -> e.getValue().copy(name, target, targetRevision).thenEx(wrapDeath(e.getKey()))))
@@ -424,10 +752,77 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 				.whenComplete(deletePromise.recordStats());
 	}
 
+	/**
+	 * Batch operations are sent to each of the alive partitions as a single batch,
+	 * since, same as with single-file operations, file replicas may reside on partitions
+	 * other than the ones chosen by the {@link ServerSelector} (e.g. before repartitioning).
+	 * So the number of requests depends on the number of partitions and not the number of files.
+	 */
+	@Override
+	public Promise<Void> moveAll(@NotNull Map<String, String> sourceToTarget, long targetRevision, long tombstoneRevision) {
+		if (tooManyDead()) {
+			return ofTooManyDead(emptyList());
+		}
+
+		return Promises.all(aliveClients.entrySet().stream().map(e -> e.getValue().moveAll(sourceToTarget, targetRevision, tombstoneRevision).thenEx(wrapDeath(e.getKey()))))
+				.whenComplete(movePromise.recordStats());
+	}
+
+	@Override
+	public Promise<Void> copyAll(@NotNull Map<String, String> sourceToTarget, long targetRevision) {
+		if (tooManyDead()) {
+			return ofTooManyDead(emptyList());
+		}
+
+		return Promises.all(aliveClients.entrySet().stream().map(e -> e.getValue().copyAll(sourceToTarget, targetRevision).thenEx(wrapDeath(e.getKey()))))
+				.whenComplete(copyPromise.recordStats());
+	}
+
+	@Override
+	public Promise<Void> deleteAll(@NotNull Set<String> names, long revision) {
+		return Promises.toList(
+				aliveClients.entrySet().stream()
+						.map(entry -> entry.getValue().deleteAll(names, revision)
+								.thenEx(wrapDeath(entry.getKey()))
+								.toTry()))
+				.then(tries -> {
+					if (tries.stream().anyMatch(Try::isSuccess)) { // connected at least to somebody
+						return Promise.complete();
+					}
+					return ofFailure("Couldn't delete on any partition", tries);
+				})
+				.whenComplete(deletePromise.recordStats());
+	}
+
+	@Override
+	public Promise<Map<String, FileMetadata>> getMetadataAll(@NotNull Set<String> names) {
+		if (tooManyDead()) {
+			return ofTooManyDead(emptyList());
+		}
+
+		return Promises.toList(
+				aliveClients.entrySet().stream()
+						.map(entry -> entry.getValue().getMetadataAll(names)
+								.thenEx(wrapDeath(entry.getKey()))
+								.toTry()))
+				.then(tries -> {
+					// recheck if our request marked any partitions as dead
+					if (tooManyDead()) {
+						return ofTooManyDead(tries);
+					}
+					Map<String, FileMetadata> result = new HashMap<>();
+					tries.stream()
+							.filter(Try::isSuccess)
+							.forEach(t -> t.get().forEach((name, meta) ->
+									result.merge(name, meta, (a, b) -> FileMetadata.COMPARATOR.compare(a, b) >= 0 ? a : b)));
+					return Promise.of(result);
+				})
+				.whenComplete(listPromise.recordStats());
+	}
+
 	private Promise<List<FileMetadata>> doList(@NotNull String glob, BiFunction<FsClient, String, Promise<List<FileMetadata>>> list) {
-		if (deadClients.size() >= replicationCount) {
-			return ofFailure("There are more dead partitions than replication count(" +
-					deadClients.size() + " dead, replication count is " + replicationCount + "), aborting", emptyList());
+		if (tooManyDead()) {
+			return ofTooManyDead(emptyList());
 		}
 
 		// this all is the same as delete, but with list of lists of results, flattened and unified
@@ -438,9 +833,8 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 								.toTry()))
 				.then(tries -> {
 					// recheck if our list request marked any partitions as dead
-					if (deadClients.size() >= replicationCount) {
-						return ofFailure("There are more dead partitions than replication count(" +
-								deadClients.size() + " dead, replication count is " + replicationCount + "), aborting", tries);
+					if (tooManyDead()) {
+						return ofTooManyDead(tries);
 					}
 					return Promise.of(FileMetadata.flatten(tries.stream().filter(Try::isSuccess).map(Try::get)));
 				})
@@ -490,6 +884,17 @@ public final class RemoteFsClusterClient implements FsClient, Initializable<Remo
 		withReplicationCount(replicationCount);
 	}
 
+	public boolean isErasureCoded() {
+		return erasureCoding != null;
+	}
+
+	@JmxAttribute
+	public String getErasureCoding() {
+		return erasureCoding != null ?
+				erasureCoding.getDataShards() + "+" + erasureCoding.getParityShards() + " (" + erasureCodingBlockSize + " bytes blocks)" :
+				null;
+	}
+
 	@JmxAttribute
 	public int getAlivePartitionCount() {
 		return aliveClients.size();
@@ -18,6 +18,14 @@ package io.datakernel.remotefs;
 
 import io.datakernel.codec.CodecSubtype;
 import io.datakernel.codec.StructuredCodec;
+import io.datakernel.serializer.BinaryInput;
+import io.datakernel.serializer.BinaryOutput;
+import io.datakernel.serializer.BinarySerializer;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 import static io.datakernel.codec.StructuredCodecs.*;
 
@@ -47,7 +55,163 @@ public final class RemoteFsCommands {
 					"targetRevision", Delete::getRevision, LONG_CODEC))
 			.with(List.class, object(List::new,
 					"glob", List::getGlob, STRING_CODEC,
-					"tombstones", List::needTombstones, BOOLEAN_CODEC));
+					"tombstones", List::needTombstones, BOOLEAN_CODEC))
+			.with(MoveAll.class, object(MoveAll::new,
+					"names", MoveAll::getSourceToTarget, ofMap(STRING_CODEC, STRING_CODEC),
+					"targetRevision", MoveAll::getTargetRevision, LONG_CODEC,
+					"removeRevision", MoveAll::getRemoveRevision, LONG_CODEC))
+			.with(CopyAll.class, object(CopyAll::new,
+					"names", CopyAll::getSourceToTarget, ofMap(STRING_CODEC, STRING_CODEC),
+					"targetRevision", CopyAll::getRevision, LONG_CODEC))
+			.with(DeleteAll.class, object(DeleteAll::new,
+					"names", DeleteAll::getNames, ofSet(STRING_CODEC),
+					"targetRevision", DeleteAll::getRevision, LONG_CODEC))
+			.with(GetMetadataAll.class, object(GetMetadataAll::new,
+					"names", GetMetadataAll::getNames, ofSet(STRING_CODEC)));
+
+	private static final byte UPLOAD = 1;
+	private static final byte DOWNLOAD = 2;
+	private static final byte MOVE = 3;
+	private static final byte COPY = 4;
+	private static final byte DELETE = 5;
+	private static final byte LIST = 6;
+	private static final byte MOVE_ALL = 7;
+	private static final byte COPY_ALL = 8;
+	private static final byte DELETE_ALL = 9;
+	private static final byte GET_METADATA_ALL = 10;
+
+	static final BinarySerializer<FsCommand> BINARY_SERIALIZER = new BinarySerializer<FsCommand>() {
+		@Override
+		public void encode(BinaryOutput out, FsCommand item) {
+			if (item instanceof Upload) {
+				Upload upload = (Upload) item;
+				out.writeByte(UPLOAD);
+				out.writeUTF8(upload.getName());
+				out.writeVarLong(upload.getOffset());
+				out.writeVarLong(upload.getRevision());
+			} else if (item instanceof Download) {
+				Download download = (Download) item;
+				out.writeByte(DOWNLOAD);
+				out.writeUTF8(download.getName());
+				out.writeVarLong(download.getOffset());
+				out.writeVarLong(download.getLength());
+			} else if (item instanceof Move) {
+				Move move = (Move) item;
+				out.writeByte(MOVE);
+				out.writeUTF8(move.getName());
+				out.writeUTF8(move.getTarget());
+				out.writeVarLong(move.getTargetRevision());
+				out.writeVarLong(move.getRemoveRevision());
+			} else if (item instanceof Copy) {
+				Copy copy = (Copy) item;
+				out.writeByte(COPY);
+				out.writeUTF8(copy.getName());
+				out.writeUTF8(copy.getTarget());
+				out.writeVarLong(copy.getRevision());
+			} else if (item instanceof Delete) {
+				Delete delete = (Delete) item;
+				out.writeByte(DELETE);
+				out.writeUTF8(delete.getName());
+				out.writeVarLong(delete.getRevision());
+			} else if (item instanceof List) {
+				List list = (List) item;
+				out.writeByte(LIST);
+				out.writeUTF8(list.getGlob());
+				out.writeBoolean(list.needTombstones());
+			} else if (item instanceof MoveAll) {
+				MoveAll moveAll = (MoveAll) item;
+				out.writeByte(MOVE_ALL);
+				writeNames(out, moveAll.getSourceToTarget());
+				out.writeVarLong(moveAll.getTargetRevision());
+				out.writeVarLong(moveAll.getRemoveRevision());
+			} else if (item instanceof CopyAll) {
+				CopyAll copyAll = (CopyAll) item;
+				out.writeByte(COPY_ALL);
+				writeNames(out, copyAll.getSourceToTarget());
+				out.writeVarLong(copyAll.getRevision());
+			} else if (item instanceof DeleteAll) {
+				DeleteAll deleteAll = (DeleteAll) item;
+				out.writeByte(DELETE_ALL);
+				writeNames(out, deleteAll.getNames());
+				out.writeVarLong(deleteAll.getRevision());
+			} else if (item instanceof GetMetadataAll) {
+				out.writeByte(GET_METADATA_ALL);
+				writeNames(out, ((GetMetadataAll) item).getNames());
+			} else {
+				throw new IllegalArgumentException("Unknown command: " + item);
+			}
+		}
+
+		@Override
+		public FsCommand decode(BinaryInput in) {
+			byte type = in.readByte();
+			switch (type) {
+				case UPLOAD:
+					return new Upload(in.readUTF8(), in.readVarLong(), in.readVarLong());
+				case DOWNLOAD:
+					return new Download(in.readUTF8(), in.readVarLong(), in.readVarLong());
+				case MOVE:
+					return new Move(in.readUTF8(), in.readUTF8(), in.readVarLong(), in.readVarLong());
+				case COPY:
+					return new Copy(in.readUTF8(), in.readUTF8(), in.readVarLong());
+				case DELETE:
+					return new Delete(in.readUTF8(), in.readVarLong());
+				case LIST:
+					return new List(in.readUTF8(), in.readBoolean());
+				case MOVE_ALL:
+					return new MoveAll(readNameMap(in), in.readVarLong(), in.readVarLong());
+				case COPY_ALL:
+					return new CopyAll(readNameMap(in), in.readVarLong());
+				case DELETE_ALL:
+					return new DeleteAll(readNameSet(in), in.readVarLong());
+				case GET_METADATA_ALL:
+					return new GetMetadataAll(readNameSet(in));
+				default:
+					throw new IllegalArgumentException("Unknown command type: " + type);
+			}
+		}
+
+		private void writeNames(BinaryOutput out, Set<String> names) {
+			out.writeVarInt(names.size());
+			for (String name : names) {
+				out.writeUTF8(name);
+			}
+		}
+
+		private void writeNames(BinaryOutput out, Map<String, String> names) {
+			out.writeVarInt(names.size());
+			for (Map.Entry<String, String> entry : names.entrySet()) {
+				out.writeUTF8(entry.getKey());
+				out.writeUTF8(entry.getValue());
+			}
+		}
+
+		private Set<String> readNameSet(BinaryInput in) {
+			int size = readSize(in);
+			Set<String> names = new LinkedHashSet<>();
+			for (int i = 0; i < size; i++) {
+				names.add(in.readUTF8());
+			}
+			return names;
+		}
+
+		private Map<String, String> readNameMap(BinaryInput in) {
+			int size = readSize(in);
+			Map<String, String> names = new LinkedHashMap<>();
+			for (int i = 0; i < size; i++) {
+				names.put(in.readUTF8(), in.readUTF8());
+			}
+			return names;
+		}
+
+		private int readSize(BinaryInput in) {
+			int size = in.readVarInt();
+			if (size < 0) {
+				throw new IllegalArgumentException("Negative number of names: " + size);
+			}
+			return size;
+		}
+	};
 
 	public static abstract class FsCommand {
 	}
@@ -219,4 +383,96 @@ public final class RemoteFsCommands {
 			return "List{glob='" + glob + "'}";
 		}
 	}
+
+	public static final class MoveAll extends FsCommand {
+		private final Map<String, String> sourceToTarget;
+		private final long targetRevision;
+		private final long removeRevision;
+
+		public MoveAll(Map<String, String> sourceToTarget, long targetRevision, long removeRevision) {
+			this.sourceToTarget = sourceToTarget;
+			this.targetRevision = targetRevision;
+			this.removeRevision = removeRevision;
+		}
+
+		public Map<String, String> getSourceToTarget() {
+			return sourceToTarget;
+		}
+
+		public long getTargetRevision() {
+			return targetRevision;
+		}
+
+		public long getRemoveRevision() {
+			return removeRevision;
+		}
+
+		@Override
+		public String toString() {
+			return "MoveAll{files=" + sourceToTarget.size() + ", targetRevision=" + targetRevision + '}';
+		}
+	}
+
+	public static final class CopyAll extends FsCommand {
+		private final Map<String, String> sourceToTarget;
+		private final long revision;
+
+		public CopyAll(Map<String, String> sourceToTarget, long revision) {
+			this.sourceToTarget = sourceToTarget;
+			this.revision = revision;
+		}
+
+		public Map<String, String> getSourceToTarget() {
+			return sourceToTarget;
+		}
+
+		public long getRevision() {
+			return revision;
+		}
+
+		@Override
+		public String toString() {
+			return "CopyAll{files=" + sourceToTarget.size() + ", revision=" + revision + '}';
+		}
+	}
+
+	public static final class DeleteAll extends FsCommand {
+		private final Set<String> names;
+		private final long revision;
+
+		public DeleteAll(Set<String> names, long revision) {
+			this.names = names;
+			this.revision = revision;
+		}
+
+		public Set<String> getNames() {
+			return names;
+		}
+
+		public long getRevision() {
+			return revision;
+		}
+
+		@Override
+		public String toString() {
+			return "DeleteAll{files=" + names.size() + ", revision=" + revision + '}';
+		}
+	}
+
+	public static final class GetMetadataAll extends FsCommand {
+		private final Set<String> names;
+
+		public GetMetadataAll(Set<String> names) {
+			this.names = names;
+		}
+
+		public Set<String> getNames() {
+			return names;
+		}
+
+		@Override
+		public String toString() {
+			return "GetMetadataAll{files=" + names.size() + '}';
+		}
+	}
 }
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.common.exception.UncheckedException;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.csp.binary.ByteBufSerializer;
+import io.datakernel.csp.binary.ByteBufsParser;
+import io.datakernel.net.AsyncTcpSocket;
+import io.datakernel.promise.Promise;
+import io.datakernel.remotefs.RemoteFsCommands.FsCommand;
+import io.datakernel.remotefs.RemoteFsResponses.FsResponse;
+import io.datakernel.serializer.BinaryInput;
+import io.datakernel.serializer.BinaryOutput;
+import io.datakernel.serializer.BinarySerializer;
+import org.jetbrains.annotations.Nullable;
+
+import static io.datakernel.csp.binary.ByteBufSerializer.ofJsonCodec;
+import static io.datakernel.serializer.BinaryOutputUtils.writeVarInt;
+
+/**
+ * Wire formats of RemoteFs.
+ * <p>
+ * Messages are sent either as null-terminated JSON, or as varint-size-prefixed binary messages.
+ * A client which speaks the binary protocol starts the connection with {@link #BINARY_MAGIC},
+ * and the server answers with the same magic as soon as it reads it, otherwise JSON is used for the whole connection.
+ * The magic is a null-terminated JSON string, while JSON messages are always objects,
+ * so servers which only know JSON reject it as a message of wrong type and close the connection
+ * instead of waiting for more data.
+ * <p>
+ * Until a client knows that the server speaks the binary protocol, it sends the magic alone
+ * and waits for the answer by {@link #handshake}, so that a command is never sent to a server which may not understand it.
+ */
+final class RemoteFsProtocol {
+	static final byte[] BINARY_MAGIC = {'"', 'R', 'F', 'S', 'B', '2', '"', 0};
+
+	static final ParseException BINARY_PROTOCOL_NOT_SUPPORTED = new ParseException(RemoteFsProtocol.class, "Binary protocol is not supported by the other side");
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+	private static final int MAX_SIZE_PREFIX = 5;
+
+	private static final ByteBufsParser<byte[]> MAGIC_PARSER = ByteBufsParser.assertBytes(BINARY_MAGIC);
+
+	private static final ByteBufSerializer<FsCommand, FsResponse> SERVER_JSON_SERIALIZER =
+			ofJsonCodec(RemoteFsCommands.CODEC, RemoteFsResponses.CODEC);
+	private static final ByteBufSerializer<FsResponse, FsCommand> CLIENT_JSON_SERIALIZER =
+			ofJsonCodec(RemoteFsResponses.CODEC, RemoteFsCommands.CODEC);
+
+	private static final ByteBufsParser<FsCommand> COMMAND_PARSER = ofBinarySerializer(RemoteFsCommands.BINARY_SERIALIZER);
+	private static final ByteBufsParser<FsResponse> RESPONSE_PARSER = ofBinarySerializer(RemoteFsResponses.BINARY_SERIALIZER);
+
+	private RemoteFsProtocol() {
+	}
+
+	/**
+	 * Returns a serializer for a single server connection, which detects the protocol by the first received bytes
+	 *
+	 * @param onBinary called once binary magic is received, must answer the client with binary magic
+	 */
+	static ByteBufSerializer<FsCommand, FsResponse> serverSerializer(Runnable onBinary) {
+		return new ByteBufSerializer<FsCommand, FsResponse>() {
+			private boolean negotiated;
+			private boolean binary;
+
+			@Override
+			public ByteBuf serialize(FsResponse item) {
+				return binary ?
+						serializeBinary(RemoteFsResponses.BINARY_SERIALIZER, item, false) :
+						SERVER_JSON_SERIALIZER.serialize(item);
+			}
+
+			@Nullable
+			@Override
+			public FsCommand tryParse(ByteBufQueue bufs) throws ParseException {
+				if (!negotiated) {
+					if (!bufs.hasRemaining()) return null;
+					if (bufs.peekByte() == BINARY_MAGIC[0]) {
+						if (MAGIC_PARSER.tryParse(bufs) == null) return null;
+						binary = true;
+						onBinary.run();
+					}
+					negotiated = true;
+				}
+				return binary ? COMMAND_PARSER.tryParse(bufs) : SERVER_JSON_SERIALIZER.tryParse(bufs);
+			}
+		};
+	}
+
+	/**
+	 * Returns a serializer for a single client connection.
+	 * If binary protocol is requested, the magic is sent with the first command, unless it was already exchanged
+	 * by {@link #handshake}, and if the server does not answer with binary magic,
+	 * parsing fails with {@link #BINARY_PROTOCOL_NOT_SUPPORTED}
+	 */
+	static ByteBufSerializer<FsResponse, FsCommand> clientSerializer(boolean binary, boolean handshakeDone) {
+		if (!binary) {
+			return CLIENT_JSON_SERIALIZER;
+		}
+		return new ByteBufSerializer<FsResponse, FsCommand>() {
+			private boolean magicSent = handshakeDone;
+			private boolean magicReceived = handshakeDone;
+
+			@Override
+			public ByteBuf serialize(FsCommand item) {
+				ByteBuf buf = serializeBinary(RemoteFsCommands.BINARY_SERIALIZER, item, !magicSent);
+				magicSent = true;
+				return buf;
+			}
+
+			@Nullable
+			@Override
+			public FsResponse tryParse(ByteBufQueue bufs) throws ParseException {
+				if (!magicReceived) {
+					if (!bufs.hasRemaining()) return null;
+					if (bufs.peekByte() != BINARY_MAGIC[0]) {
+						throw BINARY_PROTOCOL_NOT_SUPPORTED;
+					}
+					if (MAGIC_PARSER.tryParse(bufs) == null) return null;
+					magicReceived = true;
+				}
+				return RESPONSE_PARSER.tryParse(bufs);
+			}
+		};
+	}
+
+	/**
+	 * Sends binary magic alone and waits for the server to answer with it, before any command is sent.
+	 * Resolves to {@code false} if the server has explicitly rejected the magic by closing the connection
+	 * or by answering with anything else, as servers which only speak JSON do.
+	 * Errors of the connection itself are not treated as a rejection
+	 */
+	static Promise<Boolean> handshake(AsyncTcpSocket socket) {
+		return socket.write(binaryMagic())
+				.then($ -> readMagic(socket, new ByteBufQueue()));
+	}
+
+	/**
+	 * Returns a new buffer with binary magic, as buffers are returned to the pool once written
+	 */
+	static ByteBuf binaryMagic() {
+		return ByteBuf.wrapForReading(BINARY_MAGIC.clone());
+	}
+
+	private static Promise<Boolean> readMagic(AsyncTcpSocket socket, ByteBufQueue queue) {
+		return socket.read()
+				.then(buf -> {
+					if (buf == null) {
+						queue.recycle();
+						return Promise.of(false);
+					}
+					queue.add(buf);
+					int received = Math.min(queue.remainingBytes(), BINARY_MAGIC.length);
+					for (int i = 0; i < received; i++) {
+						if (queue.peekByte(i) != BINARY_MAGIC[i]) {
+							queue.recycle();
+							return Promise.of(false);
+						}
+					}
+					if (received < BINARY_MAGIC.length) {
+						return readMagic(socket, queue);
+					}
+					boolean unexpectedData = queue.remainingBytes() != BINARY_MAGIC.length;
+					queue.recycle();
+					return unexpectedData ?
+							Promise.ofException(new ParseException(RemoteFsProtocol.class, "Unexpected data after binary magic")) :
+							Promise.of(true);
+				})
+				.whenException($ -> queue.recycle());
+	}
+
+	private static <T> ByteBufsParser<T> ofBinarySerializer(BinarySerializer<T> serializer) {
+		return ByteBufsParser.ofVarIntSizePrefixedBytes()
+				.andThen(buf -> {
+					try {
+						BinaryInput in = new BinaryInput(buf.array(), buf.head());
+						T item = serializer.decode(in);
+						if (in.pos() != buf.tail()) {
+							throw new ParseException(RemoteFsProtocol.class, "Message has " + (buf.tail() - in.pos()) + " unexpected trailing bytes");
+						}
+						return item;
+					} catch (UncheckedException e) {
+						throw new ParseException(RemoteFsProtocol.class, "Malformed message", e.getCause());
+					} catch (RuntimeException e) {
+						throw new ParseException(RemoteFsProtocol.class, "Malformed message", e);
+					} finally {
+						buf.recycle();
+					}
+				});
+	}
+
+	private static <T> ByteBuf serializeBinary(BinarySerializer<T> serializer, T item, boolean withMagic) {
+		int headerSize = (withMagic ? BINARY_MAGIC.length : 0) + MAX_SIZE_PREFIX;
+		int size = headerSize + INITIAL_BUFFER_SIZE;
+		while (true) {
+			ByteBuf buf = ByteBufPool.allocate(size);
+			try {
+				BinaryOutput out = new BinaryOutput(buf.array(), headerSize);
+				serializer.encode(out, item);
+				int messageSize = out.pos() - headerSize;
+				int head = headerSize - varIntSize(messageSize);
+				writeVarInt(buf.array(), head, messageSize);
+				if (withMagic) {
+					head -= BINARY_MAGIC.length;
+					System.arraycopy(BINARY_MAGIC, 0, buf.array(), head, BINARY_MAGIC.length);
+				}
+				buf.tail(out.pos());
+				buf.head(head);
+				return buf;
+			} catch (ArrayIndexOutOfBoundsException e) {
+				size = buf.array().length * 2;
+				buf.recycle();
+			}
+		}
+	}
+
+	private static int varIntSize(int value) {
+		return value < 1 << 7 ? 1 : value < 1 << 14 ? 2 : value < 1 << 21 ? 3 : value < 1 << 28 ? 4 : 5;
+	}
+}
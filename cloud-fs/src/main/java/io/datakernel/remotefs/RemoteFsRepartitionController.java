@@ -17,10 +17,15 @@
 package io.datakernel.remotefs;
 
 import io.datakernel.async.function.AsyncSupplier;
+import io.datakernel.async.process.AsyncExecutor;
+import io.datakernel.async.process.AsyncExecutors;
 import io.datakernel.async.service.EventloopService;
 import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
 import io.datakernel.common.Initializable;
+import io.datakernel.common.MemSize;
 import io.datakernel.common.collection.Try;
+import io.datakernel.common.exception.StacklessException;
 import io.datakernel.csp.ChannelConsumer;
 import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.csp.process.ChannelSplitter;
@@ -42,15 +47,35 @@ import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.*;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static io.datakernel.async.function.AsyncSuppliers.reuse;
 import static io.datakernel.async.util.LogUtils.Level.TRACE;
 import static io.datakernel.async.util.LogUtils.toLogger;
+import static io.datakernel.common.Preconditions.checkArgument;
 import static io.datakernel.common.Preconditions.checkState;
 import static io.datakernel.csp.ChannelConsumer.getAcknowledgement;
+import static io.datakernel.remotefs.FsClient.CHECKSUM_MISMATCH;
 import static io.datakernel.remotefs.RemoteFsUtils.isWildcard;
-
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Moves local files to the partitions they belong to according to the {@link ServerSelector} of the cluster.
+ * <p>
+ * Files are processed in batches, in order of their names. Within a batch, up to {@link #withConcurrency concurrency}
+ * files are handled at once, and the total upload bandwidth can be {@link #withBandwidthLimit limited}
+ * so that repartitioning does not starve foreground requests.
+ * After each batch its last file name may be saved as a {@link #withCheckpoint checkpoint},
+ * so that repartitioning interrupted by {@link #stop()} or by a crash resumes from where it stopped.
+ * In {@link #withDiffMode diff mode} metadata of all files of a batch is fetched from each partition
+ * by a single request, instead of a request per file and partition.
+ * <p>
+ * Erasure-coded clusters are not supported, as shards of a file are stored under its name
+ * and would be treated as its replicas.
+ */
 public final class RemoteFsRepartitionController implements Initializable<RemoteFsRepartitionController>, EventloopJmxMBeanEx, EventloopService {
 	private static final Logger logger = LoggerFactory.getLogger(RemoteFsRepartitionController.class);
 
@@ -62,15 +87,34 @@ public final class RemoteFsRepartitionController implements Initializable<Remote
 	private final Map<Object, FsClient> clients;
 	private final int replicationCount;
 
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	private static final StacklessException ERASURE_CODED_CLUSTER = new StacklessException(RemoteFsRepartitionController.class, "Erasure-coded cluster cannot be repartitioned");
+	private static final StacklessException METADATA_NOT_FETCHED = new StacklessException(RemoteFsRepartitionController.class, "Could not fetch metadata from partition");
+
 	private String glob = "**";
 	private String negativeGlob = "";
+	private int concurrency = 1;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private boolean diffMode;
+	@Nullable
+	private BandwidthLimiter bandwidthLimiter;
+	@Nullable
+	private FsClient checkpointStorage;
+	private String checkpointName;
 
 	private int allFiles = 0;
 	private int ensuredFiles = 0;
 	private int failedFiles = 0;
+	private int mismatchedFiles = 0;
+	private int skippedFiles = 0;
+	private long totalBytes;
+	private long processedBytes;
+	private long bytesMoved;
+	private long startTimestamp;
 
 	@Nullable
 	private SettablePromise<Void> closeCallback;
+	private boolean stopRequested;
 
 	private final PromiseStats repartitionPromiseStats = PromiseStats.create(Duration.ofMinutes(5));
 	private final PromiseStats singleFileRepartitionPromiseStats = PromiseStats.create(Duration.ofMinutes(5));
@@ -91,6 +135,7 @@ public final class RemoteFsRepartitionController implements Initializable<Remote
 		FsClient local = cluster.getClients().get(localPartitionId);
 
 		checkState(local instanceof LocalFsClient, "Local partition should be actually local and be an instance of LocalFsClient");
+		checkArgument(!cluster.isErasureCoded(), "Erasure-coded cluster cannot be repartitioned");
 
 		return new RemoteFsRepartitionController(cluster.getEventloop(), localPartitionId, cluster, (LocalFsClient) local,
 				cluster.getServerSelector(), cluster.getAliveClients(), cluster.getReplicationCount());
@@ -106,6 +151,48 @@ public final class RemoteFsRepartitionController implements Initializable<Remote
 		return this;
 	}
 
+	/**
+	 * Sets how many files are repartitioned at the same time, files are handled one by one by default
+	 */
+	public RemoteFsRepartitionController withConcurrency(int concurrency) {
+		checkArgument(concurrency > 0, "Concurrency must be positive");
+		this.concurrency = concurrency;
+		return this;
+	}
+
+	/**
+	 * Limits the total rate of bytes uploaded to other partitions
+	 */
+	public RemoteFsRepartitionController withBandwidthLimit(@NotNull MemSize bytesPerSecond) {
+		this.bandwidthLimiter = new BandwidthLimiter(eventloop, bytesPerSecond.toLong());
+		return this;
+	}
+
+	public RemoteFsRepartitionController withBatchSize(int batchSize) {
+		checkArgument(batchSize > 0, "Batch size must be positive");
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Enables fetching metadata of a whole batch of files from each partition at once,
+	 * and only files which are missing or outdated on a partition are uploaded to it
+	 */
+	public RemoteFsRepartitionController withDiffMode(boolean diffMode) {
+		this.diffMode = diffMode;
+		return this;
+	}
+
+	/**
+	 * Sets the file in which the progress is saved after each batch.
+	 * It should not be stored in the repartitioned storage, as otherwise it would be repartitioned itself
+	 */
+	public RemoteFsRepartitionController withCheckpoint(@NotNull FsClient storage, @NotNull String name) {
+		this.checkpointStorage = storage;
+		this.checkpointName = name;
+		return this;
+	}
+
 	@NotNull
 	@Override
 	public Eventloop getEventloop() {
@@ -135,40 +222,126 @@ public final class RemoteFsRepartitionController implements Initializable<Remote
 	@NotNull
 	private Promise<Void> doRepartition() {
 		checkState(eventloop.inEventloopThread(), "Should be called from eventloop thread");
+		if (cluster.isErasureCoded()) {
+			return Promise.ofException(ERASURE_CODED_CLUSTER);
+		}
 
 		isRepartitioning = true;
-		return localStorage.list(glob)
-				.then(list -> {
-					allFiles = list.size();
-					return Promises.sequence( // just handling all local files sequentially
-							filterNot(list.stream(), negativeGlob)
-									.map(meta ->
-											() -> repartitionFile(meta)
-													.whenComplete(singleFileRepartitionPromiseStats.recordStats())
-													.then((Boolean success) -> {
-														if (success) {
-															ensuredFiles++;
-														} else {
-															failedFiles++;
-														}
-														return Promise.complete();
-													})));
-				})
+		stopRequested = false;
+		allFiles = ensuredFiles = failedFiles = mismatchedFiles = skippedFiles = 0;
+		totalBytes = processedBytes = bytesMoved = 0;
+		startTimestamp = eventloop.currentTimeMillis();
+		AsyncExecutor executor = AsyncExecutors.buffered(concurrency);
+		return loadCheckpoint()
+				.then(checkpoint -> localStorage.list(glob)
+						.then(list -> {
+							List<FileMetadata> files = filterNot(list.stream(), negativeGlob)
+									.filter(meta -> checkpoint == null || meta.getName().compareTo(checkpoint) > 0)
+									.sorted(comparing(FileMetadata::getName))
+									.collect(toList());
+							allFiles = files.size();
+							skippedFiles = list.size() - files.size();
+							totalBytes = files.stream().mapToLong(FileMetadata::getSize).sum();
+							if (checkpoint != null) {
+								logger.info("resuming repartition after {}, {} files to go", checkpoint, allFiles);
+							}
+							return Promises.sequence(IntStream.range(0, (files.size() + batchSize - 1) / batchSize)
+									.mapToObj(i -> files.subList(i * batchSize, Math.min(files.size(), (i + 1) * batchSize)))
+									.map(batch -> () -> stopRequested ?
+											Promise.complete() :
+											repartitionBatch(batch, executor)));
+						}))
+				.then($ -> stopRequested ? Promise.complete() : clearCheckpoint())
 				.whenComplete(() -> isRepartitioning = false)
 				.whenComplete(repartitionPromiseStats.recordStats())
 				.thenEx(($, e) -> {
 					if (e != null) {
 						logger.warn("forced repartition finish, {} files ensured, {} errored, {} untouched", ensuredFiles, failedFiles, allFiles - ensuredFiles - failedFiles);
+					} else if (stopRequested) {
+						logger.info("repartition stopped, {} files ensured, {} errored, {} untouched", ensuredFiles, failedFiles, allFiles - ensuredFiles - failedFiles);
 					} else {
-						logger.info("repartition finished, {} files ensured, {} errored", ensuredFiles, failedFiles);
+						logger.info("repartition finished, {} files ensured, {} errored, {} bytes moved", ensuredFiles, failedFiles, bytesMoved);
 					}
 					if (closeCallback != null) {
 						closeCallback.accept($, e);
+						closeCallback = null;
 					}
 					return Promise.complete();
 				});
 	}
 
+	private Promise<Void> repartitionBatch(List<FileMetadata> batch, AsyncExecutor executor) {
+		Map<FileMetadata, List<Object>> selections = new HashMap<>();
+		Set<Object> partitionIds = new HashSet<>(clients.keySet());
+		partitionIds.add(localPartitionId); // ensure local partition could also be selected
+		for (FileMetadata meta : batch) {
+			selections.put(meta, serverSelector.selectFrom(meta.getName(), partitionIds, replicationCount));
+		}
+		return (diffMode ? fetchMetadata(selections) : Promise.<Map<Object, Map<String, FileMetadata>>>of(null))
+				.then(remoteMetadata -> Promises.all(batch.stream()
+						.map(meta -> executor.execute(() -> repartitionFile(meta, selections.get(meta), remoteMetadata)
+								.whenComplete(singleFileRepartitionPromiseStats.recordStats())
+								.whenComplete((success, e) -> {
+									processedBytes += meta.getSize();
+									if (e == null && success) {
+										ensuredFiles++;
+									} else {
+										failedFiles++;
+									}
+								})
+								.thenEx(($, e) -> Promise.complete())))))
+				.then($ -> saveCheckpoint(batch.get(batch.size() - 1).getName()));
+	}
+
+	/**
+	 * Fetches metadata of the files from each of the partitions they are selected for,
+	 * partitions which failed to respond are absent from the result
+	 */
+	private Promise<Map<Object, Map<String, FileMetadata>>> fetchMetadata(Map<FileMetadata, List<Object>> selections) {
+		Map<Object, Set<String>> namesByPartition = new HashMap<>();
+		selections.forEach((meta, selected) -> selected.stream()
+				.filter(partitionId -> partitionId != localPartitionId)
+				.forEach(partitionId -> namesByPartition.computeIfAbsent(partitionId, $ -> new HashSet<>()).add(meta.getName())));
+		Map<Object, Map<String, FileMetadata>> result = new HashMap<>();
+		return Promises.all(namesByPartition.entrySet().stream()
+				.map(entry -> clients.get(entry.getKey()).getMetadataAll(entry.getValue())
+						.whenResult(metas -> result.put(entry.getKey(), metas))
+						.whenException(e -> {
+							logger.warn("failed fetching metadata from partition " + entry.getKey() + " (" + e + ')');
+							cluster.markDead(entry.getKey(), e);
+						})
+						.toTry()))
+				.map($ -> result);
+	}
+
+	private Promise<@Nullable String> loadCheckpoint() {
+		if (checkpointStorage == null) {
+			return Promise.of(null);
+		}
+		return checkpointStorage.getMetadata(checkpointName)
+				.then(meta -> meta == null ?
+						Promise.of(null) :
+						checkpointStorage.download(checkpointName)
+								.then(supplier -> supplier.toCollector(ByteBufQueue.collector()))
+								.map(buf -> buf.asString(UTF_8)));
+	}
+
+	private Promise<Void> saveCheckpoint(String lastName) {
+		if (checkpointStorage == null) {
+			return Promise.complete();
+		}
+		return checkpointStorage.delete(checkpointName)
+				.then($ -> ChannelSupplier.of(ByteBuf.wrapForReading(lastName.getBytes(UTF_8)))
+						.streamTo(ChannelConsumer.ofPromise(checkpointStorage.upload(checkpointName))));
+	}
+
+	private Promise<Void> clearCheckpoint() {
+		if (checkpointStorage == null) {
+			return Promise.complete();
+		}
+		return checkpointStorage.delete(checkpointName);
+	}
+
 	private Stream<FileMetadata> filterNot(Stream<FileMetadata> stream, String glob) {
 		if (glob.isEmpty()) {
 			return stream;
@@ -180,12 +353,8 @@ public final class RemoteFsRepartitionController implements Initializable<Remote
 		return stream.filter(file -> !negativeMatcher.matches(Paths.get(file.getName())));
 	}
 
-	private Promise<Boolean> repartitionFile(FileMetadata meta) {
-		Set<Object> partitionIds = new HashSet<>(clients.keySet());
-		partitionIds.add(localPartitionId); // ensure local partition could also be selected
-		List<Object> selected = serverSelector.selectFrom(meta.getName(), partitionIds, replicationCount);
-
-		return getPartitionsThatNeedOurFile(meta, selected)
+	private Promise<Boolean> repartitionFile(FileMetadata meta, List<Object> selected, @Nullable Map<Object, Map<String, FileMetadata>> remoteMetadata) {
+		return getPartitionsThatNeedOurFile(meta, selected, remoteMetadata)
 				.then(uploadTargets -> {
 					if (uploadTargets == null) { // null return means failure
 						return Promise.of(false);
@@ -200,7 +369,7 @@ public final class RemoteFsRepartitionController implements Initializable<Remote
 									return true;
 								});
 					}
-					if (uploadTargets.size() == 1 && uploadTargets.get(0) == localStorage) { // everybody had the file AND
+					if (uploadTargets.size() == 1 && uploadTargets.get(0) == localPartitionId) { // everybody had the file AND
 						logger.info("handled file {} (ensured on {})", meta, selected);      // we dont delete the local copy
 						return Promise.of(true);
 					}
@@ -209,8 +378,14 @@ public final class RemoteFsRepartitionController implements Initializable<Remote
 
 					logger.trace("uploading file {} to partitions {}...", meta, uploadTargets);
 
+					long remoteTargets = uploadTargets.stream().filter(partitionId -> partitionId != localPartitionId).count();
+					ChannelSupplier<ByteBuf> supplier = ChannelSupplier.ofPromise(localStorage.download(name));
+					if (bandwidthLimiter != null) {
+						BandwidthLimiter limiter = bandwidthLimiter;
+						supplier = supplier.mapAsync(buf -> limiter.acquire(buf.readRemaining() * remoteTargets).map($ -> buf));
+					}
 					ChannelSplitter<ByteBuf> splitter = ChannelSplitter.<ByteBuf>create()
-							.withInput(ChannelSupplier.ofPromise(localStorage.download(name)));
+							.withInput(supplier);
 
 					// recycle original non-slice buffer
 					return Promises.toList(uploadTargets.stream() // upload file to target partitions
@@ -222,6 +397,7 @@ public final class RemoteFsRepartitionController implements Initializable<Remote
 								return getAcknowledgement(fn ->
 										splitter.addOutput()
 												.set(ChannelConsumer.ofPromise(clients.get(partitionId).upload(name, 0, revision))
+														.peek(buf -> bytesMoved += buf.readRemaining())
 														.withAcknowledgement(fn)))
 										.whenException(e -> {
 											logger.warn("failed uploading to partition " + partitionId + " (" + e + ')');
@@ -252,26 +428,47 @@ public final class RemoteFsRepartitionController implements Initializable<Remote
 				.whenComplete(toLogger(logger, TRACE, "repartitionFile", meta));
 	}
 
-	private Promise<List<Object>> getPartitionsThatNeedOurFile(FileMetadata fileToUpload, List<Object> selected) {
+	private Promise<List<Object>> getPartitionsThatNeedOurFile(FileMetadata fileToUpload, List<Object> selected,
+			@Nullable Map<Object, Map<String, FileMetadata>> remoteMetadata) {
 		List<Object> uploadTargets = new ArrayList<>();
 		return Promises.toList(selected.stream()
 				.map(partitionId -> {
 					if (partitionId == localPartitionId) {
 						uploadTargets.add(partitionId); // add it to targets so in repartitionFile we know not to delete local file
-						return Promise.of(Try.of(null));  // and skip other logic
+						return Promise.of(Try.<Void>of(null));  // and skip other logic
 					}
-					return clients.get(partitionId)
-							.listEntities(fileToUpload.getName()) // checking file existense and size on particular partition
-							.whenComplete((list, e) -> {
-								if (e != null) {
+					Promise<List<FileMetadata>> existingPromise;
+					if (remoteMetadata != null) { // metadata has been fetched for the whole batch
+						Map<String, FileMetadata> metas = remoteMetadata.get(partitionId);
+						if (metas == null) {
+							return Promise.of(Try.<Void>ofException(METADATA_NOT_FETCHED));
+						}
+						FileMetadata existing = metas.get(fileToUpload.getName());
+						existingPromise = Promise.of(existing == null ? Collections.emptyList() : Collections.singletonList(existing));
+					} else {
+						existingPromise = clients.get(partitionId)
+								.listEntities(fileToUpload.getName()) // checking file existense and size on particular partition
+								.whenException(e -> {
 									logger.warn("failed connecting to partition " + partitionId + " (" + e + ')');
 									cluster.markDead(partitionId, e);
-									return;
-								}
+								});
+					}
+					return existingPromise
+							.then(list -> {
 								// ↓ when there is no file or it is worse than ours
 								if (list.isEmpty() || FileMetadata.COMPARATOR.compare(list.get(0), fileToUpload) < 0) {
 									uploadTargets.add(partitionId);
+									return Promise.complete();
+								}
+								FileMetadata existing = list.get(0);
+								// ↓ when the file is the same judging by revision and size, but checksums say otherwise
+								if (!existing.isTombstone() && existing.getRevision() == fileToUpload.getRevision() &&
+										existing.getSize() == fileToUpload.getSize() && !FileMetadata.isSameContent(existing, fileToUpload)) {
+									logger.warn("file {} on partition {} has different content than local {}", existing, partitionId, fileToUpload);
+									mismatchedFiles++;
+									return Promise.<Void>ofException(CHECKSUM_MISMATCH);
 								}
+								return Promise.complete();
 							})
 							.toTry();
 				}))
@@ -290,12 +487,18 @@ public final class RemoteFsRepartitionController implements Initializable<Remote
 		return Promise.complete();
 	}
 
+	/**
+	 * Waits for the current batch to finish, the rest of the files is left to the next repartition,
+	 * which resumes from the checkpoint if it is set
+	 */
 	@NotNull
 	@Override
 	public Promise<Void> stop() {
-		return isRepartitioning() ?
-				Promise.ofCallback(cb -> this.closeCallback = cb) :
-				Promise.complete();
+		if (!isRepartitioning()) {
+			return Promise.complete();
+		}
+		stopRequested = true;
+		return Promise.ofCallback(cb -> this.closeCallback = cb);
 	}
 
 	// region JMX
@@ -333,5 +536,53 @@ public final class RemoteFsRepartitionController implements Initializable<Remote
 	public int getLastFailedFiles() {
 		return failedFiles;
 	}
+
+	/**
+	 * Number of files whose replicas had the same revision and size as the local files but different checksums,
+	 * such files are not repartitioned and their local copies are kept
+	 */
+	@JmxAttribute
+	public int getLastMismatchedFiles() {
+		return mismatchedFiles;
+	}
+
+	/**
+	 * Number of files which were skipped, because they precede the checkpoint or are excluded by negative glob
+	 */
+	@JmxAttribute
+	public int getLastSkippedFiles() {
+		return skippedFiles;
+	}
+
+	@JmxAttribute
+	public long getLastTotalBytes() {
+		return totalBytes;
+	}
+
+	@JmxAttribute
+	public long getLastProcessedBytes() {
+		return processedBytes;
+	}
+
+	/**
+	 * Number of bytes uploaded to other partitions, a file uploaded to several partitions is counted several times
+	 */
+	@JmxAttribute
+	public long getLastBytesMoved() {
+		return bytesMoved;
+	}
+
+	/**
+	 * Estimated time left, judging by the rate at which the bytes of local files have been processed so far
+	 */
+	@Nullable
+	@JmxAttribute
+	public Duration getEta() {
+		if (!isRepartitioning || processedBytes == 0) {
+			return null;
+		}
+		long elapsed = eventloop.currentTimeMillis() - startTimestamp;
+		return Duration.ofMillis((long) ((double) elapsed * (totalBytes - processedBytes) / processedBytes));
+	}
 	// endregion
 }
@@ -18,30 +18,174 @@ package io.datakernel.remotefs;
 
 import io.datakernel.codec.CodecSubtype;
 import io.datakernel.codec.StructuredCodec;
-import io.datakernel.codec.StructuredCodecs;
+import io.datakernel.codec.StructuredInput;
+import io.datakernel.codec.StructuredOutput;
+import io.datakernel.common.exception.UncheckedException;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.serializer.BinaryInput;
+import io.datakernel.serializer.BinaryOutput;
+import io.datakernel.serializer.BinarySerializer;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import static io.datakernel.codec.StructuredCodecs.*;
+import static io.datakernel.remotefs.FileMetadata.NO_CHECKSUM;
 
 public final class RemoteFsResponses {
-	public static final StructuredCodec<FileMetadata> FILE_META_CODEC = StructuredCodecs.tuple(FileMetadata::parse,
-			FileMetadata::getName, STRING_CODEC,
-			FileMetadata::getSize, LONG_CODEC,
-			FileMetadata::getTimestamp, LONG_CODEC,
-			FileMetadata::getRevision, LONG_CODEC);
+	/**
+	 * Files are encoded as {@code [name, size, timestamp, revision, checksum]} tuples,
+	 * where the trailing checksum is omitted (or null) when it is unknown,
+	 * so that tuples of four elements written before checksums were introduced are still readable
+	 */
+	public static final StructuredCodec<FileMetadata> FILE_META_CODEC = new StructuredCodec<FileMetadata>() {
+		@Override
+		public FileMetadata decode(StructuredInput in) throws ParseException {
+			return in.readTuple($ -> {
+				String name = in.readString();
+				long size = in.readLong();
+				long timestamp = in.readLong();
+				long revision = in.readLong();
+				Long checksum = in.hasNext() ? in.readNullable(LONG_CODEC) : null;
+				return FileMetadata.parse(name, size, timestamp, revision, checksum != null ? checksum : NO_CHECKSUM);
+			});
+		}
+
+		@Override
+		public void encode(StructuredOutput out, FileMetadata item) {
+			out.writeTuple(() -> {
+				out.writeString(item.getName());
+				out.writeLong(item.getSize());
+				out.writeLong(item.getTimestamp());
+				out.writeLong(item.getRevision());
+				if (item.getChecksum() != NO_CHECKSUM) {
+					out.writeLong(item.getChecksum());
+				}
+			});
+		}
+	};
+
+	/**
+	 * Encodes download size as {@code {"size": size, "checksum": checksum}} object,
+	 * where the checksum field is omitted (or null) when it is unknown
+	 */
+	private static final StructuredCodec<DownloadSize> DOWNLOAD_SIZE_CODEC = new StructuredCodec<DownloadSize>() {
+		@Override
+		public DownloadSize decode(StructuredInput in) throws ParseException {
+			return in.readObject($ -> {
+				long size = in.readKey("size", LONG_CODEC);
+				Long checksum = in.hasNext() ? in.readKey("checksum", LONG_CODEC.nullable()) : null;
+				return new DownloadSize(size, checksum != null ? checksum : NO_CHECKSUM);
+			});
+		}
+
+		@Override
+		public void encode(StructuredOutput out, DownloadSize item) {
+			out.writeObject(() -> {
+				out.writeKey("size", LONG_CODEC, item.getSize());
+				if (item.getChecksum() != NO_CHECKSUM) {
+					out.writeKey("checksum", LONG_CODEC, item.getChecksum());
+				}
+			});
+		}
+	};
 
 	static final StructuredCodec<FsResponse> CODEC = CodecSubtype.<FsResponse>create()
 			.with(UploadAck.class, object(UploadAck::new, "ok", UploadAck::isOk, BOOLEAN_CODEC))
 			.with(UploadFinished.class, object(UploadFinished::new))
-			.with(DownloadSize.class, object(DownloadSize::new, "size", DownloadSize::getSize, LONG_CODEC))
+			.with(DownloadSize.class, DOWNLOAD_SIZE_CODEC)
 			.with(MoveFinished.class, object(MoveFinished::new))
 			.with(CopyFinished.class, object(CopyFinished::new))
 			.with(DeleteFinished.class, object(DeleteFinished::new))
 			.with(ListFinished.class, object(ListFinished::new, "files", ListFinished::getFiles, ofList(FILE_META_CODEC)))
 			.with(ServerError.class, object(ServerError::new, "code", ServerError::getCode, INT_CODEC));
 
+	private static final byte UPLOAD_ACK = 1;
+	private static final byte UPLOAD_FINISHED = 2;
+	private static final byte DOWNLOAD_SIZE = 3;
+	private static final byte MOVE_FINISHED = 4;
+	private static final byte COPY_FINISHED = 5;
+	private static final byte DELETE_FINISHED = 6;
+	private static final byte LIST_FINISHED = 7;
+	private static final byte SERVER_ERROR = 8;
+
+	static final BinarySerializer<FsResponse> BINARY_SERIALIZER = new BinarySerializer<FsResponse>() {
+		@Override
+		public void encode(BinaryOutput out, FsResponse item) {
+			if (item instanceof UploadAck) {
+				out.writeByte(UPLOAD_ACK);
+				out.writeBoolean(((UploadAck) item).isOk());
+			} else if (item instanceof UploadFinished) {
+				out.writeByte(UPLOAD_FINISHED);
+			} else if (item instanceof DownloadSize) {
+				out.writeByte(DOWNLOAD_SIZE);
+				out.writeVarLong(((DownloadSize) item).getSize());
+				out.writeVarLong(((DownloadSize) item).getChecksum() + 1);
+			} else if (item instanceof MoveFinished) {
+				out.writeByte(MOVE_FINISHED);
+			} else if (item instanceof CopyFinished) {
+				out.writeByte(COPY_FINISHED);
+			} else if (item instanceof DeleteFinished) {
+				out.writeByte(DELETE_FINISHED);
+			} else if (item instanceof ListFinished) {
+				List<FileMetadata> files = ((ListFinished) item).getFiles();
+				out.writeByte(LIST_FINISHED);
+				out.writeVarInt(files.size());
+				for (FileMetadata file : files) {
+					out.writeUTF8(file.getName());
+					out.writeVarLong(file.getSize());
+					out.writeVarLong(file.getTimestamp());
+					out.writeVarLong(file.getRevision());
+					// shifted by one so that NO_CHECKSUM takes a single byte
+					out.writeVarLong(file.getChecksum() + 1);
+				}
+			} else if (item instanceof ServerError) {
+				out.writeByte(SERVER_ERROR);
+				out.writeVarInt(((ServerError) item).getCode());
+			} else {
+				throw new IllegalArgumentException("Unknown response: " + item);
+			}
+		}
+
+		@Override
+		public FsResponse decode(BinaryInput in) {
+			byte type = in.readByte();
+			switch (type) {
+				case UPLOAD_ACK:
+					return new UploadAck(in.readBoolean());
+				case UPLOAD_FINISHED:
+					return new UploadFinished();
+				case DOWNLOAD_SIZE:
+					return new DownloadSize(in.readVarLong(), in.readVarLong() - 1);
+				case MOVE_FINISHED:
+					return new MoveFinished();
+				case COPY_FINISHED:
+					return new CopyFinished();
+				case DELETE_FINISHED:
+					return new DeleteFinished();
+				case LIST_FINISHED:
+					int size = in.readVarInt();
+					if (size < 0) {
+						throw new IllegalArgumentException("Negative number of files: " + size);
+					}
+					List<FileMetadata> files = new ArrayList<>(Math.min(size, 1024));
+					for (int i = 0; i < size; i++) {
+						try {
+							files.add(FileMetadata.parse(in.readUTF8(), in.readVarLong(), in.readVarLong(), in.readVarLong(), in.readVarLong() - 1));
+						} catch (ParseException e) {
+							throw new UncheckedException(e);
+						}
+					}
+					return new ListFinished(files);
+				case SERVER_ERROR:
+					return new ServerError(in.readVarInt());
+				default:
+					throw new IllegalArgumentException("Unknown response type: " + type);
+			}
+		}
+	};
+
 	public static abstract class FsResponse {
 	}
 
@@ -71,18 +215,32 @@ public final class RemoteFsResponses {
 
 	public static class DownloadSize extends FsResponse {
 		private final long size;
+		private final long checksum;
 
 		public DownloadSize(long size) {
+			this(size, NO_CHECKSUM);
+		}
+
+		public DownloadSize(long size, long checksum) {
 			this.size = size;
+			this.checksum = checksum;
 		}
 
 		public long getSize() {
 			return size;
 		}
 
+		/**
+		 * Returns the checksum of the whole file when the whole file is downloaded and its checksum is known,
+		 * or {@link FileMetadata#NO_CHECKSUM} otherwise
+		 */
+		public long getChecksum() {
+			return checksum;
+		}
+
 		@Override
 		public String toString() {
-			return "DownloadSize{size=" + size + '}';
+			return "DownloadSize{size=" + size + ", checksum=" + checksum + '}';
 		}
 	}
 
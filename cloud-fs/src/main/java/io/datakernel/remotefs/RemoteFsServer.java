@@ -19,7 +19,6 @@ package io.datakernel.remotefs;
 import io.datakernel.common.exception.StacklessException;
 import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.csp.RecyclingChannelConsumer;
-import io.datakernel.csp.binary.ByteBufSerializer;
 import io.datakernel.csp.net.Messaging;
 import io.datakernel.csp.net.MessagingWithBinaryStreaming;
 import io.datakernel.eventloop.Eventloop;
@@ -34,6 +33,7 @@ import io.datakernel.remotefs.RemoteFsResponses.*;
 import java.net.InetAddress;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executor;
@@ -41,7 +41,7 @@ import java.util.function.Function;
 
 import static io.datakernel.async.util.LogUtils.Level.TRACE;
 import static io.datakernel.async.util.LogUtils.toLogger;
-import static io.datakernel.csp.binary.ByteBufSerializer.ofJsonCodec;
+import static io.datakernel.remotefs.FileMetadata.NO_CHECKSUM;
 import static io.datakernel.remotefs.FsClient.FILE_NOT_FOUND;
 import static io.datakernel.remotefs.RemoteFsUtils.checkRange;
 import static io.datakernel.remotefs.RemoteFsUtils.getErrorCode;
@@ -51,9 +51,6 @@ import static io.datakernel.remotefs.RemoteFsUtils.getErrorCode;
  * It exposes some given {@link FsClient} to the Internet in pair with {@link RemoteFsClient}
  */
 public final class RemoteFsServer extends AbstractServer<RemoteFsServer> {
-	private static final ByteBufSerializer<FsCommand, FsResponse> SERIALIZER =
-			ofJsonCodec(RemoteFsCommands.CODEC, RemoteFsResponses.CODEC);
-
 	public static final StacklessException NO_HANDLER_FOR_MESSAGE = new StacklessException(RemoteFsServer.class, "No handler for received message type");
 
 	private final Map<Class<?>, MessagingHandler<FsCommand>> handlers = new HashMap<>();
@@ -67,6 +64,10 @@ public final class RemoteFsServer extends AbstractServer<RemoteFsServer> {
 	private final PromiseStats copyPromise = PromiseStats.create(Duration.ofMinutes(5));
 	private final PromiseStats listPromise = PromiseStats.create(Duration.ofMinutes(5));
 	private final PromiseStats deletePromise = PromiseStats.create(Duration.ofMinutes(5));
+	private final PromiseStats moveAllPromise = PromiseStats.create(Duration.ofMinutes(5));
+	private final PromiseStats copyAllPromise = PromiseStats.create(Duration.ofMinutes(5));
+	private final PromiseStats deleteAllPromise = PromiseStats.create(Duration.ofMinutes(5));
+	private final PromiseStats getMetadataAllPromise = PromiseStats.create(Duration.ofMinutes(5));
 	// endregion
 
 	private RemoteFsServer(Eventloop eventloop, FsClient client) {
@@ -90,7 +91,8 @@ public final class RemoteFsServer extends AbstractServer<RemoteFsServer> {
 	@Override
 	protected void serve(AsyncTcpSocket socket, InetAddress remoteAddress) {
 		MessagingWithBinaryStreaming<FsCommand, FsResponse> messaging =
-				MessagingWithBinaryStreaming.create(socket, SERIALIZER);
+				MessagingWithBinaryStreaming.create(socket, RemoteFsProtocol.serverSerializer(() ->
+						socket.write(RemoteFsProtocol.binaryMagic())));
 		messaging.receive()
 				.then(msg -> {
 					if (msg == null) {
@@ -149,10 +151,14 @@ public final class RemoteFsServer extends AbstractServer<RemoteFsServer> {
 
 						long fixedLength = length == -1 ? size - offset : length;
 
-						return messaging.send(new DownloadSize(fixedLength))
+						long checksum = offset == 0 && fixedLength == size ? meta.getChecksum() : NO_CHECKSUM;
+
+						return messaging.send(new DownloadSize(fixedLength, checksum))
 								.then($ ->
 										ChannelSupplier.ofPromise(client.download(name, offset, fixedLength))
-												.streamTo(messaging.sendBinaryStream()))
+												.streamTo(messaging.sendBinaryStream())
+												// data is already being sent, so the error can only be reported by dropping the connection
+												.whenException(messaging::close))
 								.whenComplete(toLogger(logger, "sending data", meta, offset, fixedLength, this));
 					})
 					.whenComplete(downloadPromise.recordStats());
@@ -165,6 +171,11 @@ public final class RemoteFsServer extends AbstractServer<RemoteFsServer> {
 								client.listEntities(msg.getGlob()) :
 								client.list(msg.getGlob()),
 				ListFinished::new, listPromise));
+		onMessage(MoveAll.class, simpleHandler(msg -> client.moveAll(msg.getSourceToTarget(), msg.getTargetRevision(), msg.getRemoveRevision()), $ -> new MoveFinished(), moveAllPromise));
+		onMessage(CopyAll.class, simpleHandler(msg -> client.copyAll(msg.getSourceToTarget(), msg.getRevision()), $ -> new CopyFinished(), copyAllPromise));
+		onMessage(DeleteAll.class, simpleHandler(msg -> client.deleteAll(msg.getNames(), msg.getRevision()), $ -> new DeleteFinished(), deleteAllPromise));
+		onMessage(GetMetadataAll.class, simpleHandler(msg -> client.getMetadataAll(msg.getNames()),
+				metas -> new ListFinished(new ArrayList<>(metas.values())), getMetadataAllPromise));
 	}
 
 	private <T extends FsCommand, R> MessagingHandler<T> simpleHandler(Function<T, Promise<R>> action, Function<R, FsResponse> response, PromiseStats stats) {
@@ -215,6 +226,26 @@ public final class RemoteFsServer extends AbstractServer<RemoteFsServer> {
 		return deletePromise;
 	}
 
+	@JmxAttribute
+	public PromiseStats getMoveAllPromise() {
+		return moveAllPromise;
+	}
+
+	@JmxAttribute
+	public PromiseStats getCopyAllPromise() {
+		return copyAllPromise;
+	}
+
+	@JmxAttribute
+	public PromiseStats getDeleteAllPromise() {
+		return deleteAllPromise;
+	}
+
+	@JmxAttribute
+	public PromiseStats getGetMetadataAllPromise() {
+		return getMetadataAllPromise;
+	}
+
 	@JmxAttribute
 	public PromiseStats getHandleRequestPromise() {
 		return handleRequestPromise;
@@ -1,6 +1,8 @@
 package io.datakernel.remotefs;
 
+import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.common.exception.UncheckedException;
+import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
 import org.jetbrains.annotations.Nullable;
@@ -10,6 +12,7 @@ import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 import static io.datakernel.remotefs.FsClient.*;
 
@@ -25,7 +28,8 @@ public final class RemoteFsUtils {
 			LENGTH_TOO_BIG,
 			BAD_RANGE,
 			MOVING_DIRS,
-			UNSUPPORTED_REVISION
+			UNSUPPORTED_REVISION,
+			CHECKSUM_MISMATCH
 	};
 
 	/**
@@ -94,9 +98,31 @@ public final class RemoteFsUtils {
 		if (e == UNSUPPORTED_REVISION) {
 			return 8;
 		}
+		if (e == CHECKSUM_MISMATCH) {
+			return 9;
+		}
 		return 0;
 	}
 
+	/**
+	 * Wraps given supplier so that its end of stream fails with {@link FsClient#CHECKSUM_MISMATCH}
+	 * if CRC32 of the supplied data does not match the expected checksum
+	 *
+	 * @param expectedChecksum expected checksum or {@link FileMetadata#NO_CHECKSUM} to skip the verification
+	 */
+	public static ChannelSupplier<ByteBuf> verifyChecksum(ChannelSupplier<ByteBuf> supplier, long expectedChecksum) {
+		if (expectedChecksum == FileMetadata.NO_CHECKSUM) {
+			return supplier;
+		}
+		CRC32 crc = new CRC32();
+		return supplier
+				.peek(buf -> crc.update(buf.array(), buf.head(), buf.readRemaining()))
+				.withEndOfStream(eos -> eos
+						.then($ -> crc.getValue() == expectedChecksum ?
+								Promise.complete() :
+								Promise.ofException(CHECKSUM_MISMATCH)));
+	}
+
 	static void checkRange(long size, long offset, long length) {
 		if (offset < -1 || length < -1) {
 			throw new UncheckedException(BAD_RANGE);
@@ -148,6 +174,11 @@ public final class RemoteFsUtils {
 
 					// * the revisions are equal here
 
+					if (sourceMeta.getSize() == targetMeta.getSize() && !FileMetadata.isSameContent(sourceMeta, targetMeta)) {
+						// same revision and size but different checksums, one of the files is corrupted
+						return Promise.ofException(CHECKSUM_MISMATCH);
+					}
+
 					if (sourceMeta.getSize() <= targetMeta.getSize()) {
 						// if target is the same or bigger then it is better, do nothing
 						return Promise.complete();
@@ -21,9 +21,9 @@ import io.datakernel.csp.ChannelConsumer;
 import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.promise.Promise;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
@@ -71,6 +71,38 @@ final class TransformFsClient implements FsClient {
 		return renamingOp(name, target, () -> parent.copy(name, target, targetRevision));
 	}
 
+	@Override
+	public Promise<Void> moveAll(@NotNull Map<String, String> sourceToTarget, long targetRevision, long tombstoneRevision) {
+		Map<String, String> transformed = transformPairs(sourceToTarget);
+		if (transformed == null) {
+			return Promise.ofException(BAD_PATH);
+		}
+		return parent.moveAll(transformed, targetRevision, tombstoneRevision);
+	}
+
+	@Override
+	public Promise<Void> copyAll(@NotNull Map<String, String> sourceToTarget, long targetRevision) {
+		Map<String, String> transformed = transformPairs(sourceToTarget);
+		if (transformed == null) {
+			return Promise.ofException(BAD_PATH);
+		}
+		return parent.copyAll(transformed, targetRevision);
+	}
+
+	@Nullable
+	private Map<String, String> transformPairs(Map<String, String> sourceToTarget) {
+		Map<String, String> result = new LinkedHashMap<>();
+		for (Map.Entry<String, String> entry : sourceToTarget.entrySet()) {
+			Optional<String> transformed = into.apply(entry.getKey());
+			Optional<String> transformedNew = into.apply(entry.getValue());
+			if (!transformed.isPresent() || !transformedNew.isPresent()) {
+				return null;
+			}
+			result.put(transformed.get(), transformedNew.get());
+		}
+		return result;
+	}
+
 	private Promise<Void> renamingOp(String filename, String newFilename, Supplier<Promise<Void>> original) {
 		Optional<String> transformed = into.apply(filename);
 		Optional<String> transformedNew = into.apply(newFilename);
@@ -118,6 +150,21 @@ final class TransformFsClient implements FsClient {
 						})).orElse(Promise.of(null));
 	}
 
+	@Override
+	public Promise<Map<String, FileMetadata>> getMetadataAll(@NotNull Set<String> names) {
+		Set<String> transformed = new LinkedHashSet<>();
+		for (String name : names) {
+			into.apply(name).ifPresent(transformed::add);
+		}
+		return parent.getMetadataAll(transformed)
+				.map(metas -> {
+					Map<String, FileMetadata> result = new HashMap<>();
+					metas.forEach((name, meta) -> from.apply(name)
+							.ifPresent(original -> result.put(original, meta.withName(original))));
+					return result;
+				});
+	}
+
 	@Override
 	public Promise<Void> ping() {
 		return parent.ping();
@@ -132,6 +179,15 @@ final class TransformFsClient implements FsClient {
 		return parent.delete(transformed.get(), revision);
 	}
 
+	@Override
+	public Promise<Void> deleteAll(@NotNull Set<String> names, long revision) {
+		Set<String> transformed = new LinkedHashSet<>();
+		for (String name : names) {
+			into.apply(name).ifPresent(transformed::add);
+		}
+		return parent.deleteAll(transformed, revision);
+	}
+
 	@Override
 	public FsClient transform(@NotNull Function<String, Optional<String>> into, @NotNull Function<String, Optional<String>> from, @NotNull Function<String, Optional<String>> globInto) {
 		if (into == this.from && from == this.into) { // huh
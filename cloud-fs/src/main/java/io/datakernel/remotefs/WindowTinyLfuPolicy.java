@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import io.datakernel.common.collection.FrequencySketch;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Weighted W-TinyLFU cache replacement policy.
+ * <p>
+ * New entries are put into a small LRU window. Entries evicted from the window
+ * are admitted to the main segmented LRU only if they were accessed more frequently
+ * than the entry which would be evicted in their place. Access frequencies are estimated
+ * by a count-min sketch, which is periodically halved so that old popularity fades out.
+ * <p>
+ * The main segmented LRU consists of a probation and a protected segment:
+ * entries are promoted to the protected segment on a hit and demoted back
+ * to the probation segment when the protected one overflows.
+ * <p>
+ * All operations take amortized constant time. This class only tracks keys and weights,
+ * actual data is stored by the caller, who should remove entries returned by {@link #add}.
+ */
+final class WindowTinyLfuPolicy<K> {
+	private static final double WINDOW_RATIO = 0.01;
+	private static final double PROTECTED_RATIO = 0.8;
+	private static final int MAX_SKETCH_ENTRIES = 1 << 24;
+
+	enum Segment {WINDOW, PROBATION, PROTECTED}
+
+	private final Map<K, Segment> segments = new HashMap<>();
+	private final LinkedHashMap<K, Long> window = new LinkedHashMap<>();
+	private final LinkedHashMap<K, Long> probation = new LinkedHashMap<>();
+	private final LinkedHashMap<K, Long> protectedSegment = new LinkedHashMap<>();
+	private final FrequencySketch sketch;
+
+	private long capacity;
+	private long windowWeight;
+	private long probationWeight;
+	private long protectedWeight;
+
+	WindowTinyLfuPolicy(long capacity, int expectedSize) {
+		this.sketch = FrequencySketch.create(Math.max(1, Math.min(expectedSize, MAX_SKETCH_ENTRIES)));
+		setCapacity(capacity);
+	}
+
+	/**
+	 * Changes the capacity, entries over the new capacity are to be evicted by the next {@link #add}
+	 * or by {@link #evictExcess()}
+	 */
+	void setCapacity(long capacity) {
+		checkArgument(capacity >= 0, "Capacity must not be negative");
+		this.capacity = capacity;
+	}
+
+	long getCapacity() {
+		return capacity;
+	}
+
+	long getWeight() {
+		return windowWeight + probationWeight + protectedWeight;
+	}
+
+	int size() {
+		return segments.size();
+	}
+
+	boolean contains(K key) {
+		return segments.containsKey(key);
+	}
+
+	@Nullable
+	Segment getSegment(K key) {
+		return segments.get(key);
+	}
+
+	/**
+	 * Records an access to the key, whether it is present in the cache or not
+	 */
+	void recordAccess(K key) {
+		sketch.increment(key.hashCode());
+		Segment segment = segments.get(key);
+		if (segment == null) {
+			return;
+		}
+		switch (segment) {
+			case WINDOW:
+				window.put(key, window.remove(key));
+				break;
+			case PROBATION:
+				long weight = probation.remove(key);
+				probationWeight -= weight;
+				protectedSegment.put(key, weight);
+				protectedWeight += weight;
+				segments.put(key, Segment.PROTECTED);
+				demoteProtected();
+				break;
+			case PROTECTED:
+				protectedSegment.put(key, protectedSegment.remove(key));
+				break;
+		}
+	}
+
+	/**
+	 * Adds an entry to the cache
+	 *
+	 * @return keys which should be evicted from the cache,
+	 * it contains the added key itself if it has not been admitted
+	 */
+	List<K> add(K key, long weight) {
+		checkArgument(weight >= 0, "Weight must not be negative");
+		remove(key);
+		List<K> evicted = new ArrayList<>();
+		if (weight > capacity) {
+			evicted.add(key);
+			return evicted;
+		}
+		window.put(key, weight);
+		windowWeight += weight;
+		segments.put(key, Segment.WINDOW);
+		long windowCapacity = (long) (capacity * WINDOW_RATIO);
+		while (windowWeight > windowCapacity && !window.isEmpty()) {
+			Map.Entry<K, Long> eldest = window.entrySet().iterator().next();
+			K candidate = eldest.getKey();
+			long candidateWeight = eldest.getValue();
+			window.remove(candidate);
+			windowWeight -= candidateWeight;
+			segments.remove(candidate);
+			admit(candidate, candidateWeight, evicted);
+		}
+		return evicted;
+	}
+
+	/**
+	 * Puts an entry directly into given segment, without admission, used to restore a saved state
+	 */
+	void restore(K key, long weight, Segment segment) {
+		remove(key);
+		segments.put(key, segment);
+		switch (segment) {
+			case WINDOW:
+				window.put(key, weight);
+				windowWeight += weight;
+				break;
+			case PROBATION:
+				probation.put(key, weight);
+				probationWeight += weight;
+				break;
+			case PROTECTED:
+				protectedSegment.put(key, weight);
+				protectedWeight += weight;
+				break;
+		}
+	}
+
+	/**
+	 * Evicts entries until the total weight fits into capacity
+	 *
+	 * @return evicted keys
+	 */
+	List<K> evictExcess() {
+		List<K> evicted = new ArrayList<>();
+		while (getWeight() > capacity) {
+			K victim = eldest(probation);
+			if (victim == null) victim = eldest(protectedSegment);
+			if (victim == null) victim = eldest(window);
+			remove(victim);
+			evicted.add(victim);
+		}
+		return evicted;
+	}
+
+	boolean remove(K key) {
+		Segment segment = segments.remove(key);
+		if (segment == null) {
+			return false;
+		}
+		switch (segment) {
+			case WINDOW:
+				windowWeight -= window.remove(key);
+				break;
+			case PROBATION:
+				probationWeight -= probation.remove(key);
+				break;
+			case PROTECTED:
+				protectedWeight -= protectedSegment.remove(key);
+				break;
+		}
+		return true;
+	}
+
+	/**
+	 * Iterates over all entries, from the eldest to the most recent one in each segment
+	 */
+	void forEach(EntryConsumer<K> consumer) {
+		probation.forEach((key, weight) -> consumer.accept(key, weight, Segment.PROBATION));
+		protectedSegment.forEach((key, weight) -> consumer.accept(key, weight, Segment.PROTECTED));
+		window.forEach((key, weight) -> consumer.accept(key, weight, Segment.WINDOW));
+	}
+
+	@FunctionalInterface
+	interface EntryConsumer<K> {
+		void accept(K key, long weight, Segment segment);
+	}
+
+	private void admit(K candidate, long weight, List<K> evicted) {
+		int candidateFrequency = sketch.frequency(candidate.hashCode());
+		// the window takes whatever it currently holds, so that the capacity is not wasted when its entries are big
+		long excess = getWeight() + weight - capacity;
+		// victims are chosen before anything is evicted, so that a rejected candidate does not cost any entries
+		List<K> victims = new ArrayList<>();
+		Iterator<Map.Entry<K, Long>> probationIterator = probation.entrySet().iterator();
+		Iterator<Map.Entry<K, Long>> protectedIterator = protectedSegment.entrySet().iterator();
+		while (excess > 0) {
+			Map.Entry<K, Long> victim = probationIterator.hasNext() ? probationIterator.next() :
+					protectedIterator.hasNext() ? protectedIterator.next() : null;
+			if (victim == null || sketch.frequency(victim.getKey().hashCode()) >= candidateFrequency) {
+				evicted.add(candidate);
+				return;
+			}
+			victims.add(victim.getKey());
+			excess -= victim.getValue();
+		}
+		for (K victim : victims) {
+			remove(victim);
+			evicted.add(victim);
+		}
+		probation.put(candidate, weight);
+		probationWeight += weight;
+		segments.put(candidate, Segment.PROBATION);
+	}
+
+	private void demoteProtected() {
+		long protectedCapacity = (long) (capacity * PROTECTED_RATIO);
+		while (protectedWeight > protectedCapacity && protectedSegment.size() > 1) {
+			K eldest = eldest(protectedSegment);
+			long weight = protectedSegment.remove(eldest);
+			protectedWeight -= weight;
+			probation.put(eldest, weight);
+			probationWeight += weight;
+			segments.put(eldest, Segment.PROBATION);
+		}
+	}
+
+	@Nullable
+	private static <K> K eldest(LinkedHashMap<K, Long> segment) {
+		return segment.isEmpty() ? null : segment.keySet().iterator().next();
+	}
+}
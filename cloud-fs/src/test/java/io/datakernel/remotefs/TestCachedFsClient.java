@@ -36,6 +36,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Executor;
@@ -45,6 +46,8 @@ import java.util.function.Function;
 import static io.datakernel.common.Preconditions.checkNotNull;
 import static io.datakernel.promise.TestUtils.await;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.*;
 
 public final class TestCachedFsClient {
@@ -399,6 +402,97 @@ public final class TestCachedFsClient {
 		listAfter.forEach(file -> assertTrue(file.getName().startsWith("test")));
 	}
 
+	@Test
+	public void testBlockCachingOfRange() throws IOException {
+		byte[] data = new byte[10 * 1024];
+		new Random(0).nextBytes(data);
+		Files.write(serverStorage.resolve("file.bin"), data);
+		cacheRemote.withBlockSize(MemSize.kilobytes(1));
+
+		ByteBuf downloaded = await(cacheRemote.download("file.bin", 2500, 1000)
+				.then(supplier -> supplier.toCollector(ByteBufQueue.collector())));
+		assertArrayEquals(Arrays.copyOfRange(data, 2500, 3500), downloaded.asArray());
+
+		// only blocks which cover requested range are cached
+		List<FileMetadata> blocks = await(cache.list("**"));
+		assertEquals(asList("2", "3"), blocks.stream()
+				.map(meta -> meta.getName().substring(meta.getName().lastIndexOf('/') + 1))
+				.sorted()
+				.collect(toList()));
+		assertTrue(blocks.stream().allMatch(meta -> meta.getName().startsWith(CachedFsClient.BLOCKS_FOLDER + "file.bin/")));
+
+		// blocks are read from the cache now
+		Path block = cacheStorage.resolve(blocks.stream().filter(meta -> meta.getName().endsWith("/2")).findAny().get().getName());
+		byte[] changed = new byte[1024];
+		Files.write(block, changed);
+		downloaded = await(cacheRemote.download("file.bin", 2048, 1024)
+				.then(supplier -> supplier.toCollector(ByteBufQueue.collector())));
+		assertArrayEquals(changed, downloaded.asArray());
+
+		ByteBuf whole = await(cacheRemote.download("file.bin")
+				.then(supplier -> supplier.toCollector(ByteBufQueue.collector())));
+		assertEquals(data.length, whole.readRemaining());
+		whole.recycle();
+		assertEquals(10, await(cache.list("**")).size());
+	}
+
+	@Test
+	public void testBlocksOfChangedFileAreNotUsed() throws IOException {
+		Path file = serverStorage.resolve("file.bin");
+		Files.write(file, "first version of the file".getBytes(UTF_8));
+		cacheRemote.withBlockSize(MemSize.bytes(8));
+
+		assertEquals("first version of the file", await(cacheRemote.download("file.bin").then(TO_STRING)));
+
+		Files.write(file, "second version, which is longer".getBytes(UTF_8));
+		assertEquals("second version, which is longer", await(cacheRemote.download("file.bin").then(TO_STRING)));
+		assertEquals("which", await(cacheRemote.download("file.bin", 16, 5).then(TO_STRING)));
+
+		await(cacheRemote.delete("file.bin"));
+		assertTrue(await(cache.list("**")).isEmpty());
+	}
+
+	@Test
+	public void testBlockIndexSurvivesRestart() throws IOException {
+		initializeFiles(4, "file");
+		cacheRemote.withBlockSize(MemSize.kilobytes(1));
+		await(cacheRemote.start());
+		downloadFiles(4, 1, "file");
+		await(cacheRemote.stop());
+
+		List<FileMetadata> cached = await(cache.list(CachedFsClient.BLOCKS_FOLDER + "**"));
+		assertEquals(20, cached.size());
+		Files.write(cacheStorage.resolve(CachedFsClient.BLOCKS_FOLDER + "orphan"), new byte[100]);
+
+		CachedFsClient restarted = CachedFsClient.create(main, cache, CachedFsClient.lruCompare())
+				.with(MemSize.kilobytes(50))
+				.withBlockSize(MemSize.kilobytes(1));
+		await(restarted.start());
+
+		// blocks of the previous run are kept and reused, unknown files are deleted
+		assertEquals(cached, await(cache.list(CachedFsClient.BLOCKS_FOLDER + "**")));
+		byte[] changed = new byte[1024];
+		Files.write(cacheStorage.resolve(cached.get(0).getName()), changed);
+		String name = cached.get(0).getName().substring(CachedFsClient.BLOCKS_FOLDER.length()).split("/")[0];
+		long index = Long.parseLong(cached.get(0).getName().substring(cached.get(0).getName().lastIndexOf('/') + 1));
+		ByteBuf downloaded = await(restarted.download(name, index * 1024, 1024)
+				.then(supplier -> supplier.toCollector(ByteBufQueue.collector())));
+		assertArrayEquals(changed, downloaded.asArray());
+	}
+
+	@Test
+	public void testBlockCacheSizeLimit() throws IOException {
+		initializeFiles(20, "file");
+		cacheRemote.withBlockSize(MemSize.kilobytes(1));
+
+		downloadFiles(20, 2, "file");
+
+		assertTrue(await(cacheRemote.getTotalCacheSize()).toLong() <= MemSize.kilobytes(50).toLong());
+
+		await(cacheRemote.setCacheSizeLimit(MemSize.kilobytes(10)));
+		assertTrue(await(cacheRemote.getTotalCacheSize()).toLong() <= MemSize.kilobytes(10).toLong());
+	}
+
 	private void initializeCacheFolder() throws IOException {
 		Files.createDirectories(cacheStorage.resolve("a"));
 		Files.createDirectories(cacheStorage.resolve("b"));
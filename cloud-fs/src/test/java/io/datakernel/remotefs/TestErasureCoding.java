@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static io.datakernel.remotefs.ChannelErasureDecoder.CORRUPTED_SHARD;
+import static io.datakernel.remotefs.ChannelErasureDecoder.getShardBlocks;
+import static io.datakernel.remotefs.ChannelErasureEncoder.getShardSize;
+import static org.junit.Assert.*;
+
+public final class TestErasureCoding {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final Random random = new Random(1);
+
+	@Test
+	public void testRestoreFromAnyShards() {
+		int dataShards = 5;
+		int parityShards = 3;
+		int length = 1000;
+		ReedSolomon codec = ReedSolomon.create(dataShards, parityShards);
+
+		byte[][] original = new byte[dataShards + parityShards][length];
+		for (int i = 0; i < dataShards; i++) {
+			random.nextBytes(original[i]);
+		}
+		codec.encodeParity(original, new int[dataShards + parityShards], length);
+
+		// every combination of present shards
+		for (int mask = 0; mask < 1 << (dataShards + parityShards); mask++) {
+			if (Integer.bitCount(mask) != dataShards) {
+				continue;
+			}
+			byte[][] shards = new byte[dataShards + parityShards][];
+			boolean[] present = new boolean[dataShards + parityShards];
+			for (int i = 0; i < shards.length; i++) {
+				present[i] = (mask & 1 << i) != 0;
+				shards[i] = present[i] ? original[i].clone() : new byte[length + 10];
+			}
+			int[] offsets = new int[dataShards + parityShards];
+			for (int i = 0; i < dataShards; i++) {
+				offsets[i] = present[i] ? 0 : 10;
+			}
+			codec.decodeMissing(shards, offsets, present, length);
+			for (int i = 0; i < dataShards; i++) {
+				assertArrayEquals(original[i], Arrays.copyOfRange(shards[i], offsets[i], offsets[i] + length));
+			}
+		}
+	}
+
+	@Test
+	public void testErasureCodedClusterIsNotRepartitioned() throws IOException {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Map<Object, FsClient> clients = new HashMap<>();
+		clients.put("first", LocalFsClient.create(eventloop, executor, temporaryFolder.newFolder().toPath()));
+		clients.put("second", LocalFsClient.create(eventloop, executor, temporaryFolder.newFolder().toPath()));
+		RemoteFsClusterClient cluster = RemoteFsClusterClient.create(eventloop, clients)
+				.withErasureCoding(1, 1);
+
+		try {
+			RemoteFsRepartitionController.create("first", cluster);
+			fail("Erasure-coded cluster should not be repartitioned");
+		} catch (IllegalArgumentException ignored) {
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testStreaming() {
+		ReedSolomon codec = ReedSolomon.create(3, 2);
+		int blockSize = 100;
+		for (int length : new int[]{0, 1, 299, 300, 301, 10_000}) {
+			byte[] data = new byte[length];
+			random.nextBytes(data);
+			byte[][] shards = encode(codec, blockSize, data);
+			for (byte[] shard : shards) {
+				assertEquals(getShardSize(length, 3, blockSize), shard.length);
+			}
+			long blocks = getShardBlocks(shards[0].length, blockSize);
+
+			assertArrayEquals(data, decode(codec, blockSize, 0, blocks, blocks, shards[0], shards[1], shards[2]));
+			assertArrayEquals(data, decode(codec, blockSize, 0, blocks, blocks, shards[4], shards[0], shards[3]));
+			assertArrayEquals(data, decode(codec, blockSize, 0, blocks, blocks, shards[2], shards[3], shards[4]));
+
+			if (blocks > 2) {
+				byte[] range = decode(codec, blockSize, 1, 2, blocks, shards[3], shards[1], shards[4]);
+				assertArrayEquals(Arrays.copyOfRange(data, 300, 600), range);
+				range = decode(codec, blockSize, 2, blocks, blocks, shards[3], shards[1], shards[4]);
+				assertArrayEquals(Arrays.copyOfRange(data, 600, length), range);
+			}
+		}
+	}
+
+	@Test
+	public void testDuplicateShards() {
+		ReedSolomon codec = ReedSolomon.create(2, 1);
+		byte[] data = new byte[1000];
+		random.nextBytes(data);
+		byte[][] shards = encode(codec, 100, data);
+		long blocks = getShardBlocks(shards[0].length, 100);
+
+		List<ChannelSupplier<ByteBuf>> suppliers = Arrays.asList(
+				ChannelSupplier.of(ByteBuf.wrapForReading(shards[1])),
+				ChannelSupplier.of(ByteBuf.wrapForReading(shards[1])));
+		ChannelErasureDecoder decoder = ChannelErasureDecoder.create(codec, 100, 0, blocks, blocks, suppliers);
+		assertSame(CORRUPTED_SHARD, awaitException(decoder.toCollector(ByteBufQueue.collector())));
+	}
+
+	private static byte[][] encode(ReedSolomon codec, int blockSize, byte[] data) {
+		List<ByteBufQueue> queues = new ArrayList<>();
+		List<ChannelConsumer<ByteBuf>> consumers = new ArrayList<>();
+		for (int i = 0; i < codec.getTotalShards(); i++) {
+			ByteBufQueue queue = new ByteBufQueue();
+			queues.add(queue);
+			consumers.add(ChannelConsumer.ofConsumer(queue::add));
+		}
+		List<ByteBuf> chunks = new ArrayList<>();
+		for (int offset = 0; offset < data.length; offset += 77) {
+			chunks.add(ByteBuf.wrapForReading(Arrays.copyOfRange(data, offset, Math.min(offset + 77, data.length))));
+		}
+		await(ChannelSupplier.ofIterable(chunks).streamTo(ChannelErasureEncoder.create(codec, blockSize, consumers)));
+		return queues.stream()
+				.map(queue -> queue.takeRemaining().asArray())
+				.toArray(byte[][]::new);
+	}
+
+	private static byte[] decode(ReedSolomon codec, int blockSize, long startBlock, long endBlock, long totalBlocks, byte[]... shards) {
+		List<ChannelSupplier<ByteBuf>> suppliers = new ArrayList<>();
+		for (byte[] shard : shards) {
+			int from = (int) (startBlock * (blockSize + 1));
+			int to = endBlock == totalBlocks ? shard.length : (int) (endBlock * (blockSize + 1));
+			suppliers.add(ChannelSupplier.of(ByteBuf.wrapForReading(Arrays.copyOfRange(shard, from, to))));
+		}
+		return await(ChannelErasureDecoder.create(codec, blockSize, startBlock, endBlock, totalBlocks, suppliers)
+				.toCollector(ByteBufQueue.collector()))
+				.asArray();
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.MemSize;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.remotefs.ServerSelector.RENDEZVOUS_HASH_SHARDER;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.junit.Assert.*;
+
+public final class TestIncrementalRepartition {
+	private static final int PARTITIONS = 4;
+	private static final int FILES = 20;
+	private static final int FILE_SIZE = 1024;
+	private static final Object LOCAL_PARTITION = "local";
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Rule
+	public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	private final Map<Object, Path> storages = new HashMap<>();
+	private Executor executor;
+	private Path checkpointStorage;
+	private RemoteFsRepartitionController controller;
+
+	@Before
+	public void setUp() throws IOException {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		executor = newCachedThreadPool();
+		Map<Object, FsClient> clients = new HashMap<>();
+		for (int i = -1; i < PARTITIONS; i++) {
+			Object id = i == -1 ? LOCAL_PARTITION : "partition" + i;
+			Path storage = tmpFolder.newFolder().toPath();
+			storages.put(id, storage);
+			clients.put(id, LocalFsClient.create(eventloop, executor, storage));
+		}
+		checkpointStorage = tmpFolder.newFolder().toPath();
+
+		Random random = new Random(0);
+		for (int i = 0; i < FILES; i++) {
+			byte[] data = new byte[FILE_SIZE];
+			random.nextBytes(data);
+			Files.write(storages.get(LOCAL_PARTITION).resolve(String.format("file_%02d", i)), data);
+		}
+
+		RemoteFsClusterClient cluster = RemoteFsClusterClient.create(eventloop, clients)
+				.withReplicationCount(2)
+				.withServerSelector(RENDEZVOUS_HASH_SHARDER);
+		controller = RemoteFsRepartitionController.create(LOCAL_PARTITION, cluster);
+	}
+
+	@Test
+	public void testDiffModeWithConcurrency() {
+		controller.withDiffMode(true)
+				.withConcurrency(4)
+				.withBatchSize(6);
+
+		await(controller.repartition());
+
+		assertEquals(FILES, controller.getLastEnsuredFiles());
+		assertEquals(0, controller.getLastFailedFiles());
+		assertEquals(FILES * FILE_SIZE, controller.getLastProcessedBytes());
+		assertEquals(expectedBytesMoved(0), controller.getLastBytesMoved());
+		assertNull(controller.getEta());
+		assertRepartitioned(0);
+
+		// everything is in place already, so nothing is uploaded
+		await(controller.repartition());
+		assertEquals(0, controller.getLastBytesMoved());
+	}
+
+	@Test
+	public void testResumeFromCheckpoint() throws IOException {
+		FsClient checkpoints = LocalFsClient.create(Eventloop.getCurrentEventloop(), executor, checkpointStorage);
+		Files.write(checkpointStorage.resolve("checkpoint"), "file_09".getBytes(UTF_8));
+		controller.withCheckpoint(checkpoints, "checkpoint");
+
+		await(controller.repartition());
+
+		assertEquals(FILES - 10, controller.getLastEnsuredFiles());
+		assertEquals(10, controller.getLastSkippedFiles());
+		assertRepartitioned(10);
+		// checkpoint is cleared once repartitioning is finished
+		assertFalse(Files.exists(checkpointStorage.resolve("checkpoint")));
+	}
+
+	@Test
+	public void testStopSavesCheckpoint() throws IOException {
+		FsClient checkpoints = new ForwardingFsClient(LocalFsClient.create(Eventloop.getCurrentEventloop(), executor, checkpointStorage)) {
+			@Override
+			public Promise<ChannelConsumer<ByteBuf>> upload(@NotNull String name) {
+				controller.stop(); // stop right after the first batch
+				return super.upload(name);
+			}
+		};
+		controller.withCheckpoint(checkpoints, "checkpoint")
+				.withBatchSize(5);
+
+		await(controller.repartition());
+
+		assertEquals(5, controller.getLastEnsuredFiles());
+		assertEquals("file_04", new String(Files.readAllBytes(checkpointStorage.resolve("checkpoint")), UTF_8));
+
+		controller.withCheckpoint(LocalFsClient.create(Eventloop.getCurrentEventloop(), executor, checkpointStorage), "checkpoint");
+		await(controller.repartition());
+
+		assertEquals(FILES - 5, controller.getLastEnsuredFiles());
+		assertRepartitioned(0);
+		assertFalse(Files.exists(checkpointStorage.resolve("checkpoint")));
+	}
+
+	@Test
+	public void testBandwidthLimit() {
+		long bytesPerSecond = 8 * FILE_SIZE;
+		controller.withBandwidthLimit(MemSize.of(bytesPerSecond))
+				.withConcurrency(4);
+
+		long start = System.currentTimeMillis();
+		await(controller.repartition());
+		long elapsed = System.currentTimeMillis() - start;
+
+		long moved = controller.getLastBytesMoved();
+		assertEquals(expectedBytesMoved(0), moved);
+		// the first second worth of bytes is sent immediately
+		assertTrue(elapsed >= (moved - bytesPerSecond) * 1000 / bytesPerSecond - 100);
+		assertRepartitioned(0);
+	}
+
+	private Set<Object> selectFor(String name) {
+		return new HashSet<>(RENDEZVOUS_HASH_SHARDER.selectFrom(name, storages.keySet(), 2));
+	}
+
+	private long expectedBytesMoved(int fromFile) {
+		long bytes = 0;
+		for (int i = fromFile; i < FILES; i++) {
+			Set<Object> selected = selectFor(String.format("file_%02d", i));
+			selected.remove(LOCAL_PARTITION);
+			bytes += (long) selected.size() * FILE_SIZE;
+		}
+		return bytes;
+	}
+
+	private void assertRepartitioned(int fromFile) {
+		for (int i = fromFile; i < FILES; i++) {
+			String name = String.format("file_%02d", i);
+			Set<Object> selected = selectFor(name);
+			storages.forEach((id, storage) -> {
+				boolean exists = Files.exists(storage.resolve(name));
+				if (id == LOCAL_PARTITION) {
+					assertEquals(name + " on " + id, selected.contains(id), exists);
+				} else if (selected.contains(id)) {
+					assertTrue(name + " on " + id, exists);
+				}
+			});
+		}
+	}
+}
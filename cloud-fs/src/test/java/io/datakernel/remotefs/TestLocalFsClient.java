@@ -23,6 +23,7 @@ import io.datakernel.csp.ChannelConsumer;
 import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.csp.file.ChannelFileReader;
 import io.datakernel.csp.file.ChannelFileWriter;
+import io.datakernel.csp.file.FsyncGroup;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.promise.Promise;
 import io.datakernel.test.rules.ByteBufRule;
@@ -36,17 +37,25 @@ import org.junit.rules.TemporaryFolder;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
 
+import static io.datakernel.common.collection.CollectionUtils.map;
 import static io.datakernel.common.collection.CollectionUtils.set;
 import static io.datakernel.promise.TestUtils.await;
 import static io.datakernel.promise.TestUtils.awaitException;
+import static io.datakernel.remotefs.FsClient.CHECKSUM_MISMATCH;
 import static io.datakernel.remotefs.FsClient.FILE_EXISTS;
 import static io.datakernel.remotefs.FsClient.FILE_NOT_FOUND;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -55,6 +64,7 @@ import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.util.concurrent.Executors.newCachedThreadPool;
 import static java.util.stream.Collectors.toSet;
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 public final class TestLocalFsClient {
 	private static final MemSize BUFFER_SIZE = MemSize.of(2);
@@ -127,6 +137,22 @@ public final class TestLocalFsClient {
 		assertArrayEquals(Files.readAllBytes(path), Files.readAllBytes(storagePath.resolve("1/c.txt")));
 	}
 
+	@Test
+	public void testUploadWithWriteCoalescingAndFsyncGroup() throws IOException {
+		Path path = clientPath.resolve("c.txt");
+		FsyncGroup fsyncGroup = FsyncGroup.create(Eventloop.getCurrentEventloop(), newCachedThreadPool(), Duration.ofMillis(10));
+		LocalFsClient durable = LocalFsClient.create(Eventloop.getCurrentEventloop(), storagePath)
+				.withWriteCoalescing(MemSize.kilobytes(16), Duration.ofMillis(10))
+				.withFsyncGroup(fsyncGroup);
+
+		await(durable.subfolder("1").upload("c.txt")
+				.then(consumer -> ChannelFileReader.open(newCachedThreadPool(), path)
+						.then(file -> file.withBufferSize(BUFFER_SIZE).streamTo(consumer))));
+
+		assertArrayEquals(Files.readAllBytes(path), Files.readAllBytes(storagePath.resolve("1/c.txt")));
+		assertEquals(1, fsyncGroup.getFsyncsTotal());
+	}
+
 	@Test
 	public void testConcurrentUpload() throws IOException {
 		String file = "concurrent.txt";
@@ -332,4 +358,176 @@ public final class TestLocalFsClient {
 		assertTrue(Files.isDirectory(storagePath.resolve("3")));
 		assertFalse(Files.exists(storagePath.resolve("2")));
 	}
+
+	@Test
+	public void testBatchOperations() throws IOException {
+		byte[] a = Files.readAllBytes(storagePath.resolve("1/a.txt"));
+		byte[] d = Files.readAllBytes(storagePath.resolve("2/b/d.txt"));
+
+		await(client.copyAll(map("1/a.txt", "3/a.txt", "2/b/d.txt", "3/d.txt")));
+		await(client.moveAll(map("1/b.txt", "3/b.txt", "2/3/a.txt", "4/a.txt")));
+
+		assertArrayEquals(a, Files.readAllBytes(storagePath.resolve("3/a.txt")));
+		assertArrayEquals(d, Files.readAllBytes(storagePath.resolve("3/d.txt")));
+		assertTrue(Files.exists(storagePath.resolve("3/b.txt")));
+		assertTrue(Files.exists(storagePath.resolve("4/a.txt")));
+		assertFalse(Files.exists(storagePath.resolve("1/b.txt")));
+		assertFalse(Files.exists(storagePath.resolve("2/3/a.txt")));
+
+		Map<String, FileMetadata> metas = await(client.getMetadataAll(set("3/a.txt", "3/d.txt", "i_do_not_exist.txt")));
+		assertEquals(set("3/a.txt", "3/d.txt"), metas.keySet());
+		assertEquals(a.length, metas.get("3/a.txt").getSize());
+
+		await(client.deleteAll(set("3/a.txt", "3/b.txt", "3/d.txt", "i_do_not_exist.txt")));
+		assertTrue(await(client.list("3/*")).isEmpty());
+	}
+
+	@Test
+	public void testMetadataIndex() throws IOException {
+		LocalFsClient indexed = LocalFsClient.create(Eventloop.getCurrentEventloop(), storagePath)
+				.withMetadataIndex(Duration.ofHours(1));
+		await(indexed.start());
+
+		for (String glob : Arrays.asList("**", "2/*/*.txt", "1/*", "2/**", "*/a.txt", "1/a.txt", "1/x.txt", "2/b/?.txt", "")) {
+			assertEquals(glob, new HashSet<>(await(client.list(glob))), new HashSet<>(await(indexed.list(glob))));
+		}
+		assertEquals(await(client.getMetadata("2/b/d.txt")), await(indexed.getMetadata("2/b/d.txt")));
+		assertNull(await(indexed.getMetadata("2/b/x.txt")));
+
+		await(ChannelSupplier.of(ByteBuf.wrapForReading("test".getBytes(UTF_8))).streamTo(indexed.upload("3/c.txt")));
+		assertEquals(4, await(indexed.getMetadata("3/c.txt")).getSize());
+		await(indexed.move("1/a.txt", "3/a.txt"));
+		await(indexed.delete("1/b.txt"));
+		assertEquals(set("3/a.txt", "3/c.txt"), await(indexed.list("3/*")).stream().map(FileMetadata::getName).collect(toSet()));
+		assertTrue(await(indexed.list("1/*")).isEmpty());
+
+		await(indexed.moveDir("2", "4"));
+		assertEquals(new HashSet<>(await(client.list("**"))), new HashSet<>(await(indexed.list("**"))));
+
+		FsClient subfolder = indexed.subfolder("4");
+		assertEquals(set("b/d.txt", "b/e.txt"), await(subfolder.list("b/*")).stream().map(FileMetadata::getName).collect(toSet()));
+		await(subfolder.delete("b/e.txt"));
+		assertNull(await(indexed.getMetadata("4/b/e.txt")));
+
+		Files.write(storagePath.resolve("external.txt"), "external".getBytes(UTF_8));
+		assertNull(await(indexed.getMetadata("external.txt")));
+		await(indexed.reconcile());
+		assertEquals(8, await(indexed.getMetadata("external.txt")).getSize());
+		await(indexed.stop());
+	}
+
+	@Test
+	public void testMetadataIndexOfMovedFolderWithGlobMetachars() {
+		LocalFsClient indexed = LocalFsClient.create(Eventloop.getCurrentEventloop(), storagePath)
+				.withMetadataIndex(Duration.ofHours(1));
+		await(indexed.start());
+
+		await(indexed.moveDir("2", "[5]"));
+		assertEquals(await(client.getMetadata("[5]/b/d.txt")), await(indexed.getMetadata("[5]/b/d.txt")));
+		assertNotNull(await(indexed.getMetadata("[5]/b/e.txt")));
+		assertNull(await(indexed.getMetadata("2/b/d.txt")));
+		await(indexed.stop());
+	}
+
+	@Test
+	public void testReconcileKeepsChangesMadeDuringWalk() {
+		FileMetadataIndex index = new FileMetadataIndex();
+		index.update("a.txt", FileMetadata.of("a.txt", 1, 1, 1));
+		index.update("b.txt", FileMetadata.of("b.txt", 1, 1, 1));
+
+		long startVersion = index.beginReconcile();
+		// the walk sees a.txt and b.txt, while c.txt is uploaded and a.txt is deleted concurrently
+		index.update("c.txt", FileMetadata.of("c.txt", 1, 2, 1));
+		index.update("a.txt", null);
+		index.endReconcile(startVersion, "", Arrays.asList(FileMetadata.of("a.txt", 1, 1, 1), FileMetadata.of("b.txt", 2, 2, 1)));
+
+		assertTrue(index.isReady());
+		assertNull(index.get("a.txt"));
+		assertEquals(2, index.get("b.txt").getSize());
+		assertNotNull(index.get("c.txt"));
+	}
+
+	@Test
+	public void testReconcileIsNotRescheduledAfterStop() throws IOException {
+		LocalFsClient indexed = LocalFsClient.create(Eventloop.getCurrentEventloop(), storagePath)
+				.withMetadataIndex(Duration.ofMillis(1));
+		await(indexed.start());
+		Promise<Void> reconcile = indexed.reconcile();
+		assertSame(reconcile, indexed.reconcile());
+		await(indexed.stop());
+		await(reconcile);
+
+		Files.write(storagePath.resolve("external.txt"), "external".getBytes(UTF_8));
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		eventloop.delay(50, () -> {});
+		eventloop.run();
+		assertNull(await(indexed.getMetadata("external.txt")));
+	}
+
+	@Test
+	public void testChecksums() throws IOException {
+		LocalFsClient checksummed = LocalFsClient.create(Eventloop.getCurrentEventloop(), storagePath)
+				.withChecksums(true);
+		assumeTrue("User-defined file attributes are not supported",
+				Files.getFileAttributeView(storagePath, UserDefinedFileAttributeView.class) != null);
+
+		byte[] content = "some content of the file".getBytes(UTF_8);
+		CRC32 crc = new CRC32();
+		crc.update(content);
+
+		await(ChannelSupplier.of(ByteBuf.wrapForReading(content)).streamTo(checksummed.upload("3/c.txt")));
+		FileMetadata metadata = await(checksummed.getMetadata("3/c.txt"));
+		assumeTrue("User-defined file attributes are not supported", metadata.hasChecksum());
+		assertEquals(crc.getValue(), metadata.getChecksum());
+		assertFalse(await(client.getMetadata("3/c.txt")).hasChecksum());
+
+		// appended files get the checksum of their whole content
+		await(ChannelSupplier.of(ByteBuf.wrapForReading("!".getBytes(UTF_8))).streamTo(checksummed.upload("3/c.txt", content.length)));
+		crc.update('!');
+		assertEquals(crc.getValue(), await(checksummed.getMetadata("3/c.txt")).getChecksum());
+
+		// checksums follow copies
+		await(checksummed.copy("3/c.txt", "3/d.txt"));
+		assertEquals(crc.getValue(), await(checksummed.getMetadata("3/d.txt")).getChecksum());
+		assertEquals(new String(content, UTF_8) + "!",
+				await(ChannelSupplier.ofPromise(checksummed.download("3/d.txt")).toCollector(ByteBufQueue.collector())).asString(UTF_8));
+
+		// silently corrupted file with the same size and modification time
+		Path path = storagePath.resolve("3/d.txt");
+		FileTime lastModified = Files.getLastModifiedTime(path);
+		Files.write(path, ("SOME content of the file!").getBytes(UTF_8));
+		Files.setLastModifiedTime(path, lastModified);
+		assertSame(CHECKSUM_MISMATCH, awaitException(ChannelSupplier.ofPromise(checksummed.download("3/d.txt")).toCollector(ByteBufQueue.collector())));
+		// ranges are not verified
+		assertEquals("SOME", await(ChannelSupplier.ofPromise(checksummed.download("3/d.txt", 0, 4)).toCollector(ByteBufQueue.collector())).asString(UTF_8));
+
+		// file changed by someone else has no checksum
+		Files.write(path, "changed".getBytes(UTF_8));
+		assertFalse(await(checksummed.getMetadata("3/d.txt")).hasChecksum());
+	}
+
+	@Test
+	public void testSubfolderChecksums() throws IOException {
+		FsClient subfolder = LocalFsClient.create(Eventloop.getCurrentEventloop(), storagePath)
+				.withChecksums(true)
+				.subfolder("4");
+		assumeTrue("User-defined file attributes are not supported",
+				Files.getFileAttributeView(storagePath, UserDefinedFileAttributeView.class) != null);
+
+		byte[] content = "some content of the file".getBytes(UTF_8);
+		CRC32 crc = new CRC32();
+		crc.update(content);
+
+		await(ChannelSupplier.of(ByteBuf.wrapForReading(content)).streamTo(subfolder.upload("e.txt")));
+		FileMetadata metadata = await(subfolder.getMetadata("e.txt"));
+		assumeTrue("User-defined file attributes are not supported", metadata.hasChecksum());
+		assertEquals(crc.getValue(), metadata.getChecksum());
+
+		// silently corrupted file with the same size and modification time
+		Path path = storagePath.resolve("4/e.txt");
+		FileTime lastModified = Files.getLastModifiedTime(path);
+		Files.write(path, "SOME content of the file".getBytes(UTF_8));
+		Files.setLastModifiedTime(path, lastModified);
+		assertSame(CHECKSUM_MISMATCH, awaitException(ChannelSupplier.ofPromise(subfolder.download("e.txt")).toCollector(ByteBufQueue.collector())));
+	}
 }
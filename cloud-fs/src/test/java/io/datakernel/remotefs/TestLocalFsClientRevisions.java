@@ -13,12 +13,14 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.time.Duration;
 
 import static io.datakernel.bytebuf.ByteBufStrings.wrapUtf8;
 import static io.datakernel.promise.TestUtils.await;
 import static io.datakernel.promise.TestUtils.awaitException;
 import static io.datakernel.remotefs.FsClient.OFFSET_TOO_BIG;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
 import static org.junit.Assert.*;
 
 public final class TestLocalFsClientRevisions {
@@ -82,6 +84,29 @@ public final class TestLocalFsClientRevisions {
 		assertEquals("OVERRIDEN", download("test.txt"));
 	}
 
+	@Test
+	public void indexedUploadDeleteUpload() throws IOException {
+		LocalFsClient client = LocalFsClient.create(Eventloop.getCurrentEventloop(), tmpFolder.newFolder("indexed").toPath())
+				.withRevisions()
+				.withMetadataIndex(Duration.ofHours(1));
+		await(client.start());
+
+		await(ChannelSupplier.of(wrapUtf8("hello, this is first text")).streamTo(client.upload("test.txt", 0, 1)));
+		await(client.delete("test.txt", 1));
+
+		assertTrue(await(client.getMetadata("test.txt")).isTombstone());
+		assertTrue(await(client.list("*")).isEmpty());
+		assertEquals(1, await(client.listEntities("*")).size());
+
+		await(ChannelSupplier.of(wrapUtf8("OVERRIDEN")).streamTo(client.upload("test.txt", 0, 2)));
+
+		FileMetadata metadata = await(client.getMetadata("test.txt"));
+		assertFalse(metadata.isTombstone());
+		assertEquals(2, metadata.getRevision());
+		assertEquals(singletonList(metadata), await(client.list("*")));
+		await(client.stop());
+	}
+
 	@Test
 	public void lowRevisionDelete() {
 		await(ChannelSupplier.of(wrapUtf8("hello, this is first text")).streamTo(client.upload("test.txt", 0, 10)));
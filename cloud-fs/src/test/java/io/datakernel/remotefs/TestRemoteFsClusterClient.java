@@ -18,15 +18,23 @@ package io.datakernel.remotefs;
 
 import io.datakernel.async.function.AsyncConsumer;
 import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.common.MemSize;
 import io.datakernel.common.exception.StacklessException;
+import io.datakernel.csp.AbstractChannelConsumer;
+import io.datakernel.csp.AbstractChannelSupplier;
 import io.datakernel.csp.ChannelConsumer;
 import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.csp.file.ChannelFileWriter;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.net.AbstractServer;
+import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
+import io.datakernel.promise.RetryPolicy;
 import io.datakernel.test.rules.ByteBufRule;
 import io.datakernel.test.rules.EventloopRule;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.junit.*;
 import org.junit.rules.TemporaryFolder;
 
@@ -35,21 +43,24 @@ import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.stream.IntStream;
 
+import static io.datakernel.common.collection.CollectionUtils.map;
+import static io.datakernel.common.collection.CollectionUtils.set;
 import static io.datakernel.promise.TestUtils.await;
 import static io.datakernel.promise.TestUtils.awaitException;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.Files.readAllBytes;
 import static java.util.Collections.singletonList;
 import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.stream.Collectors.toList;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.instanceOf;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertThat;
+import static org.junit.Assert.*;
 
 public final class TestRemoteFsClusterClient {
 	public static final int CLIENT_SERVER_PAIRS = 10;
@@ -198,6 +209,259 @@ public final class TestRemoteFsClusterClient {
 		assertThat(exception.getMessage(), containsString("Didn't connect to enough partitions"));
 	}
 
+	@Test
+	public void testBatchOperations() throws IOException {
+		String content = "test content of the file";
+		Files.write(serverStorages[1].resolve("a.txt"), content.getBytes(UTF_8));
+		Files.write(serverStorages[2].resolve("a.txt"), content.getBytes(UTF_8));
+		Files.write(serverStorages[3].resolve("b.txt"), content.getBytes(UTF_8));
+		Files.write(serverStorages[4].resolve("c.txt"), content.getBytes(UTF_8));
+
+		Map<String, FileMetadata> metas = await(client.checkAllPartitions() // mark those 3 dead nodes as dead
+				.then($ -> client.copyAll(map("a.txt", "x.txt")))
+				.then($ -> client.moveAll(map("b.txt", "y.txt")))
+				.then($ -> client.deleteAll(set("c.txt", "i_dont_exist.txt")))
+				.then($ -> client.getMetadataAll(set("a.txt", "b.txt", "c.txt", "x.txt", "y.txt")))
+				.whenComplete(() -> servers.forEach(AbstractServer::close)));
+
+		assertEquals(set("a.txt", "x.txt", "y.txt"), metas.keySet());
+		assertEquals(content.length(), metas.get("y.txt").getSize());
+		assertArrayEquals(content.getBytes(UTF_8), readAllBytes(serverStorages[2].resolve("x.txt")));
+		assertFalse(Files.exists(serverStorages[3].resolve("b.txt")));
+		assertFalse(Files.exists(serverStorages[4].resolve("c.txt")));
+	}
+
+	@Test
+	public void testErasureCoding() {
+		client.withErasureCoding(4, 3, MemSize.of(1000));
+		byte[] content = new byte[100_000];
+		new Random(1).nextBytes(content);
+		String file = "file.bin";
+
+		List<byte[]> downloads = await(client.checkAllPartitions()
+				.then($ -> client.upload(file))
+				.then(ChannelSupplier.of(ByteBuf.wrapForReading(content))::streamTo)
+				.whenResult($ -> {
+					// lose three of the shards
+					List<Path> shards = Arrays.stream(serverStorages)
+							.map(storage -> storage.resolve(file))
+							.filter(Files::exists)
+							.collect(toList());
+					assertEquals(7, shards.size());
+					try {
+						for (Path shard : shards) {
+							assertEquals(ChannelErasureEncoder.getShardSize(content.length, 4, 1000), Files.size(shard));
+						}
+						Files.delete(shards.get(0));
+						Files.delete(shards.get(3));
+						Files.delete(shards.get(5));
+					} catch (IOException e) {
+						throw new AssertionError(e);
+					}
+				})
+				.then($ -> Promises.toList(
+						ChannelSupplier.ofPromise(client.download(file)).toCollector(ByteBufQueue.collector()),
+						ChannelSupplier.ofPromise(client.download(file, 12_345, 50_000)).toCollector(ByteBufQueue.collector())))
+				.map(bufs -> bufs.stream()
+						.map(ByteBuf::asArray)
+						.collect(toList()))
+				.then(bufs -> client.download(file, 99_000, 2_000)
+						.then(supplier -> supplier.toCollector(ByteBufQueue.collector()))
+						.thenEx((buf, e) -> {
+							assertSame(FsClient.LENGTH_TOO_BIG, e);
+							return Promise.of(bufs);
+						}))
+				.whenComplete(() -> servers.forEach(AbstractServer::close)));
+
+		assertArrayEquals(content, downloads.get(0));
+		assertArrayEquals(Arrays.copyOfRange(content, 12_345, 62_345), downloads.get(1));
+	}
+
+	@Test
+	public void testErasureCodedDownloadSwitchesToSpareShard() throws IOException {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		servers.forEach(AbstractServer::close);
+		boolean[] armed = {false};
+		int[] killed = {0};
+
+		RemoteFsClusterClient cluster = RemoteFsClusterClient.create(eventloop);
+		for (int i = 0; i < 5; i++) {
+			Path storage = Paths.get(tmpFolder.newFolder("shards_" + i).toURI());
+			// the first shard which is downloaded after the arming dies in the middle of the stream
+			cluster.withPartition("partition_" + i, new ForwardingFsClient(LocalFsClient.create(eventloop, executor, storage)) {
+				@Override
+				public Promise<ChannelSupplier<ByteBuf>> download(@NotNull String name, long offset, long length) {
+					boolean kill = armed[0];
+					armed[0] = false;
+					return super.download(name, offset, length)
+							.map(supplier -> !kill ? supplier : new AbstractChannelSupplier<ByteBuf>(supplier) {
+								long received;
+
+								@Override
+								protected Promise<ByteBuf> doGet() {
+									return supplier.get()
+											.then(buf -> {
+												if (buf != null && (received += buf.readRemaining()) > 10_000) {
+													killed[0]++;
+													buf.recycle();
+													IOException e = new IOException("Connection reset");
+													supplier.close(e);
+													return Promise.ofException(e);
+												}
+												return Promise.of(buf);
+											});
+								}
+							});
+				}
+			});
+		}
+		cluster.withErasureCoding(2, 2, MemSize.of(1000));
+
+		byte[] content = new byte[100_000];
+		new Random(4).nextBytes(content);
+		String file = "file.bin";
+
+		List<byte[]> downloads = await(cluster.upload(file)
+				.then(ChannelSupplier.of(ByteBuf.wrapForReading(content))::streamTo)
+				.then($ -> {
+					armed[0] = true;
+					return ChannelSupplier.ofPromise(cluster.download(file)).toCollector(ByteBufQueue.collector());
+				})
+				.then(buf -> {
+					armed[0] = true;
+					return ChannelSupplier.ofPromise(cluster.download(file, 12_345, 50_000)).toCollector(ByteBufQueue.collector())
+							.map(range -> Arrays.asList(buf.asArray(), range.asArray()));
+				}));
+
+		assertEquals(2, killed[0]);
+		assertArrayEquals(content, downloads.get(0));
+		assertArrayEquals(Arrays.copyOfRange(content, 12_345, 62_345), downloads.get(1));
+	}
+
+	@Test
+	public void testParallelDownload() {
+		client.withParallelDownloads(MemSize.of(1000), 4);
+		byte[] content = new byte[100_000];
+		new Random(2).nextBytes(content);
+		String file = "file.bin";
+
+		List<byte[]> downloads = await(client.checkAllPartitions()
+				.then($ -> client.upload(file))
+				.then(ChannelSupplier.of(ByteBuf.wrapForReading(content))::streamTo)
+				.then($ -> Promises.toList(
+						ChannelSupplier.ofPromise(client.download(file)).toCollector(ByteBufQueue.collector()),
+						ChannelSupplier.ofPromise(client.download(file, 12_345, 50_000)).toCollector(ByteBufQueue.collector()),
+						ChannelSupplier.ofPromise(client.download(file, 99_500)).toCollector(ByteBufQueue.collector())))
+				.map(bufs -> bufs.stream()
+						.map(ByteBuf::asArray)
+						.collect(toList()))
+				.then(bufs -> client.download(file, 99_000, 2_000)
+						.thenEx((supplier, e) -> {
+							assertSame(FsClient.LENGTH_TOO_BIG, e);
+							return Promise.of(bufs);
+						}))
+				.whenComplete(() -> servers.forEach(AbstractServer::close)));
+
+		assertArrayEquals(content, downloads.get(0));
+		assertArrayEquals(Arrays.copyOfRange(content, 12_345, 62_345), downloads.get(1));
+		assertArrayEquals(Arrays.copyOfRange(content, 99_500, 100_000), downloads.get(2));
+	}
+
+	@Test
+	public void testParallelDownloadChecksum() throws IOException {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		servers.forEach(AbstractServer::close);
+		Map<Object, FsClient> clients = new HashMap<>();
+		List<RemoteFsServer> checksummedServers = new ArrayList<>();
+		Path[] storages = new Path[2];
+		for (int i = 0; i < 2; i++) {
+			InetSocketAddress address = new InetSocketAddress("localhost", 5700 + i);
+			storages[i] = Paths.get(tmpFolder.newFolder("checksummed_" + i).toURI());
+			RemoteFsServer server = RemoteFsServer.create(eventloop, LocalFsClient.create(eventloop, executor, storages[i]).withChecksums(true))
+					.withListenAddress(address);
+			server.listen();
+			checksummedServers.add(server);
+			clients.put("server_" + i, RemoteFsClient.create(eventloop, address));
+		}
+		RemoteFsClusterClient cluster = RemoteFsClusterClient.create(eventloop, clients)
+				.withReplicationCount(2)
+				.withParallelDownloads(MemSize.of(1000), 4);
+		byte[] content = new byte[10_000];
+		new Random(3).nextBytes(content);
+		String file = "file.bin";
+
+		FileMetadata metadata = await(cluster.checkAllPartitions()
+				.then($ -> cluster.upload(file))
+				.then(ChannelSupplier.of(ByteBuf.wrapForReading(content))::streamTo)
+				.then($ -> cluster.getMetadata(file)));
+		Assume.assumeTrue("User-defined file attributes are not supported", metadata.hasChecksum());
+
+		// silently corrupted replica with the same size and modification time
+		Path path = storages[1].resolve(file);
+		FileTime lastModified = Files.getLastModifiedTime(path);
+		byte[] corrupted = content.clone();
+		corrupted[5_000] ^= 1;
+		Files.write(path, corrupted);
+		Files.setLastModifiedTime(path, lastModified);
+
+		Throwable e = awaitException(ChannelSupplier.ofPromise(cluster.download(file)).toCollector(ByteBufQueue.collector()));
+		// ranges are not verified
+		ByteBuf range = await(ChannelSupplier.ofPromise(cluster.download(file, 0, 4_000)).toCollector(ByteBufQueue.collector())
+				.whenComplete(() -> checksummedServers.forEach(AbstractServer::close)));
+
+		assertSame(FsClient.CHECKSUM_MISMATCH, e);
+		assertArrayEquals(Arrays.copyOfRange(content, 0, 4_000), range.asArray());
+	}
+
+	@Test
+	public void testResumableUpload() throws IOException {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		Path flakyStorage = Paths.get(tmpFolder.newFolder("flaky").toURI());
+		Path stableStorage = Paths.get(tmpFolder.newFolder("stable").toURI());
+		int[] failures = {0};
+
+		FsClient flaky = new ForwardingFsClient(LocalFsClient.create(eventloop, executor, flakyStorage)) {
+			@Override
+			public Promise<ChannelConsumer<ByteBuf>> upload(@NotNull String name, long offset) {
+				return super.upload(name, offset)
+						.map(consumer -> failures[0] != 0 ? consumer : new AbstractChannelConsumer<ByteBuf>(consumer) {
+							long sent = offset;
+
+							@Override
+							protected Promise<Void> doAccept(@Nullable ByteBuf buf) {
+								if (buf != null && (sent += buf.readRemaining()) > 50_000) {
+									failures[0]++;
+									buf.recycle();
+									IOException e = new IOException("Connection reset");
+									consumer.close(e);
+									return Promise.ofException(e);
+								}
+								return consumer.accept(buf);
+							}
+						});
+			}
+		};
+		RemoteFsClusterClient cluster = RemoteFsClusterClient.create(eventloop)
+				.withPartition("flaky", flaky)
+				.withPartition("stable", LocalFsClient.create(eventloop, executor, stableStorage))
+				.withReplicationCount(2)
+				.withResumableUploads(RetryPolicy.immediateRetry().withMaxTotalRetryCount(3), MemSize.of(20_000));
+
+		byte[] content = new byte[100_000];
+		new Random(3).nextBytes(content);
+		String file = "file.bin";
+
+		await(cluster.upload(file)
+				.then(ChannelSupplier.ofStream(IntStream.range(0, 100)
+						.mapToObj(i -> ByteBuf.wrapForReading(Arrays.copyOfRange(content, i * 1000, (i + 1) * 1000))))::streamTo)
+				.whenComplete(() -> servers.forEach(AbstractServer::close)));
+
+		assertEquals(1, failures[0]);
+		assertEquals(2, cluster.getAliveClients().size());
+		assertArrayEquals(content, readAllBytes(flakyStorage.resolve(file)));
+		assertArrayEquals(content, readAllBytes(stableStorage.resolve(file)));
+	}
+
 	@Test
 	public void downloadNonExisting() {
 		String fileName = "i_dont_exist.txt";
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.common.collection.Try;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.csp.binary.ByteBufSerializer;
+import io.datakernel.csp.net.MessagingWithBinaryStreaming;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.net.SimpleServer;
+import io.datakernel.promise.Promise;
+import io.datakernel.remotefs.RemoteFsCommands.*;
+import io.datakernel.remotefs.RemoteFsResponses.*;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static io.datakernel.codec.json.JsonUtils.fromJson;
+import static io.datakernel.codec.json.JsonUtils.toJson;
+import static io.datakernel.common.collection.CollectionUtils.map;
+import static io.datakernel.common.collection.CollectionUtils.set;
+import static io.datakernel.csp.binary.ByteBufSerializer.ofJsonCodec;
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public final class TestRemoteFsProtocol {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testBinaryRoundTrip() throws Exception {
+		boolean[] magicReceived = {false};
+		ByteBufSerializer<FsResponse, FsCommand> client = RemoteFsProtocol.clientSerializer(true, false);
+		ByteBufSerializer<FsCommand, FsResponse> server = RemoteFsProtocol.serverSerializer(() -> magicReceived[0] = true);
+
+		ByteBufQueue queue = new ByteBufQueue();
+		queue.add(client.serialize(new Upload("a/b.txt", 10, 1)));
+		queue.add(client.serialize(new RemoteFsCommands.List("**", true)));
+		queue.add(client.serialize(new Move("x", "y", 3, -1)));
+
+		Upload upload = (Upload) server.tryParse(queue);
+		assertTrue(magicReceived[0]);
+		assertEquals("a/b.txt", upload.getName());
+		assertEquals(10, upload.getOffset());
+		assertEquals(1, upload.getRevision());
+		RemoteFsCommands.List list = (RemoteFsCommands.List) server.tryParse(queue);
+		assertEquals("**", list.getGlob());
+		assertTrue(list.needTombstones());
+		Move move = (Move) server.tryParse(queue);
+		assertEquals(-1, move.getRemoveRevision());
+		assertTrue(queue.isEmpty());
+
+		queue.add(client.serialize(new DeleteAll(set("a", "b/c"), 2)));
+		queue.add(client.serialize(new MoveAll(map("a", "b", "c", "d"), 1, 2)));
+		DeleteAll deleteAll = (DeleteAll) server.tryParse(queue);
+		assertEquals(set("a", "b/c"), deleteAll.getNames());
+		assertEquals(2, deleteAll.getRevision());
+		MoveAll moveAll = (MoveAll) server.tryParse(queue);
+		assertEquals(map("a", "b", "c", "d"), moveAll.getSourceToTarget());
+		assertEquals(2, moveAll.getRemoveRevision());
+		assertTrue(queue.isEmpty());
+
+		java.util.List<FileMetadata> files = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			files.add(FileMetadata.of("folder/file_" + i + "_файл", i * 1000L, System.currentTimeMillis(), i,
+					i % 2 == 0 ? FileMetadata.NO_CHECKSUM : 0xFFFFFFFFL - i));
+		}
+		files.add(FileMetadata.tombstone("tombstone", 123, 2));
+		// answered by the server as soon as it has received the magic
+		queue.add(RemoteFsProtocol.binaryMagic());
+		ByteBuf buf = server.serialize(new ListFinished(files));
+		queue.add(buf.slice(100));
+		assertNull(client.tryParse(queue));
+		queue.add(buf.slice(buf.head() + 100, buf.readRemaining() - 100));
+		buf.recycle();
+		assertEquals(files, ((ListFinished) client.tryParse(queue)).getFiles());
+		assertTrue(queue.isEmpty());
+
+		queue.add(server.serialize(new DownloadSize(100, 0xFFFFFFFFL)));
+		queue.add(server.serialize(new DownloadSize(10)));
+		DownloadSize downloadSize = (DownloadSize) client.tryParse(queue);
+		assertEquals(100, downloadSize.getSize());
+		assertEquals(0xFFFFFFFFL, downloadSize.getChecksum());
+		assertEquals(FileMetadata.NO_CHECKSUM, ((DownloadSize) client.tryParse(queue)).getChecksum());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testChecksumVerification() throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", getFreePort());
+		Path storage = temporaryFolder.newFolder().toPath();
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		RemoteFsServer server = RemoteFsServer.create(eventloop, LocalFsClient.create(eventloop, newCachedThreadPool(), storage).withChecksums(true))
+				.withListenAddress(address);
+		server.listen();
+		RemoteFsClient client = RemoteFsClient.create(eventloop, address);
+		byte[] content = "some content".getBytes(UTF_8);
+
+		java.util.List<Object> results = await(ChannelSupplier.of(ByteBuf.wrapForReading(content)).streamTo(client.upload("file.txt"))
+				.then($ -> client.getMetadata("file.txt"))
+				.then(metadata -> {
+					Path path = storage.resolve("file.txt");
+					try {
+						FileTime lastModified = Files.getLastModifiedTime(path);
+						Files.write(path, "SOME content".getBytes(UTF_8));
+						Files.setLastModifiedTime(path, lastModified);
+					} catch (IOException e) {
+						throw new AssertionError(e);
+					}
+					return ChannelSupplier.ofPromise(client.download("file.txt")).toCollector(ByteBufQueue.collector())
+							.toTry()
+							.map(downloaded -> Arrays.<Object>asList(metadata, downloaded));
+				})
+				.whenComplete(server::close));
+
+		FileMetadata metadata = (FileMetadata) results.get(0);
+		assumeTrue("User-defined file attributes are not supported", metadata.hasChecksum());
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		assertEquals(crc.getValue(), metadata.getChecksum());
+		assertSame(FsClient.CHECKSUM_MISMATCH, ((Try<?>) results.get(1)).getException());
+	}
+
+	@Test
+	public void testJsonClient() throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", getFreePort());
+		Path storage = temporaryFolder.newFolder().toPath();
+		RemoteFsServer server = RemoteFsServer.create(Eventloop.getCurrentEventloop(), newCachedThreadPool(), storage)
+				.withListenAddress(address);
+		server.listen();
+		RemoteFsClient client = RemoteFsClient.create(Eventloop.getCurrentEventloop(), address)
+				.withBinaryProtocol(false);
+
+		java.util.List<FileMetadata> files = await(ChannelSupplier.of(ByteBuf.wrapForReading("test".getBytes(UTF_8)))
+				.streamTo(ChannelConsumer.ofPromise(client.upload("test.txt")))
+				.then($ -> client.list("**"))
+				.whenComplete(server::close));
+
+		assertEquals(singletonList("test.txt"), files.stream().map(FileMetadata::getName).collect(toList()));
+		assertEquals("test", new String(Files.readAllBytes(storage.resolve("test.txt")), UTF_8));
+	}
+
+	@Test
+	public void testJsonChecksumsAreOptional() throws ParseException {
+		FileMetadata legacy = fromJson(RemoteFsResponses.FILE_META_CODEC, "[\"test.txt\",4,123,1]");
+		assertEquals(FileMetadata.of("test.txt", 4, 123, 1), legacy);
+		assertFalse(legacy.hasChecksum());
+		assertEquals(FileMetadata.NO_CHECKSUM, fromJson(RemoteFsResponses.FILE_META_CODEC, "[\"test.txt\",4,123,1,null]").getChecksum());
+		assertEquals("[\"test.txt\",4,123,1]", toJson(RemoteFsResponses.FILE_META_CODEC, legacy));
+
+		FileMetadata withChecksum = FileMetadata.of("test.txt", 4, 123, 1, 42);
+		assertEquals(42, fromJson(RemoteFsResponses.FILE_META_CODEC, toJson(RemoteFsResponses.FILE_META_CODEC, withChecksum)).getChecksum());
+
+		String json = toJson(RemoteFsResponses.CODEC, new DownloadSize(4, FileMetadata.NO_CHECKSUM));
+		assertFalse(json.contains("checksum"));
+		assertEquals(FileMetadata.NO_CHECKSUM, ((DownloadSize) fromJson(RemoteFsResponses.CODEC, json)).getChecksum());
+		assertEquals(42, ((DownloadSize) fromJson(RemoteFsResponses.CODEC, toJson(RemoteFsResponses.CODEC, new DownloadSize(4, 42)))).getChecksum());
+	}
+
+	@Test
+	public void testFallbackToJson() throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", getFreePort());
+		ByteBufSerializer<FsCommand, FsResponse> serializer = ofJsonCodec(RemoteFsCommands.CODEC, RemoteFsResponses.CODEC);
+		FileMetadata file = FileMetadata.of("file.txt", 10, 100, 1);
+		// a server which only speaks JSON and closes the connection on binary magic, as servers without binary protocol do
+		SimpleServer server = SimpleServer.create(socket -> {
+			MessagingWithBinaryStreaming<FsCommand, FsResponse> messaging = MessagingWithBinaryStreaming.create(socket, serializer);
+			messaging.receive()
+					.then(msg -> messaging.send(new ListFinished(singletonList(file))))
+					.then($ -> messaging.sendEndOfStream())
+					.whenException(messaging::close);
+		}).withListenAddress(address);
+		server.listen();
+		RemoteFsClient client = RemoteFsClient.create(Eventloop.getCurrentEventloop(), address);
+
+		assertEquals(singletonList(file), await(client.list("**")
+				.then($ -> client.list("**"))
+				.whenComplete(server::close)));
+	}
+
+	@Test
+	public void testProtocolsAreRechecked() throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", getFreePort());
+		ByteBufSerializer<FsCommand, FsResponse> serializer = ofJsonCodec(RemoteFsCommands.CODEC, RemoteFsResponses.CODEC);
+		int[] connections = {0};
+		SimpleServer server = SimpleServer.create(socket -> {
+			connections[0]++;
+			MessagingWithBinaryStreaming<FsCommand, FsResponse> messaging = MessagingWithBinaryStreaming.create(socket, serializer);
+			messaging.receive()
+					.then(msg -> messaging.send(new ListFinished(emptyList())))
+					.then($ -> messaging.sendEndOfStream())
+					.whenException(messaging::close);
+		}).withListenAddress(address);
+		server.listen();
+		RemoteFsClient client = RemoteFsClient.create(Eventloop.getCurrentEventloop(), address);
+		RemoteFsClient recheckingClient = RemoteFsClient.create(Eventloop.getCurrentEventloop(), address)
+				.withProtocolRecheckInterval(Duration.ZERO);
+
+		// the fallback to JSON is remembered for the recheck interval
+		await(client.list("**").then($ -> client.list("**")));
+		assertEquals(3, connections[0]);
+
+		// each command probes the binary protocol again
+		await(recheckingClient.list("**").then($ -> recheckingClient.list("**"))
+				.whenComplete(server::close));
+		assertEquals(7, connections[0]);
+	}
+
+	@Test
+	public void testNoReplayWhenConnectionBreaks() throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", getFreePort());
+		int[] connections = {0};
+		// a server which accepts binary protocol, but drops the connection once the command is received
+		SimpleServer server = SimpleServer.create(socket -> {
+			connections[0]++;
+			socket.read()
+					.then(magic -> {
+						if (magic != null) magic.recycle();
+						return socket.write(RemoteFsProtocol.binaryMagic());
+					})
+					.then($ -> socket.read())
+					.whenComplete((command, e) -> {
+						if (command != null) command.recycle();
+						socket.close();
+					});
+		}).withListenAddress(address);
+		server.listen();
+		RemoteFsClient client = RemoteFsClient.create(Eventloop.getCurrentEventloop(), address);
+
+		awaitException(client.delete("file.txt")
+				.whenComplete(server::close));
+		assertEquals(1, connections[0]);
+	}
+
+	@Test
+	public void testBatchCommands() throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", getFreePort());
+		Path storage = temporaryFolder.newFolder().toPath();
+		Files.write(storage.resolve("a.txt"), "a".getBytes(UTF_8));
+		Files.write(storage.resolve("b.txt"), "bb".getBytes(UTF_8));
+		RemoteFsServer server = RemoteFsServer.create(Eventloop.getCurrentEventloop(), newCachedThreadPool(), storage)
+				.withListenAddress(address);
+		server.listen();
+		RemoteFsClient client = RemoteFsClient.create(Eventloop.getCurrentEventloop(), address);
+
+		Map<String, FileMetadata> metas = await(client.copyAll(map("a.txt", "c.txt"))
+				.then($ -> client.moveAll(map("b.txt", "d.txt")))
+				.then($ -> client.deleteAll(set("a.txt")))
+				.then($ -> client.getMetadataAll(set("a.txt", "b.txt", "c.txt", "d.txt")))
+				.whenComplete(server::close));
+
+		assertEquals(set("c.txt", "d.txt"), metas.keySet());
+		assertEquals(2, metas.get("d.txt").getSize());
+		assertEquals(set("c.txt", "d.txt"), Files.list(storage).map(path -> path.getFileName().toString()).collect(toSet()));
+	}
+
+	@Test
+	public void testBatchFallbackToSingleCommands() throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", getFreePort());
+		ByteBufSerializer<FsCommand, FsResponse> serializer = ofJsonCodec(RemoteFsCommands.CODEC, RemoteFsResponses.CODEC);
+		Set<String> deleted = new HashSet<>();
+		// a JSON-only server which knows nothing about batch commands
+		SimpleServer server = SimpleServer.create(socket -> {
+			MessagingWithBinaryStreaming<FsCommand, FsResponse> messaging = MessagingWithBinaryStreaming.create(socket, serializer);
+			messaging.receive()
+					.then(msg -> {
+						if (msg instanceof Delete) {
+							deleted.add(((Delete) msg).getName());
+							return messaging.send(new DeleteFinished());
+						}
+						messaging.close();
+						return Promise.complete();
+					})
+					.then($ -> messaging.sendEndOfStream())
+					.whenException(messaging::close);
+		}).withListenAddress(address);
+		server.listen();
+		RemoteFsClient client = RemoteFsClient.create(Eventloop.getCurrentEventloop(), address);
+
+		await(client.deleteAll(set("a.txt", "b.txt"))
+				.then($ -> client.deleteAll(set("c.txt")))
+				.whenComplete(server::close));
+
+		assertEquals(set("a.txt", "b.txt", "c.txt"), deleted);
+	}
+
+	@Test
+	public void testFailedBatchCommandIsNotReplayed() throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", getFreePort());
+		ByteBufSerializer<FsCommand, FsResponse> serializer = ofJsonCodec(RemoteFsCommands.CODEC, RemoteFsResponses.CODEC);
+		int[] moves = {0};
+		// a JSON-only server which supports batch commands, but fails to move all of the files
+		SimpleServer server = SimpleServer.create(socket -> {
+			MessagingWithBinaryStreaming<FsCommand, FsResponse> messaging = MessagingWithBinaryStreaming.create(socket, serializer);
+			messaging.receive()
+					.then(msg -> {
+						if (msg instanceof GetMetadataAll) {
+							return messaging.send(new ListFinished(emptyList()));
+						}
+						if (msg instanceof Move) {
+							moves[0]++;
+							return messaging.send(new MoveFinished());
+						}
+						return messaging.send(new ServerError(0));
+					})
+					.then($ -> messaging.sendEndOfStream())
+					.whenException(messaging::close);
+		}).withListenAddress(address);
+		server.listen();
+		RemoteFsClient client = RemoteFsClient.create(Eventloop.getCurrentEventloop(), address)
+				.withBinaryProtocol(false);
+
+		Throwable e = awaitException(client.moveAll(map("a.txt", "b.txt", "c.txt", "d.txt"))
+				.whenComplete(server::close));
+
+		assertSame(RemoteFsClient.UNKNOWN_SERVER_ERROR, e);
+		assertEquals(0, moves[0]);
+	}
+}
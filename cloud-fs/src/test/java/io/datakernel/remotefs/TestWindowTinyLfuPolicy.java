@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.remotefs;
+
+import io.datakernel.remotefs.WindowTinyLfuPolicy.Segment;
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public final class TestWindowTinyLfuPolicy {
+
+	@Test
+	public void testCapacity() {
+		WindowTinyLfuPolicy<Integer> policy = new WindowTinyLfuPolicy<>(1000, 100);
+		for (int i = 0; i < 100; i++) {
+			policy.recordAccess(i);
+			policy.add(i, 100);
+			assertTrue(policy.getWeight() <= 1000);
+		}
+		assertEquals(10, policy.size());
+	}
+
+	@Test
+	public void testFrequentEntriesAreKeptOnScan() {
+		WindowTinyLfuPolicy<Integer> policy = new WindowTinyLfuPolicy<>(1000, 100);
+		for (int i = 0; i < 10; i++) {
+			for (int j = 0; j < 5; j++) {
+				policy.recordAccess(i);
+			}
+			policy.add(i, 100);
+		}
+
+		// a scan over entries which are accessed only once
+		for (int i = 100; i < 200; i++) {
+			policy.recordAccess(i);
+			List<Integer> evicted = policy.add(i, 100);
+			assertEquals(singletonList(i), evicted);
+		}
+
+		for (int i = 0; i < 10; i++) {
+			assertTrue(policy.contains(i));
+		}
+	}
+
+	@Test
+	public void testPromotionAndDemotion() {
+		WindowTinyLfuPolicy<Integer> policy = new WindowTinyLfuPolicy<>(1000, 100);
+		for (int i = 0; i < 10; i++) {
+			policy.recordAccess(i);
+			policy.add(i, 100);
+		}
+		assertEquals(Segment.PROBATION, policy.getSegment(0));
+
+		for (int i = 0; i < 10; i++) {
+			policy.recordAccess(i);
+		}
+		// protected segment takes 80% of the main segment, so the eldest protected entries are demoted
+		assertEquals(Segment.PROBATION, policy.getSegment(0));
+		assertEquals(Segment.PROTECTED, policy.getSegment(9));
+	}
+
+	@Test
+	public void testOversizedEntryIsRejected() {
+		WindowTinyLfuPolicy<Integer> policy = new WindowTinyLfuPolicy<>(1000, 100);
+		assertEquals(singletonList(1), policy.add(1, 1001));
+		assertFalse(policy.contains(1));
+		assertEquals(0, policy.getWeight());
+	}
+
+	@Test
+	public void testRejectedCandidateDoesNotEvictAnything() {
+		WindowTinyLfuPolicy<Integer> policy = new WindowTinyLfuPolicy<>(1000, 100);
+		for (int i = 0; i < 10; i++) {
+			for (int j = 0; j < (i == 1 ? 10 : 1); j++) {
+				policy.recordAccess(i);
+			}
+			policy.add(i, 100);
+		}
+
+		// the candidate is more frequent than the eldest entry, but not than the next one it would also need to evict
+		for (int j = 0; j < 3; j++) {
+			policy.recordAccess(100);
+		}
+		assertEquals(singletonList(100), policy.add(100, 200));
+		for (int i = 0; i < 10; i++) {
+			assertTrue(policy.contains(i));
+		}
+		assertEquals(1000, policy.getWeight());
+	}
+
+	@Test
+	public void testEvictExcess() {
+		WindowTinyLfuPolicy<Integer> policy = new WindowTinyLfuPolicy<>(1000, 100);
+		for (int i = 0; i < 10; i++) {
+			policy.recordAccess(i);
+			policy.add(i, 100);
+		}
+		policy.setCapacity(500);
+		assertEquals(5, policy.evictExcess().size());
+		assertEquals(500, policy.getWeight());
+	}
+}
@@ -42,7 +42,6 @@ import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.jmx.api.JmxOperation;
 import io.datakernel.ot.util.IdGenerator;
 import io.datakernel.promise.Promise;
-import io.datakernel.promise.Promises;
 import io.datakernel.promise.jmx.PromiseStats;
 import io.datakernel.remotefs.FileMetadata;
 import io.datakernel.remotefs.FsClient;
@@ -200,7 +199,7 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 	@Override
 	public Promise<Void> finish(Set<C> chunkIds) {
 		finishChunks = chunkIds.size();
-		return Promises.all(chunkIds.stream().map(id -> client.move(getTempPath(id), getPath(id))))
+		return client.moveAll(chunkIds.stream().collect(Collectors.toMap(this::getTempPath, this::getPath)))
 				.whenComplete(promiseFinishChunks.recordStats());
 	}
 
@@ -212,7 +211,7 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 	public Promise<Void> backup(String backupId, Set<C> chunkIds) {
 		String tempBackupDir = backupDir + File.separator + backupId + "_tmp";
 
-		return Promises.all(chunkIds.stream().map(chunkId -> client.copy(chunkId + LOG, tempBackupDir + File.separator + chunkId + LOG)))
+		return client.copyAll(chunkIds.stream().collect(Collectors.toMap(chunkId -> chunkId + LOG, chunkId -> tempBackupDir + File.separator + chunkId + LOG)))
 				.then($ -> client.moveDir(tempBackupDir, backupDir + File.separator + backupId))
 				.whenComplete(promiseBackup.recordStats());
 	}
@@ -227,7 +226,7 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 		RefInt skipped = new RefInt(0);
 		RefInt deleted = new RefInt(0);
 		return client.list("*" + LOG)
-				.then(list -> Promises.all(list.stream()
+				.then(list -> client.deleteAll(list.stream()
 						.filter(file -> {
 							C id;
 							try {
@@ -258,8 +257,9 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 										lastModifiedTime, lastModifiedTime.toMillis());
 							}
 							deleted.inc();
-							return client.delete(file.getName());
-						}))
+							return file.getName();
+						})
+						.collect(Collectors.toSet()))
 						.whenResult($ -> {
 							cleanupPreservedFiles = preserveChunks.size();
 							cleanupDeletedFiles = deleted.get();
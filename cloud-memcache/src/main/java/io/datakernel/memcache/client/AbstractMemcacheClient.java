@@ -1,11 +1,16 @@
 package io.datakernel.memcache.client;
 
-import io.datakernel.memcache.protocol.MemcacheRpcMessage.GetRequest;
-import io.datakernel.memcache.protocol.MemcacheRpcMessage.GetResponse;
-import io.datakernel.memcache.protocol.MemcacheRpcMessage.PutRequest;
-import io.datakernel.memcache.protocol.MemcacheRpcMessage.Slice;
+import io.datakernel.memcache.protocol.MemcacheRpcMessage.*;
 import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
 import io.datakernel.rpc.client.IRpcClient;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.*;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.memcache.protocol.MemcacheRpcMessage.VersionedPutRequest.ANY_VERSION;
 
 public abstract class AbstractMemcacheClient<K, V> implements MemcacheClient<K, V> {
 	private final IRpcClient rpcClient;
@@ -20,6 +25,14 @@ public abstract class AbstractMemcacheClient<K, V> implements MemcacheClient<K,
 
 	protected abstract V decodeValue(Slice slice);
 
+	/**
+	 * Decodes a value which should outlive the response it was received with, as in results of batch requests.
+	 * Implementations which return views of the slice should copy it.
+	 */
+	protected V decodeRetainedValue(Slice slice) {
+		return decodeValue(slice);
+	}
+
 	@Override
 	public Promise<Void> put(K key, V value, int timeout) {
 		PutRequest request = new PutRequest(encodeKey(key), encodeValue(value));
@@ -45,4 +58,89 @@ public abstract class AbstractMemcacheClient<K, V> implements MemcacheClient<K,
 		return rpcClient.<GetRequest, GetResponse>sendRequest(request)
 				.map(response -> decodeValue(response.getData()));
 	}
+
+	@Override
+	public Promise<Void> put(K key, V value, Duration ttl, int timeout) {
+		VersionedPutRequest request = new VersionedPutRequest(encodeKey(key), encodeValue(value), ANY_VERSION, ttlMillisOf(ttl));
+		return rpcClient.sendRequest(request, timeout).toVoid();
+	}
+
+	@Override
+	public Promise<VersionedValue<V>> getVersioned(K key, int timeout) {
+		VersionedGetRequest request = new VersionedGetRequest(encodeKey(key));
+		return rpcClient.<VersionedGetRequest, VersionedGetResponse>sendRequest(request, timeout)
+				.map(response -> response.getData() != null ?
+						new VersionedValue<>(decodeValue(response.getData()), response.getVersion()) :
+						null);
+	}
+
+	@Override
+	public Promise<Boolean> compareAndPut(K key, V value, long expectedVersion, @Nullable Duration ttl, int timeout) {
+		checkArgument(expectedVersion >= 0, "Version cannot be negative");
+		VersionedPutRequest request = new VersionedPutRequest(encodeKey(key), encodeValue(value), expectedVersion, ttlMillisOf(ttl));
+		return rpcClient.<VersionedPutRequest, VersionedPutResponse>sendRequest(request, timeout)
+				.map(response -> response.getVersion() != 0);
+	}
+
+	private static long ttlMillisOf(@Nullable Duration ttl) {
+		if (ttl == null) return 0;
+		checkArgument(!ttl.isNegative() && !ttl.isZero(), "TTL must be positive");
+		return ttl.toMillis();
+	}
+
+	/**
+	 * Groups keys by servers according to the sharding strategy of RPC client,
+	 * sends a single {@link MultiGetRequest} to each server and merges responses as they arrive
+	 */
+	@Override
+	public Promise<Map<K, V>> getAll(Collection<K> keys, int timeout) {
+		Map<Object, Batch<K>> batches = new HashMap<>();
+		for (K key : keys) {
+			byte[] encodedKey = encodeKey(key);
+			batches.computeIfAbsent(rpcClient.getDestination(new GetRequest(encodedKey)), $ -> new Batch<>())
+					.add(key, encodedKey, null);
+		}
+		Map<K, V> result = new HashMap<>();
+		return Promises.all(batches.values().stream()
+				.map(batch -> rpcClient.<MultiGetRequest, MultiGetResponse>sendRequest(new MultiGetRequest(batch.encodedKeys), timeout)
+						.whenResult(response -> {
+							List<Slice> data = response.getData();
+							for (int i = 0; i < data.size(); i++) {
+								Slice slice = data.get(i);
+								if (slice != null) {
+									result.put(batch.keys.get(i), decodeRetainedValue(slice));
+								}
+							}
+						})))
+				.map($ -> result);
+	}
+
+	/**
+	 * Groups items by servers according to the sharding strategy of RPC client
+	 * and sends a single {@link MultiPutRequest} to each server
+	 */
+	@Override
+	public Promise<Void> putAll(Map<K, V> items, int timeout) {
+		Map<Object, Batch<K>> batches = new HashMap<>();
+		for (Map.Entry<K, V> entry : items.entrySet()) {
+			byte[] encodedKey = encodeKey(entry.getKey());
+			Slice encodedValue = encodeValue(entry.getValue());
+			batches.computeIfAbsent(rpcClient.getDestination(new PutRequest(encodedKey, encodedValue)), $ -> new Batch<>())
+					.add(entry.getKey(), encodedKey, encodedValue);
+		}
+		return Promises.all(batches.values().stream()
+				.map(batch -> rpcClient.sendRequest(new MultiPutRequest(batch.encodedKeys, batch.encodedValues), timeout)));
+	}
+
+	private static final class Batch<K> {
+		final List<K> keys = new ArrayList<>();
+		final List<byte[]> encodedKeys = new ArrayList<>();
+		final List<Slice> encodedValues = new ArrayList<>();
+
+		void add(K key, byte[] encodedKey, Slice encodedValue) {
+			keys.add(key);
+			encodedKeys.add(encodedKey);
+			encodedValues.add(encodedValue);
+		}
+	}
 }
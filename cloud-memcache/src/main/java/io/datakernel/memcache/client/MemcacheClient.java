@@ -1,6 +1,11 @@
 package io.datakernel.memcache.client;
 
 import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.*;
 
 public interface MemcacheClient<K, V> {
 
@@ -15,4 +20,69 @@ public interface MemcacheClient<K, V> {
 	default Promise<V> get(K key) {
 		return get(key, Integer.MAX_VALUE);
 	}
+
+	/**
+	 * Puts an item which expires after the given time to live
+	 */
+	Promise<Void> put(K key, V value, Duration ttl, int timeout);
+
+	/**
+	 * Gets an item together with its version
+	 *
+	 * @return versioned value, or {@code null} if the item is missing
+	 */
+	Promise<VersionedValue<V>> getVersioned(K key, int timeout);
+
+	/**
+	 * Puts an item only if its current version matches the expected one.
+	 * Missing items, as well as items put without a version, have version {@code 0}.
+	 *
+	 * @param ttl time to live of the item, or {@code null} if the item should not expire
+	 * @return whether the item was put
+	 */
+	Promise<Boolean> compareAndPut(K key, V value, long expectedVersion, @Nullable Duration ttl, int timeout);
+
+	default Promise<Void> put(K key, V value, Duration ttl) {
+		return put(key, value, ttl, Integer.MAX_VALUE);
+	}
+
+	default Promise<VersionedValue<V>> getVersioned(K key) {
+		return getVersioned(key, Integer.MAX_VALUE);
+	}
+
+	default Promise<Boolean> compareAndPut(K key, V value, long expectedVersion, @Nullable Duration ttl) {
+		return compareAndPut(key, value, expectedVersion, ttl, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Gets several items at once
+	 *
+	 * @return map of present items, missing keys are omitted
+	 */
+	default Promise<Map<K, V>> getAll(Collection<K> keys, int timeout) {
+		List<K> list = new ArrayList<>(keys);
+		return Promises.<V>toList(list.stream().map(key -> get(key, timeout)))
+				.map(values -> {
+					Map<K, V> result = new HashMap<>();
+					for (int i = 0; i < list.size(); i++) {
+						V value = values.get(i);
+						if (value != null) {
+							result.put(list.get(i), value);
+						}
+					}
+					return result;
+				});
+	}
+
+	default Promise<Map<K, V>> getAll(Collection<K> keys) {
+		return getAll(keys, Integer.MAX_VALUE);
+	}
+
+	default Promise<Void> putAll(Map<K, V> items, int timeout) {
+		return Promises.all(items.entrySet().stream().map(entry -> put(entry.getKey(), entry.getValue(), timeout)));
+	}
+
+	default Promise<Void> putAll(Map<K, V> items) {
+		return putAll(items, Integer.MAX_VALUE);
+	}
 }
@@ -3,6 +3,8 @@ package io.datakernel.memcache.client;
 import io.datakernel.memcache.protocol.MemcacheRpcMessage.Slice;
 import io.datakernel.rpc.client.IRpcClient;
 
+import java.util.Arrays;
+
 public class RawMemcacheClient extends AbstractMemcacheClient<byte[], Slice> {
 	private RawMemcacheClient(IRpcClient rpcClient) {
 		super(rpcClient);
@@ -26,4 +28,9 @@ public class RawMemcacheClient extends AbstractMemcacheClient<byte[], Slice> {
 	protected Slice decodeValue(Slice slice) {
 		return slice;
 	}
+
+	@Override
+	protected Slice decodeRetainedValue(Slice slice) {
+		return new Slice(Arrays.copyOfRange(slice.array(), slice.offset(), slice.offset() + slice.length()));
+	}
 }
@@ -0,0 +1,25 @@
+package io.datakernel.memcache.client;
+
+/**
+ * A value together with its version, which is used by {@link MemcacheClient#compareAndPut}
+ */
+public final class VersionedValue<V> {
+	private final V value;
+	private final long version;
+
+	public VersionedValue(V value, long version) {
+		this.value = value;
+		this.version = version;
+	}
+
+	public V getValue() {
+		return value;
+	}
+
+	/**
+	 * @return version of the value, or {@code 0} if the value was put without a version
+	 */
+	public long getVersion() {
+		return version;
+	}
+}
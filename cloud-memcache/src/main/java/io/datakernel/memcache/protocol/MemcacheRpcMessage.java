@@ -9,6 +9,8 @@ import io.datakernel.serializer.annotations.SerializeNullable;
 import java.util.Arrays;
 import java.util.List;
 
+import static io.datakernel.common.Preconditions.checkArgument;
+
 public class MemcacheRpcMessage {
 	public static final HashFunction<Object> HASH_FUNCTION =
 			item -> {
@@ -18,11 +20,30 @@ public class MemcacheRpcMessage {
 				} else if (item instanceof PutRequest) {
 					PutRequest request = (PutRequest) item;
 					return Arrays.hashCode(request.getKey());
+				} else if (item instanceof MultiGetRequest) {
+					MultiGetRequest request = (MultiGetRequest) item;
+					return hashOfBatch(request.getKeys());
+				} else if (item instanceof MultiPutRequest) {
+					MultiPutRequest request = (MultiPutRequest) item;
+					return hashOfBatch(request.getKeys());
+				} else if (item instanceof VersionedGetRequest) {
+					VersionedGetRequest request = (VersionedGetRequest) item;
+					return Arrays.hashCode(request.getKey());
+				} else if (item instanceof VersionedPutRequest) {
+					VersionedPutRequest request = (VersionedPutRequest) item;
+					return Arrays.hashCode(request.getKey());
 				}
 				throw new IllegalArgumentException("Unknown request type " + item);
 			};
 
-	public static final List<Class<?>> MESSAGE_TYPES = Arrays.asList(GetRequest.class, GetResponse.class, PutRequest.class, PutResponse.class);
+	private static int hashOfBatch(List<byte[]> keys) {
+		checkArgument(!keys.isEmpty(), "Empty batch cannot be routed");
+		return Arrays.hashCode(keys.get(0));
+	}
+
+	public static final List<Class<?>> MESSAGE_TYPES = Arrays.asList(GetRequest.class, GetResponse.class, PutRequest.class, PutResponse.class,
+			MultiGetRequest.class, MultiGetResponse.class, MultiPutRequest.class,
+			VersionedGetRequest.class, VersionedGetResponse.class, VersionedPutRequest.class, VersionedPutResponse.class);
 
 	public static final class GetRequest implements RpcMandatoryData {
 		private final byte[] key;
@@ -76,6 +97,169 @@ public class MemcacheRpcMessage {
 		public static final PutResponse INSTANCE = new PutResponse();
 	}
 
+	/**
+	 * Batch of {@link GetRequest GetRequests}, which is routed by its first key,
+	 * so all of its keys should belong to the same server, and empty batches cannot be sent
+	 */
+	public static final class MultiGetRequest implements RpcMandatoryData {
+		private final List<byte[]> keys;
+
+		public MultiGetRequest(@Deserialize("keys") List<byte[]> keys) {
+			this.keys = keys;
+		}
+
+		@Serialize(order = 1)
+		public List<byte[]> getKeys() {
+			return keys;
+		}
+	}
+
+	/**
+	 * Items in the order of keys of {@link MultiGetRequest}, {@code null} for missing items
+	 */
+	public static final class MultiGetResponse {
+		private final List<Slice> data;
+
+		public MultiGetResponse(@Deserialize("data") List<Slice> data) {
+			this.data = data;
+		}
+
+		@Serialize(order = 1)
+		@SerializeNullable(path = 0)
+		public List<Slice> getData() {
+			return data;
+		}
+	}
+
+	/**
+	 * Batch of {@link PutRequest PutRequests}, which is routed by its first key
+	 * and is answered with {@link PutResponse}. Empty batches cannot be sent
+	 */
+	public static final class MultiPutRequest implements RpcMandatoryData {
+		private final List<byte[]> keys;
+		private final List<Slice> data;
+
+		public MultiPutRequest(@Deserialize("keys") List<byte[]> keys, @Deserialize("data") List<Slice> data) {
+			this.keys = keys;
+			this.data = data;
+		}
+
+		@Serialize(order = 1)
+		public List<byte[]> getKeys() {
+			return keys;
+		}
+
+		@Serialize(order = 2)
+		@SerializeNullable(path = 0)
+		public List<Slice> getData() {
+			return data;
+		}
+	}
+
+	/**
+	 * Same as {@link GetRequest}, but is answered with {@link VersionedGetResponse}
+	 */
+	public static final class VersionedGetRequest implements RpcMandatoryData {
+		private final byte[] key;
+
+		public VersionedGetRequest(@Deserialize("key") byte[] key) {
+			this.key = key;
+		}
+
+		@Serialize(order = 1)
+		public byte[] getKey() {
+			return key;
+		}
+	}
+
+	/**
+	 * The item and its version, which is {@code 0} for missing items and items put without a version
+	 */
+	public static final class VersionedGetResponse {
+		private final Slice data;
+		private final long version;
+
+		public VersionedGetResponse(@Deserialize("data") Slice data, @Deserialize("version") long version) {
+			this.data = data;
+			this.version = version;
+		}
+
+		@Serialize(order = 1)
+		@SerializeNullable
+		public Slice getData() {
+			return data;
+		}
+
+		@Serialize(order = 2)
+		public long getVersion() {
+			return version;
+		}
+	}
+
+	/**
+	 * Puts the item with a time to live if its current version matches the expected one,
+	 * and is answered with {@link VersionedPutResponse}
+	 */
+	public static final class VersionedPutRequest {
+		public static final long ANY_VERSION = -1L;
+
+		private final byte[] key;
+		private final Slice data;
+		private final long expectedVersion;
+		private final long ttlMillis;
+
+		public VersionedPutRequest(@Deserialize("key") byte[] key, @Deserialize("data") Slice data,
+				@Deserialize("expectedVersion") long expectedVersion, @Deserialize("ttlMillis") long ttlMillis) {
+			this.key = key;
+			this.data = data;
+			this.expectedVersion = expectedVersion;
+			this.ttlMillis = ttlMillis;
+		}
+
+		@Serialize(order = 1)
+		public byte[] getKey() {
+			return key;
+		}
+
+		@SerializeNullable
+		@Serialize(order = 2)
+		public Slice getData() {
+			return data;
+		}
+
+		/**
+		 * @return expected version of the item, or {@link #ANY_VERSION}
+		 */
+		@Serialize(order = 3)
+		public long getExpectedVersion() {
+			return expectedVersion;
+		}
+
+		/**
+		 * @return time to live of the item, or {@code 0} if the item should not expire
+		 */
+		@Serialize(order = 4)
+		public long getTtlMillis() {
+			return ttlMillis;
+		}
+	}
+
+	/**
+	 * New version of the item, or {@code 0} if the version of the item did not match
+	 */
+	public static final class VersionedPutResponse {
+		private final long version;
+
+		public VersionedPutResponse(@Deserialize("version") long version) {
+			this.version = version;
+		}
+
+		@Serialize(order = 1)
+		public long getVersion() {
+			return version;
+		}
+	}
+
 	public static final class Slice {
 		private final byte[] array;
 		private final int offset;
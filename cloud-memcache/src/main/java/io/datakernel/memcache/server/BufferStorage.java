@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.memcache.server;
+
+import io.datakernel.memcache.protocol.MemcacheRpcMessage.Slice;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static io.datakernel.common.Preconditions.checkState;
+import static java.lang.Math.min;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Memory of a single buffer of {@link RingBuffer}, addressed by {@code long} positions
+ */
+abstract class BufferStorage {
+	private static final Logger logger = LoggerFactory.getLogger(BufferStorage.class);
+
+	static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+	static final int GENERATION_SIZE = 8;
+
+	abstract long capacity();
+
+	abstract void write(long position, byte[] data, int offset, int length);
+
+	/**
+	 * Returns the data at the given position, either as a view of the storage or as a copy
+	 */
+	abstract Slice read(long position, int length);
+
+	/**
+	 * Returns the generation of data in the storage, which changes each time the storage is overwritten
+	 * from the beginning. Generations of memory-mapped storages are kept in their files
+	 */
+	abstract long generation();
+
+	/**
+	 * Changes the generation before the storage is overwritten from the beginning.
+	 * For memory-mapped storage, the new generation is flushed to the file before this method returns,
+	 * so that data written afterwards can never be mistaken for data of the previous generation
+	 */
+	abstract void nextGeneration();
+
+	/**
+	 * Flushes changes to the underlying file, if there is one
+	 */
+	abstract void force();
+
+	/**
+	 * Releases off-heap memory and file mappings right away instead of waiting for GC.
+	 * The storage cannot be used after it is closed
+	 */
+	abstract void close();
+
+	static BufferStorage ofHeap(long capacity) {
+		return new Heap(new byte[Math.toIntExact(capacity)]);
+	}
+
+	static BufferStorage ofDirect(long capacity) {
+		return ofDirect(capacity, DEFAULT_CHUNK_SIZE);
+	}
+
+	static BufferStorage ofDirect(long capacity, int chunkSize) {
+		ByteBuffer[] chunks = new ByteBuffer[chunksOf(capacity, chunkSize)];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = ByteBuffer.allocateDirect((int) min(chunkSize, capacity - (long) i * chunkSize));
+		}
+		return new Chunked(chunks, capacity, chunkSize, null);
+	}
+
+	static BufferStorage ofMapped(Path file, long capacity) throws IOException {
+		return ofMapped(file, capacity, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * The file starts with the generation of the storage, followed by its data
+	 */
+	static BufferStorage ofMapped(Path file, long capacity, int chunkSize) throws IOException {
+		ByteBuffer[] chunks = new ByteBuffer[chunksOf(capacity, chunkSize)];
+		MappedByteBuffer header;
+		try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+			header = channel.map(READ_WRITE, 0, GENERATION_SIZE);
+			for (int i = 0; i < chunks.length; i++) {
+				long offset = (long) i * chunkSize;
+				chunks[i] = channel.map(READ_WRITE, GENERATION_SIZE + offset, min(chunkSize, capacity - offset));
+			}
+		}
+		return new Chunked(chunks, capacity, chunkSize, header);
+	}
+
+	private static int chunksOf(long capacity, int chunkSize) {
+		return Math.toIntExact((capacity + chunkSize - 1) / chunkSize);
+	}
+
+	private static final class Heap extends BufferStorage {
+		private final byte[] array;
+		private long generation;
+
+		Heap(byte[] array) {
+			this.array = array;
+		}
+
+		@Override
+		long capacity() {
+			return array.length;
+		}
+
+		@Override
+		void write(long position, byte[] data, int offset, int length) {
+			System.arraycopy(data, offset, array, (int) position, length);
+		}
+
+		@Override
+		Slice read(long position, int length) {
+			return new Slice(array, (int) position, length);
+		}
+
+		@Override
+		long generation() {
+			return generation;
+		}
+
+		@Override
+		void nextGeneration() {
+			generation++;
+		}
+
+		@Override
+		void force() {
+		}
+
+		@Override
+		void close() {
+		}
+	}
+
+	/**
+	 * Off-heap memory split into chunks, since a single {@link ByteBuffer} cannot exceed 2GB.
+	 * Items may span several chunks, so they are always copied on read.
+	 * Positions of chunks are mutated, so instances must be confined to a single thread
+	 */
+	private static final class Chunked extends BufferStorage {
+		private final ByteBuffer[] chunks;
+		private final long capacity;
+		private final int chunkSize;
+		@Nullable
+		private final MappedByteBuffer header;
+		private long generation;
+		private boolean closed;
+
+		Chunked(ByteBuffer[] chunks, long capacity, int chunkSize, @Nullable MappedByteBuffer header) {
+			this.chunks = chunks;
+			this.capacity = capacity;
+			this.chunkSize = chunkSize;
+			this.header = header;
+			if (header != null) {
+				generation = header.getLong(0);
+				if (generation == 0) {
+					// a new file, its generation must not match a snapshot of a file which used to be there
+					generation = ThreadLocalRandom.current().nextLong() | 1;
+					header.putLong(0, generation);
+					header.force();
+				}
+			}
+		}
+
+		@Override
+		long capacity() {
+			return capacity;
+		}
+
+		@Override
+		void write(long position, byte[] data, int offset, int length) {
+			checkState(!closed, "Storage is closed");
+			while (length > 0) {
+				ByteBuffer chunk = chunks[(int) (position / chunkSize)];
+				chunk.position((int) (position % chunkSize));
+				int n = min(length, chunk.remaining());
+				chunk.put(data, offset, n);
+				position += n;
+				offset += n;
+				length -= n;
+			}
+		}
+
+		@Override
+		Slice read(long position, int length) {
+			checkState(!closed, "Storage is closed");
+			byte[] result = new byte[length];
+			int offset = 0;
+			while (offset < length) {
+				ByteBuffer chunk = chunks[(int) (position / chunkSize)];
+				chunk.position((int) (position % chunkSize));
+				int n = min(length - offset, chunk.remaining());
+				chunk.get(result, offset, n);
+				position += n;
+				offset += n;
+			}
+			return new Slice(result);
+		}
+
+		@Override
+		long generation() {
+			return generation;
+		}
+
+		@Override
+		void nextGeneration() {
+			checkState(!closed, "Storage is closed");
+			generation++;
+			if (header != null) {
+				header.putLong(0, generation);
+				header.force();
+			}
+		}
+
+		@Override
+		void force() {
+			checkState(!closed, "Storage is closed");
+			for (ByteBuffer chunk : chunks) {
+				if (chunk instanceof MappedByteBuffer) {
+					((MappedByteBuffer) chunk).force();
+				}
+			}
+		}
+
+		@Override
+		void close() {
+			if (closed) return;
+			closed = true;
+			for (ByteBuffer chunk : chunks) {
+				release(chunk);
+			}
+			if (header != null) {
+				release(header);
+			}
+		}
+	}
+
+	// region releasing direct buffers
+	@Nullable
+	private static final Object UNSAFE;
+	@Nullable
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException ignored) {
+			// Java 8, buffers are released through their cleaners
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	/**
+	 * Frees memory of a direct buffer or unmaps a memory-mapped one. If it is not possible on this JVM,
+	 * the buffer is left to be released by GC
+	 */
+	private static void release(ByteBuffer buffer) {
+		try {
+			if (INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			} else {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.warn("Could not release direct buffer, leaving it to GC", e);
+		}
+	}
+	// endregion
+}
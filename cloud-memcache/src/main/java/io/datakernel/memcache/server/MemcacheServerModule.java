@@ -6,10 +6,17 @@ import io.datakernel.di.annotation.Provides;
 import io.datakernel.di.module.AbstractModule;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.memcache.protocol.SerializerDefSlice;
+import io.datakernel.memcache.server.RingBuffer.Item;
 import io.datakernel.promise.Promise;
 import io.datakernel.rpc.server.RpcServer;
 import io.datakernel.serializer.SerializerBuilder;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
 import static io.datakernel.common.MemSize.kilobytes;
 import static io.datakernel.config.ConfigConverters.*;
 import static io.datakernel.memcache.protocol.MemcacheRpcMessage.*;
@@ -29,10 +36,42 @@ public class MemcacheServerModule extends AbstractModule {
 	}
 
 	@Provides
-	RingBuffer ringBuffer(Config config) {
-		return RingBuffer.create(
-				config.get(ofInteger(), "memcache.buffers"),
-				config.get(ofMemSize(), "memcache.bufferCapacity").toInt());
+	RingBuffer ringBuffer(Eventloop eventloop, Config config) {
+		return createRingBuffer(config, 1, 0)
+				.withEventloop(eventloop);
+	}
+
+	/**
+	 * Creates one of {@code shards} ring buffers which share the configured capacity.
+	 * If {@code memcache.directory} is set, ring buffers are memory-mapped and survive restarts.
+	 * If {@code memcache.bloomFilterItems} is set, each buffer gets a bloom filter for that many items.
+	 * If {@code memcache.admissionFilterItems} is set, puts are filtered by frequencies of that many keys
+	 */
+	static RingBuffer createRingBuffer(Config config, int shards, int shard) {
+		int buffers = config.get(ofInteger(), "memcache.buffers");
+		long bufferCapacity = config.get(ofMemSize(), "memcache.bufferCapacity").toLong() / shards;
+		Path directory = config.get(ofPath(), "memcache.directory", null);
+		RingBuffer ringBuffer;
+		if (directory != null) {
+			try {
+				ringBuffer = RingBuffer.createMapped(buffers, bufferCapacity, shards == 1 ? directory : directory.resolve("shard" + shard));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		} else {
+			ringBuffer = config.get(ofBoolean(), "memcache.offHeap", false) ?
+					RingBuffer.createOffHeap(buffers, bufferCapacity) :
+					RingBuffer.create(buffers, bufferCapacity);
+		}
+		int bloomFilterItems = config.get(ofInteger(), "memcache.bloomFilterItems", 0);
+		if (bloomFilterItems != 0) {
+			ringBuffer.withBloomFilters(bloomFilterItems);
+		}
+		int admissionFilterItems = config.get(ofInteger(), "memcache.admissionFilterItems", 0);
+		if (admissionFilterItems != 0) {
+			ringBuffer.withAdmissionFilter(admissionFilterItems);
+		}
+		return ringBuffer;
 	}
 
 	@Provides
@@ -47,6 +86,37 @@ public class MemcacheServerModule extends AbstractModule {
 							storage.put(request.getKey(), slice.array(), slice.offset(), slice.length());
 							return Promise.of(PutResponse.INSTANCE);
 						})
+				.withHandler(MultiGetRequest.class, MultiGetResponse.class,
+						request -> {
+							List<Slice> data = new ArrayList<>(request.getKeys().size());
+							for (byte[] key : request.getKeys()) {
+								data.add(storage.get(key));
+							}
+							return Promise.of(new MultiGetResponse(data));
+						})
+				.withHandler(MultiPutRequest.class, PutResponse.class,
+						request -> {
+							List<byte[]> keys = request.getKeys();
+							List<Slice> data = request.getData();
+							for (int i = 0; i < keys.size(); i++) {
+								Slice slice = data.get(i);
+								storage.put(keys.get(i), slice.array(), slice.offset(), slice.length());
+							}
+							return Promise.of(PutResponse.INSTANCE);
+						})
+				.withHandler(VersionedGetRequest.class, VersionedGetResponse.class,
+						request -> {
+							Item item = storage.getItem(request.getKey());
+							return Promise.of(item != null ?
+									new VersionedGetResponse(item.getData(), item.getVersion()) :
+									new VersionedGetResponse(null, 0));
+						})
+				.withHandler(VersionedPutRequest.class, VersionedPutResponse.class,
+						request -> {
+							Slice slice = request.getData();
+							return Promise.of(new VersionedPutResponse(storage.compareAndPut(request.getKey(),
+									slice.array(), slice.offset(), slice.length(), request.getExpectedVersion(), request.getTtlMillis())));
+						})
 				.withSerializerBuilder(SerializerBuilder.create(ClassLoader.getSystemClassLoader())
 						.withSerializer(Slice.class, new SerializerDefSlice()))
 				.withMessageTypes(MESSAGE_TYPES)
@@ -0,0 +1,126 @@
+package io.datakernel.memcache.server;
+
+import io.datakernel.config.Config;
+import io.datakernel.di.annotation.Provides;
+import io.datakernel.di.module.AbstractModule;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.memcache.protocol.SerializerDefSlice;
+import io.datakernel.net.PrimaryServer;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.rpc.server.RpcServer;
+import io.datakernel.serializer.SerializerBuilder;
+import io.datakernel.worker.Worker;
+import io.datakernel.worker.WorkerId;
+import io.datakernel.worker.WorkerPool;
+import io.datakernel.worker.WorkerPools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.common.MemSize.kilobytes;
+import static io.datakernel.config.ConfigConverters.*;
+import static io.datakernel.memcache.protocol.MemcacheRpcMessage.*;
+import static io.datakernel.rpc.server.RpcServer.DEFAULT_SERVER_SOCKET_SETTINGS;
+import static io.datakernel.rpc.server.RpcServer.DEFAULT_SOCKET_SETTINGS;
+
+/**
+ * Multi-core version of {@link MemcacheServerModule}.
+ * <p>
+ * Each worker eventloop owns a shard of the key space in its own {@link RingBuffer},
+ * a {@link PrimaryServer} distributes incoming connections between the workers,
+ * and requests for keys of other shards are forwarded by {@link RingBufferShards}.
+ * <p>
+ * The primary {@link Eventloop} which accepts connections should be provided by the application,
+ * and {@link io.datakernel.worker.WorkerPoolModule} should be installed.
+ */
+public class MemcacheShardedServerModule extends AbstractModule {
+	private MemcacheShardedServerModule() {}
+
+	public static MemcacheShardedServerModule create() {
+		return new MemcacheShardedServerModule();
+	}
+
+	@Provides
+	WorkerPool workerPool(WorkerPools workerPools, Config config) {
+		return workerPools.createPool(config.get(ofInteger(), "memcache.workers", Runtime.getRuntime().availableProcessors()));
+	}
+
+	@Provides
+	@Worker
+	Eventloop workerEventloop() {
+		return Eventloop.create();
+	}
+
+	/**
+	 * Capacity of buffers is split between shards,
+	 * so the total amount of memory does not depend on the number of workers
+	 */
+	@Provides
+	@Worker
+	RingBuffer ringBuffer(Eventloop eventloop, WorkerPool workerPool, @WorkerId int workerId, Config config) {
+		return MemcacheServerModule.createRingBuffer(config, workerPool.getSize(), workerId)
+				.withEventloop(eventloop);
+	}
+
+	@Provides
+	RingBufferShards ringBufferShards(WorkerPool.Instances<Eventloop> eventloops, WorkerPool.Instances<RingBuffer> ringBuffers) {
+		return RingBufferShards.create(eventloops.getList(), ringBuffers.getList());
+	}
+
+	@Provides
+	@Worker
+	RpcServer workerServer(Eventloop eventloop, Config config, RingBufferShards shards) {
+		return RpcServer.create(eventloop)
+				.withHandler(GetRequest.class, GetResponse.class,
+						request -> shards.get(request.getKey()).map(GetResponse::new))
+				.withHandler(PutRequest.class, PutResponse.class,
+						request -> {
+							Slice slice = request.getData();
+							return shards.put(request.getKey(), slice.array(), slice.offset(), slice.length())
+									.map($ -> PutResponse.INSTANCE);
+						})
+				.withHandler(MultiGetRequest.class, MultiGetResponse.class,
+						request -> shards.getAll(request.getKeys())
+								.map(MultiGetResponse::new))
+				.withHandler(MultiPutRequest.class, PutResponse.class,
+						request -> {
+							List<byte[]> keys = request.getKeys();
+							List<Slice> data = request.getData();
+							List<Promise<Void>> puts = new ArrayList<>(keys.size());
+							for (int i = 0; i < keys.size(); i++) {
+								Slice slice = data.get(i);
+								puts.add(shards.put(keys.get(i), slice.array(), slice.offset(), slice.length()));
+							}
+							return Promises.all(puts)
+									.map($ -> PutResponse.INSTANCE);
+						})
+				.withHandler(VersionedGetRequest.class, VersionedGetResponse.class,
+						request -> shards.getItem(request.getKey())
+								.map(item -> item != null ?
+										new VersionedGetResponse(item.getData(), item.getVersion()) :
+										new VersionedGetResponse(null, 0)))
+				.withHandler(VersionedPutRequest.class, VersionedPutResponse.class,
+						request -> {
+							Slice slice = request.getData();
+							return shards.compareAndPut(request.getKey(), slice.array(), slice.offset(), slice.length(),
+									request.getExpectedVersion(), request.getTtlMillis())
+									.map(VersionedPutResponse::new);
+						})
+				.withSerializerBuilder(SerializerBuilder.create(ClassLoader.getSystemClassLoader())
+						.withSerializer(Slice.class, new SerializerDefSlice()))
+				.withMessageTypes(MESSAGE_TYPES)
+				.withStreamProtocol(
+						config.get(ofMemSize(), "protocol.packetSize", kilobytes(64)),
+						config.get(ofMemSize(), "protocol.packetSizeMax", kilobytes(64)),
+						config.get(ofBoolean(), "protocol.compression", false))
+				.withSocketSettings(config.get(ofSocketSettings(), "server.socketSettings", DEFAULT_SOCKET_SETTINGS));
+	}
+
+	@Provides
+	PrimaryServer primaryServer(Eventloop primaryEventloop, WorkerPool.Instances<RpcServer> workerServers, Config config) {
+		return PrimaryServer.create(primaryEventloop, workerServers.getList())
+				.withServerSocketSettings(config.get(ofServerSocketSettings(), "server.serverSocketSettings", DEFAULT_SERVER_SOCKET_SETTINGS))
+				.withListenAddresses(config.get(ofList(ofInetSocketAddress()), "server.listenAddresses"));
+	}
+}
@@ -3,28 +3,60 @@ package io.datakernel.memcache.server;
 import com.carrotsearch.hppc.IntLongHashMap;
 import com.carrotsearch.hppc.LongLongHashMap;
 import com.carrotsearch.hppc.ObjectLongHashMap;
+import com.carrotsearch.hppc.cursors.IntLongCursor;
+import com.carrotsearch.hppc.cursors.LongLongCursor;
+import com.carrotsearch.hppc.cursors.ObjectLongCursor;
+import io.datakernel.common.collection.BloomFilter;
+import io.datakernel.common.collection.FrequencySketch;
+import io.datakernel.common.exception.UncheckedException;
+import io.datakernel.common.time.CurrentTimeProvider;
+import io.datakernel.eventloop.Eventloop;
 import io.datakernel.eventloop.jmx.EventStats;
 import io.datakernel.memcache.protocol.MemcacheRpcMessage.Slice;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
-
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.common.Preconditions.checkState;
 import static io.datakernel.common.StringFormatUtils.formatDuration;
 import static io.datakernel.eventloop.jmx.MBeanFormat.formatTimestamp;
+import static io.datakernel.memcache.protocol.MemcacheRpcMessage.VersionedPutRequest.ANY_VERSION;
+import static java.lang.Math.min;
 import static java.lang.System.currentTimeMillis;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 /**
  * The implementation to handle the big amount of date
  * It works like cache, when you use it you shouldn`t rely on result.
  * Because it can be rewritten by new date, if the written date was oversize
  */
-public final class RingBuffer implements RingBufferMBean {
+public final class RingBuffer implements RingBufferMBean, Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(RingBuffer.class);
 
 	/**
 	 * The main class for the caching the byte-arrays
 	 */
 	private static class Buffer {
-		private final byte[] array;
+		static final int HEADER_SIZE = 16;
+
+		private final BufferStorage storage;
+		private final int positionBits;
+		private final long positionMask;
+		private final int maxLength;
 		private final IntLongHashMap indexInt = new IntLongHashMap();
 		private final LongLongHashMap indexLong = new LongLongHashMap();
 		private final ObjectLongHashMap<byte[]> indexBytes = new ObjectLongHashMap<byte[]>() {
@@ -43,27 +75,62 @@ public final class RingBuffer implements RingBufferMBean {
 			}
 		};
 
-		private int position = 0;
+		@Nullable
+		private BloomFilter bloomFilter;
+
+		private long position = 0;
 		private long timestamp;
 
-		Buffer(int capacity) {
-			this.array = new byte[capacity];
+		/**
+		 * Segments pack positions into the lower bits and lengths into the upper bits of a non-negative long,
+		 * so the bigger the buffer is, the less bits are left for the length of an item.
+		 * The bit between them tells whether the item starts with a header of its expiration time and version
+		 */
+		Buffer(BufferStorage storage) {
+			this.storage = storage;
+			this.positionBits = 64 - Long.numberOfLeadingZeros(storage.capacity());
+			this.positionMask = (1L << positionBits) - 1;
+			this.maxLength = (int) min(Integer.MAX_VALUE, (1L << (62 - positionBits)) - 1);
 			this.timestamp = currentTimeMillis();
 		}
 
+		/**
+		 * Adds a bloom filter of keys, filled with the keys which are already in the buffer
+		 */
+		void enableBloomFilter(int expectedItems) {
+			bloomFilter = BloomFilter.create(expectedItems);
+			for (IntLongCursor cursor : indexInt) {
+				bloomFilter.add(cursor.key);
+			}
+			for (LongLongCursor cursor : indexLong) {
+				bloomFilter.add(Long.hashCode(cursor.key));
+			}
+			for (ObjectLongCursor<byte[]> cursor : indexBytes) {
+				bloomFilter.add(hashOf(cursor.key));
+			}
+		}
+
+		boolean mightContain(int hash) {
+			return bloomFilter == null || bloomFilter.mightContain(hash);
+		}
+
 		void clear() {
+			if (bloomFilter != null) {
+				bloomFilter.clear();
+			}
 			indexInt.clear();
 			indexLong.clear();
 			indexBytes.clear();
 			position = 0;
 			timestamp = currentTimeMillis();
+			storage.nextGeneration();
 		}
 
-		int capacity() {
-			return array.length;
+		long capacity() {
+			return storage.capacity();
 		}
 
-		int position() {
+		long position() {
 			return position;
 		}
 
@@ -74,36 +141,126 @@ public final class RingBuffer implements RingBufferMBean {
 					((bytes[3] & 0xff));
 		}
 
+		static byte[] bytesOf(int value) {
+			return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+		}
+
+		static byte[] bytesOf(long value) {
+			return new byte[]{(byte) (value >>> 56), (byte) (value >>> 48), (byte) (value >>> 40), (byte) (value >>> 32),
+					(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+		}
+
 		static long longValueOf(byte[] bytes) {
-			return ((((long) bytes[0]) << 56) |
-					(((long) bytes[1] & 0xff) << 48) |
-					(((long) bytes[2] & 0xff) << 40) |
-					(((long) bytes[3] & 0xff) << 32) |
-					(((long) bytes[4] & 0xff) << 24) |
-					(((long) bytes[5] & 0xff) << 16) |
-					(((long) bytes[6] & 0xff) << 8) |
-					(((long) bytes[7] & 0xff)));
-		}
-
-		Slice get(byte[] key) {
-			long segment;
+			return longValueOf(bytes, 0);
+		}
+
+		static long longValueOf(byte[] bytes, int offset) {
+			return ((((long) bytes[offset]) << 56) |
+					(((long) bytes[offset + 1] & 0xff) << 48) |
+					(((long) bytes[offset + 2] & 0xff) << 40) |
+					(((long) bytes[offset + 3] & 0xff) << 32) |
+					(((long) bytes[offset + 4] & 0xff) << 24) |
+					(((long) bytes[offset + 5] & 0xff) << 16) |
+					(((long) bytes[offset + 6] & 0xff) << 8) |
+					(((long) bytes[offset + 7] & 0xff)));
+		}
+
+		static void writeLong(byte[] bytes, int offset, long value) {
+			for (int i = 7; i >= 0; i--) {
+				bytes[offset + i] = (byte) value;
+				value >>>= 8;
+			}
+		}
+
+		/**
+		 * Hash of a key for bloom filters, which can also be computed from the keys of int and long indexes
+		 */
+		static int hashOf(byte[] key) {
+			if (key.length == 4) {
+				return intValueOf(key);
+			} else if (key.length == 8) {
+				return Long.hashCode(longValueOf(key));
+			}
+			return Arrays.hashCode(key);
+		}
+
+		/**
+		 * @return segment of the item, or -1 if the item is not present
+		 */
+		long segmentOf(byte[] key) {
 			if (key.length == 4) {
-				segment = indexInt.getOrDefault(intValueOf(key), -1L);
+				return indexInt.getOrDefault(intValueOf(key), -1L);
 			} else if (key.length == 8) {
-				segment = indexLong.getOrDefault(longValueOf(key), -1L);
+				return indexLong.getOrDefault(longValueOf(key), -1L);
 			} else {
-				segment = indexBytes.getOrDefault(key, -1L);
+				return indexBytes.getOrDefault(key, -1L);
 			}
-			if (segment < 0)
-				return null;
-			int offset = (int) (segment);
-			int size = (int) (segment >>> 32);
-			return new Slice(array, offset, size);
+		}
+
+		boolean hasHeader(long segment) {
+			return (segment & (1L << positionBits)) != 0;
+		}
+
+		boolean isExpired(long segment, long now) {
+			if (!hasHeader(segment))
+				return false;
+			long expiresAt = readLong(segment & positionMask);
+			return expiresAt != 0 && expiresAt <= now;
+		}
+
+		long versionOf(long segment) {
+			return hasHeader(segment) ? readLong((segment & positionMask) + 8) : 0;
+		}
+
+		Slice readData(long segment) {
+			long position = segment & positionMask;
+			int length = (int) (segment >>> (positionBits + 1));
+			return hasHeader(segment) ?
+					storage.read(position + HEADER_SIZE, length - HEADER_SIZE) :
+					storage.read(position, length);
+		}
+
+		/**
+		 * Reads the item together with its header, if there is one
+		 */
+		Slice readRaw(long segment) {
+			return storage.read(segment & positionMask, (int) (segment >>> (positionBits + 1)));
+		}
+
+		private long readLong(long position) {
+			Slice slice = storage.read(position, 8);
+			return longValueOf(slice.array(), slice.offset());
 		}
 
 		void put(byte[] key, byte[] data, int offset, int length) {
+			putRaw(key, data, offset, length, false);
+		}
+
+		void put(byte[] key, byte[] data, int offset, int length, long expiresAt, long version) {
+			assert HEADER_SIZE + length <= remaining();
+			byte[] header = new byte[HEADER_SIZE];
+			writeLong(header, 0, expiresAt);
+			writeLong(header, 8, version);
+			storage.write(position, header, 0, HEADER_SIZE);
+			index(key, ((long) (HEADER_SIZE + length) << (positionBits + 1)) | (1L << positionBits) | position);
+			storage.write(position + HEADER_SIZE, data, offset, length);
+			position += HEADER_SIZE + length;
+		}
+
+		/**
+		 * Puts an item read by {@link #readRaw(long)}
+		 */
+		void putRaw(byte[] key, byte[] data, int offset, int length, boolean header) {
 			assert length <= remaining();
-			long segment = ((long) length << 32) | position;
+			index(key, ((long) length << (positionBits + 1)) | (header ? 1L << positionBits : 0) | position);
+			storage.write(position, data, offset, length);
+			position += length;
+		}
+
+		private void index(byte[] key, long segment) {
+			if (bloomFilter != null) {
+				bloomFilter.add(hashOf(key));
+			}
 			if (key.length == 4) {
 				indexInt.put(intValueOf(key), segment);
 			} else if (key.length == 8) {
@@ -111,12 +268,22 @@ public final class RingBuffer implements RingBufferMBean {
 			} else {
 				indexBytes.put(key, segment);
 			}
-			System.arraycopy(data, offset, array, position, length);
-			position += length;
 		}
 
-		int remaining() {
-			return array.length - position;
+		void forEachKey(Consumer<byte[]> consumer) {
+			for (IntLongCursor cursor : indexInt) {
+				consumer.accept(bytesOf(cursor.key));
+			}
+			for (LongLongCursor cursor : indexLong) {
+				consumer.accept(bytesOf(cursor.key));
+			}
+			for (ObjectLongCursor<byte[]> cursor : indexBytes) {
+				consumer.accept(cursor.key);
+			}
+		}
+
+		long remaining() {
+			return storage.capacity() - position;
 		}
 
 		long getTimestamp() {
@@ -126,10 +293,102 @@ public final class RingBuffer implements RingBufferMBean {
 		int items() {
 			return indexInt.size() + indexLong.size() + indexBytes.size();
 		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			out.writeLong(position);
+			out.writeLong(timestamp);
+			out.writeLong(storage.generation());
+			out.writeInt(indexInt.size());
+			for (IntLongCursor cursor : indexInt) {
+				out.writeInt(cursor.key);
+				out.writeLong(cursor.value);
+			}
+			out.writeInt(indexLong.size());
+			for (LongLongCursor cursor : indexLong) {
+				out.writeLong(cursor.key);
+				out.writeLong(cursor.value);
+			}
+			out.writeInt(indexBytes.size());
+			for (ObjectLongCursor<byte[]> cursor : indexBytes) {
+				out.writeInt(cursor.key.length);
+				out.write(cursor.key);
+				out.writeLong(cursor.value);
+			}
+		}
+
+		/**
+		 * Restores the index of the buffer if it has not been overwritten since the snapshot,
+		 * otherwise leaves the buffer empty.
+		 * Items appended after the snapshot do not invalidate it, as they do not touch the indexed data
+		 *
+		 * @return whether the buffer was restored
+		 */
+		boolean readFrom(DataInputStream in) throws IOException {
+			long position = in.readLong();
+			long timestamp = in.readLong();
+			long generation = in.readLong();
+			boolean valid = position <= capacity() && storage.generation() == generation;
+			for (int i = in.readInt(); i > 0; i--) {
+				int key = in.readInt();
+				long segment = in.readLong();
+				if (valid) indexInt.put(key, segment);
+			}
+			for (int i = in.readInt(); i > 0; i--) {
+				long key = in.readLong();
+				long segment = in.readLong();
+				if (valid) indexLong.put(key, segment);
+			}
+			for (int i = in.readInt(); i > 0; i--) {
+				byte[] key = new byte[in.readInt()];
+				in.readFully(key);
+				long segment = in.readLong();
+				if (valid) indexBytes.put(key, segment);
+			}
+			if (valid) {
+				this.position = position;
+				this.timestamp = timestamp;
+			}
+			return valid;
+		}
+	}
+
+	public static final class Item {
+		private final Slice data;
+		private final long version;
+
+		Item(Slice data, long version) {
+			this.data = data;
+			this.version = version;
+		}
+
+		public Slice getData() {
+			return data;
+		}
+
+		public long getVersion() {
+			return version;
+		}
 	}
 
+	private static final int ADMISSION_FREQUENCY = 2;
+	private static final int REINSERTION_FREQUENCY = 4;
+	private static final double REINSERTION_RATIO = 0.5;
+
+	private static final int SNAPSHOT_MAGIC = 0x52425333;
+	private static final String SNAPSHOT_FILE = "snapshot";
+
 	private final Buffer[] ringBuffers;
+	@Nullable
+	private final Path directory;
 	private int currentBuffer = 0;
+	private boolean bloomFilters = false;
+	private CurrentTimeProvider now = CurrentTimeProvider.ofSystem();
+	private long lastVersion = currentTimeMillis() << 16;
+	private long lookupSegment;
+	@Nullable
+	private FrequencySketch frequencySketch;
+	@Nullable
+	private Eventloop eventloop;
 
 	// JMX
 	private static final Duration SMOOTHING_WINDOW = Duration.ofMinutes(1);
@@ -137,17 +396,110 @@ public final class RingBuffer implements RingBufferMBean {
 	private final EventStats statsGets = EventStats.create(SMOOTHING_WINDOW);
 	private final EventStats statsMisses = EventStats.create(SMOOTHING_WINDOW);
 	private int countCycles = 0;
+	private long countGets = 0;
+	private long countProbes = 0;
+	private long countBloomFilterSkips = 0;
+	private long countMisses = 0;
+	private long countRejectedPuts = 0;
+	private long countReinsertedItems = 0;
+	private long countFailedCompareAndPuts = 0;
 
 	public static RingBuffer create(int amountBuffers, long bufferCapacity) {
+		checkArgument(bufferCapacity <= Integer.MAX_VALUE, "Heap buffers cannot exceed 2GB, use off-heap buffers instead");
+		Buffer[] ringBuffers = new Buffer[amountBuffers];
+		for (int i = 0; i < amountBuffers; i++) {
+			ringBuffers[i] = new Buffer(BufferStorage.ofHeap(bufferCapacity));
+		}
+		return new RingBuffer(ringBuffers);
+	}
+
+	/**
+	 * Creates a ring buffer which stores data in direct memory.
+	 * Such buffers are not limited to 2GB and are not scanned or copied by GC,
+	 * but items are copied on each {@link #get(byte[])}
+	 */
+	public static RingBuffer createOffHeap(int amountBuffers, long bufferCapacity) {
 		Buffer[] ringBuffers = new Buffer[amountBuffers];
 		for (int i = 0; i < amountBuffers; i++) {
-			ringBuffers[i] = new Buffer((int) bufferCapacity);
+			ringBuffers[i] = new Buffer(BufferStorage.ofDirect(bufferCapacity));
 		}
 		return new RingBuffer(ringBuffers);
 	}
 
+	/**
+	 * Same as {@link #createOffHeap(int, long)}, but buffers are backed by memory-mapped files
+	 * in the given directory, so that they can be paged out by OS instead of occupying physical memory.
+	 * <p>
+	 * Such ring buffer survives restarts: its indexes are saved by {@link #snapshot()} or {@link #close()},
+	 * and the buffers whose data still match the snapshot are restored here
+	 */
+	public static RingBuffer createMapped(int amountBuffers, long bufferCapacity, Path directory) throws IOException {
+		Files.createDirectories(directory);
+		Buffer[] ringBuffers = new Buffer[amountBuffers];
+		for (int i = 0; i < amountBuffers; i++) {
+			ringBuffers[i] = new Buffer(BufferStorage.ofMapped(directory.resolve("buffer" + i), bufferCapacity));
+		}
+		RingBuffer ringBuffer = new RingBuffer(ringBuffers, directory);
+		ringBuffer.restore(bufferCapacity);
+		return ringBuffer;
+	}
+
 	private RingBuffer(Buffer[] ringBuffers) {
+		this(ringBuffers, null);
+	}
+
+	private RingBuffer(Buffer[] ringBuffers, @Nullable Path directory) {
 		this.ringBuffers = ringBuffers;
+		this.directory = directory;
+	}
+
+	/**
+	 * Adds a bloom filter to each buffer, so that lookups of absent keys skip most of the buffers
+	 * instead of probing the index of each of them.
+	 * Each filter takes about 10 bits per expected item and gives less than 1% of false positives
+	 * while the buffer holds no more than the expected number of items
+	 *
+	 * @param expectedItemsPerBuffer expected number of items in a single buffer
+	 */
+	public RingBuffer withBloomFilters(int expectedItemsPerBuffer) {
+		for (Buffer buffer : ringBuffers) {
+			buffer.enableBloomFilter(expectedItemsPerBuffer);
+		}
+		bloomFilters = true;
+		return this;
+	}
+
+	/**
+	 * Sets the clock which is used to expire items put with a time to live
+	 */
+	public RingBuffer withCurrentTimeProvider(CurrentTimeProvider now) {
+		this.now = now;
+		return this;
+	}
+
+	/**
+	 * Enables TinyLFU admission: frequencies of requested keys are tracked by a count-min sketch.
+	 * <p>
+	 * Once all buffers are in use, a put of a key which was requested less than twice recently
+	 * is rejected, unless an older value of the key is cached, so that one-time keys of scans
+	 * do not push out the working set.
+	 * Before the oldest buffer is recycled, the items of it which were requested at least 4 times recently
+	 * and were not overwritten since then are re-inserted into it, taking up to a half of its capacity
+	 *
+	 * @param expectedItems expected number of items in the whole ring buffer
+	 */
+	public RingBuffer withAdmissionFilter(int expectedItems) {
+		this.frequencySketch = FrequencySketch.create(expectedItems);
+		return this;
+	}
+
+	/**
+	 * Sets the eventloop which owns this ring buffer, so that snapshots requested via JMX
+	 * are taken in its thread instead of racing with puts
+	 */
+	public RingBuffer withEventloop(Eventloop eventloop) {
+		this.eventloop = eventloop;
+		return this;
 	}
 
 	/**
@@ -157,18 +509,65 @@ public final class RingBuffer implements RingBufferMBean {
 	 * @param key of your item
 	 * @return the item in case your item is still present in {@see Buffer}
 	 */
+	@Nullable
 	public Slice get(byte[] key) {
 		statsGets.recordEvent();
+		countGets++;
+		Buffer buffer = lookup(key, true);
+		if (buffer == null) {
+			statsMisses.recordEvent();
+			countMisses++;
+			return null;
+		}
+		return buffer.readData(lookupSegment);
+	}
+
+	/**
+	 * Same as {@link #get(byte[])}, but also returns the version of the item,
+	 * which is {@code 0} for items put without {@link #compareAndPut}
+	 */
+	@Nullable
+	public Item getItem(byte[] key) {
+		statsGets.recordEvent();
+		countGets++;
+		Buffer buffer = lookup(key, true);
+		if (buffer == null) {
+			statsMisses.recordEvent();
+			countMisses++;
+			return null;
+		}
+		return new Item(buffer.readData(lookupSegment), buffer.versionOf(lookupSegment));
+	}
+
+	/**
+	 * Finds the buffer with the latest value of the key, and stores the segment of the value into {@link #lookupSegment}
+	 *
+	 * @return the buffer, or {@code null} if the key is missing or its latest value has expired
+	 */
+	@Nullable
+	private Buffer lookup(byte[] key, boolean recordFrequency) {
+		int hash = bloomFilters || frequencySketch != null ? Buffer.hashOf(key) : 0;
+		if (recordFrequency && frequencySketch != null) {
+			frequencySketch.increment(hash);
+		}
 		for (int i = 0; i < ringBuffers.length; i++) {
 			int current = currentBuffer - i;
 			if (current < 0)
 				current = ringBuffers.length + current;
-			Slice slice = ringBuffers[current].get(key);
-			if (slice != null) {
-				return slice;
+			Buffer buffer = ringBuffers[current];
+			if (!buffer.mightContain(hash)) {
+				countBloomFilterSkips++;
+				continue;
+			}
+			countProbes++;
+			long segment = buffer.segmentOf(key);
+			if (segment >= 0) {
+				if (buffer.hasHeader(segment) && buffer.isExpired(segment, now.currentTimeMillis()))
+					return null;
+				lookupSegment = segment;
+				return buffer;
 			}
 		}
-		statsMisses.recordEvent();
 		return null;
 	}
 
@@ -188,14 +587,215 @@ public final class RingBuffer implements RingBufferMBean {
 	 */
 	public void put(byte[] key, byte[] data, int offset, int length) {
 		statsPuts.recordEvent();
+		checkArgument(length <= ringBuffers[currentBuffer].maxLength, "Item is too big");
+		if (frequencySketch != null && !admit(key)) {
+			countRejectedPuts++;
+			return;
+		}
+		ensureRemaining(length);
+		ringBuffers[currentBuffer].put(key, data, offset, length);
+	}
+
+	/**
+	 * Puts the item with a new version if the current version of the item matches the expected one.
+	 * Missing and expired items, as well as items put without a version, have version {@code 0}.
+	 * The item is stored with a header of {@value Buffer#HEADER_SIZE} bytes and is never rejected by admission filter
+	 *
+	 * @param expectedVersion expected version of the item, or {@link VersionedPutRequest#ANY_VERSION} to put the item unconditionally
+	 * @param ttlMillis       time to live of the item in milliseconds, or {@code 0} if the item should not expire
+	 * @return new version of the item, or {@code 0} if the item was not put
+	 */
+	public long compareAndPut(byte[] key, byte[] data, int offset, int length, long expectedVersion, long ttlMillis) {
+		statsPuts.recordEvent();
+		checkArgument(Buffer.HEADER_SIZE + length <= ringBuffers[currentBuffer].maxLength, "Item is too big");
+		checkArgument(ttlMillis >= 0, "TTL cannot be negative");
+		if (expectedVersion != ANY_VERSION) {
+			Buffer buffer = lookup(key, false);
+			long version = buffer != null ? buffer.versionOf(lookupSegment) : 0;
+			if (version != expectedVersion) {
+				countFailedCompareAndPuts++;
+				return 0;
+			}
+		}
+		ensureRemaining(Buffer.HEADER_SIZE + length);
+		long version = ++lastVersion;
+		ringBuffers[currentBuffer].put(key, data, offset, length, ttlMillis != 0 ? now.currentTimeMillis() + ttlMillis : 0, version);
+		return version;
+	}
+
+	private void ensureRemaining(int length) {
 		if (ringBuffers[currentBuffer].remaining() < length) {
 			if (currentBuffer == ringBuffers.length - 1) {
 				countCycles++;
 			}
 			currentBuffer = (currentBuffer + 1) % ringBuffers.length;
-			ringBuffers[currentBuffer].clear();
+			recycle(ringBuffers[currentBuffer], length);
 		}
-		ringBuffers[currentBuffer].put(key, data, offset, length);
+	}
+
+	private boolean admit(byte[] key) {
+		assert frequencySketch != null;
+		if (ringBuffers[(currentBuffer + 1) % ringBuffers.length].items() == 0)
+			return true;
+		int hash = Buffer.hashOf(key);
+		if (frequencySketch.frequency(hash) >= ADMISSION_FREQUENCY)
+			return true;
+		return findBuffer(key, hash, null) != null;
+	}
+
+	/**
+	 * Clears the oldest buffer, which is going to be reused.
+	 * If admission filter is enabled, hot items of the buffer are re-inserted into it,
+	 * leaving enough space for the item being put
+	 */
+	private void recycle(Buffer buffer, int length) {
+		if (frequencySketch == null || buffer.items() == 0) {
+			buffer.clear();
+			return;
+		}
+		List<byte[]> keys = new ArrayList<>();
+		List<byte[]> items = new ArrayList<>();
+		List<Boolean> headers = new ArrayList<>();
+		long[] budget = {min((long) (buffer.capacity() * REINSERTION_RATIO), buffer.capacity() - length)};
+		long now = this.now.currentTimeMillis();
+		buffer.forEachKey(key -> {
+			int hash = Buffer.hashOf(key);
+			if (frequencySketch.frequency(hash) < REINSERTION_FREQUENCY || findBuffer(key, hash, buffer) != null)
+				return;
+			long segment = buffer.segmentOf(key);
+			if (buffer.isExpired(segment, now))
+				return;
+			Slice slice = buffer.readRaw(segment);
+			if (slice.length() > budget[0])
+				return;
+			budget[0] -= slice.length();
+			keys.add(key);
+			items.add(Arrays.copyOfRange(slice.array(), slice.offset(), slice.offset() + slice.length()));
+			headers.add(buffer.hasHeader(segment));
+		});
+		buffer.clear();
+		for (int i = 0; i < keys.size(); i++) {
+			byte[] item = items.get(i);
+			buffer.putRaw(keys.get(i), item, 0, item.length, headers.get(i));
+		}
+		countReinsertedItems += keys.size();
+	}
+
+	@Nullable
+	private Buffer findBuffer(byte[] key, int hash, @Nullable Buffer excluded) {
+		for (Buffer buffer : ringBuffers) {
+			if (buffer != excluded && buffer.mightContain(hash) && buffer.segmentOf(key) >= 0) {
+				return buffer;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Flushes memory-mapped buffers and saves their indexes, so that they can be restored after restart.
+	 * The snapshot is replaced atomically and is protected by a checksum, and buffers durably change
+	 * their generations before they are overwritten, so neither a torn snapshot nor buffers overwritten
+	 * after it are ever restored. Validation does not read the data of buffers, so restart time
+	 * does not depend on the size of the cache.
+	 * Does nothing for buffers which are not memory-mapped.
+	 * <p>
+	 * Must be called from the thread which owns the ring buffer, see {@link #requestSnapshot()}
+	 */
+	public void snapshot() throws IOException {
+		if (directory == null) return;
+		for (Buffer buffer : ringBuffers) {
+			buffer.storage.force();
+		}
+		Path tempFile = directory.resolve(SNAPSHOT_FILE + ".tmp");
+		try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile.toFile())) {
+			CheckedOutputStream checkedStream = new CheckedOutputStream(fileOutputStream, new CRC32());
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checkedStream));
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(ringBuffers.length);
+			out.writeLong(ringBuffers.length != 0 ? ringBuffers[0].capacity() : 0);
+			out.writeInt(currentBuffer);
+			out.writeInt(countCycles);
+			for (Buffer buffer : ringBuffers) {
+				buffer.writeTo(out);
+			}
+			out.flush();
+			new DataOutputStream(fileOutputStream).writeLong(checkedStream.getChecksum().getValue());
+			fileOutputStream.getFD().sync();
+		}
+		Files.move(tempFile, directory.resolve(SNAPSHOT_FILE), ATOMIC_MOVE, REPLACE_EXISTING);
+	}
+
+	/**
+	 * Takes a {@link #snapshot()} in the thread of the eventloop which owns the ring buffer and waits for it
+	 */
+	@Override
+	public void requestSnapshot() throws IOException, InterruptedException {
+		checkState(eventloop != null, "Ring buffer is not owned by an eventloop");
+		try {
+			eventloop.submit(() -> {
+				try {
+					snapshot();
+				} catch (IOException e) {
+					throw new UncheckedException(e);
+				}
+			}).get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		}
+	}
+
+	/**
+	 * Saves a snapshot of memory-mapped buffers, see {@link #snapshot()},
+	 * and releases off-heap memory and file mappings of the buffers.
+	 * The ring buffer cannot be used after it is closed
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			snapshot();
+		} finally {
+			for (Buffer buffer : ringBuffers) {
+				buffer.storage.close();
+			}
+		}
+	}
+
+	private void restore(long bufferCapacity) throws IOException {
+		assert directory != null;
+		Path file = directory.resolve(SNAPSHOT_FILE);
+		if (!Files.exists(file)) return;
+		byte[] bytes = Files.readAllBytes(file);
+		if (bytes.length < 8) {
+			logger.warn("Ignoring torn snapshot {}", file);
+			return;
+		}
+		CRC32 crc32 = new CRC32();
+		crc32.update(bytes, 0, bytes.length - 8);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		in.skipBytes(bytes.length - 8);
+		if (crc32.getValue() != in.readLong()) {
+			logger.warn("Ignoring torn snapshot {}", file);
+			return;
+		}
+		in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+		if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != ringBuffers.length || in.readLong() != bufferCapacity) {
+			logger.warn("Ignoring snapshot {} of ring buffer with different layout", file);
+			return;
+		}
+		int currentBuffer = in.readInt();
+		int countCycles = in.readInt();
+		int restored = 0;
+		for (Buffer buffer : ringBuffers) {
+			if (buffer.readFrom(in)) {
+				restored++;
+			} else {
+				buffer.clear();
+			}
+		}
+		this.currentBuffer = currentBuffer;
+		this.countCycles = countCycles;
+		logger.info("Restored {} of {} buffers from snapshot {}", restored, ringBuffers.length, file);
 	}
 
 	private long getLifetimeMillis() {
@@ -206,9 +806,51 @@ public final class RingBuffer implements RingBufferMBean {
 	@Override
 	public void reset() {
 		countCycles = 0;
+		countGets = 0;
+		countProbes = 0;
+		countBloomFilterSkips = 0;
+		countMisses = 0;
+		countRejectedPuts = 0;
+		countReinsertedItems = 0;
+		countFailedCompareAndPuts = 0;
 		statsMisses.resetStats();
 	}
 
+	@Override
+	public double getHitRatio() {
+		return countGets != 0 ? 1.0 - (double) countMisses / countGets : 0.0;
+	}
+
+	@Override
+	public long getRejectedPutsTotal() {
+		return countRejectedPuts;
+	}
+
+	@Override
+	public long getReinsertedItemsTotal() {
+		return countReinsertedItems;
+	}
+
+	@Override
+	public long getFailedCompareAndPutsTotal() {
+		return countFailedCompareAndPuts;
+	}
+
+	@Override
+	public long getProbesTotal() {
+		return countProbes;
+	}
+
+	@Override
+	public double getProbesPerGet() {
+		return countGets != 0 ? (double) countProbes / countGets : 0.0;
+	}
+
+	@Override
+	public long getBloomFilterSkipsTotal() {
+		return countBloomFilterSkips;
+	}
+
 	@Override
 	public String getStatsPuts() {
 		return statsPuts.toString();
@@ -1,8 +1,12 @@
 package io.datakernel.memcache.server;
 
+import java.io.IOException;
+
 public interface RingBufferMBean {
 	void reset();
 
+	void requestSnapshot() throws IOException, InterruptedException;
+
 	String getStatsPuts();
 
 	double getStatsPutsRate();
@@ -21,6 +25,20 @@ public interface RingBufferMBean {
 
 	long getStatsMissesTotal();
 
+	long getProbesTotal();
+
+	double getProbesPerGet();
+
+	long getBloomFilterSkipsTotal();
+
+	double getHitRatio();
+
+	long getRejectedPutsTotal();
+
+	long getReinsertedItemsTotal();
+
+	long getFailedCompareAndPutsTotal();
+
 	int getItems();
 
 	long getSize();
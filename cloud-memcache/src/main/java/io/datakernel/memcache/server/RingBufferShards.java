@@ -0,0 +1,171 @@
+package io.datakernel.memcache.server;
+
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.memcache.protocol.MemcacheRpcMessage.Slice;
+import io.datakernel.memcache.server.RingBuffer.Item;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.promise.SettablePromise;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.common.sharding.JumpConsistentHash.shard;
+import static io.datakernel.eventloop.Eventloop.getCurrentEventloop;
+
+/**
+ * Partitions the key space of a memcache server between several {@link RingBuffer RingBuffers},
+ * each of them owned by its own worker {@link Eventloop}.
+ * <p>
+ * A ring buffer is only ever accessed from the thread of its eventloop, so no locks are needed.
+ * Requests for keys owned by another shard are forwarded to its eventloop as tasks,
+ * and the results are passed back to the eventloop of a caller the same way.
+ * <p>
+ * Puts to other shards are acknowledged only after the owning shard has applied them,
+ * so a get which follows the acknowledgement observes the put, whichever worker serves it.
+ */
+public final class RingBufferShards {
+	private final Eventloop[] eventloops;
+	private final RingBuffer[] ringBuffers;
+
+	private RingBufferShards(Eventloop[] eventloops, RingBuffer[] ringBuffers) {
+		this.eventloops = eventloops;
+		this.ringBuffers = ringBuffers;
+	}
+
+	public static RingBufferShards create(List<Eventloop> eventloops, List<RingBuffer> ringBuffers) {
+		checkArgument(!eventloops.isEmpty(), "At least one shard is required");
+		checkArgument(eventloops.size() == ringBuffers.size(), "Each shard should have its own eventloop");
+		return new RingBufferShards(eventloops.toArray(new Eventloop[0]), ringBuffers.toArray(new RingBuffer[0]));
+	}
+
+	public int shardOf(byte[] key) {
+		return shard(Arrays.hashCode(key), ringBuffers.length);
+	}
+
+	/**
+	 * Looks up the item in the shard which owns the {@param key}.
+	 * Must be called from the eventloop of one of the shards.
+	 *
+	 * @return a view of the item when it is owned by the current shard,
+	 * a copy of the item when it is owned by another shard,
+	 * or {@code null} if the item is not present
+	 */
+	public Promise<Slice> get(byte[] key) {
+		return call(key, ringBuffer -> ringBuffer.get(key), RingBufferShards::copyOf);
+	}
+
+	/**
+	 * Looks up several items, which may be owned by different shards.
+	 * Unlike {@link #get(byte[])}, items owned by the current shard are copied too,
+	 * as puts may overwrite them in the ring buffer while items of other shards are still being looked up.
+	 * Must be called from the eventloop of one of the shards.
+	 *
+	 * @return copies of the items in the order of the {@param keys}, with {@code null} for the items which are not present
+	 */
+	public Promise<List<Slice>> getAll(List<byte[]> keys) {
+		return Promises.toList(keys.stream()
+				.map(key -> call(key, ringBuffer -> copyOf(ringBuffer.get(key)), Function.identity())));
+	}
+
+	/**
+	 * Same as {@link #get(byte[])}, but also returns the version of the item
+	 */
+	public Promise<Item> getItem(byte[] key) {
+		return call(key, ringBuffer -> ringBuffer.getItem(key),
+				item -> item != null ? new Item(copyOf(item.getData()), item.getVersion()) : null);
+	}
+
+	/**
+	 * Calls {@link RingBuffer#compareAndPut} in the shard which owns the {@param key}
+	 * and returns the new version of the item
+	 */
+	public Promise<Long> compareAndPut(byte[] key, byte[] data, int offset, int length, long expectedVersion, long ttlMillis) {
+		int shard = shardOf(key);
+		if (eventloops[shard] == getCurrentEventloop()) {
+			return apply(ringBuffers[shard], ringBuffer -> ringBuffer.compareAndPut(key, data, offset, length, expectedVersion, ttlMillis));
+		}
+		byte[] copy = Arrays.copyOfRange(data, offset, offset + length);
+		return call(key, ringBuffer -> ringBuffer.compareAndPut(key, copy, 0, copy.length, expectedVersion, ttlMillis), Function.identity());
+	}
+
+	/**
+	 * Applies the operation to the ring buffer of the shard which owns the {@param key}.
+	 * If the shard belongs to another eventloop, its result is detached from the ring buffer
+	 * before it is passed back to the eventloop of a caller.
+	 * Exceptions thrown by the operation complete the returned promise exceptionally
+	 */
+	private <T> Promise<T> call(byte[] key, Function<RingBuffer, T> operation, Function<T, T> detach) {
+		int shard = shardOf(key);
+		Eventloop eventloop = getCurrentEventloop();
+		if (eventloops[shard] == eventloop) {
+			return apply(ringBuffers[shard], operation);
+		}
+		SettablePromise<T> result = new SettablePromise<>();
+		eventloop.startExternalTask();
+		eventloops[shard].execute(() -> {
+			T value;
+			try {
+				value = detach.apply(operation.apply(ringBuffers[shard]));
+			} catch (Exception e) {
+				eventloop.execute(() -> {
+					eventloop.completeExternalTask();
+					result.setException(e);
+				});
+				return;
+			}
+			eventloop.execute(() -> {
+				eventloop.completeExternalTask();
+				result.set(value);
+			});
+		});
+		return result;
+	}
+
+	private static <T> Promise<T> apply(RingBuffer ringBuffer, Function<RingBuffer, T> operation) {
+		try {
+			return Promise.of(operation.apply(ringBuffer));
+		} catch (Exception e) {
+			return Promise.ofException(e);
+		}
+	}
+
+	/**
+	 * Stores the item in the shard which owns the {@param key}.
+	 * Must be called from the eventloop of one of the shards.
+	 * Data is copied before it is passed to another shard, so the caller may reuse it.
+	 *
+	 * @return promise which completes once the item is put by the owning shard
+	 */
+	public Promise<Void> put(byte[] key, byte[] data, int offset, int length) {
+		int shard = shardOf(key);
+		if (eventloops[shard] == getCurrentEventloop()) {
+			return apply(ringBuffers[shard], ringBuffer -> {
+				ringBuffer.put(key, data, offset, length);
+				return null;
+			});
+		}
+		byte[] copy = Arrays.copyOfRange(data, offset, offset + length);
+		return call(key, ringBuffer -> {
+			ringBuffer.put(key, copy, 0, copy.length);
+			return null;
+		}, Function.identity());
+	}
+
+	public int getShards() {
+		return ringBuffers.length;
+	}
+
+	public RingBuffer getRingBuffer(int shard) {
+		return ringBuffers[shard];
+	}
+
+	@Nullable
+	private static Slice copyOf(@Nullable Slice slice) {
+		if (slice == null) return null;
+		return new Slice(Arrays.copyOfRange(slice.array(), slice.offset(), slice.offset() + slice.length()));
+	}
+}
@@ -0,0 +1,152 @@
+package io.datakernel.memcache.client;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.common.time.SettableCurrentTimeProvider;
+import io.datakernel.memcache.protocol.MemcacheRpcMessage.*;
+import io.datakernel.memcache.server.RingBuffer;
+import io.datakernel.memcache.server.RingBuffer.Item;
+import io.datakernel.rpc.client.IRpcClient;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.*;
+
+import static io.datakernel.promise.TestUtils.await;
+import static org.junit.Assert.*;
+
+public final class RawMemcacheClientTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	private static final int SERVERS = 3;
+
+	private final List<Map<Integer, Slice>> storages = new ArrayList<>();
+	private final List<Object> requests = new ArrayList<>();
+	private final SettableCurrentTimeProvider now = SettableCurrentTimeProvider.create().withTime(1000);
+	private final RingBuffer ringBuffer = RingBuffer.createOffHeap(2, 1000).withCurrentTimeProvider(now);
+
+	private final IRpcClient rpcClient = new IRpcClient() {
+		@SuppressWarnings("unchecked")
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, Callback<O> cb) {
+			requests.add(request);
+			if (request instanceof MultiGetRequest) {
+				List<byte[]> keys = ((MultiGetRequest) request).getKeys();
+				Map<Integer, Slice> storage = storageOf(keys.get(0));
+				List<Slice> data = new ArrayList<>();
+				for (byte[] key : keys) {
+					assertSame(storage, storageOf(key));
+					data.add(storage.get(Arrays.hashCode(key)));
+				}
+				cb.accept((O) new MultiGetResponse(data), null);
+			} else if (request instanceof MultiPutRequest) {
+				MultiPutRequest putRequest = (MultiPutRequest) request;
+				Map<Integer, Slice> storage = storageOf(putRequest.getKeys().get(0));
+				for (int i = 0; i < putRequest.getKeys().size(); i++) {
+					byte[] key = putRequest.getKeys().get(i);
+					assertSame(storage, storageOf(key));
+					storage.put(Arrays.hashCode(key), putRequest.getData().get(i));
+				}
+				cb.accept((O) PutResponse.INSTANCE, null);
+			} else if (request instanceof VersionedGetRequest) {
+				Item item = ringBuffer.getItem(((VersionedGetRequest) request).getKey());
+				cb.accept((O) (item != null ?
+						new VersionedGetResponse(item.getData(), item.getVersion()) :
+						new VersionedGetResponse(null, 0)), null);
+			} else if (request instanceof VersionedPutRequest) {
+				VersionedPutRequest putRequest = (VersionedPutRequest) request;
+				Slice data = putRequest.getData();
+				cb.accept((O) new VersionedPutResponse(ringBuffer.compareAndPut(putRequest.getKey(),
+						data.array(), data.offset(), data.length(), putRequest.getExpectedVersion(), putRequest.getTtlMillis())), null);
+			} else {
+				cb.accept(null, new IllegalArgumentException("Unexpected request " + request));
+			}
+		}
+
+		@Override
+		public Object getDestination(Object request) {
+			byte[] key = request instanceof GetRequest ? ((GetRequest) request).getKey() : ((PutRequest) request).getKey();
+			return key[0] % SERVERS;
+		}
+	};
+
+	{
+		for (int i = 0; i < SERVERS; i++) {
+			storages.add(new HashMap<>());
+		}
+	}
+
+	@Test
+	public void testBatchesAreGroupedByServers() {
+		RawMemcacheClient client = RawMemcacheClient.create(rpcClient);
+
+		Map<byte[], Slice> items = new LinkedHashMap<>();
+		List<byte[]> keys = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			byte[] key = {(byte) i};
+			keys.add(key);
+			if (i % 5 != 0) {
+				items.put(key, new Slice(new byte[]{(byte) i, (byte) i}));
+			}
+		}
+
+		await(client.putAll(items));
+		assertEquals(SERVERS, requests.size());
+		for (Map<Integer, Slice> storage : storages) {
+			assertFalse(storage.isEmpty());
+		}
+
+		requests.clear();
+		Map<byte[], Slice> result = await(client.getAll(keys));
+		assertEquals(SERVERS, requests.size());
+		assertEquals(items.size(), result.size());
+		for (byte[] key : keys) {
+			Slice slice = result.get(key);
+			if (key[0] % 5 == 0) {
+				assertNull(slice);
+			} else {
+				assertArrayEquals(new byte[]{key[0], key[0]}, slice.array());
+			}
+		}
+	}
+
+	@Test
+	public void testEmptyBatch() {
+		RawMemcacheClient client = RawMemcacheClient.create(rpcClient);
+		assertTrue(await(client.getAll(Collections.emptyList())).isEmpty());
+		await(client.putAll(Collections.emptyMap()));
+		assertTrue(requests.isEmpty());
+	}
+
+	@Test
+	public void testCompareAndPut() {
+		RawMemcacheClient client = RawMemcacheClient.create(rpcClient);
+		byte[] key = {1};
+
+		assertNull(await(client.getVersioned(key)));
+		assertTrue(await(client.compareAndPut(key, new Slice(new byte[]{1}), 0, null)));
+		VersionedValue<Slice> value = await(client.getVersioned(key));
+		assertArrayEquals(new byte[]{1}, value.getValue().array());
+
+		assertTrue(await(client.compareAndPut(key, new Slice(new byte[]{2}), value.getVersion(), null)));
+		assertFalse(await(client.compareAndPut(key, new Slice(new byte[]{3}), value.getVersion(), null)));
+		assertArrayEquals(new byte[]{2}, await(client.getVersioned(key)).getValue().array());
+	}
+
+	@Test
+	public void testTtl() {
+		RawMemcacheClient client = RawMemcacheClient.create(rpcClient);
+		byte[] key = {1};
+
+		await(client.put(key, new Slice(new byte[]{1}), Duration.ofSeconds(1)));
+		assertNotNull(await(client.getVersioned(key)));
+		now.setTime(2000);
+		assertNull(await(client.getVersioned(key)));
+	}
+
+	private Map<Integer, Slice> storageOf(byte[] key) {
+		return storages.get(key[0] % SERVERS);
+	}
+}
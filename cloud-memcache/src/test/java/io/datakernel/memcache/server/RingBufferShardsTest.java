@@ -0,0 +1,182 @@
+package io.datakernel.memcache.server;
+
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.memcache.protocol.MemcacheRpcMessage.Slice;
+import io.datakernel.promise.Promise;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.IntStream;
+
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public final class RingBufferShardsTest {
+	private static final int ITEMS = 100;
+
+	private final List<Eventloop> eventloops = new ArrayList<>();
+	private final List<Thread> threads = new ArrayList<>();
+	private RingBufferShards shards;
+
+	@Before
+	public void setUp() {
+		List<RingBuffer> ringBuffers = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			Eventloop eventloop = Eventloop.create();
+			eventloop.keepAlive(true);
+			Thread thread = new Thread(eventloop);
+			thread.start();
+			eventloops.add(eventloop);
+			threads.add(thread);
+			ringBuffers.add(RingBuffer.create(2, 1024 * 1024));
+		}
+		shards = RingBufferShards.create(eventloops, ringBuffers);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		for (Eventloop eventloop : eventloops) {
+			eventloop.keepAlive(false);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	@Test
+	public void testKeysAreSpreadBetweenShards() {
+		int[] counts = new int[shards.getShards()];
+		for (int i = 0; i < ITEMS; i++) {
+			counts[shards.shardOf(keyOf(i))]++;
+		}
+		assertTrue(counts[0] > 0);
+		assertTrue(counts[1] > 0);
+	}
+
+	@Test
+	public void testForwardedPutsAndGets() throws Exception {
+		eventloops.get(0).submit(() -> {
+			for (int i = 0; i < ITEMS; i++) {
+				byte[] data = valueOf(i);
+				shards.put(keyOf(i), data, 0, data.length);
+				Arrays.fill(data, (byte) 0); // forwarded data must have been copied
+			}
+		}).get();
+
+		int local = 0;
+		int remote = 0;
+		for (int i = 0; i < ITEMS; i++) {
+			byte[] key = keyOf(i);
+			int shard = shards.shardOf(key);
+			Slice slice = eventloops.get(1).submit(() -> shards.get(key)).get();
+			assertNotNull(slice);
+			assertArrayEquals(valueOf(i), Arrays.copyOfRange(slice.array(), slice.offset(), slice.offset() + slice.length()));
+			if (shard == 1) {
+				local++;
+			} else {
+				remote++;
+				assertEquals(slice.length(), slice.array().length);
+			}
+		}
+		assertEquals(ITEMS, local + remote);
+		assertEquals(ITEMS, shards.getRingBuffer(0).getItems() + shards.getRingBuffer(1).getItems());
+
+		assertNull(eventloops.get(1).submit(() -> shards.get(keyOf(ITEMS))).get());
+		assertNull(eventloops.get(0).submit(() -> shards.get(keyOf(ITEMS + 1))).get());
+	}
+
+	@Test
+	public void testPutIsAcknowledgedAfterItIsApplied() throws Exception {
+		byte[] key = IntStream.range(0, ITEMS).mapToObj(RingBufferShardsTest::keyOf)
+				.filter(k -> shards.shardOf(k) == 1)
+				.findFirst()
+				.orElseThrow(AssertionError::new);
+		byte[] data = valueOf(1);
+
+		// the ring buffer of the owning shard is read right after the acknowledgement
+		Slice slice = eventloops.get(0).submit(() -> shards.put(key, data, 0, data.length)
+				.map($ -> shards.getRingBuffer(1).get(key)))
+				.get();
+		assertNotNull(slice);
+		assertArrayEquals(data, Arrays.copyOfRange(slice.array(), slice.offset(), slice.offset() + slice.length()));
+	}
+
+	@Test
+	public void testFailedOperationsCompleteExceptionally() throws Exception {
+		byte[] data = new byte[2 * 1024 * 1024];
+		for (int shard = 0; shard < shards.getShards(); shard++) {
+			int owner = shard;
+			byte[] key = IntStream.range(0, ITEMS).mapToObj(RingBufferShardsTest::keyOf)
+					.filter(k -> shards.shardOf(k) == owner)
+					.findFirst()
+					.orElseThrow(AssertionError::new);
+			try {
+				eventloops.get(0).submit(() -> shards.put(key, data, 0, data.length)).get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+		}
+	}
+
+	@Test
+	public void testMultiGetCopiesLocalItems() throws Exception {
+		// the local shard has small buffers, so that a few puts overwrite them
+		RingBufferShards shards = RingBufferShards.create(eventloops,
+				Arrays.asList(RingBuffer.create(2, 256), RingBuffer.create(2, 1024 * 1024)));
+		List<byte[]> localKeys = IntStream.range(0, ITEMS).mapToObj(RingBufferShardsTest::keyOf)
+				.filter(k -> shards.shardOf(k) == 0)
+				.collect(toList());
+		byte[] localKey = localKeys.get(0);
+		byte[] remoteKey = IntStream.range(0, ITEMS).mapToObj(RingBufferShardsTest::keyOf)
+				.filter(k -> shards.shardOf(k) == 1)
+				.findFirst()
+				.orElseThrow(AssertionError::new);
+		byte[] localValue = valueOf(0);
+		byte[] remoteValue = valueOf(1);
+		eventloops.get(0).submit(() -> shards.put(localKey, localValue, 0, localValue.length)
+				.then($ -> shards.put(remoteKey, remoteValue, 0, remoteValue.length)))
+				.get();
+
+		List<Slice> slices = eventloops.get(0).submit(() -> {
+			Promise<List<Slice>> multiGet = shards.getAll(Arrays.asList(localKey, remoteKey));
+			// the result of the remote get can only be passed back by a later task,
+			// so these puts reuse the buffers of the local shard while it is still pending
+			byte[] filler = new byte[64];
+			Arrays.fill(filler, (byte) -1);
+			for (byte[] key : localKeys.subList(1, localKeys.size())) {
+				shards.put(key, filler, 0, filler.length);
+			}
+			return multiGet;
+		}).get();
+
+		assertEquals(2, slices.size());
+		assertArrayEquals(localValue, Arrays.copyOfRange(slices.get(0).array(), slices.get(0).offset(), slices.get(0).offset() + slices.get(0).length()));
+		assertArrayEquals(remoteValue, Arrays.copyOfRange(slices.get(1).array(), slices.get(1).offset(), slices.get(1).offset() + slices.get(1).length()));
+	}
+
+	@Test
+	public void testSingleShard() throws Exception {
+		RingBufferShards single = RingBufferShards.create(singletonList(eventloops.get(0)), singletonList(RingBuffer.create(1, 1024)));
+		byte[] data = valueOf(42);
+		Slice slice = eventloops.get(0).submit(() -> {
+			single.put(keyOf(42), data, 0, data.length);
+			return single.get(keyOf(42));
+		}).get();
+		assertArrayEquals(data, Arrays.copyOfRange(slice.array(), slice.offset(), slice.offset() + slice.length()));
+	}
+
+	private static byte[] keyOf(int i) {
+		return ("key" + i).getBytes();
+	}
+
+	private static byte[] valueOf(int i) {
+		return ("value" + i).getBytes();
+	}
+}
@@ -1,14 +1,26 @@
 package io.datakernel.memcache.server;
 
+import io.datakernel.common.time.SettableCurrentTimeProvider;
+import io.datakernel.eventloop.Eventloop;
 import io.datakernel.memcache.protocol.MemcacheRpcMessage.Slice;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.fail;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static io.datakernel.memcache.protocol.MemcacheRpcMessage.VersionedPutRequest.ANY_VERSION;
+import static org.junit.Assert.*;
 
 public class RingBufferTest {
 	private final byte[] BASE_KEY = new byte[]{0};
 
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 	@Test
 	public void testGetItem() {
 		int amountBuffers = 10;
@@ -129,6 +141,284 @@ public class RingBufferTest {
 		assertEquals(expectedNumberCycles, buffer.getFullCycles());
 	}
 
+	@Test
+	public void testOffHeap() {
+		RingBuffer ringBuffer = RingBuffer.createOffHeap(2, 100);
+		assertPutAndGet(ringBuffer);
+	}
+
+	@Test
+	public void testMapped() throws IOException {
+		RingBuffer ringBuffer = RingBuffer.createMapped(2, 100, temporaryFolder.newFolder().toPath());
+		assertPutAndGet(ringBuffer);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testMappedIsReleasedOnClose() throws IOException {
+		RingBuffer ringBuffer = RingBuffer.createMapped(2, 100, temporaryFolder.newFolder().toPath());
+		ringBuffer.put(new byte[]{1}, new byte[]{1});
+		ringBuffer.close();
+		ringBuffer.get(new byte[]{1});
+	}
+
+	@Test
+	public void testRestoreFromSnapshot() throws IOException {
+		Path directory = temporaryFolder.newFolder().toPath();
+		RingBuffer ringBuffer = RingBuffer.createMapped(2, 100, directory);
+		assertPutAndGet(ringBuffer);
+		ringBuffer.put(new byte[]{1, 2, 3, 4}, new byte[]{4});
+		ringBuffer.put(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, new byte[]{8});
+		ringBuffer.close();
+
+		RingBuffer restored = RingBuffer.createMapped(2, 100, directory);
+		assertEquals(ringBuffer.getItems(), restored.getItems());
+		assertEquals(ringBuffer.getSize(), restored.getSize());
+		assertEquals(1, restored.getFullCycles());
+		assertArrayEquals(new byte[]{4}, restored.get(new byte[]{1, 2, 3, 4}).array());
+		assertArrayEquals(new byte[]{8}, restored.get(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}).array());
+		for (int i = 6; i < 10; i++) {
+			assertNotNull(restored.get(new byte[]{(byte) i}));
+		}
+	}
+
+	@Test
+	public void testBuffersModifiedAfterSnapshotAreNotRestored() throws IOException {
+		Path directory = temporaryFolder.newFolder().toPath();
+		RingBuffer ringBuffer = RingBuffer.createMapped(2, 100, directory);
+		ringBuffer.put(new byte[]{1}, new byte[60]);
+		ringBuffer.put(new byte[]{2}, new byte[60]);
+		ringBuffer.snapshot();
+		// overwrites the first buffer, as if the process crashed after that
+		byte[] item = new byte[60];
+		Arrays.fill(item, (byte) 1);
+		ringBuffer.put(new byte[]{3}, item);
+
+		RingBuffer restored = RingBuffer.createMapped(2, 100, directory);
+		assertNull(restored.get(new byte[]{1}));
+		assertNotNull(restored.get(new byte[]{2}));
+		assertNull(restored.get(new byte[]{3}));
+	}
+
+	@Test
+	public void testSnapshotIsRequestedInEventloopThread() throws Exception {
+		Path directory = temporaryFolder.newFolder().toPath();
+		Eventloop eventloop = Eventloop.create();
+		eventloop.keepAlive(true);
+		Thread thread = new Thread(eventloop);
+		thread.start();
+		try {
+			RingBuffer ringBuffer = RingBuffer.createMapped(2, 100, directory)
+					.withEventloop(eventloop);
+			eventloop.submit(() -> ringBuffer.put(new byte[]{1}, new byte[]{1})).get();
+			ringBuffer.requestSnapshot();
+		} finally {
+			eventloop.keepAlive(false);
+			thread.join();
+		}
+
+		RingBuffer restored = RingBuffer.createMapped(2, 100, directory);
+		assertArrayEquals(new byte[]{1}, restored.get(new byte[]{1}).array());
+	}
+
+	@Test
+	public void testRecreatedBuffersAreNotRestored() throws IOException {
+		Path directory = temporaryFolder.newFolder().toPath();
+		RingBuffer ringBuffer = RingBuffer.createMapped(2, 100, directory);
+		ringBuffer.put(new byte[]{1}, new byte[]{1});
+		ringBuffer.close();
+		Files.delete(directory.resolve("buffer0"));
+		Files.delete(directory.resolve("buffer1"));
+
+		RingBuffer restored = RingBuffer.createMapped(2, 100, directory);
+		assertEquals(0, restored.getItems());
+		assertNull(restored.get(new byte[]{1}));
+	}
+
+	@Test
+	public void testTornSnapshotIsIgnored() throws IOException {
+		Path directory = temporaryFolder.newFolder().toPath();
+		RingBuffer ringBuffer = RingBuffer.createMapped(2, 100, directory);
+		ringBuffer.put(new byte[]{1}, new byte[]{1});
+		ringBuffer.close();
+
+		Path snapshot = directory.resolve("snapshot");
+		byte[] bytes = Files.readAllBytes(snapshot);
+		Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 1));
+
+		RingBuffer restored = RingBuffer.createMapped(2, 100, directory);
+		assertEquals(0, restored.getItems());
+		restored.put(new byte[]{1}, new byte[]{2});
+		assertArrayEquals(new byte[]{2}, restored.get(new byte[]{1}).array());
+	}
+
+	@Test
+	public void testItemsSpanningChunks() {
+		BufferStorage storage = BufferStorage.ofDirect(100, 16);
+		byte[] data = new byte[40];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		storage.write(10, data, 0, data.length);
+		storage.write(60, data, 5, 30);
+
+		Slice slice = storage.read(10, data.length);
+		assertArrayEquals(data, slice.array());
+		assertArrayEquals(Arrays.copyOfRange(data, 5, 35), storage.read(60, 30).array());
+	}
+
+	@Test
+	public void testBloomFilters() {
+		RingBuffer ringBuffer = RingBuffer.createOffHeap(2, 100).withBloomFilters(10);
+		assertPutAndGet(ringBuffer);
+		ringBuffer.put(new byte[]{1, 2, 3, 4}, new byte[]{4});
+		ringBuffer.put(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, new byte[]{8});
+		assertArrayEquals(new byte[]{4}, ringBuffer.get(new byte[]{1, 2, 3, 4}).array());
+		assertArrayEquals(new byte[]{8}, ringBuffer.get(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}).array());
+
+		ringBuffer.reset();
+		for (int i = 100; i < 200; i++) {
+			assertNull(ringBuffer.get(new byte[]{(byte) i, 0}));
+		}
+		assertTrue(ringBuffer.getProbesPerGet() < 0.1);
+		assertEquals(200 - ringBuffer.getProbesTotal(), ringBuffer.getBloomFilterSkipsTotal());
+	}
+
+	@Test
+	public void testBloomFiltersAreFilledFromSnapshot() throws IOException {
+		Path directory = temporaryFolder.newFolder().toPath();
+		RingBuffer ringBuffer = RingBuffer.createMapped(2, 100, directory);
+		assertPutAndGet(ringBuffer);
+		ringBuffer.close();
+
+		RingBuffer restored = RingBuffer.createMapped(2, 100, directory).withBloomFilters(10);
+		for (int i = 6; i < 10; i++) {
+			assertNotNull(restored.get(new byte[]{(byte) i}));
+		}
+		assertEquals(4, restored.getProbesTotal());
+		assertEquals(3, restored.getBloomFilterSkipsTotal());
+	}
+
+	@Test
+	public void testAdmissionFilterRejectsRarelyRequestedKeys() {
+		RingBuffer ringBuffer = RingBuffer.createOffHeap(2, 100).withAdmissionFilter(100);
+		for (int i = 0; i < 15; i++) {
+			ringBuffer.put(new byte[]{(byte) i}, new byte[10]);
+		}
+		assertEquals(11, ringBuffer.getItems());
+		assertEquals(4, ringBuffer.getRejectedPutsTotal());
+		assertNull(ringBuffer.get(new byte[]{11}));
+
+		assertNull(ringBuffer.get(new byte[]{20}));
+		assertNull(ringBuffer.get(new byte[]{20}));
+		ringBuffer.put(new byte[]{20}, new byte[]{20});
+		assertArrayEquals(new byte[]{20}, ringBuffer.get(new byte[]{20}).array());
+
+		ringBuffer.put(new byte[]{3}, new byte[]{3});
+		assertArrayEquals(new byte[]{3}, ringBuffer.get(new byte[]{3}).array());
+		assertEquals(4, ringBuffer.getRejectedPutsTotal());
+	}
+
+	@Test
+	public void testHotItemsAreReinserted() {
+		RingBuffer ringBuffer = RingBuffer.createOffHeap(2, 100).withAdmissionFilter(100);
+		for (int i = 0; i < 10; i++) {
+			ringBuffer.put(new byte[]{(byte) i}, new byte[]{(byte) i});
+		}
+		for (int i = 0; i < 4; i++) {
+			assertNotNull(ringBuffer.get(new byte[]{0}));
+		}
+		ringBuffer.put(new byte[]{100}, new byte[95]);
+		for (int i = 10; i < 12; i++) {
+			assertNull(ringBuffer.get(new byte[]{(byte) i}));
+			assertNull(ringBuffer.get(new byte[]{(byte) i}));
+			ringBuffer.put(new byte[]{(byte) i}, new byte[10]);
+		}
+		assertEquals(0, ringBuffer.getRejectedPutsTotal());
+		assertEquals(1, ringBuffer.getReinsertedItemsTotal());
+
+		ringBuffer.reset();
+		assertArrayEquals(new byte[]{0}, ringBuffer.get(new byte[]{0}).array());
+		assertNull(ringBuffer.get(new byte[]{1}));
+		assertEquals(0.5, ringBuffer.getHitRatio(), 0.0);
+	}
+
+	@Test
+	public void testExpiredItemsAreMissing() {
+		SettableCurrentTimeProvider now = SettableCurrentTimeProvider.create().withTime(1000);
+		RingBuffer ringBuffer = RingBuffer.createOffHeap(2, 100).withCurrentTimeProvider(now);
+		ringBuffer.put(new byte[]{1}, new byte[]{1});
+		ringBuffer.compareAndPut(new byte[]{1}, new byte[]{2}, 0, 1, ANY_VERSION, 100);
+		ringBuffer.compareAndPut(new byte[]{2}, new byte[]{2}, 0, 1, ANY_VERSION, 0);
+		assertArrayEquals(new byte[]{2}, ringBuffer.get(new byte[]{1}).array());
+
+		now.setTime(1100);
+		assertNull(ringBuffer.get(new byte[]{1}));
+		assertNull(ringBuffer.getItem(new byte[]{1}));
+		assertArrayEquals(new byte[]{2}, ringBuffer.get(new byte[]{2}).array());
+	}
+
+	@Test
+	public void testCompareAndPut() {
+		RingBuffer ringBuffer = RingBuffer.createOffHeap(2, 100);
+		byte[] key = {1};
+		long version = ringBuffer.compareAndPut(key, new byte[]{1}, 0, 1, 0, 0);
+		assertTrue(version > 0);
+		assertEquals(0, ringBuffer.compareAndPut(key, new byte[]{2}, 0, 1, 0, 0));
+		assertEquals(0, ringBuffer.compareAndPut(key, new byte[]{2}, 0, 1, version + 1, 0));
+		assertEquals(2, ringBuffer.getFailedCompareAndPutsTotal());
+
+		RingBuffer.Item item = ringBuffer.getItem(key);
+		assertArrayEquals(new byte[]{1}, item.getData().array());
+		assertEquals(version, item.getVersion());
+
+		long newVersion = ringBuffer.compareAndPut(key, new byte[]{2}, 0, 1, version, 0);
+		assertTrue(newVersion > version);
+		assertEquals(newVersion, ringBuffer.getItem(key).getVersion());
+
+		ringBuffer.put(key, new byte[]{3});
+		assertEquals(0, ringBuffer.getItem(key).getVersion());
+		assertTrue(ringBuffer.compareAndPut(key, new byte[]{4}, 0, 1, 0, 0) > 0);
+		assertArrayEquals(new byte[]{4}, ringBuffer.get(key).array());
+	}
+
+	@Test
+	public void testVersionsAndTtlsAreRestoredFromSnapshot() throws IOException {
+		SettableCurrentTimeProvider now = SettableCurrentTimeProvider.create().withTime(1000);
+		Path directory = temporaryFolder.newFolder().toPath();
+		RingBuffer ringBuffer = RingBuffer.createMapped(2, 100, directory).withCurrentTimeProvider(now);
+		long version = ringBuffer.compareAndPut(new byte[]{1}, new byte[]{1}, 0, 1, ANY_VERSION, 0);
+		ringBuffer.compareAndPut(new byte[]{2}, new byte[]{2}, 0, 1, ANY_VERSION, 100);
+		ringBuffer.close();
+
+		RingBuffer restored = RingBuffer.createMapped(2, 100, directory).withCurrentTimeProvider(now);
+		assertEquals(version, restored.getItem(new byte[]{1}).getVersion());
+		assertArrayEquals(new byte[]{2}, restored.get(new byte[]{2}).array());
+		now.setTime(1100);
+		assertNull(restored.get(new byte[]{2}));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testHeapBufferCapacityIsLimited() {
+		RingBuffer.create(1, 1L << 31);
+	}
+
+	private static void assertPutAndGet(RingBuffer ringBuffer) {
+		for (int i = 0; i < 10; i++) {
+			byte[] item = new byte[30];
+			Arrays.fill(item, (byte) i);
+			ringBuffer.put(new byte[]{(byte) i}, item);
+		}
+		assertEquals(1, ringBuffer.getFullCycles());
+		assertNull(ringBuffer.get(new byte[]{5}));
+		for (int i = 6; i < 10; i++) {
+			Slice slice = ringBuffer.get(new byte[]{(byte) i});
+			assertNotNull(slice);
+			byte[] expected = new byte[30];
+			Arrays.fill(expected, (byte) i);
+			assertArrayEquals(expected, Arrays.copyOfRange(slice.array(), slice.offset(), slice.offset() + slice.length()));
+		}
+	}
+
 	private void fillBufferFully(RingBuffer buffer, byte[] item, int finalNumberItems) {
 		for (int i = 0; i < finalNumberItems; i++) {
 			byte[] newKey = new byte[i];
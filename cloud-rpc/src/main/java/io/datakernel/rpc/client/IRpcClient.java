@@ -43,4 +43,12 @@ public interface IRpcClient {
 	default <I, O> void sendRequest(I request, Callback<O> cb) {
 		sendRequest(request, Integer.MAX_VALUE, cb);
 	}
+
+	/**
+	 * Returns an object which identifies the connection that the request would be sent through.
+	 * Requests with equal destinations may be combined into a single batch request.
+	 */
+	default Object getDestination(Object request) {
+		return this;
+	}
 }
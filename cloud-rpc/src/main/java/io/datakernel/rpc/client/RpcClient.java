@@ -18,10 +18,15 @@ package io.datakernel.rpc.client;
 
 import io.datakernel.async.callback.Callback;
 import io.datakernel.async.service.EventloopService;
+import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.common.Initializable;
 import io.datakernel.common.MemSize;
+import io.datakernel.common.Recyclable;
 import io.datakernel.common.exception.StacklessException;
+import io.datakernel.csp.process.ChannelLZ4Compressor;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.datastream.csp.ChannelSerializer;
+import io.datakernel.datastream.csp.SerializerDefByteBuf;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
 import io.datakernel.eventloop.jmx.ExceptionStats;
@@ -103,6 +108,10 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 	private MemSize defaultPacketSize = DEFAULT_PACKET_SIZE;
 	private MemSize maxPacketSize = MAX_PACKET_SIZE;
 	private boolean compression = false;
+	private boolean zeroCopy = false;
+	private MemSize minCompressedBlockSize = MemSize.ZERO;
+	private boolean adaptiveCompression = false;
+	private double maxCompressionRatio = 1.0;
 	private Duration autoFlushInterval = Duration.ZERO;
 
 	private List<Class<?>> messageTypes;
@@ -134,7 +143,7 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 	private final JmxInspector statsSocket = new JmxInspector();
 	//	private final StreamBinarySerializer.JmxInspector statsSerializer = new StreamBinarySerializer.JmxInspector();
 	//	private final StreamBinaryDeserializer.JmxInspector statsDeserializer = new StreamBinaryDeserializer.JmxInspector();
-	//	private final StreamLZ4Compressor.JmxInspector statsCompressor = new StreamLZ4Compressor.JmxInspector();
+	private final ChannelLZ4Compressor.JmxInspector statsCompressor = new ChannelLZ4Compressor.JmxInspector();
 	//	private final StreamLZ4Decompressor.JmxInspector statsDecompressor = new StreamLZ4Decompressor.JmxInspector();
 
 	// region builders
@@ -226,6 +235,37 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 		return this;
 	}
 
+	/**
+	 * Enables adaptive compression of the stream protocol: blocks smaller than {@code minCompressedBlockSize}
+	 * are sent uncompressed, and once blocks compress worse than {@code maxCompressionRatio},
+	 * compression is only sampled periodically until the data becomes compressible again.
+	 *
+	 * @param minCompressedBlockSize minimal size of a block to be compressed
+	 * @param maxCompressionRatio    maximal ratio of compressed size to original size which is worth compressing
+	 */
+	public RpcClient withAdaptiveCompression(MemSize minCompressedBlockSize, double maxCompressionRatio) {
+		checkArgument(maxCompressionRatio > 0 && maxCompressionRatio <= 1.0, "Compression ratio must be in (0, 1]");
+		this.compression = true;
+		this.minCompressedBlockSize = minCompressedBlockSize;
+		this.adaptiveCompression = true;
+		this.maxCompressionRatio = maxCompressionRatio;
+		return this;
+	}
+
+	/**
+	 * Enables zero-copy decoding: {@code ByteBuf} fields of messages are decoded as reference-counted
+	 * slices of received network buffers instead of copies.
+	 * <p>
+	 * Responses are owned by the caller, which must recycle the {@code ByteBuf}s they contain.
+	 * Request data is not recycled by the client.
+	 * <p>
+	 * Message classes that hold {@code ByteBuf} fields should implement {@link Recyclable}.
+	 */
+	public RpcClient withZeroCopy() {
+		this.zeroCopy = true;
+		return this;
+	}
+
 	public RpcClient withAutoFlushInterval(Duration autoFlushInterval) {
 		this.autoFlushInterval = autoFlushInterval;
 		return this;
@@ -294,6 +334,9 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 
 		checkState(stopPromise == null);
 
+		if (zeroCopy) {
+			serializerBuilder.withSerializer(ByteBuf.class, SerializerDefByteBuf.ofRetainedSlices(false));
+		}
 		serializer = serializerBuilder.withSubclasses(RpcMessage.MESSAGE_TYPES, messageTypes).build(RpcMessage.class);
 
 		return Promises.all(
@@ -338,7 +381,7 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 							asyncTcpSocketImpl :
 							wrapClientSocket(asyncTcpSocketImpl, sslContext, sslExecutor);
 					RpcStream stream = new RpcStream(socket, serializer, defaultPacketSize, maxPacketSize,
-							autoFlushInterval, compression, false); // , statsSerializer, statsDeserializer, statsCompressor, statsDecompressor);
+							autoFlushInterval, createCompressor(), zeroCopy, false);
 					RpcClientConnection connection = new RpcClientConnection(eventloop, this, address, stream);
 					stream.setListener(connection);
 
@@ -371,6 +414,15 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 		processClosedConnection(address);
 	}
 
+	@Nullable
+	private ChannelLZ4Compressor createCompressor() {
+		if (!compression) return null;
+		ChannelLZ4Compressor compressor = ChannelLZ4Compressor.createFastCompressor()
+				.withMinCompressedBlockSize(minCompressedBlockSize)
+				.withInspector(statsCompressor);
+		return adaptiveCompression ? compressor.withAdaptiveCompression(maxCompressionRatio) : compressor;
+	}
+
 	private void processClosedConnection(InetSocketAddress address) {
 		//jmx
 		generalConnectsStats.failedConnects++;
@@ -411,6 +463,43 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 		requestSender.sendRequest(request, cb);
 	}
 
+	@Override
+	public Object getDestination(Object request) {
+		return requestSender.route(request);
+	}
+
+	/**
+	 * Sends a request which is answered by the server with a stream of items.
+	 * Items are multiplexed with other calls over the same connection,
+	 * while backpressure of returned supplier is propagated to the server per stream.
+	 *
+	 * @param <I>     request class
+	 * @param <O>     stream items class
+	 * @param request request for server
+	 * @return supplier of items streamed by the server
+	 * @see io.datakernel.rpc.server.RpcServer#withStreamHandler
+	 */
+	public <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+		return requestSender.sendStreamRequest(request);
+	}
+
+	/**
+	 * Sends a request followed by a stream of items, which is answered by the server with a single response.
+	 *
+	 * @param <I>     request class
+	 * @param <T>     uploaded items class
+	 * @param <O>     response class
+	 * @param request request for server
+	 * @param items   items to be uploaded
+	 * @return promise of the response
+	 * @see io.datakernel.rpc.server.RpcServer#withUploadHandler
+	 */
+	public <I, T, O> Promise<O> sendUploadRequest(I request, StreamSupplier<T> items) {
+		SettablePromise<O> resultPromise = new SettablePromise<>();
+		requestSender.sendUploadRequest(request, items, resultPromise);
+		return resultPromise;
+	}
+
 	public IRpcClient adaptToAnotherEventloop(Eventloop anotherEventloop) {
 		if (anotherEventloop == this.eventloop) {
 			return this;
@@ -427,6 +516,10 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 				}
 			}
 
+			@Override
+			public Object getDestination(Object request) {
+				return requestSender.route(request);
+			}
 		};
 	}
 
@@ -445,6 +538,17 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
 			cb.accept(null, NO_SENDER_AVAILABLE_EXCEPTION);
 		}
+
+		@Override
+		public <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+			return StreamSupplier.closingWithError(NO_SENDER_AVAILABLE_EXCEPTION);
+		}
+
+		@Override
+		public <I, T, O> void sendUploadRequest(I request, StreamSupplier<T> items, @NotNull Callback<O> cb) {
+			items.close(NO_SENDER_AVAILABLE_EXCEPTION);
+			cb.accept(null, NO_SENDER_AVAILABLE_EXCEPTION);
+		}
 	}
 
 	private static final class NoServersStrategy implements RpcStrategy {
@@ -553,15 +657,16 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 	//	}
 	//
 	//	@JmxAttribute
-	//	public StreamLZ4Compressor.JmxInspector getStatsCompressor() {
-	//		return compression ? statsCompressor : null;
-	//	}
-	//
-	//	@JmxAttribute
 	//	public StreamLZ4Decompressor.JmxInspector getStatsDecompressor() {
 	//		return compression ? statsDecompressor : null;
 	//	}
 
+	@JmxAttribute(description = "compression of outgoing data, including compression ratio and CPU time")
+	@Nullable
+	public ChannelLZ4Compressor.JmxInspector getStatsCompressor() {
+		return compression ? statsCompressor : null;
+	}
+
 	RpcRequestStats ensureRequestStatsPerClass(Class<?> requestClass) {
 		if (!requestStatsPerClass.containsKey(requestClass)) {
 			requestStatsPerClass.put(requestClass, RpcRequestStats.create(SMOOTHING_WINDOW));
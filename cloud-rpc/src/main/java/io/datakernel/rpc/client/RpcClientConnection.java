@@ -21,6 +21,7 @@ import io.datakernel.common.ApplicationSettings;
 import io.datakernel.common.Stopwatch;
 import io.datakernel.common.exception.AsyncTimeoutException;
 import io.datakernel.datastream.StreamDataAcceptor;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.eventloop.jmx.EventStats;
 import io.datakernel.eventloop.jmx.JmxRefreshable;
@@ -57,6 +58,8 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 	private final InetSocketAddress address;
 	private final Map<Integer, Callback<?>> activeRequests = new HashMap<>();
 	private final Map<Long, ExpirationList> expirationLists = new HashMap<>();
+	private final Map<Integer, RpcInboundStream<Object>> inboundStreams = new HashMap<>();
+	private final Map<Integer, RpcOutboundStream<Object>> outboundStreams = new HashMap<>();
 
 	private ArrayList<RpcMessage> initialBuffer = new ArrayList<>();
 
@@ -71,6 +74,7 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 
 	private int cookie = 0;
 	private boolean serverClosing;
+	private boolean closed;
 
 	// JMX
 	private boolean monitoring;
@@ -126,7 +130,7 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 							}
 						}
 
-						if (serverClosing && activeRequests.size() == 0) {
+						if (serverClosing && !hasActiveRequests()) {
 							shutdown();
 						}
 					}));
@@ -171,6 +175,85 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 		}
 	}
 
+	@Override
+	public <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+		assert eventloop.inEventloopThread();
+
+		// jmx
+		totalRequests.recordEvent();
+		connectionRequests.recordEvent();
+
+		if (overloaded && !(request instanceof RpcMandatoryData)) {
+			doProcessOverloaded(($, e) -> {});
+			return StreamSupplier.closingWithError(RPC_OVERLOAD_EXCEPTION);
+		}
+
+		cookie++;
+		int streamCookie = cookie;
+		RpcInboundStream<Object> inboundStream = new RpcInboundStream<>(streamCookie, this::sendMessage);
+		inboundStreams.put(streamCookie, inboundStream);
+		inboundStream.getEndOfStream()
+				.whenException(e -> {
+					// jmx
+					connectionStats.getFailedRequests().recordEvent();
+					rpcClient.getGeneralRequestsStats().getFailedRequests().recordEvent();
+				});
+
+		sendMessage(RpcMessage.of(streamCookie, request));
+
+		//noinspection unchecked
+		return (StreamSupplier<O>) inboundStream;
+	}
+
+	@Override
+	public <I, T, O> void sendUploadRequest(I request, StreamSupplier<T> items, @NotNull Callback<O> cb) {
+		assert eventloop.inEventloopThread();
+
+		// jmx
+		totalRequests.recordEvent();
+		connectionRequests.recordEvent();
+
+		if (overloaded && !(request instanceof RpcMandatoryData)) {
+			items.close(RPC_OVERLOAD_EXCEPTION);
+			doProcessOverloaded(cb);
+			return;
+		}
+
+		cookie++;
+		int uploadCookie = cookie;
+
+		// jmx
+		if (monitoring) {
+			cb = doJmxMonitoring(request, Integer.MAX_VALUE, cb);
+		}
+
+		activeRequests.put(uploadCookie, cb);
+		sendMessage(RpcMessage.of(uploadCookie, request));
+
+		RpcOutboundStream<Object> outboundStream = new RpcOutboundStream<>(uploadCookie, this::sendMessage);
+		if (overloaded) {
+			outboundStream.onConnectionSuspended();
+		}
+		outboundStreams.put(uploadCookie, outboundStream);
+		//noinspection unchecked
+		((StreamSupplier<Object>) items).streamTo(outboundStream)
+				.whenComplete(() -> {
+					outboundStreams.remove(uploadCookie);
+					if (serverClosing && !hasActiveRequests()) {
+						shutdown();
+					}
+				});
+	}
+
+	private void sendMessage(RpcMessage message) {
+		if (closed) return;
+		downstreamDataAcceptor.accept(message);
+	}
+
+	private boolean hasActiveRequests() {
+		return !activeRequests.isEmpty() || !inboundStreams.isEmpty() || !outboundStreams.isEmpty();
+	}
+
 	private <I, O> Callback<O> doJmxMonitoring(I request, int timeout, @NotNull Callback<O> cb) {
 		RpcRequestStats requestStatsPerClass = rpcClient.ensureRequestStatsPerClass(request.getClass());
 		requestStatsPerClass.getTotalRequests().recordEvent();
@@ -188,17 +271,24 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 
 	@Override
 	public void accept(RpcMessage message) {
-		if (message.getData().getClass() == RpcRemoteException.class) {
+		Object data = message.getData();
+		if (data instanceof RpcRemoteException) {
 			processErrorMessage(message);
-		} else if (message.getData().getClass() == RpcControlMessage.class) {
-			processControlMessage((RpcControlMessage) message.getData());
+		} else if (data instanceof RpcControlMessage) {
+			processControlMessage(message.getCookie(), (RpcControlMessage) data);
 		} else {
+			RpcInboundStream<Object> inboundStream = inboundStreams.get(message.getCookie());
+			if (inboundStream != null) {
+				inboundStream.onData(data);
+				return;
+			}
+
 			@SuppressWarnings("unchecked")
 			Callback<Object> cb = (Callback<Object>) activeRequests.remove(message.getCookie());
 			if (cb == null) return;
 
-			cb.accept(message.getData(), null);
-			if (serverClosing && activeRequests.size() == 0) {
+			cb.accept(data, null);
+			if (serverClosing && !hasActiveRequests()) {
 				shutdown();
 			}
 		}
@@ -212,19 +302,47 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 		connectionStats.getServerExceptions().recordException(remoteException, null);
 		rpcClient.getGeneralRequestsStats().getServerExceptions().recordException(remoteException, null);
 
-		Callback<?> cb = activeRequests.remove(message.getCookie());
-		if (cb != null) {
-			cb.accept(null, remoteException);
+		RpcInboundStream<Object> inboundStream = inboundStreams.remove(message.getCookie());
+		if (inboundStream != null) {
+			inboundStream.onRemoteError(remoteException);
+		} else {
+			Callback<?> cb = activeRequests.remove(message.getCookie());
+			if (cb != null) {
+				cb.accept(null, remoteException);
+			}
+		}
+		if (serverClosing && !hasActiveRequests()) {
+			shutdown();
 		}
 	}
 
-	private void processControlMessage(RpcControlMessage controlMessage) {
+	private void processControlMessage(int cookie, RpcControlMessage controlMessage) {
 		if (controlMessage == RpcControlMessage.CLOSE) {
 			rpcClient.removeConnection(address);
 			serverClosing = true;
-			if (activeRequests.size() == 0) {
+			if (!hasActiveRequests()) {
 				shutdown();
 			}
+		} else if (controlMessage == RpcControlMessage.END_OF_STREAM) {
+			RpcInboundStream<Object> inboundStream = inboundStreams.remove(cookie);
+			if (inboundStream != null) {
+				inboundStream.onRemoteEndOfStream();
+			}
+			if (serverClosing && !hasActiveRequests()) {
+				shutdown();
+			}
+		} else if (controlMessage == RpcControlMessage.SUSPEND ||
+				controlMessage == RpcControlMessage.RESUME ||
+				controlMessage == RpcControlMessage.CANCEL) {
+			RpcOutboundStream<Object> outboundStream = outboundStreams.get(cookie);
+			if (outboundStream == null) return;
+			if (controlMessage == RpcControlMessage.SUSPEND) {
+				outboundStream.onRemoteSuspend();
+			} else if (controlMessage == RpcControlMessage.RESUME) {
+				outboundStream.onRemoteResume();
+			} else {
+				outboundStream.onRemoteCancel();
+			}
 		} else {
 			throw new RuntimeException("Received unknown RpcControlMessage");
 		}
@@ -267,15 +385,30 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 			}
 			initialBuffer = null;
 		}
+		for (RpcOutboundStream<Object> outboundStream : new ArrayList<>(outboundStreams.values())) {
+			outboundStream.onConnectionReady();
+		}
 	}
 
 	@Override
 	public void onSenderSuspended() {
 		overloaded = true;
+		for (RpcOutboundStream<Object> outboundStream : new ArrayList<>(outboundStreams.values())) {
+			outboundStream.onConnectionSuspended();
+		}
 	}
 
 	private void doClose() {
 		rpcClient.removeConnection(address);
+		closed = true;
+
+		for (RpcInboundStream<Object> inboundStream : new ArrayList<>(inboundStreams.values())) {
+			inboundStream.onRemoteError(CONNECTION_CLOSED);
+		}
+		inboundStreams.clear();
+		for (RpcOutboundStream<Object> outboundStream : new ArrayList<>(outboundStreams.values())) {
+			outboundStream.onConnectionClosed(CONNECTION_CLOSED);
+		}
 
 		while (!activeRequests.isEmpty()) {
 			for (Integer cookie : new HashSet<>(activeRequests.keySet())) {
@@ -17,15 +17,42 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.rpc.protocol.RpcException;
 import org.jetbrains.annotations.NotNull;
 
 public interface RpcSender {
 	RpcException NO_SENDER_AVAILABLE_EXCEPTION = new RpcException(RpcSender.class, "No senders available");
+	RpcException STREAMING_NOT_SUPPORTED_EXCEPTION = new RpcException(RpcSender.class, "Streaming calls are not supported by sender");
 
 	<I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb);
 
 	default <I, O> void sendRequest(I request, @NotNull Callback<O> cb) {
 		sendRequest(request, Integer.MAX_VALUE, cb);
 	}
+
+	/**
+	 * Returns the sender which would eventually send the request, or this sender if it sends requests itself.
+	 * Requests which are routed to the same sender may be combined into a single batch request.
+	 * Senders which choose a destination depending on the content of a request must override this method.
+	 */
+	default RpcSender route(Object request) {
+		return this;
+	}
+
+	/**
+	 * Sends a request which is answered with a stream of items sharing the cookie of the request.
+	 * Backpressure of returned supplier is propagated to the server per stream.
+	 */
+	default <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+		return StreamSupplier.closingWithError(STREAMING_NOT_SUPPORTED_EXCEPTION);
+	}
+
+	/**
+	 * Sends a request followed by a stream of items, which is answered with a single response.
+	 */
+	default <I, T, O> void sendUploadRequest(I request, StreamSupplier<T> items, @NotNull Callback<O> cb) {
+		items.close(STREAMING_NOT_SUPPORTED_EXCEPTION);
+		cb.accept(null, STREAMING_NOT_SUPPORTED_EXCEPTION);
+	}
 }
@@ -16,6 +16,7 @@
 
 package io.datakernel.rpc.client.sender;
 
+import io.datakernel.eventloop.Eventloop;
 import io.datakernel.rpc.hash.HashFunction;
 import io.datakernel.rpc.hash.ShardingFunction;
 import org.jetbrains.annotations.NotNull;
@@ -105,6 +106,14 @@ public final class RpcStrategies {
 		return RpcStrategyRendezvousHashing.create(hashFunction);
 	}
 
+	public static RpcStrategyConsistentHashing consistentHashing(@NotNull HashFunction<?> hashFunction) {
+		return RpcStrategyConsistentHashing.create(hashFunction);
+	}
+
+	public static RpcStrategyCaching caching(@NotNull Eventloop eventloop, @NotNull RpcStrategy strategy) {
+		return RpcStrategyCaching.create(eventloop, strategy);
+	}
+
 	public static RpcStrategyTypeDispatching typeDispatching() {
 		return RpcStrategyTypeDispatching.create();
 	}
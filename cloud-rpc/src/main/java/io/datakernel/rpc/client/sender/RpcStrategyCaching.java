@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.common.collection.FrequencySketch;
+import io.datakernel.common.time.CurrentTimeProvider;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.jmx.EventStats;
+import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
+import io.datakernel.jmx.api.JmxAttribute;
+import io.datakernel.jmx.api.JmxOperation;
+import io.datakernel.rpc.client.RpcClientConnectionPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.ToIntBiFunction;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * A strategy decorator which caches responses to requests of chosen types on the client side.
+ * <p>
+ * Requests are cached by their {@code equals} and {@code hashCode}, each request type
+ * has its own time to live. Cache size is bounded by total weight of entries, which is 1 per entry
+ * by default, and least recently used entries are evicted first. Optionally, TinyLFU admission
+ * policy lets a new entry into a full cache only if it is requested more frequently than the entry
+ * it would evict, so that one-off requests do not flush hot entries.
+ * <p>
+ * Identical requests which are sent while a request is in flight are not sent over the network again,
+ * they are completed with the result of the request in flight.
+ * <p>
+ * Cached responses are shared between callers, so they should be immutable.
+ * Failed requests are not cached. Streaming requests are not cached.
+ */
+public final class RpcStrategyCaching implements RpcStrategy, EventloopJmxMBeanEx {
+	public static final long DEFAULT_CAPACITY = 10_000;
+	private static final int MAX_SKETCH_ENTRIES = 1 << 20;
+	private static final Duration SMOOTHING_WINDOW = Duration.ofMinutes(1);
+
+	private final Eventloop eventloop;
+	private final RpcStrategy strategy;
+	private final Map<Class<?>, Long> ttls = new HashMap<>();
+
+	CurrentTimeProvider now;
+
+	private long capacity = DEFAULT_CAPACITY;
+	private ToIntBiFunction<Object, Object> weigher = (request, response) -> 1;
+	private boolean tinyLfu;
+
+	private final LinkedHashMap<Object, CacheEntry> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<Object, List<Callback<Object>>> inFlight = new HashMap<>();
+	@Nullable
+	private FrequencySketch sketch;
+	private long weight;
+
+	// region JMX
+	private final EventStats hits = EventStats.create(SMOOTHING_WINDOW);
+	private final EventStats misses = EventStats.create(SMOOTHING_WINDOW);
+	private final EventStats evictions = EventStats.create(SMOOTHING_WINDOW);
+	private final EventStats rejections = EventStats.create(SMOOTHING_WINDOW);
+	private final EventStats deduplicated = EventStats.create(SMOOTHING_WINDOW);
+	// endregion
+
+	private static final class CacheEntry {
+		final Object response;
+		final long expirationTime;
+		final int weight;
+
+		CacheEntry(Object response, long expirationTime, int weight) {
+			this.response = response;
+			this.expirationTime = expirationTime;
+			this.weight = weight;
+		}
+	}
+
+	private RpcStrategyCaching(Eventloop eventloop, RpcStrategy strategy) {
+		this.eventloop = eventloop;
+		this.strategy = strategy;
+		this.now = eventloop;
+	}
+
+	public static RpcStrategyCaching create(Eventloop eventloop, RpcStrategy strategy) {
+		return new RpcStrategyCaching(eventloop, strategy);
+	}
+
+	/**
+	 * Enables caching of responses to requests of given type
+	 *
+	 * @param requestType class of requests
+	 * @param ttl         time for which a response is cached
+	 */
+	public RpcStrategyCaching withRequestType(Class<?> requestType, Duration ttl) {
+		checkArgument(!ttl.isNegative() && !ttl.isZero(), "Time to live must be positive");
+		ttls.put(requestType, ttl.toMillis());
+		return this;
+	}
+
+	/**
+	 * Sets maximal total weight of cached entries
+	 */
+	public RpcStrategyCaching withCapacity(long capacity) {
+		checkArgument(capacity > 0, "Capacity must be positive");
+		this.capacity = capacity;
+		return this;
+	}
+
+	/**
+	 * Sets a function which computes weight of a cache entry, for example its size in bytes
+	 */
+	public RpcStrategyCaching withWeigher(ToIntBiFunction<Object, Object> weigher) {
+		this.weigher = weigher;
+		return this;
+	}
+
+	public RpcStrategyCaching withTinyLfuAdmission() {
+		this.tinyLfu = true;
+		return this;
+	}
+
+	@Override
+	public Set<InetSocketAddress> getAddresses() {
+		return strategy.getAddresses();
+	}
+
+	@Nullable
+	@Override
+	public RpcSender createSender(RpcClientConnectionPool pool) {
+		RpcSender sender = strategy.createSender(pool);
+		if (sender == null) {
+			return null;
+		}
+		if (tinyLfu && sketch == null) {
+			sketch = FrequencySketch.create((int) Math.min(capacity, MAX_SKETCH_ENTRIES));
+		}
+		return new Sender(sender);
+	}
+
+	private final class Sender implements RpcSender {
+		private final RpcSender sender;
+
+		Sender(RpcSender sender) {
+			this.sender = sender;
+		}
+
+		@Override
+		public RpcSender route(Object request) {
+			return sender.route(request);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			Long ttl = ttls.get(request.getClass());
+			if (ttl == null) {
+				sender.sendRequest(request, timeout, cb);
+				return;
+			}
+
+			if (sketch != null) {
+				sketch.increment(request.hashCode());
+			}
+			CacheEntry entry = cache.get(request);
+			if (entry != null) {
+				if (entry.expirationTime > now.currentTimeMillis()) {
+					hits.recordEvent();
+					cb.accept((O) entry.response, null);
+					return;
+				}
+				cache.remove(request);
+				weight -= entry.weight;
+			}
+			misses.recordEvent();
+
+			List<Callback<Object>> callbacks = inFlight.get(request);
+			if (callbacks != null) {
+				deduplicated.recordEvent();
+				callbacks.add((Callback<Object>) cb);
+				return;
+			}
+			callbacks = new ArrayList<>();
+			callbacks.add((Callback<Object>) cb);
+			inFlight.put(request, callbacks);
+
+			sender.sendRequest(request, timeout, (Object result, Throwable e) -> {
+				List<Callback<Object>> waiting = inFlight.remove(request);
+				if (e == null) {
+					put(request, result, ttl);
+				}
+				for (Callback<Object> callback : waiting) {
+					callback.accept(result, e);
+				}
+			});
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+			return sender.sendStreamRequest(request);
+		}
+
+		@Override
+		public <I, T, O> void sendUploadRequest(I request, StreamSupplier<T> items, @NotNull Callback<O> cb) {
+			sender.sendUploadRequest(request, items, cb);
+		}
+	}
+
+	private void put(Object request, Object response, long ttl) {
+		CacheEntry previous = cache.remove(request);
+		if (previous != null) {
+			weight -= previous.weight;
+		}
+		int entryWeight = weigher.applyAsInt(request, response);
+		if (entryWeight > capacity) {
+			rejections.recordEvent();
+			return;
+		}
+		// admission is decided against all of the entries which would have to be evicted, before evicting any of them
+		int victims = 0;
+		long excess = weight + entryWeight - capacity;
+		for (Iterator<Map.Entry<Object, CacheEntry>> it = cache.entrySet().iterator(); excess > 0; victims++) {
+			Map.Entry<Object, CacheEntry> eldest = it.next();
+			if (sketch != null && sketch.frequency(request.hashCode()) <= sketch.frequency(eldest.getKey().hashCode())) {
+				rejections.recordEvent();
+				return;
+			}
+			excess -= eldest.getValue().weight;
+		}
+		Iterator<CacheEntry> it = cache.values().iterator();
+		for (int i = 0; i < victims; i++) {
+			weight -= it.next().weight;
+			it.remove();
+			evictions.recordEvent();
+		}
+		cache.put(request, new CacheEntry(response, now.currentTimeMillis() + ttl, entryWeight));
+		weight += entryWeight;
+	}
+
+	// region JMX
+	@NotNull
+	@Override
+	public Eventloop getEventloop() {
+		return eventloop;
+	}
+
+	@JmxOperation
+	public void invalidateAll() {
+		cache.clear();
+		weight = 0;
+	}
+
+	@JmxAttribute
+	public int getSize() {
+		return cache.size();
+	}
+
+	@JmxAttribute
+	public long getWeight() {
+		return weight;
+	}
+
+	@JmxAttribute
+	public int getInFlightRequests() {
+		return inFlight.size();
+	}
+
+	@JmxAttribute
+	public double getHitRatio() {
+		long total = hits.getTotalCount() + misses.getTotalCount();
+		return total == 0 ? 0.0 : (double) hits.getTotalCount() / total;
+	}
+
+	@JmxAttribute
+	public EventStats getHits() {
+		return hits;
+	}
+
+	@JmxAttribute
+	public EventStats getMisses() {
+		return misses;
+	}
+
+	@JmxAttribute(description = "entries evicted to make room for new ones")
+	public EventStats getEvictions() {
+		return evictions;
+	}
+
+	@JmxAttribute(description = "responses which were not admitted into the cache")
+	public EventStats getRejections() {
+		return rejections;
+	}
+
+	@JmxAttribute(description = "requests which were not sent because an identical request was in flight")
+	public EventStats getDeduplicated() {
+		return deduplicated;
+	}
+	// endregion
+}
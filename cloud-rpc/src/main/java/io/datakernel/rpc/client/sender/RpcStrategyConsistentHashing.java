@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.common.sharding.BoundedLoadConsistentHash;
+import io.datakernel.common.sharding.ConsistentHashRing;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.rpc.client.RpcClientConnectionPool;
+import io.datakernel.rpc.hash.HashFunction;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Distributes requests between shards using a {@link ConsistentHashRing} with virtual nodes.
+ * <p>
+ * Unlike {@link RpcStrategyRendezvousHashing}, there is no bucket table to rebuild,
+ * and when a shard becomes available or unavailable, only keys adjacent to its points move.
+ * <p>
+ * If a balance factor is set, consistent hashing with bounded loads is used:
+ * a shard may have at most {@code balanceFactor} times the average number of in-flight
+ * requests, and requests for hot keys overflow to the following shards on the ring.
+ */
+public final class RpcStrategyConsistentHashing implements RpcStrategy {
+	private static final int MIN_SUB_STRATEGIES_FOR_CREATION_DEFAULT = 1;
+
+	private final Map<Object, RpcStrategy> shards;
+	private final HashFunction<?> hashFunction;
+	private final int minShards;
+	private final int virtualNodes;
+	private final double balanceFactor;
+
+	private RpcStrategyConsistentHashing(@NotNull HashFunction<?> hashFunction, int minShards,
+			int virtualNodes, double balanceFactor, Map<Object, RpcStrategy> shards) {
+		this.hashFunction = hashFunction;
+		this.minShards = minShards;
+		this.virtualNodes = virtualNodes;
+		this.balanceFactor = balanceFactor;
+		this.shards = shards;
+	}
+
+	public static RpcStrategyConsistentHashing create(HashFunction<?> hashFunction) {
+		return new RpcStrategyConsistentHashing(hashFunction, MIN_SUB_STRATEGIES_FOR_CREATION_DEFAULT,
+				ConsistentHashRing.DEFAULT_VIRTUAL_NODES, 0, new LinkedHashMap<>());
+	}
+
+	public RpcStrategyConsistentHashing withMinActiveShards(int minShards) {
+		checkArgument(minShards > 0, "minSubStrategiesForCreation must be greater than 0");
+		return new RpcStrategyConsistentHashing(hashFunction, minShards, virtualNodes, balanceFactor, shards);
+	}
+
+	public RpcStrategyConsistentHashing withVirtualNodes(int virtualNodes) {
+		checkArgument(virtualNodes > 0, "Number of virtual nodes must be positive");
+		return new RpcStrategyConsistentHashing(hashFunction, minShards, virtualNodes, balanceFactor, shards);
+	}
+
+	public RpcStrategyConsistentHashing withBoundedLoads() {
+		return withBoundedLoads(BoundedLoadConsistentHash.DEFAULT_BALANCE_FACTOR);
+	}
+
+	public RpcStrategyConsistentHashing withBoundedLoads(double balanceFactor) {
+		checkArgument(balanceFactor > 1.0, "Balance factor must be greater than 1");
+		return new RpcStrategyConsistentHashing(hashFunction, minShards, virtualNodes, balanceFactor, shards);
+	}
+
+	public RpcStrategyConsistentHashing withShard(Object shardId, @NotNull RpcStrategy strategy) {
+		shards.put(shardId, strategy);
+		return this;
+	}
+
+	public RpcStrategyConsistentHashing withShards(InetSocketAddress... addresses) {
+		return withShards(Arrays.asList(addresses));
+	}
+
+	public RpcStrategyConsistentHashing withShards(List<InetSocketAddress> addresses) {
+		for (InetSocketAddress address : addresses) {
+			shards.put(address, RpcStrategySingleServer.create(address));
+		}
+		return this;
+	}
+
+	@Override
+	public Set<InetSocketAddress> getAddresses() {
+		HashSet<InetSocketAddress> result = new HashSet<>();
+		for (RpcStrategy strategy : shards.values()) {
+			result.addAll(strategy.getAddresses());
+		}
+		return result;
+	}
+
+	@Override
+	@Nullable
+	public RpcSender createSender(RpcClientConnectionPool pool) {
+		List<Object> shardIds = new ArrayList<>();
+		List<RpcSender> senders = new ArrayList<>();
+		for (Map.Entry<Object, RpcStrategy> entry : shards.entrySet()) {
+			RpcSender sender = entry.getValue().createSender(pool);
+			if (sender != null) {
+				shardIds.add(entry.getKey());
+				senders.add(sender);
+			}
+		}
+		if (senders.size() < minShards) {
+			return null;
+		}
+		if (senders.size() == 1) {
+			return senders.get(0);
+		}
+		ConsistentHashRing<Object> ring = ConsistentHashRing.create(shardIds, virtualNodes);
+		RpcSender[] sendersArray = senders.toArray(new RpcSender[0]);
+		return balanceFactor == 0 ?
+				new Sender(hashFunction, ring, sendersArray) :
+				new BoundedLoadSender(hashFunction, BoundedLoadConsistentHash.create(ring).withBalanceFactor(balanceFactor), sendersArray);
+	}
+
+	static final class Sender implements RpcSender {
+		private final HashFunction<?> hashFunction;
+		private final ConsistentHashRing<Object> ring;
+		private final RpcSender[] senders;
+
+		Sender(@NotNull HashFunction<?> hashFunction, @NotNull ConsistentHashRing<Object> ring, @NotNull RpcSender[] senders) {
+			this.hashFunction = hashFunction;
+			this.ring = ring;
+			this.senders = senders;
+		}
+
+		@SuppressWarnings("unchecked")
+		private RpcSender getSender(Object request) {
+			return senders[ring.getShard(((HashFunction<Object>) hashFunction).hashCode(request))];
+		}
+
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			getSender(request).sendRequest(request, timeout, cb);
+		}
+
+		@Override
+		public RpcSender route(Object request) {
+			return getSender(request).route(request);
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+			return getSender(request).sendStreamRequest(request);
+		}
+
+		@Override
+		public <I, T, O> void sendUploadRequest(I request, StreamSupplier<T> items, @NotNull Callback<O> cb) {
+			getSender(request).sendUploadRequest(request, items, cb);
+		}
+	}
+
+	static final class BoundedLoadSender implements RpcSender {
+		private final HashFunction<?> hashFunction;
+		private final BoundedLoadConsistentHash<Object> sharding;
+		private final RpcSender[] senders;
+
+		BoundedLoadSender(@NotNull HashFunction<?> hashFunction, @NotNull BoundedLoadConsistentHash<Object> sharding, @NotNull RpcSender[] senders) {
+			this.hashFunction = hashFunction;
+			this.sharding = sharding;
+			this.senders = senders;
+		}
+
+		@SuppressWarnings("unchecked")
+		private int acquire(Object request) {
+			return sharding.acquire(((HashFunction<Object>) hashFunction).hashCode(request));
+		}
+
+		/**
+		 * Routes to the shard which {@link #sendRequest} would choose under current loads
+		 */
+		@Override
+		public RpcSender route(Object request) {
+			int shard = acquire(request);
+			sharding.release(shard);
+			return senders[shard].route(request);
+		}
+
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			int shard = acquire(request);
+			senders[shard].sendRequest(request, timeout, (O result, Throwable e) -> {
+				sharding.release(shard);
+				cb.accept(result, e);
+			});
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+			int shard = acquire(request);
+			StreamSupplier<O> supplier = senders[shard].sendStreamRequest(request);
+			supplier.getEndOfStream().whenComplete(() -> sharding.release(shard));
+			return supplier;
+		}
+
+		@Override
+		public <I, T, O> void sendUploadRequest(I request, StreamSupplier<T> items, @NotNull Callback<O> cb) {
+			int shard = acquire(request);
+			senders[shard].sendUploadRequest(request, items, (O result, Throwable e) -> {
+				sharding.release(shard);
+				cb.accept(result, e);
+			});
+		}
+	}
+}
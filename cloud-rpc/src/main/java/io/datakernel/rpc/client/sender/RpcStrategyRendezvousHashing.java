@@ -18,6 +18,7 @@ package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
 import io.datakernel.common.HashUtils;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.rpc.client.RpcClientConnectionPool;
 import io.datakernel.rpc.hash.HashBucketFunction;
 import io.datakernel.rpc.hash.HashFunction;
@@ -143,11 +144,29 @@ public final class RpcStrategyRendezvousHashing implements RpcStrategy {
 		}
 
 		@SuppressWarnings("unchecked")
+		private RpcSender getSender(Object request) {
+			int hash = ((HashFunction<Object>) hashFunction).hashCode(request);
+			return hashBuckets[hash & (hashBuckets.length - 1)];
+		}
+
 		@Override
 		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
-			int hash = ((HashFunction<Object>) hashFunction).hashCode(request);
-			RpcSender sender = hashBuckets[hash & (hashBuckets.length - 1)];
-			sender.sendRequest(request, timeout, cb);
+			getSender(request).sendRequest(request, timeout, cb);
+		}
+
+		@Override
+		public RpcSender route(Object request) {
+			return getSender(request).route(request);
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+			return getSender(request).sendStreamRequest(request);
+		}
+
+		@Override
+		public <I, T, O> void sendUploadRequest(I request, StreamSupplier<T> items, @NotNull Callback<O> cb) {
+			getSender(request).sendUploadRequest(request, items, cb);
 		}
 
 	}
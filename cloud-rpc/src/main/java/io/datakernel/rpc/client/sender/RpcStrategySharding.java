@@ -17,6 +17,7 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.rpc.client.RpcClientConnectionPool;
 import io.datakernel.rpc.hash.ShardingFunction;
 import org.jetbrains.annotations.NotNull;
@@ -82,10 +83,15 @@ public final class RpcStrategySharding implements RpcStrategy {
 		}
 
 		@SuppressWarnings("unchecked")
+		@Nullable
+		private RpcSender getSender(Object request) {
+			int shardIndex = ((ShardingFunction<Object>) shardingFunction).getShard(request);
+			return subSenders[shardIndex];
+		}
+
 		@Override
 		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
-			int shardIndex = ((ShardingFunction<Object>) shardingFunction).getShard(request);
-			RpcSender sender = subSenders[shardIndex];
+			RpcSender sender = getSender(request);
 			if (sender != null) {
 				sender.sendRequest(request, timeout, cb);
 			} else {
@@ -93,5 +99,30 @@ public final class RpcStrategySharding implements RpcStrategy {
 			}
 		}
 
+		@Override
+		public RpcSender route(Object request) {
+			RpcSender sender = getSender(request);
+			return sender != null ? sender.route(request) : this;
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+			RpcSender sender = getSender(request);
+			return sender != null ?
+					sender.sendStreamRequest(request) :
+					StreamSupplier.closingWithError(NO_SENDER_AVAILABLE_EXCEPTION);
+		}
+
+		@Override
+		public <I, T, O> void sendUploadRequest(I request, StreamSupplier<T> items, @NotNull Callback<O> cb) {
+			RpcSender sender = getSender(request);
+			if (sender != null) {
+				sender.sendUploadRequest(request, items, cb);
+			} else {
+				items.close(NO_SENDER_AVAILABLE_EXCEPTION);
+				cb.accept(null, NO_SENDER_AVAILABLE_EXCEPTION);
+			}
+		}
+
 	}
 }
@@ -17,6 +17,7 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.rpc.client.RpcClientConnectionPool;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -91,17 +92,45 @@ public final class RpcStrategyTypeDispatching implements RpcStrategy {
 			this.defaultSender = defaultSender;
 		}
 
+		@Nullable
+		private RpcSender getSender(Object request) {
+			RpcSender sender = typeToSender.get(request.getClass());
+			return sender != null ? sender : defaultSender;
+		}
+
 		@Override
 		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
-			RpcSender sender = typeToSender.get(request.getClass());
-			if (sender == null) {
-				sender = defaultSender;
-			}
+			RpcSender sender = getSender(request);
 			if (sender != null) {
 				sender.sendRequest(request, timeout, cb);
 			} else {
 				cb.accept(null, NO_SENDER_AVAILABLE_EXCEPTION);
 			}
 		}
+
+		@Override
+		public RpcSender route(Object request) {
+			RpcSender sender = getSender(request);
+			return sender != null ? sender.route(request) : this;
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> sendStreamRequest(I request) {
+			RpcSender sender = getSender(request);
+			return sender != null ?
+					sender.sendStreamRequest(request) :
+					StreamSupplier.closingWithError(NO_SENDER_AVAILABLE_EXCEPTION);
+		}
+
+		@Override
+		public <I, T, O> void sendUploadRequest(I request, StreamSupplier<T> items, @NotNull Callback<O> cb) {
+			RpcSender sender = getSender(request);
+			if (sender != null) {
+				sender.sendUploadRequest(request, items, cb);
+			} else {
+				items.close(NO_SENDER_AVAILABLE_EXCEPTION);
+				cb.accept(null, NO_SENDER_AVAILABLE_EXCEPTION);
+			}
+		}
 	}
 }
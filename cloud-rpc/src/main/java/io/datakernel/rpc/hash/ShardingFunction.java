@@ -16,6 +16,11 @@
 
 package io.datakernel.rpc.hash;
 
+import io.datakernel.common.sharding.ConsistentHashRing;
+import io.datakernel.common.sharding.JumpConsistentHash;
+
+import static io.datakernel.common.HashUtils.murmur3hash;
+
 /**
  * Sharder interface determines to which shard item will be sent
  */
@@ -28,4 +33,21 @@ public interface ShardingFunction<T> {
 	 * @return shard number
 	 */
 	int getShard(T item);
+
+	/**
+	 * Creates a sharding function which distributes items between {@code shards}
+	 * shards using jump consistent hash: when a shard is appended, only keys
+	 * that move to the new shard change their shard number
+	 */
+	static <T> ShardingFunction<T> jumpConsistentHash(HashFunction<T> hashFunction, int shards) {
+		return item -> JumpConsistentHash.shard(murmur3hash((long) hashFunction.hashCode(item)), shards);
+	}
+
+	/**
+	 * Creates a sharding function which returns an index of an item's owner
+	 * in the list of nodes of a consistent hash ring
+	 */
+	static <T> ShardingFunction<T> consistentHashing(HashFunction<T> hashFunction, ConsistentHashRing<?> ring) {
+		return item -> ring.getShard(hashFunction.hashCode(item));
+	}
 }
@@ -17,5 +17,9 @@
 package io.datakernel.rpc.protocol;
 
 public enum RpcControlMessage {
-	CLOSE
+	CLOSE,
+	END_OF_STREAM,
+	SUSPEND,
+	RESUME,
+	CANCEL
 }
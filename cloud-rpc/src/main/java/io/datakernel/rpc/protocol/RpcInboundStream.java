@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.rpc.protocol;
+
+import io.datakernel.datastream.AbstractStreamSupplier;
+import io.datakernel.datastream.StreamDataAcceptor;
+
+import java.util.ArrayDeque;
+
+import static io.datakernel.rpc.protocol.RpcControlMessage.*;
+
+/**
+ * Receiving side of a streaming RPC call, multiplexed over an {@link RpcStream} by its cookie.
+ * <p>
+ * When downstream consumer suspends, a {@link RpcControlMessage#SUSPEND} message is sent to the peer,
+ * items which are already in flight are buffered and {@link RpcControlMessage#RESUME} is sent
+ * once the buffer is drained. If the stream is closed locally, the peer is asked to stop
+ * with {@link RpcControlMessage#CANCEL}.
+ *
+ * @param <T> type of stream items
+ */
+public final class RpcInboundStream<T> extends AbstractStreamSupplier<T> {
+	private final int cookie;
+	private final StreamDataAcceptor<RpcMessage> output;
+	private final ArrayDeque<T> buffer = new ArrayDeque<>();
+
+	private boolean endOfStream;
+	private boolean suspendedRemotely;
+	private boolean closedRemotely;
+
+	public RpcInboundStream(int cookie, StreamDataAcceptor<RpcMessage> output) {
+		this.cookie = cookie;
+		this.output = output;
+	}
+
+	public int getCookie() {
+		return cookie;
+	}
+
+	public void onData(T item) {
+		if (isClosed()) return;
+		StreamDataAcceptor<T> acceptor = getCurrentDataAcceptor();
+		if (acceptor != null && buffer.isEmpty()) {
+			acceptor.accept(item);
+		} else {
+			buffer.add(item);
+		}
+	}
+
+	public void onRemoteEndOfStream() {
+		if (isClosed()) return;
+		endOfStream = true;
+		if (buffer.isEmpty()) {
+			sendEndOfStream();
+		}
+	}
+
+	public void onRemoteError(Throwable e) {
+		closedRemotely = true;
+		close(e);
+	}
+
+	@Override
+	protected void produce(AsyncProduceController async) {
+		while (isReceiverReady() && !buffer.isEmpty()) {
+			send(buffer.poll());
+		}
+		if (!buffer.isEmpty()) return;
+		if (endOfStream) {
+			sendEndOfStream();
+		} else if (suspendedRemotely && isReceiverReady()) {
+			suspendedRemotely = false;
+			output.accept(RpcMessage.of(cookie, RESUME));
+		}
+	}
+
+	@Override
+	protected void onSuspended() {
+		if (endOfStream || suspendedRemotely) return;
+		suspendedRemotely = true;
+		output.accept(RpcMessage.of(cookie, SUSPEND));
+	}
+
+	@Override
+	protected void onError(Throwable e) {
+		buffer.clear();
+		if (!closedRemotely) {
+			output.accept(RpcMessage.of(cookie, CANCEL));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RpcInboundStream{cookie=" + cookie + '}';
+	}
+}
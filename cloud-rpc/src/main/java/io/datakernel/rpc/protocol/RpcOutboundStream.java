@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.rpc.protocol;
+
+import io.datakernel.datastream.AbstractStreamConsumer;
+import io.datakernel.datastream.StreamDataAcceptor;
+import io.datakernel.promise.Promise;
+
+import static io.datakernel.rpc.protocol.RpcControlMessage.END_OF_STREAM;
+
+/**
+ * Sending side of a streaming RPC call, multiplexed over an {@link RpcStream} by its cookie.
+ * <p>
+ * Upstream supplier is suspended either when the peer asks for it with {@link RpcControlMessage#SUSPEND}
+ * or when the whole connection is overloaded, so that slow streams do not block other calls.
+ * A stream is always terminated either with {@link RpcControlMessage#END_OF_STREAM}
+ * or with {@link RpcRemoteException}, unless the connection itself is closed.
+ *
+ * @param <T> type of stream items
+ */
+public final class RpcOutboundStream<T> extends AbstractStreamConsumer<T> {
+	public static final RpcException STREAM_CANCELLED = new RpcException(RpcOutboundStream.class, "Stream has been cancelled by peer");
+
+	private final int cookie;
+	private final StreamDataAcceptor<RpcMessage> output;
+	private final StreamDataAcceptor<T> dataAcceptor;
+
+	private boolean started;
+	private boolean suspendedRemotely;
+	private boolean suspendedLocally;
+	private boolean connectionClosed;
+
+	public RpcOutboundStream(int cookie, StreamDataAcceptor<RpcMessage> output) {
+		this.cookie = cookie;
+		this.output = output;
+		this.dataAcceptor = item -> output.accept(RpcMessage.of(cookie, item));
+	}
+
+	public int getCookie() {
+		return cookie;
+	}
+
+	public void onRemoteSuspend() {
+		suspendedRemotely = true;
+		updateFlow();
+	}
+
+	public void onRemoteResume() {
+		suspendedRemotely = false;
+		updateFlow();
+	}
+
+	public void onRemoteCancel() {
+		close(STREAM_CANCELLED);
+	}
+
+	public void onConnectionSuspended() {
+		suspendedLocally = true;
+		updateFlow();
+	}
+
+	public void onConnectionReady() {
+		suspendedLocally = false;
+		updateFlow();
+	}
+
+	public void onConnectionClosed(Throwable e) {
+		connectionClosed = true;
+		close(e);
+	}
+
+	private void updateFlow() {
+		if (!started) return;
+		if (suspendedRemotely || suspendedLocally) {
+			getSupplier().suspend();
+		} else {
+			getSupplier().resume(dataAcceptor);
+		}
+	}
+
+	@Override
+	protected void onStarted() {
+		started = true;
+		updateFlow();
+	}
+
+	@Override
+	protected Promise<Void> onEndOfStream() {
+		output.accept(RpcMessage.of(cookie, END_OF_STREAM));
+		return Promise.complete();
+	}
+
+	@Override
+	protected void onError(Throwable e) {
+		if (!connectionClosed) {
+			output.accept(RpcMessage.of(cookie, new RpcRemoteException(e)));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RpcOutboundStream{cookie=" + cookie + '}';
+	}
+}
@@ -31,6 +31,7 @@ import io.datakernel.net.AsyncTcpSocket;
 import io.datakernel.promise.Promise;
 import io.datakernel.serializer.BinarySerializer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.time.Duration;
 
@@ -62,7 +63,7 @@ public final class RpcStream {
 	public RpcStream(AsyncTcpSocket socket,
 			BinarySerializer<RpcMessage> messageSerializer,
 			MemSize initialBufferSize, MemSize maxMessageSize,
-			Duration autoFlushInterval, boolean compression, boolean server) {
+			Duration autoFlushInterval, @Nullable ChannelLZ4Compressor compressor, boolean zeroCopy, boolean server) {
 		this.server = server;
 		this.socket = socket;
 		if (this.server) {
@@ -127,10 +128,12 @@ public final class RpcStream {
 				.withAutoFlushInterval(autoFlushInterval)
 				.withSkipSerializationErrors();
 		ChannelDeserializer<RpcMessage> deserializer = ChannelDeserializer.create(messageSerializer);
+		if (zeroCopy) {
+			deserializer.withZeroCopy();
+		}
 
-		if (compression) {
+		if (compressor != null) {
 			ChannelLZ4Decompressor decompressor = ChannelLZ4Decompressor.create();
-			ChannelLZ4Compressor compressor = ChannelLZ4Compressor.createFastCompressor();
 
 			ChannelSupplier.ofSocket(socket).bindTo(decompressor.getInput());
 			decompressor.getOutput().bindTo(deserializer.getInput());
@@ -16,8 +16,12 @@
 
 package io.datakernel.rpc.server;
 
+import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.common.MemSize;
+import io.datakernel.common.Recyclable;
+import io.datakernel.csp.process.ChannelLZ4Compressor;
 import io.datakernel.datastream.csp.ChannelSerializer;
+import io.datakernel.datastream.csp.SerializerDefByteBuf;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.eventloop.jmx.EventStats;
 import io.datakernel.eventloop.jmx.ExceptionStats;
@@ -36,6 +40,7 @@ import io.datakernel.rpc.protocol.RpcStream;
 import io.datakernel.serializer.BinarySerializer;
 import io.datakernel.serializer.SerializerBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.net.InetAddress;
 import java.time.Duration;
@@ -83,9 +88,15 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 	private MemSize initialBufferSize = DEFAULT_INITIAL_BUFFER_SIZE;
 	private MemSize maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
 	private boolean compression = false;
+	private boolean zeroCopy = false;
+	private MemSize minCompressedBlockSize = MemSize.ZERO;
+	private boolean adaptiveCompression = false;
+	private double maxCompressionRatio = 1.0;
 	private Duration autoFlushInterval = Duration.ZERO;
 
 	private final Map<Class<?>, RpcRequestHandler<?, ?>> handlers = new LinkedHashMap<>();
+	private final Map<Class<?>, RpcStreamRequestHandler<?, ?>> streamHandlers = new LinkedHashMap<>();
+	private final Map<Class<?>, RpcUploadRequestHandler<?, ?, ?>> uploadHandlers = new LinkedHashMap<>();
 	private ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 	private SerializerBuilder serializerBuilder = SerializerBuilder.create(classLoader);
 	private List<Class<?>> messageTypes;
@@ -110,7 +121,7 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 
 //	private final StreamBinarySerializer.JmxInspector statsSerializer = new StreamBinarySerializer.JmxInspector();
 //	private final StreamBinaryDeserializer.JmxInspector statsDeserializer = new StreamBinaryDeserializer.JmxInspector();
-//	private final StreamLZ4Compressor.JmxInspector statsCompressor = new StreamLZ4Compressor.JmxInspector();
+	private final ChannelLZ4Compressor.JmxInspector statsCompressor = new ChannelLZ4Compressor.JmxInspector();
 //	private final StreamLZ4Decompressor.JmxInspector statsDecompressor = new StreamLZ4Decompressor.JmxInspector();
 
 	// region builders
@@ -164,6 +175,39 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 		return this;
 	}
 
+	/**
+	 * Enables adaptive compression of the stream protocol: blocks smaller than {@code minCompressedBlockSize}
+	 * are sent uncompressed, and once blocks compress worse than {@code maxCompressionRatio},
+	 * compression is only sampled periodically until the data becomes compressible again.
+	 *
+	 * @param minCompressedBlockSize minimal size of a block to be compressed
+	 * @param maxCompressionRatio    maximal ratio of compressed size to original size which is worth compressing
+	 */
+	public RpcServer withAdaptiveCompression(MemSize minCompressedBlockSize, double maxCompressionRatio) {
+		checkArgument(maxCompressionRatio > 0 && maxCompressionRatio <= 1.0, "Compression ratio must be in (0, 1]");
+		this.compression = true;
+		this.minCompressedBlockSize = minCompressedBlockSize;
+		this.adaptiveCompression = true;
+		this.maxCompressionRatio = maxCompressionRatio;
+		return this;
+	}
+
+	/**
+	 * Enables zero-copy decoding: {@code ByteBuf} fields of messages are decoded as reference-counted
+	 * slices of received network buffers instead of copies.
+	 * <p>
+	 * Request and response {@code ByteBuf}s are owned by the server: they are recycled once
+	 * the request is completed and the response is sent, so a handler which keeps them longer
+	 * must {@link ByteBuf#slice() slice} them. This lets proxy-style services forward payloads
+	 * without copying them.
+	 * <p>
+	 * Message classes that hold {@code ByteBuf} fields should implement {@link Recyclable}.
+	 */
+	public RpcServer withZeroCopy() {
+		this.zeroCopy = true;
+		return this;
+	}
+
 	public RpcServer withAutoFlushInterval(Duration autoFlushInterval) {
 		this.autoFlushInterval = autoFlushInterval;
 		return this;
@@ -185,13 +229,48 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 		return this;
 	}
 
+	/**
+	 * Adds a handler for a server-push streaming call, where a single request
+	 * is answered with a stream of items.
+	 * <p>
+	 * Stream items, like requests, must be registered with {@link #withMessageTypes}.
+	 *
+	 * @param requestClass a class representing a request structure
+	 * @param handler      a handler which creates a stream of items for a request
+	 * @param <I>          class of request
+	 * @param <O>          class of stream items
+	 * @return server instance capable for handling streaming requests of concrete types
+	 */
+	public <I, O> RpcServer withStreamHandler(Class<I> requestClass, RpcStreamRequestHandler<I, O> handler) {
+		streamHandlers.put(requestClass, handler);
+		return this;
+	}
+
+	/**
+	 * Adds a handler for a client-stream call, where a request is followed
+	 * by a stream of items uploaded by the client.
+	 * <p>
+	 * Uploaded items and responses, like requests, must be registered with {@link #withMessageTypes}.
+	 *
+	 * @param requestClass a class representing a request structure
+	 * @param handler      a handler which consumes uploaded items and creates a response
+	 * @param <I>          class of request
+	 * @param <T>          class of uploaded items
+	 * @param <O>          class of response
+	 * @return server instance capable for handling upload requests of concrete types
+	 */
+	public <I, T, O> RpcServer withUploadHandler(Class<I> requestClass, RpcUploadRequestHandler<I, T, O> handler) {
+		uploadHandlers.put(requestClass, handler);
+		return this;
+	}
+
 	// endregion
 
 	@Override
 	protected void serve(AsyncTcpSocket socket, InetAddress remoteAddress) {
 		RpcStream stream = new RpcStream(socket, serializer, initialBufferSize, maxMessageSize,
-				autoFlushInterval, compression, true); // , statsSerializer, statsDeserializer, statsCompressor, statsDecompressor);
-		RpcServerConnection connection = new RpcServerConnection(this, remoteAddress, handlers, stream);
+				autoFlushInterval, createCompressor(), zeroCopy, true);
+		RpcServerConnection connection = new RpcServerConnection(this, remoteAddress, handlers, streamHandlers, uploadHandlers, stream, zeroCopy);
 		stream.setListener(connection);
 		add(connection);
 
@@ -203,6 +282,9 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 	@Override
 	protected void onListen() {
 		checkState(messageTypes != null, "Message types must be specified");
+		if (zeroCopy) {
+			serializerBuilder.withSerializer(ByteBuf.class, SerializerDefByteBuf.ofRetainedSlices(false));
+		}
 		serializer = serializerBuilder.withSubclasses(RpcMessage.MESSAGE_TYPES, messageTypes).build(RpcMessage.class);
 	}
 
@@ -220,6 +302,15 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 		}
 	}
 
+	@Nullable
+	private ChannelLZ4Compressor createCompressor() {
+		if (!compression) return null;
+		ChannelLZ4Compressor compressor = ChannelLZ4Compressor.createFastCompressor()
+				.withMinCompressedBlockSize(minCompressedBlockSize)
+				.withInspector(statsCompressor);
+		return adaptiveCompression ? compressor.withAdaptiveCompression(maxCompressionRatio) : compressor;
+	}
+
 	void add(RpcServerConnection connection) {
 		if (logger.isInfoEnabled())
 			logger.info("Client connected on {}", connection);
@@ -343,14 +434,15 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 //	}
 //
 //	@JmxAttribute
-//	public StreamLZ4Compressor.JmxInspector getStatsCompressor() {
-//		return compression ? statsCompressor : null;
-//	}
-//
-//	@JmxAttribute
 //	public StreamLZ4Decompressor.JmxInspector getStatsDecompressor() {
 //		return compression ? statsDecompressor : null;
 //	}
+
+	@JmxAttribute(description = "compression of outgoing data, including compression ratio and CPU time")
+	@Nullable
+	public ChannelLZ4Compressor.JmxInspector getStatsCompressor() {
+		return compression ? statsCompressor : null;
+	}
 	// endregion
 }
 
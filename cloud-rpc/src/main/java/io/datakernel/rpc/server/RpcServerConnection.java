@@ -16,6 +16,7 @@
 
 package io.datakernel.rpc.server;
 
+import io.datakernel.common.Recyclable;
 import io.datakernel.common.parse.ParseException;
 import io.datakernel.datastream.StreamDataAcceptor;
 import io.datakernel.eventloop.jmx.EventStats;
@@ -24,27 +25,36 @@ import io.datakernel.eventloop.jmx.JmxRefreshable;
 import io.datakernel.eventloop.jmx.ValueStats;
 import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.promise.Promise;
-import io.datakernel.rpc.protocol.RpcControlMessage;
-import io.datakernel.rpc.protocol.RpcMessage;
-import io.datakernel.rpc.protocol.RpcRemoteException;
-import io.datakernel.rpc.protocol.RpcStream;
+import io.datakernel.rpc.protocol.*;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 
 public final class RpcServerConnection implements RpcStream.Listener, JmxRefreshable {
 	private static final Logger logger = LoggerFactory.getLogger(RpcServerConnection.class);
+	public static final RpcException UPLOAD_CLOSED = new RpcException(RpcServerConnection.class, "Response has been sent before upload completed");
+	public static final RpcException CONNECTION_CLOSED = new RpcException(RpcServerConnection.class, "Connection closed.");
 
 	private StreamDataAcceptor<RpcMessage> downstreamDataAcceptor;
 
 	private final RpcServer rpcServer;
 	private final RpcStream stream;
 	private final Map<Class<?>, RpcRequestHandler<?, ?>> handlers;
+	private final Map<Class<?>, RpcStreamRequestHandler<?, ?>> streamHandlers;
+	private final Map<Class<?>, RpcUploadRequestHandler<?, ?, ?>> uploadHandlers;
+	private final boolean zeroCopy;
+
+	private final Map<Integer, RpcOutboundStream<Object>> outboundStreams = new HashMap<>();
+	private final Map<Integer, RpcInboundStream<Object>> inboundStreams = new HashMap<>();
 
 	private int activeRequests = 1;
+	private boolean suspended;
+	private boolean closed;
 
 	// jmx
 	private final InetAddress remoteAddress;
@@ -55,10 +65,16 @@ public final class RpcServerConnection implements RpcStream.Listener, JmxRefresh
 	private boolean monitoring = false;
 
 	RpcServerConnection(RpcServer rpcServer, InetAddress remoteAddress,
-			Map<Class<?>, RpcRequestHandler<?, ?>> handlers, RpcStream stream) {
+			Map<Class<?>, RpcRequestHandler<?, ?>> handlers,
+			Map<Class<?>, RpcStreamRequestHandler<?, ?>> streamHandlers,
+			Map<Class<?>, RpcUploadRequestHandler<?, ?, ?>> uploadHandlers,
+			RpcStream stream, boolean zeroCopy) {
 		this.rpcServer = rpcServer;
 		this.stream = stream;
 		this.handlers = handlers;
+		this.streamHandlers = streamHandlers;
+		this.uploadHandlers = uploadHandlers;
+		this.zeroCopy = zeroCopy;
 
 		// jmx
 		this.remoteAddress = remoteAddress;
@@ -75,55 +91,153 @@ public final class RpcServerConnection implements RpcStream.Listener, JmxRefresh
 
 	@Override
 	public void accept(RpcMessage message) {
+		int cookie = message.getCookie();
+		Object messageData = message.getData();
+
+		if (messageData instanceof RpcControlMessage) {
+			processControlMessage(cookie, (RpcControlMessage) messageData);
+			return;
+		}
+
+		RpcInboundStream<Object> inboundStream = inboundStreams.get(cookie);
+		if (inboundStream != null) {
+			if (messageData instanceof RpcRemoteException) {
+				inboundStreams.remove(cookie);
+				inboundStream.onRemoteError((RpcRemoteException) messageData);
+			} else {
+				inboundStream.onData(messageData);
+			}
+			return;
+		}
+
+		if (messageData instanceof RpcRemoteException) {
+			return;
+		}
+
 		activeRequests++;
 
-		int cookie = message.getCookie();
 		long startTime = monitoring ? System.currentTimeMillis() : 0;
 
-		Object messageData = message.getData();
-		serve(messageData)
-				.whenComplete((result, e) -> {
-					if (startTime != 0) {
-						int value = (int) (System.currentTimeMillis() - startTime);
-						requestHandlingTime.recordValue(value);
-						rpcServer.getRequestHandlingTime().recordValue(value);
-					}
+		if (streamHandlers.containsKey(messageData.getClass())) {
+			serveStream(cookie, messageData, startTime);
+			return;
+		}
+
+		Promise<Object> result;
+		if (uploadHandlers.containsKey(messageData.getClass())) {
+			result = serveUpload(cookie, messageData);
+		} else {
+			result = serve(messageData);
+		}
+
+		result
+				.whenComplete((response, e) -> {
+					recordHandlingTime(startTime);
 					if (e == null) {
-						downstreamDataAcceptor.accept(RpcMessage.of(cookie, result));
+						sendMessage(RpcMessage.of(cookie, response));
+						if (zeroCopy) Recyclable.tryRecycle(response);
 
 						successfulRequests.recordEvent();
 						rpcServer.getSuccessfulRequests().recordEvent();
-
-						if (--activeRequests == 0) {
-							doClose();
-							stream.sendEndOfStream();
-						}
 					} else {
-						downstreamDataAcceptor.accept(RpcMessage.of(cookie, new RpcRemoteException(e)));
-
-						lastRequestHandlingException.recordException(e, messageData);
-						rpcServer.getLastRequestHandlingException().recordException(e, messageData);
-						failedRequests.recordEvent();
-						rpcServer.getFailedRequests().recordEvent();
+						sendMessage(RpcMessage.of(cookie, new RpcRemoteException(e)));
 
-						if (--activeRequests == 0) {
-							doClose();
-							stream.sendEndOfStream();
-						}
+						recordFailure(messageData, e);
 						logger.warn("Exception while processing request ID {}", cookie, e);
 					}
+					if (zeroCopy) Recyclable.tryRecycle(messageData);
+					onRequestCompleted();
 				});
 	}
 
-	@Override
-	public void onReceiverEndOfStream() {
-		activeRequests--;
-		if (activeRequests == 0) {
+	@SuppressWarnings("unchecked")
+	private void serveStream(int cookie, Object request, long startTime) {
+		RpcStreamRequestHandler<Object, Object> streamHandler = (RpcStreamRequestHandler<Object, Object>) streamHandlers.get(request.getClass());
+		RpcOutboundStream<Object> outboundStream = new RpcOutboundStream<>(cookie, this::sendMessage);
+		if (suspended) {
+			outboundStream.onConnectionSuspended();
+		}
+		outboundStreams.put(cookie, outboundStream);
+		streamHandler.run(request).streamTo(outboundStream)
+				.whenComplete(($, e) -> {
+					outboundStreams.remove(cookie);
+					recordHandlingTime(startTime);
+					if (e == null) {
+						successfulRequests.recordEvent();
+						rpcServer.getSuccessfulRequests().recordEvent();
+					} else {
+						recordFailure(request, e);
+						logger.warn("Exception while streaming response to request ID {}", cookie, e);
+					}
+					if (zeroCopy) Recyclable.tryRecycle(request);
+					onRequestCompleted();
+				});
+	}
+
+	@SuppressWarnings("unchecked")
+	private Promise<Object> serveUpload(int cookie, Object request) {
+		RpcUploadRequestHandler<Object, Object, Object> uploadHandler = (RpcUploadRequestHandler<Object, Object, Object>) uploadHandlers.get(request.getClass());
+		RpcInboundStream<Object> inboundStream = new RpcInboundStream<>(cookie, this::sendMessage);
+		inboundStreams.put(cookie, inboundStream);
+		return uploadHandler.run(request, inboundStream)
+				.whenComplete(() -> inboundStream.close(UPLOAD_CLOSED));
+	}
+
+	private void processControlMessage(int cookie, RpcControlMessage controlMessage) {
+		if (controlMessage == RpcControlMessage.END_OF_STREAM) {
+			RpcInboundStream<Object> inboundStream = inboundStreams.remove(cookie);
+			if (inboundStream != null) {
+				inboundStream.onRemoteEndOfStream();
+			}
+		} else if (controlMessage == RpcControlMessage.SUSPEND ||
+				controlMessage == RpcControlMessage.RESUME ||
+				controlMessage == RpcControlMessage.CANCEL) {
+			RpcOutboundStream<Object> outboundStream = outboundStreams.get(cookie);
+			if (outboundStream == null) return;
+			if (controlMessage == RpcControlMessage.SUSPEND) {
+				outboundStream.onRemoteSuspend();
+			} else if (controlMessage == RpcControlMessage.RESUME) {
+				outboundStream.onRemoteResume();
+			} else {
+				outboundStream.onRemoteCancel();
+			}
+		} else {
+			logger.warn("Received unexpected RpcControlMessage {} for request ID {}", controlMessage, cookie);
+		}
+	}
+
+	private void sendMessage(RpcMessage message) {
+		if (closed) return;
+		downstreamDataAcceptor.accept(message);
+	}
+
+	private void recordHandlingTime(long startTime) {
+		if (startTime != 0) {
+			int value = (int) (System.currentTimeMillis() - startTime);
+			requestHandlingTime.recordValue(value);
+			rpcServer.getRequestHandlingTime().recordValue(value);
+		}
+	}
+
+	private void recordFailure(Object request, Throwable e) {
+		lastRequestHandlingException.recordException(e, request);
+		rpcServer.getLastRequestHandlingException().recordException(e, request);
+		failedRequests.recordEvent();
+		rpcServer.getFailedRequests().recordEvent();
+	}
+
+	private void onRequestCompleted() {
+		if (--activeRequests == 0) {
 			doClose();
 			stream.sendEndOfStream();
 		}
 	}
 
+	@Override
+	public void onReceiverEndOfStream() {
+		onRequestCompleted();
+	}
+
 	@Override
 	public void onReceiverError(@NotNull Throwable e) {
 		logger.error("Receiver error: " + remoteAddress, e);
@@ -143,14 +257,33 @@ public final class RpcServerConnection implements RpcStream.Listener, JmxRefresh
 	@Override
 	public void onSenderReady(@NotNull StreamDataAcceptor<RpcMessage> acceptor) {
 		this.downstreamDataAcceptor = acceptor;
+		if (suspended) {
+			suspended = false;
+			for (RpcOutboundStream<Object> outboundStream : new ArrayList<>(outboundStreams.values())) {
+				outboundStream.onConnectionReady();
+			}
+		}
 	}
 
 	@Override
 	public void onSenderSuspended() {
+		suspended = true;
+		for (RpcOutboundStream<Object> outboundStream : new ArrayList<>(outboundStreams.values())) {
+			outboundStream.onConnectionSuspended();
+		}
 	}
 
 	private void doClose() {
 		rpcServer.remove(this);
+		if (closed) return;
+		closed = true;
+		for (RpcInboundStream<Object> inboundStream : new ArrayList<>(inboundStreams.values())) {
+			inboundStream.onRemoteError(CONNECTION_CLOSED);
+		}
+		inboundStreams.clear();
+		for (RpcOutboundStream<Object> outboundStream : new ArrayList<>(outboundStreams.values())) {
+			outboundStream.onConnectionClosed(CONNECTION_CLOSED);
+		}
 	}
 
 	public void shutdown() {
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.rpc.server;
+
+import io.datakernel.datastream.StreamSupplier;
+
+/**
+ * Handler of a server-push streaming call: a single request is answered
+ * with a stream of messages, all of which share the cookie of the request.
+ *
+ * @param <I> class of request
+ * @param <O> class of stream items
+ */
+@FunctionalInterface
+public interface RpcStreamRequestHandler<I, O> {
+	StreamSupplier<O> run(I request);
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.rpc;
+
+import io.datakernel.datastream.AbstractStreamConsumer;
+import io.datakernel.datastream.StreamDataAcceptor;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.rpc.client.RpcClient;
+import io.datakernel.rpc.protocol.RpcRemoteException;
+import io.datakernel.rpc.server.RpcServer;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static io.datakernel.rpc.client.sender.RpcStrategies.server;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public final class RpcStreamingTest {
+	private static final int ITEMS = 100_000;
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private RpcServer server;
+	private RpcClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		int port = getFreePort();
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		server = RpcServer.create(eventloop)
+				.withMessageTypes(String.class, Integer.class, Long.class)
+				.withStreamHandler(String.class, request -> request.equals("fail") ?
+						StreamSupplier.closingWithError(new Exception("Stream failure")) :
+						StreamSupplier.ofStream(IntStream.range(0, ITEMS).boxed()))
+				.<Integer, Integer, Long>withUploadHandler(Integer.class, (request, items) ->
+						items.toList().map(list -> request + list.stream().mapToLong(Integer::longValue).sum()))
+				.withListenPort(port);
+		server.listen();
+
+		client = RpcClient.create(eventloop)
+				.withMessageTypes(String.class, Integer.class, Long.class)
+				.withStrategy(server(new InetSocketAddress("localhost", port)));
+	}
+
+	@Test
+	public void testServerPush() {
+		List<Integer> result = await(call(() -> client.<String, Integer>sendStreamRequest("numbers").toList()));
+		assertEquals(IntStream.range(0, ITEMS).boxed().collect(toList()), result);
+	}
+
+	@Test
+	public void testServerPushWithSlowConsumer() {
+		SuspendingConsumer consumer = new SuspendingConsumer();
+		await(call(() -> client.<String, Integer>sendStreamRequest("numbers").streamTo(consumer)));
+		assertEquals(IntStream.range(0, ITEMS).boxed().collect(toList()), consumer.list);
+	}
+
+	@Test
+	public void testMultiplexedStreams() {
+		List<Integer> result = await(call(() -> {
+			Promise<List<Integer>> first = client.<String, Integer>sendStreamRequest("first").toList();
+			Promise<List<Integer>> second = client.<String, Integer>sendStreamRequest("second").toList();
+			Promise<Long> unary = client.sendUploadRequest(1, StreamSupplier.of(2, 3));
+			return Promises.toList(first, second)
+					.then(lists -> unary.map(sum -> {
+						assertEquals(6L, sum.longValue());
+						return lists.stream().flatMap(List::stream).collect(toList());
+					}));
+		}));
+		assertEquals(2 * ITEMS, result.size());
+	}
+
+	@Test
+	public void testServerPushError() {
+		Throwable e = awaitException(call(() -> client.<String, Integer>sendStreamRequest("fail").toList()));
+		assertTrue(e instanceof RpcRemoteException);
+	}
+
+	@Test
+	public void testClientStream() {
+		Long result = await(call(() -> client.sendUploadRequest(100, StreamSupplier.ofStream(IntStream.range(0, ITEMS).boxed()))));
+		assertEquals(100L + (long) ITEMS * (ITEMS - 1) / 2, result.longValue());
+	}
+
+	private <T> Promise<T> call(Supplier<Promise<T>> call) {
+		return client.start()
+				.then($ -> call.get())
+				.whenComplete(() -> {
+					client.stop();
+					server.close();
+				});
+	}
+
+	private static final class SuspendingConsumer extends AbstractStreamConsumer<Integer> {
+		private final List<Integer> list = new ArrayList<>();
+		private final StreamDataAcceptor<Integer> acceptor = new StreamDataAcceptor<Integer>() {
+			@Override
+			public void accept(Integer item) {
+				list.add(item);
+				if (list.size() % 1000 == 0) {
+					getSupplier().suspend();
+					eventloop.post(() -> getSupplier().resume(this));
+				}
+			}
+		};
+
+		@Override
+		protected void onStarted() {
+			getSupplier().resume(acceptor);
+		}
+
+		@Override
+		protected Promise<Void> onEndOfStream() {
+			return Promise.complete();
+		}
+
+		@Override
+		protected void onError(Throwable e) {
+		}
+	}
+}
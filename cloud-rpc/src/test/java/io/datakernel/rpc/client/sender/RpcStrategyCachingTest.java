@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.common.time.SettableCurrentTimeProvider;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.rpc.client.sender.helper.RpcClientConnectionPoolStub;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.rpc.client.sender.RpcStrategies.caching;
+import static io.datakernel.rpc.client.sender.RpcStrategies.server;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static org.junit.Assert.*;
+
+public class RpcStrategyCachingTest {
+	private static final InetSocketAddress ADDRESS = new InetSocketAddress("localhost", getFreePort());
+
+	private final Eventloop eventloop = Eventloop.create();
+	private final SettableCurrentTimeProvider now = SettableCurrentTimeProvider.create();
+	private final RecordingSender connection = new RecordingSender();
+	private final RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+
+	@Before
+	public void setUp() {
+		pool.put(ADDRESS, connection);
+	}
+
+	@SuppressWarnings("ConstantConditions")
+	@Test
+	public void testCachingWithTtl() {
+		RpcStrategyCaching strategy = caching(eventloop, server(ADDRESS))
+				.withRequestType(String.class, Duration.ofSeconds(10));
+		strategy.now = now;
+		RpcSender sender = strategy.createSender(pool);
+
+		List<Object> results = new ArrayList<>();
+		sender.sendRequest("request", 1000, (result, e) -> results.add(result));
+		connection.complete(0, "response");
+		sender.sendRequest("request", 1000, (result, e) -> results.add(result));
+		assertEquals(1, connection.requests.size());
+
+		now.setTime(10_000);
+		sender.sendRequest("request", 1000, (result, e) -> results.add(result));
+		assertEquals(2, connection.requests.size());
+		connection.complete(1, "new response");
+
+		// not cached request type
+		sender.sendRequest(1, 1000, (result, e) -> results.add(result));
+		sender.sendRequest(1, 1000, (result, e) -> results.add(result));
+		assertEquals(4, connection.requests.size());
+
+		assertEquals(3, results.size());
+		assertEquals("response", results.get(0));
+		assertEquals("response", results.get(1));
+		assertEquals("new response", results.get(2));
+		assertEquals(1, strategy.getSize());
+	}
+
+	@SuppressWarnings("ConstantConditions")
+	@Test
+	public void testDeduplicationOfInFlightRequests() {
+		RpcStrategyCaching strategy = caching(eventloop, server(ADDRESS))
+				.withRequestType(String.class, Duration.ofSeconds(10));
+		RpcSender sender = strategy.createSender(pool);
+
+		List<Object> results = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			sender.sendRequest("request", 1000, (result, e) -> results.add(result));
+		}
+		assertEquals(1, connection.requests.size());
+		assertEquals(1, strategy.getInFlightRequests());
+		connection.complete(0, "response");
+
+		assertEquals(10, results.size());
+		assertTrue(results.stream().allMatch("response"::equals));
+		assertEquals(0, strategy.getInFlightRequests());
+		strategy.getDeduplicated().refresh(eventloop.currentTimeMillis());
+		assertEquals(9, strategy.getDeduplicated().getTotalCount());
+	}
+
+	@SuppressWarnings("ConstantConditions")
+	@Test
+	public void testErrorsAreNotCached() {
+		RpcStrategyCaching strategy = caching(eventloop, server(ADDRESS))
+				.withRequestType(String.class, Duration.ofSeconds(10));
+		RpcSender sender = strategy.createSender(pool);
+
+		List<Throwable> errors = new ArrayList<>();
+		sender.sendRequest("request", 1000, (result, e) -> errors.add(e));
+		sender.sendRequest("request", 1000, (result, e) -> errors.add(e));
+		connection.fail(0, new Exception("failure"));
+		assertEquals(2, errors.size());
+
+		sender.sendRequest("request", 1000, (result, e) -> {});
+		assertEquals(2, connection.requests.size());
+		assertEquals(0, strategy.getSize());
+	}
+
+	@SuppressWarnings("ConstantConditions")
+	@Test
+	public void testLruEviction() {
+		RpcStrategyCaching strategy = caching(eventloop, server(ADDRESS))
+				.withRequestType(String.class, Duration.ofSeconds(10))
+				.withCapacity(2);
+		RpcSender sender = strategy.createSender(pool);
+
+		request(sender, "a");
+		request(sender, "b");
+		request(sender, "a");
+		request(sender, "c");
+		assertEquals(2, strategy.getSize());
+		assertEquals(3, connection.requests.size());
+
+		request(sender, "a");
+		assertEquals(3, connection.requests.size());
+		request(sender, "b");
+		assertEquals(4, connection.requests.size());
+
+		strategy.getEvictions().refresh(eventloop.currentTimeMillis());
+		assertEquals(2, strategy.getEvictions().getTotalCount());
+	}
+
+	@SuppressWarnings("ConstantConditions")
+	@Test
+	public void testTinyLfuAdmission() {
+		RpcStrategyCaching strategy = caching(eventloop, server(ADDRESS))
+				.withRequestType(String.class, Duration.ofSeconds(10))
+				.withCapacity(1)
+				.withTinyLfuAdmission();
+		RpcSender sender = strategy.createSender(pool);
+
+		for (int i = 0; i < 5; i++) {
+			request(sender, "hot");
+		}
+		assertEquals(1, connection.requests.size());
+
+		request(sender, "one-off");
+		request(sender, "hot");
+		assertEquals(2, connection.requests.size());
+		assertEquals(1, strategy.getSize());
+	}
+
+	@SuppressWarnings("ConstantConditions")
+	@Test
+	public void testRejectedResponseDoesNotEvictAnything() {
+		RpcStrategyCaching strategy = caching(eventloop, server(ADDRESS))
+				.withRequestType(String.class, Duration.ofSeconds(10))
+				.withCapacity(2)
+				.withWeigher((request, response) -> request.equals("big") ? 2 : 1)
+				.withTinyLfuAdmission();
+		RpcSender sender = strategy.createSender(pool);
+
+		request(sender, "cold");
+		for (int i = 0; i < 5; i++) {
+			request(sender, "hot");
+		}
+		assertEquals(2, connection.requests.size());
+
+		// "big" is more frequent than "cold", but not than "hot", which it would also need to evict
+		request(sender, "big");
+		request(sender, "big");
+		assertEquals(4, connection.requests.size());
+		assertEquals(2, strategy.getSize());
+
+		request(sender, "cold");
+		request(sender, "hot");
+		assertEquals(4, connection.requests.size());
+		strategy.getEvictions().refresh(eventloop.currentTimeMillis());
+		assertEquals(0, strategy.getEvictions().getTotalCount());
+	}
+
+	private void request(RpcSender sender, String request) {
+		int index = connection.requests.size();
+		sender.sendRequest(request, 1000, (result, e) -> {});
+		if (connection.requests.size() > index) {
+			connection.complete(index, request + " response");
+		}
+	}
+
+	private static final class RecordingSender implements RpcSender {
+		final List<Object> requests = new ArrayList<>();
+		final List<Callback<Object>> callbacks = new ArrayList<>();
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			requests.add(request);
+			callbacks.add((Callback<Object>) cb);
+		}
+
+		void complete(int index, Object result) {
+			callbacks.get(index).accept(result, null);
+		}
+
+		void fail(int index, Throwable e) {
+			callbacks.get(index).accept(null, e);
+		}
+	}
+}
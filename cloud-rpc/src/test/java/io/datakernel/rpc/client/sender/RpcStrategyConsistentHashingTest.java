@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.rpc.client.sender.helper.RpcClientConnectionPoolStub;
+import io.datakernel.rpc.client.sender.helper.RpcMessageDataStubWithKey;
+import io.datakernel.rpc.client.sender.helper.RpcMessageDataStubWithKeyHashFunction;
+import io.datakernel.rpc.client.sender.helper.RpcSenderStub;
+import io.datakernel.rpc.hash.HashFunction;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static io.datakernel.rpc.client.sender.Callbacks.assertNoCalls;
+import static io.datakernel.rpc.client.sender.RpcStrategies.consistentHashing;
+import static io.datakernel.rpc.client.sender.RpcStrategies.server;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static org.junit.Assert.*;
+
+public class RpcStrategyConsistentHashingTest {
+
+	private static final String HOST = "localhost";
+
+	private static final InetSocketAddress ADDRESS_1 = new InetSocketAddress(HOST, getFreePort());
+	private static final InetSocketAddress ADDRESS_2 = new InetSocketAddress(HOST, getFreePort());
+	private static final InetSocketAddress ADDRESS_3 = new InetSocketAddress(HOST, getFreePort());
+
+	private final HashFunction<Object> hashFunction = new RpcMessageDataStubWithKeyHashFunction();
+
+	@SuppressWarnings("ConstantConditions")
+	@Test
+	public void itShouldDistributeCallsBetweenActiveSenders() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		RpcSenderStub connection1 = new RpcSenderStub();
+		RpcSenderStub connection2 = new RpcSenderStub();
+		RpcSenderStub connection3 = new RpcSenderStub();
+		RpcStrategy consistentHashing = consistentHashing(hashFunction)
+				.withShard(1, server(ADDRESS_1))
+				.withShard(2, server(ADDRESS_2))
+				.withShard(3, server(ADDRESS_3));
+		int callsPerLoop = 30000;
+		int timeout = 50;
+
+		pool.put(ADDRESS_1, connection1);
+		pool.put(ADDRESS_2, connection2);
+		pool.put(ADDRESS_3, connection3);
+		RpcSender sender = consistentHashing.createSender(pool);
+		for (int i = 0; i < callsPerLoop; i++) {
+			sender.sendRequest(new RpcMessageDataStubWithKey(i), timeout, assertNoCalls());
+		}
+		double delta = callsPerLoop / 10.0;
+		assertEquals(callsPerLoop / 3.0, connection1.getRequests(), delta);
+		assertEquals(callsPerLoop / 3.0, connection2.getRequests(), delta);
+		assertEquals(callsPerLoop / 3.0, connection3.getRequests(), delta);
+
+		int requests2 = connection2.getRequests();
+		int requests3 = connection3.getRequests();
+		pool.remove(ADDRESS_1);
+		sender = consistentHashing.createSender(pool);
+		for (int i = 0; i < callsPerLoop; i++) {
+			sender.sendRequest(new RpcMessageDataStubWithKey(i), timeout, assertNoCalls());
+		}
+		// keys of remaining shards do not move
+		assertEquals(callsPerLoop, connection2.getRequests() - requests2 + connection3.getRequests() - requests3);
+		assertTrue(connection2.getRequests() - requests2 >= requests2);
+		assertTrue(connection3.getRequests() - requests3 >= requests3);
+	}
+
+	@SuppressWarnings("ConstantConditions")
+	@Test
+	public void itShouldSpreadHotKeyWithBoundedLoads() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		RpcSenderStub connection1 = new RpcSenderStub();
+		RpcSenderStub connection2 = new RpcSenderStub();
+		RpcSenderStub connection3 = new RpcSenderStub();
+		pool.put(ADDRESS_1, connection1);
+		pool.put(ADDRESS_2, connection2);
+		pool.put(ADDRESS_3, connection3);
+		RpcSender sender = consistentHashing(hashFunction)
+				.withShards(ADDRESS_1, ADDRESS_2, ADDRESS_3)
+				.withBoundedLoads(1.5)
+				.createSender(pool);
+
+		int calls = 3000;
+		for (int i = 0; i < calls; i++) {
+			sender.sendRequest(new RpcMessageDataStubWithKey(42), 50, assertNoCalls());
+		}
+		int capacity = (int) Math.ceil(1.5 * calls / 3);
+		assertTrue(connection1.getRequests() <= capacity);
+		assertTrue(connection2.getRequests() <= capacity);
+		assertTrue(connection3.getRequests() <= capacity);
+		assertEquals(calls, connection1.getRequests() + connection2.getRequests() + connection3.getRequests());
+	}
+
+	@SuppressWarnings("ConstantConditions")
+	@Test
+	public void itShouldRouteHotKeyToTheSendersWhichSendThemWithBoundedLoads() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		pool.put(ADDRESS_1, new RpcSenderStub());
+		pool.put(ADDRESS_2, new RpcSenderStub());
+		pool.put(ADDRESS_3, new RpcSenderStub());
+		RpcSender sender = consistentHashing(hashFunction)
+				.withShards(ADDRESS_1, ADDRESS_2, ADDRESS_3)
+				.withBoundedLoads(1.5)
+				.createSender(pool);
+
+		for (int i = 0; i < 300; i++) {
+			RpcMessageDataStubWithKey request = new RpcMessageDataStubWithKey(42);
+			RpcSenderStub routed = (RpcSenderStub) sender.route(request);
+			int requests = routed.getRequests();
+			sender.sendRequest(request, 50, assertNoCalls());
+			assertEquals(requests + 1, routed.getRequests());
+		}
+	}
+
+	@Test
+	public void itShouldNotBeCreatedWhenThereAreNotEnoughActiveShards() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		pool.put(ADDRESS_3, new RpcSenderStub());
+		RpcStrategyConsistentHashing consistentHashing = consistentHashing(hashFunction)
+				.withShards(ADDRESS_1, ADDRESS_2, ADDRESS_3);
+
+		assertNotNull(consistentHashing.createSender(pool));
+		assertNull(consistentHashing.withMinActiveShards(2).createSender(pool));
+	}
+}
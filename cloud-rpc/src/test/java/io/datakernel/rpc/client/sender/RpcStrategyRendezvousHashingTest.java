@@ -196,4 +196,26 @@ public class RpcStrategyRendezvousHashingTest {
 		assertNull(rendezvousHashing.createSender(pool));
 	}
 
+	@Test
+	public void itShouldRouteRequestsToTheSendersWhichSendThem() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		RpcSenderStub connection1 = new RpcSenderStub();
+		RpcSenderStub connection2 = new RpcSenderStub();
+		pool.put(ADDRESS_1, connection1);
+		pool.put(ADDRESS_2, connection2);
+		RpcSender sender = rendezvousHashing(new RpcMessageDataStubWithKeyHashFunction())
+				.withShards(ADDRESS_1, ADDRESS_2)
+				.createSender(pool);
+		assertNotNull(sender);
+
+		for (int i = 0; i < 100; i++) {
+			RpcMessageDataStubWithKey request = new RpcMessageDataStubWithKey(i);
+			RpcSenderStub destination = (RpcSenderStub) sender.route(request);
+			int before = destination.getRequests();
+			sender.sendRequest(request, 50, assertNoCalls());
+			assertEquals(before + 1, destination.getRequests());
+		}
+		assertTrue(connection1.getRequests() > 0);
+		assertTrue(connection2.getRequests() > 0);
+	}
 }
@@ -16,12 +16,15 @@
 
 package io.datakernel.rpc.protocol.stream;
 
+import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.common.MemSize;
+import io.datakernel.common.Recyclable;
 import io.datakernel.csp.process.ChannelLZ4Compressor;
 import io.datakernel.csp.process.ChannelLZ4Decompressor;
 import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.datastream.csp.ChannelDeserializer;
 import io.datakernel.datastream.csp.ChannelSerializer;
+import io.datakernel.datastream.csp.SerializerDefByteBuf;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
@@ -30,6 +33,8 @@ import io.datakernel.rpc.protocol.RpcMessage;
 import io.datakernel.rpc.server.RpcServer;
 import io.datakernel.serializer.BinarySerializer;
 import io.datakernel.serializer.SerializerBuilder;
+import io.datakernel.serializer.annotations.Deserialize;
+import io.datakernel.serializer.annotations.Serialize;
 import io.datakernel.test.rules.ByteBufRule;
 import io.datakernel.test.rules.EventloopRule;
 import org.junit.ClassRule;
@@ -43,9 +48,9 @@ import static io.datakernel.promise.TestUtils.await;
 import static io.datakernel.rpc.client.sender.RpcStrategies.server;
 import static io.datakernel.test.TestUtils.getFreePort;
 import static java.lang.ClassLoader.getSystemClassLoader;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public final class RpcBinaryProtocolTest {
 	private static final int LISTEN_PORT = getFreePort();
@@ -111,4 +116,99 @@ public final class RpcBinaryProtocolTest {
 			assertEquals(testMessage, data);
 		}
 	}
+
+	@Test
+	public void testZeroCopyDeserialization() {
+		BinarySerializer<RpcMessage> binarySerializer = SerializerBuilder.create(getSystemClassLoader())
+				.withSerializer(ByteBuf.class, SerializerDefByteBuf.ofRetainedSlices(false))
+				.withSubclasses(RpcMessage.MESSAGE_TYPES, Payload.class)
+				.build(RpcMessage.class);
+
+		List<RpcMessage> sourceList = IntStream.range(0, 10)
+				.mapToObj(i -> RpcMessage.of(i, new Payload(ByteBuf.wrapForReading(("data " + i).getBytes(UTF_8)))))
+				.collect(toList());
+
+		StreamSupplier<RpcMessage> supplier = StreamSupplier.ofIterable(sourceList)
+				.transformWith(ChannelSerializer.create(binarySerializer))
+				.transformWith(ChannelDeserializer.create(binarySerializer).withZeroCopy());
+
+		List<RpcMessage> list = await(supplier.toList());
+		assertEquals(sourceList.size(), list.size());
+		ByteBuf first = ((Payload) list.get(0).getData()).getData();
+		for (int i = 0; i < list.size(); i++) {
+			ByteBuf data = ((Payload) list.get(i).getData()).getData();
+			assertSame(first.array(), data.array());
+			assertEquals("data " + i, data.getString(UTF_8));
+		}
+		list.forEach(message -> ((Payload) message.getData()).recycle());
+	}
+
+	@Test
+	public void testZeroCopyProxy() {
+		int backendPort = getFreePort();
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+
+		RpcServer backend = RpcServer.create(eventloop)
+				.withMessageTypes(Payload.class)
+				.withZeroCopy()
+				.withHandler(Payload.class, Payload.class, request -> Promise.of(new Payload(request.getData().slice())))
+				.withListenPort(backendPort);
+
+		RpcClient proxyClient = RpcClient.create(eventloop)
+				.withMessageTypes(Payload.class)
+				.withZeroCopy()
+				.withStrategy(server(new InetSocketAddress("localhost", backendPort)));
+
+		RpcServer proxy = RpcServer.create(eventloop)
+				.withMessageTypes(Payload.class)
+				.withZeroCopy()
+				.withHandler(Payload.class, Payload.class, proxyClient::sendRequest)
+				.withListenPort(LISTEN_PORT);
+
+		RpcClient client = RpcClient.create(eventloop)
+				.withMessageTypes(Payload.class)
+				.withZeroCopy()
+				.withStrategy(server(new InetSocketAddress("localhost", LISTEN_PORT)));
+
+		List<String> list = await(Promise.complete()
+				.then($ -> {
+					try {
+						backend.listen();
+						proxy.listen();
+					} catch (Exception e) {
+						return Promise.ofException(e);
+					}
+					return proxyClient.start();
+				})
+				.then($ -> client.start())
+				.then($ -> Promises.toList(IntStream.range(0, 10)
+						.mapToObj(i -> client.<Payload, Payload>sendRequest(new Payload(ByteBuf.wrapForReading(("request " + i).getBytes(UTF_8))))
+								.map(response -> response.getData().asString(UTF_8)))))
+				.whenComplete(() -> {
+					client.stop();
+					proxyClient.stop();
+					proxy.close();
+					backend.close();
+				}));
+
+		assertEquals(IntStream.range(0, 10).mapToObj(i -> "request " + i).collect(toList()), list);
+	}
+
+	public static final class Payload implements Recyclable {
+		private final ByteBuf data;
+
+		public Payload(@Deserialize("data") ByteBuf data) {
+			this.data = data;
+		}
+
+		@Serialize(order = 0)
+		public ByteBuf getData() {
+			return data;
+		}
+
+		@Override
+		public void recycle() {
+			data.recycle();
+		}
+	}
 }
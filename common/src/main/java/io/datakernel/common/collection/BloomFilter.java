@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.common.collection;
+
+import java.util.Arrays;
+
+import static io.datakernel.common.HashUtils.murmur3hash;
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Probabilistic set of hashes, which answers whether a hash might have been added.
+ * <p>
+ * Uses 10 bits and 7 hash functions per expected entry, which gives
+ * less than 1% false positives while the number of entries does not exceed the expected one.
+ * There are no false negatives.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class BloomFilter {
+	private static final int BITS_PER_ENTRY = 10;
+	private static final int HASHES = 7;
+
+	private final long[] bits;
+	private final int mask;
+
+	private BloomFilter(int size) {
+		this.bits = new long[size >>> 6];
+		this.mask = size - 1;
+	}
+
+	public static BloomFilter create(int expectedEntries) {
+		checkArgument(expectedEntries > 0, "Number of expected entries must be positive");
+		long size = Long.highestOneBit(Math.max((long) expectedEntries * BITS_PER_ENTRY, 64) - 1) << 1;
+		checkArgument(size <= 1 << 30, "Too many expected entries");
+		return new BloomFilter((int) size);
+	}
+
+	public void add(int hash) {
+		int h1 = murmur3hash(hash, 0);
+		int h2 = murmur3hash(hash, 1) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			int index = (h1 + i * h2) & mask;
+			bits[index >>> 6] |= 1L << index;
+		}
+	}
+
+	public boolean mightContain(int hash) {
+		int h1 = murmur3hash(hash, 0);
+		int h2 = murmur3hash(hash, 1) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			int index = (h1 + i * h2) & mask;
+			if ((bits[index >>> 6] & (1L << index)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(bits, 0L);
+	}
+}
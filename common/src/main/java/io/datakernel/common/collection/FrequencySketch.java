@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.common.collection;
+
+import java.util.Arrays;
+
+import static io.datakernel.common.HashUtils.murmur3hash;
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Approximate frequency counter for TinyLFU cache admission.
+ * <p>
+ * A count-min sketch of saturating 4-bit counters. Once the number of recorded
+ * events reaches a sample size (ten times the width of the sketch), all counters
+ * are halved, so that frequencies reflect recent history rather than all time.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class FrequencySketch {
+	private static final int DEPTH = 4;
+	private static final int MAX_FREQUENCY = 15;
+
+	private final byte[] table;
+	private final int mask;
+	private final int sampleSize;
+	private int additions;
+
+	private FrequencySketch(int width) {
+		this.table = new byte[width * DEPTH];
+		this.mask = width - 1;
+		this.sampleSize = width * 10;
+	}
+
+	/**
+	 * Creates a sketch suitable to track frequencies of a cache holding up to {@code expectedEntries} entries
+	 */
+	public static FrequencySketch create(int expectedEntries) {
+		checkArgument(expectedEntries > 0, "Number of expected entries must be positive");
+		int width = Integer.highestOneBit(Math.max(expectedEntries, 8) - 1) << 1;
+		return new FrequencySketch(width);
+	}
+
+	public void increment(int hash) {
+		boolean incremented = false;
+		for (int i = 0; i < DEPTH; i++) {
+			int index = indexOf(hash, i);
+			if (table[index] < MAX_FREQUENCY) {
+				table[index]++;
+				incremented = true;
+			}
+		}
+		if (incremented && ++additions == sampleSize) {
+			age();
+		}
+	}
+
+	public int frequency(int hash) {
+		int frequency = MAX_FREQUENCY;
+		for (int i = 0; i < DEPTH; i++) {
+			frequency = Math.min(frequency, table[indexOf(hash, i)]);
+		}
+		return frequency;
+	}
+
+	public void clear() {
+		Arrays.fill(table, (byte) 0);
+		additions = 0;
+	}
+
+	private int indexOf(int hash, int row) {
+		return row * (mask + 1) + (murmur3hash(hash, row) & mask);
+	}
+
+	private void age() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] >>>= 1;
+		}
+		additions /= 2;
+	}
+}
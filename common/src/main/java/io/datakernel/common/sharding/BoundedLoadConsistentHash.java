@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.common.sharding;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Consistent hashing with bounded loads by Mirrokni, Thorup and Zadimoghaddam.
+ * <p>
+ * Every node may hold at most {@code ceil(balanceFactor * averageLoad)} keys at once.
+ * A key is assigned to its owner on the {@link ConsistentHashRing} unless the owner is full,
+ * in which case it goes to the next node on the ring with spare capacity. This way hot keys
+ * spill over to neighbouring nodes instead of overloading a single one.
+ * <p>
+ * Loads are acquired and released explicitly, for example per in-flight request.
+ * Instances are not thread-safe.
+ *
+ * @param <T> type of nodes
+ */
+public final class BoundedLoadConsistentHash<T> {
+	public static final double DEFAULT_BALANCE_FACTOR = 1.25;
+
+	private final ConsistentHashRing<T> ring;
+	private final int[] loads;
+	private double balanceFactor = DEFAULT_BALANCE_FACTOR;
+	private int totalLoad;
+
+	private BoundedLoadConsistentHash(ConsistentHashRing<T> ring) {
+		this.ring = ring;
+		this.loads = new int[ring.size()];
+	}
+
+	public static <T> BoundedLoadConsistentHash<T> create(ConsistentHashRing<T> ring) {
+		return new BoundedLoadConsistentHash<>(ring);
+	}
+
+	public BoundedLoadConsistentHash<T> withBalanceFactor(double balanceFactor) {
+		checkArgument(balanceFactor > 1.0, "Balance factor must be greater than 1");
+		this.balanceFactor = balanceFactor;
+		return this;
+	}
+
+	/**
+	 * Assigns the key to a node which is not overloaded and increments its load
+	 *
+	 * @param keyHash hash code of a key
+	 * @return index of a node in the list of nodes
+	 */
+	public int acquire(int keyHash) {
+		int capacity = (int) Math.ceil(balanceFactor * (totalLoad + 1) / loads.length);
+		int point = ring.pointOf(keyHash);
+		while (true) {
+			int shard = ring.ownerOf(point);
+			if (loads[shard] < capacity) {
+				loads[shard]++;
+				totalLoad++;
+				return shard;
+			}
+			point = ring.nextPoint(point);
+		}
+	}
+
+	/**
+	 * Decrements load of a node previously returned by {@link #acquire(int)}
+	 */
+	public void release(int shard) {
+		loads[shard]--;
+		totalLoad--;
+	}
+
+	public ConsistentHashRing<T> getRing() {
+		return ring;
+	}
+
+	public int getLoad(int shard) {
+		return loads[shard];
+	}
+
+	public int getTotalLoad() {
+		return totalLoad;
+	}
+
+	public double getBalanceFactor() {
+		return balanceFactor;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.common.sharding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.datakernel.common.HashUtils.murmur3hash;
+import static io.datakernel.common.Preconditions.checkArgument;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Consistent hash ring with virtual nodes.
+ * <p>
+ * Each node is placed on the ring at {@code virtualNodes} points derived from its {@code hashCode},
+ * so positions of a node do not depend on other nodes: when a node joins or leaves,
+ * only keys adjacent to its points change their owner.
+ * <p>
+ * The ring is immutable, on membership change a new ring should be created.
+ *
+ * @param <T> type of nodes
+ */
+public final class ConsistentHashRing<T> {
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	private final List<T> nodes;
+	private final int[] points;
+	private final int[] owners;
+
+	private ConsistentHashRing(List<T> nodes, int[] points, int[] owners) {
+		this.nodes = nodes;
+		this.points = points;
+		this.owners = owners;
+	}
+
+	public static <T> ConsistentHashRing<T> create(List<T> nodes) {
+		return create(nodes, DEFAULT_VIRTUAL_NODES);
+	}
+
+	public static <T> ConsistentHashRing<T> create(List<T> nodes, int virtualNodes) {
+		checkArgument(!nodes.isEmpty(), "List of nodes must not be empty");
+		checkArgument(virtualNodes > 0, "Number of virtual nodes must be positive");
+
+		long[] sorted = new long[nodes.size() * virtualNodes];
+		for (int i = 0; i < nodes.size(); i++) {
+			int nodeHash = nodes.get(i).hashCode();
+			for (int v = 0; v < virtualNodes; v++) {
+				sorted[i * virtualNodes + v] = ((long) murmur3hash(nodeHash, v) << 32) | i;
+			}
+		}
+		Arrays.sort(sorted);
+
+		int[] points = new int[sorted.length];
+		int[] owners = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			points[i] = (int) (sorted[i] >> 32);
+			owners[i] = (int) sorted[i];
+		}
+		return new ConsistentHashRing<>(unmodifiableList(new ArrayList<>(nodes)), points, owners);
+	}
+
+	/**
+	 * Returns an index of the node which owns the key
+	 *
+	 * @param keyHash hash code of a key
+	 * @return index of a node in the list of nodes
+	 */
+	public int getShard(int keyHash) {
+		return owners[pointOf(keyHash)];
+	}
+
+	public T get(int keyHash) {
+		return nodes.get(getShard(keyHash));
+	}
+
+	/**
+	 * Returns indexes of {@code count} distinct nodes which follow the key on the ring,
+	 * the first one being its owner. Useful for placement of replicas.
+	 *
+	 * @param keyHash hash code of a key
+	 * @param count   number of nodes, not greater than number of nodes in the ring
+	 * @return indexes of nodes in the list of nodes
+	 */
+	public int[] getShards(int keyHash, int count) {
+		checkArgument(count > 0 && count <= nodes.size(), "Number of shards must be in range [1, %d]", nodes.size());
+		int[] result = new int[count];
+		int found = 0;
+		int point = pointOf(keyHash);
+		while (found < count) {
+			int owner = owners[point];
+			if (!contains(result, found, owner)) {
+				result[found++] = owner;
+			}
+			point = nextPoint(point);
+		}
+		return result;
+	}
+
+	public List<T> getNodes() {
+		return nodes;
+	}
+
+	public int size() {
+		return nodes.size();
+	}
+
+	int pointOf(int keyHash) {
+		int hash = murmur3hash(keyHash);
+		int index = Arrays.binarySearch(points, hash);
+		if (index < 0) {
+			index = -index - 1;
+			if (index == points.length) {
+				index = 0;
+			}
+		}
+		return index;
+	}
+
+	int nextPoint(int point) {
+		return point + 1 == points.length ? 0 : point + 1;
+	}
+
+	int ownerOf(int point) {
+		return owners[point];
+	}
+
+	private static boolean contains(int[] array, int size, int value) {
+		for (int i = 0; i < size; i++) {
+			if (array[i] == value) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "ConsistentHashRing{nodes=" + nodes + ", virtualNodes=" + points.length / nodes.size() + '}';
+	}
+}
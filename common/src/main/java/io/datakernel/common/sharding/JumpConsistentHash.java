@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.common.sharding;
+
+/**
+ * Jump consistent hash by Lamping and Veach.
+ * <p>
+ * Maps a key to one of {@code buckets} shards without any lookup table,
+ * and when the number of buckets grows from {@code n} to {@code n + 1}
+ * only {@code 1 / (n + 1)} of keys move, all of them to the new bucket.
+ * Buckets can only be added or removed at the end of the range.
+ */
+public final class JumpConsistentHash {
+	private JumpConsistentHash() {
+	}
+
+	/**
+	 * Returns a bucket in range {@code [0, buckets)} for the given key
+	 *
+	 * @param key     hash of a key
+	 * @param buckets positive number of buckets
+	 * @return bucket of the key
+	 */
+	public static int shard(long key, int buckets) {
+		long b = -1;
+		long j = 0;
+		while (j < buckets) {
+			b = j;
+			key = key * 2862933555777941757L + 1;
+			j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+		}
+		return (int) b;
+	}
+}
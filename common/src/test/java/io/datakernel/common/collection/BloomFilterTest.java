@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.common.collection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+	@Test
+	public void testNoFalseNegatives() {
+		BloomFilter bloomFilter = BloomFilter.create(1000);
+		for (int i = 0; i < 1000; i++) {
+			bloomFilter.add(i * 31);
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(bloomFilter.mightContain(i * 31));
+		}
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		BloomFilter bloomFilter = BloomFilter.create(10_000);
+		for (int i = 0; i < 10_000; i++) {
+			bloomFilter.add(i);
+		}
+		int falsePositives = 0;
+		for (int i = 10_000; i < 110_000; i++) {
+			if (bloomFilter.mightContain(i)) falsePositives++;
+		}
+		assertTrue(falsePositives < 1000);
+	}
+
+	@Test
+	public void testClear() {
+		BloomFilter bloomFilter = BloomFilter.create(10);
+		bloomFilter.add(42);
+		bloomFilter.clear();
+		assertFalse(bloomFilter.mightContain(42));
+	}
+}
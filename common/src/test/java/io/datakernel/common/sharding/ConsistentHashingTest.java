@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.common.sharding;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public class ConsistentHashingTest {
+	private static final int KEYS = 100_000;
+
+	@Test
+	public void testJumpConsistentHashMovesKeysOnlyToNewBucket() {
+		int moved = 0;
+		for (int key = 0; key < KEYS; key++) {
+			int before = JumpConsistentHash.shard(key, 10);
+			int after = JumpConsistentHash.shard(key, 11);
+			assertTrue(before >= 0 && before < 10);
+			if (before != after) {
+				assertEquals(10, after);
+				moved++;
+			}
+		}
+		assertEquals(KEYS / 11.0, moved, KEYS * 0.01);
+	}
+
+	@Test
+	public void testRingMembershipChange() {
+		List<String> nodes = IntStream.range(0, 10).mapToObj(i -> "node" + i).collect(toList());
+		ConsistentHashRing<String> ring = ConsistentHashRing.create(nodes);
+
+		List<String> extended = new ArrayList<>(nodes);
+		extended.add("node10");
+		ConsistentHashRing<String> extendedRing = ConsistentHashRing.create(extended);
+
+		int[] counts = new int[nodes.size()];
+		int moved = 0;
+		for (int key = 0; key < KEYS; key++) {
+			String before = ring.get(key);
+			String after = extendedRing.get(key);
+			counts[ring.getShard(key)]++;
+			if (!before.equals(after)) {
+				assertEquals("node10", after);
+				moved++;
+			}
+		}
+		assertTrue(moved < KEYS / 11 * 2);
+		for (int count : counts) {
+			assertEquals(KEYS / nodes.size(), count, KEYS / nodes.size() * 0.3);
+		}
+	}
+
+	@Test
+	public void testRingReplicas() {
+		List<Integer> nodes = IntStream.range(0, 5).boxed().collect(toList());
+		ConsistentHashRing<Integer> ring = ConsistentHashRing.create(nodes, 16);
+		for (int key = 0; key < 1000; key++) {
+			int[] shards = ring.getShards(key, 3);
+			assertEquals(ring.getShard(key), shards[0]);
+			Set<Integer> distinct = new HashSet<>();
+			for (int shard : shards) distinct.add(shard);
+			assertEquals(3, distinct.size());
+		}
+	}
+
+	@Test
+	public void testBoundedLoads() {
+		List<Integer> nodes = IntStream.range(0, 8).boxed().collect(toList());
+		BoundedLoadConsistentHash<Integer> sharding = BoundedLoadConsistentHash.create(ConsistentHashRing.create(nodes))
+				.withBalanceFactor(1.25);
+
+		int hotKey = 42;
+		int[] shards = new int[1000];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = sharding.acquire(hotKey);
+		}
+		int capacity = (int) Math.ceil(1.25 * shards.length / nodes.size());
+		for (int shard = 0; shard < nodes.size(); shard++) {
+			assertTrue(sharding.getLoad(shard) <= capacity);
+		}
+		assertEquals(shards.length, sharding.getTotalLoad());
+
+		for (int shard : shards) {
+			sharding.release(shard);
+		}
+		assertEquals(0, sharding.getTotalLoad());
+		assertEquals(sharding.getRing().getShard(hotKey), sharding.acquire(hotKey));
+	}
+}
@@ -75,6 +75,14 @@ public final class ChannelFileReader extends AbstractChannelSupplier<ByteBuf> {
 		return Promise.ofBlockingCallable(executor, () -> openBlocking(executor, path, openOptions));
 	}
 
+	/**
+	 * Opens the file on the executor and reads it with the given file service,
+	 * such as {@link io.datakernel.async.file.ReadAheadAsyncFileService} or {@link io.datakernel.async.file.MemoryMappedAsyncFileService}
+	 */
+	public static Promise<ChannelFileReader> open(Executor executor, AsyncFileService fileService, Path path) {
+		return Promise.ofBlockingCallable(executor, () -> new ChannelFileReader(fileService, FileChannel.open(path, DEFAULT_OPTIONS)));
+	}
+
 	public static ChannelFileReader openBlocking(Executor executor, Path path, OpenOption... openOptions) throws IOException {
 		FileChannel channel = FileChannel.open(path, openOptions);
 		return new ChannelFileReader(new ExecutorAsyncFileService(executor), channel);
@@ -151,7 +159,7 @@ public final class ChannelFileReader extends AbstractChannelSupplier<ByteBuf> {
 				throw new CloseException(ChannelFileReader.class, "File has been closed");
 			}
 
-			channel.close();
+			fileService.close(channel);
 			logger.trace(this + ": closed file");
 			return Promise.complete();
 		} catch (IOException | CloseException e) {
@@ -19,22 +19,45 @@ package io.datakernel.csp.file;
 import io.datakernel.async.file.AsyncFileService;
 import io.datakernel.async.file.ExecutorAsyncFileService;
 import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.MemSize;
+import io.datakernel.common.inspector.AbstractInspector;
+import io.datakernel.common.inspector.BaseInspector;
 import io.datakernel.csp.AbstractChannelConsumer;
+import io.datakernel.eventloop.ScheduledRunnable;
+import io.datakernel.eventloop.jmx.EventStats;
+import io.datakernel.eventloop.jmx.ValueStats;
+import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.promise.Promise;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executor;
 
+import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.common.Utils.nullify;
+import static io.datakernel.eventloop.Eventloop.getCurrentEventloop;
 import static java.nio.file.StandardOpenOption.*;
 
 /**
  * This consumer allows you to asynchronously write binary data to a file.
+ * <p>
+ * By default each incoming buffer is written by a separate call to {@link AsyncFileService}.
+ * With {@link #withWriteCoalescing write coalescing} buffers are accumulated
+ * and written by a single gathering write once they exceed a size threshold or a delay passes.
+ * <p>
+ * Durability is controlled by an fsync policy: none (default),
+ * {@link #withForceOnClose on close}, or {@link #withFsyncGroup periodic},
+ * where fsyncs are group-committed with other writers of the same {@link FsyncGroup}.
  */
 public final class ChannelFileWriter extends AbstractChannelConsumer<ByteBuf> {
 	private static final Logger logger = LoggerFactory.getLogger(ChannelFileWriter.class);
@@ -49,8 +72,84 @@ public final class ChannelFileWriter extends AbstractChannelConsumer<ByteBuf> {
 	private long startingOffset = 0;
 	private boolean started;
 
+	private int coalesceBytes = 0;
+	private Duration coalesceDelay = Duration.ZERO;
+	@Nullable
+	private FsyncGroup fsyncGroup;
+
 	private long position = 0;
 
+	private final List<ByteBuf> pending = new ArrayList<>();
+	private int pendingBytes;
+	@Nullable
+	private ScheduledRunnable scheduledFlush;
+	private Promise<Void> writing = Promise.complete();
+	private boolean synced;
+
+	@Nullable
+	private Inspector inspector;
+
+	public interface Inspector extends BaseInspector<Inspector> {
+		void onWrite(int buffers, long bytes, long writeTimeNanos);
+
+		void onFsync(long fsyncTimeNanos);
+	}
+
+	public static class JmxInspector extends AbstractInspector<Inspector> implements Inspector {
+		public static final Duration SMOOTHING_WINDOW = Duration.ofMinutes(1);
+
+		private final EventStats writes = EventStats.create(SMOOTHING_WINDOW);
+		private final ValueStats buffersPerWrite = ValueStats.create(SMOOTHING_WINDOW);
+		private final ValueStats bytesPerWrite = ValueStats.create(SMOOTHING_WINDOW);
+		private final ValueStats writeTime = ValueStats.create(SMOOTHING_WINDOW).withUnit("microseconds");
+		private final EventStats fsyncs = EventStats.create(SMOOTHING_WINDOW);
+		private final ValueStats fsyncTime = ValueStats.create(SMOOTHING_WINDOW).withUnit("microseconds");
+
+		@Override
+		public void onWrite(int buffers, long bytes, long writeTimeNanos) {
+			writes.recordEvent();
+			buffersPerWrite.recordValue(buffers);
+			bytesPerWrite.recordValue(bytes);
+			writeTime.recordValue(writeTimeNanos / 1000);
+		}
+
+		@Override
+		public void onFsync(long fsyncTimeNanos) {
+			fsyncs.recordEvent();
+			fsyncTime.recordValue(fsyncTimeNanos / 1000);
+		}
+
+		@JmxAttribute(description = "write calls, each of which is a single executor hand-off")
+		public EventStats getWrites() {
+			return writes;
+		}
+
+		@JmxAttribute
+		public ValueStats getBuffersPerWrite() {
+			return buffersPerWrite;
+		}
+
+		@JmxAttribute
+		public ValueStats getBytesPerWrite() {
+			return bytesPerWrite;
+		}
+
+		@JmxAttribute(description = "time from issuing a write until its completion, including executor queueing")
+		public ValueStats getWriteTime() {
+			return writeTime;
+		}
+
+		@JmxAttribute(description = "fsyncs on close and group fsyncs waited for by writers")
+		public EventStats getFsyncs() {
+			return fsyncs;
+		}
+
+		@JmxAttribute
+		public ValueStats getFsyncTime() {
+			return fsyncTime;
+		}
+	}
+
 	// region creators
 
 	public ChannelFileWriter(AsyncFileService fileService, FileChannel channel) {
@@ -94,10 +193,41 @@ public final class ChannelFileWriter extends AbstractChannelConsumer<ByteBuf> {
 		startingOffset = offset;
 		return this;
 	}
+
+	/**
+	 * Accumulates incoming buffers and writes them with a single gathering write,
+	 * once their total size reaches {@code maxBytes} or {@code maxDelay} passes since the first of them was received.
+	 * <p>
+	 * At most one write is in progress at a time, so no more than about twice
+	 * of {@code maxBytes} is held in memory by this writer.
+	 */
+	public ChannelFileWriter withWriteCoalescing(MemSize maxBytes, Duration maxDelay) {
+		checkArgument(maxBytes.toLong() >= 0 && !maxDelay.isNegative(), "Coalescing thresholds cannot be negative");
+		coalesceBytes = maxBytes.toInt();
+		coalesceDelay = maxDelay;
+		return this;
+	}
+
+	/**
+	 * Written data is made durable by the given group, which forces all of its dirty channels periodically.
+	 * End of stream is acknowledged only after the data has been forced by the group.
+	 */
+	public ChannelFileWriter withFsyncGroup(FsyncGroup fsyncGroup) {
+		this.fsyncGroup = fsyncGroup;
+		return this;
+	}
+
+	public ChannelFileWriter withInspector(Inspector inspector) {
+		this.inspector = inspector;
+		return this;
+	}
 	// endregion
 
 	@Override
 	protected void onClosed(@NotNull Throwable e) {
+		scheduledFlush = nullify(scheduledFlush, ScheduledRunnable::cancel);
+		pending.forEach(ByteBuf::recycle);
+		pending.clear();
 		closeFile();
 	}
 
@@ -108,24 +238,106 @@ public final class ChannelFileWriter extends AbstractChannelConsumer<ByteBuf> {
 		}
 		started = true;
 		if (buf == null) {
-			closeFile();
-			close();
-			return Promise.of(null);
+			return flush()
+					.then($ -> sync())
+					.whenResult($ -> {
+						closeFile();
+						close();
+					});
+		}
+		pending.add(buf);
+		pendingBytes += buf.readRemaining();
+		if (pendingBytes >= coalesceBytes) {
+			return flush();
 		}
+		if (scheduledFlush == null) {
+			scheduledFlush = getCurrentEventloop().delay(coalesceDelay, () -> {
+				scheduledFlush = null;
+				flush();
+			});
+		}
+		return Promise.complete();
+	}
+
+	private Promise<Void> flush() {
+		scheduledFlush = nullify(scheduledFlush, ScheduledRunnable::cancel);
+		if (pending.isEmpty()) {
+			return writing;
+		}
+		ByteBuf[] bufs = pending.toArray(new ByteBuf[0]);
 		long p = position;
-		position += buf.readRemaining();
+		position += pendingBytes;
+		pending.clear();
+		pendingBytes = 0;
+
+		writing = writing
+				.thenEx(($, e) -> {
+					if (e != null || isClosed()) {
+						for (ByteBuf buf : bufs) {
+							buf.recycle();
+						}
+						return Promise.ofException(e != null ? e : getException());
+					}
+					return doWrite(bufs, p);
+				});
+		return writing;
+	}
+
+	private Promise<Void> doWrite(ByteBuf[] bufs, long p) {
+		long writeStart = inspector != null ? System.nanoTime() : 0;
+		Promise<?> write;
+		long bytes;
+		if (bufs.length == 1) {
+			ByteBuf buf = bufs[0];
+			bytes = buf.readRemaining();
+			write = fileService.write(channel, p, buf.array(), buf.head(), buf.readRemaining());
+		} else {
+			ByteBuffer[] buffers = new ByteBuffer[bufs.length];
+			bytes = 0;
+			for (int i = 0; i < bufs.length; i++) {
+				ByteBuf buf = bufs[i];
+				buffers[i] = ByteBuffer.wrap(buf.array(), buf.head(), buf.readRemaining());
+				bytes += buf.readRemaining();
+			}
+			write = fileService.write(channel, p, buffers);
+		}
+		long writtenBytes = bytes;
+		return write
+				.thenEx(($, e) -> {
+					for (ByteBuf buf : bufs) {
+						buf.recycle();
+					}
+					if (isClosed()) return Promise.ofException(getException());
+					if (e != null) {
+						close(e);
+						return Promise.ofException(e);
+					}
+					if (inspector != null) {
+						inspector.onWrite(bufs.length, writtenBytes, System.nanoTime() - writeStart);
+					}
+					if (fsyncGroup != null) {
+						fsyncGroup.markDirty(channel);
+					}
+					return Promise.complete();
+				});
+	}
 
-		byte[] array = buf.getArray();
-		return fileService.write(channel, p, array, 0, array.length)
-				.thenEx(($, e2) -> {
+	private Promise<Void> sync() {
+		if (fsyncGroup == null && !forceOnClose) {
+			return Promise.complete();
+		}
+		long fsyncStart = inspector != null ? System.nanoTime() : 0;
+		return (fsyncGroup != null ? fsyncGroup.sync(channel) : fileService.force(channel, forceMetadata))
+				.thenEx(($, e) -> {
 					if (isClosed()) return Promise.ofException(getException());
-					if (e2 != null) {
-						close(e2);
+					if (e != null) {
+						close(e);
+						return Promise.ofException(e);
+					}
+					synced = true;
+					if (inspector != null) {
+						inspector.onFsync(System.nanoTime() - fsyncStart);
 					}
-					return Promise.of($, e2);
-				})
-				.then($ -> {
-					buf.recycle();
 					return Promise.complete();
 				});
 	}
@@ -136,11 +348,11 @@ public final class ChannelFileWriter extends AbstractChannelConsumer<ByteBuf> {
 		}
 
 		try {
-			if (forceOnClose) {
+			if (forceOnClose && !synced) {
 				channel.force(forceMetadata);
 			}
 
-			channel.close();
+			fileService.close(channel);
 			logger.trace(this + ": closed file");
 		} catch (IOException e) {
 			logger.error(this + ": failed to close file", e);
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.csp.file;
+
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.ScheduledRunnable;
+import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
+import io.datakernel.eventloop.jmx.ValueStats;
+import io.datakernel.jmx.api.JmxAttribute;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.SettablePromise;
+import io.datakernel.promise.jmx.PromiseStats;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Group commit of file channels, shared between concurrent {@link ChannelFileWriter writers}.
+ * <p>
+ * Channels which were written to are marked dirty, and all of the dirty channels are forced
+ * to the storage device by a single executor task, at most {@code interval} after they were marked.
+ * Sync requests which arrive while such a task is running are batched into the next one,
+ * so with a zero interval the group degrades into a classic group commit,
+ * where every sync request waits for at most one extra fsync round.
+ */
+public final class FsyncGroup implements EventloopJmxMBeanEx {
+	private final Eventloop eventloop;
+	private final Executor executor;
+	private final Duration interval;
+
+	private boolean forceMetadata;
+
+	private Map<FileChannel, List<SettablePromise<Void>>> dirtyChannels = new LinkedHashMap<>();
+	@Nullable
+	private ScheduledRunnable scheduledSync;
+	private boolean syncing;
+
+	// region JMX
+	private final PromiseStats syncPromise = PromiseStats.create(Duration.ofMinutes(5));
+	private final ValueStats channelsPerSync = ValueStats.create(Duration.ofMinutes(5));
+	private long fsyncsTotal;
+	private long failedFsyncsTotal;
+	// endregion
+
+	// region creators
+	private FsyncGroup(Eventloop eventloop, Executor executor, Duration interval) {
+		this.eventloop = eventloop;
+		this.executor = executor;
+		this.interval = interval;
+	}
+
+	public static FsyncGroup create(Eventloop eventloop, Executor executor, Duration interval) {
+		checkArgument(!interval.isNegative(), "Interval cannot be negative");
+		return new FsyncGroup(eventloop, executor, interval);
+	}
+
+	public FsyncGroup withForceMetadata(boolean forceMetadata) {
+		this.forceMetadata = forceMetadata;
+		return this;
+	}
+	// endregion
+
+	/**
+	 * Marks the channel as dirty, so that it is forced with the next group,
+	 * without waiting for it.
+	 */
+	public void markDirty(FileChannel channel) {
+		dirtyChannels.computeIfAbsent(channel, $ -> new ArrayList<>());
+		schedule();
+	}
+
+	/**
+	 * Requests the channel to be forced with the next group.
+	 *
+	 * @return promise which completes once the data written to the channel before this call is durable
+	 */
+	public Promise<Void> sync(FileChannel channel) {
+		SettablePromise<Void> cb = new SettablePromise<>();
+		dirtyChannels.computeIfAbsent(channel, $ -> new ArrayList<>()).add(cb);
+		schedule();
+		return cb;
+	}
+
+	private void schedule() {
+		if (scheduledSync != null || syncing) {
+			return;
+		}
+		scheduledSync = eventloop.delay(interval, this::doSync);
+	}
+
+	private void doSync() {
+		scheduledSync = null;
+		Map<FileChannel, List<SettablePromise<Void>>> channels = dirtyChannels;
+		dirtyChannels = new LinkedHashMap<>();
+		syncing = true;
+		channelsPerSync.recordValue(channels.size());
+
+		syncPromise.monitor(Promise.ofBlockingCallable(executor, () -> {
+			Map<FileChannel, IOException> failures = new HashMap<>();
+			for (Map.Entry<FileChannel, List<SettablePromise<Void>>> entry : channels.entrySet()) {
+				FileChannel channel = entry.getKey();
+				try {
+					channel.force(forceMetadata);
+				} catch (ClosedChannelException e) {
+					// channel was closed without waiting for sync, nobody is interested in it
+					if (!entry.getValue().isEmpty()) {
+						failures.put(channel, e);
+					}
+				} catch (IOException e) {
+					failures.put(channel, e);
+				}
+			}
+			return failures;
+		}))
+				.whenComplete((failures, e) -> {
+					syncing = false;
+					channels.forEach((channel, callbacks) -> {
+						Throwable failure = e != null ? e : failures.get(channel);
+						if (failure == null) {
+							fsyncsTotal++;
+						} else {
+							failedFsyncsTotal++;
+						}
+						callbacks.forEach(cb -> cb.accept(null, failure));
+					});
+					if (!dirtyChannels.isEmpty()) {
+						schedule();
+					}
+				});
+	}
+
+	// region JMX
+	@NotNull
+	@Override
+	public Eventloop getEventloop() {
+		return eventloop;
+	}
+
+	@JmxAttribute(description = "duration of a single group of fsyncs")
+	public PromiseStats getSyncPromise() {
+		return syncPromise;
+	}
+
+	@JmxAttribute
+	public ValueStats getChannelsPerSync() {
+		return channelsPerSync;
+	}
+
+	@JmxAttribute
+	public long getFsyncsTotal() {
+		return fsyncsTotal;
+	}
+
+	@JmxAttribute
+	public long getFailedFsyncsTotal() {
+		return failedFsyncsTotal;
+	}
+
+	@JmxAttribute
+	public int getDirtyChannels() {
+		return dirtyChannels.size();
+	}
+	// endregion
+}
@@ -18,10 +18,12 @@ package io.datakernel.csp.process;
 
 import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.common.MemSize;
 import io.datakernel.common.inspector.AbstractInspector;
 import io.datakernel.common.inspector.BaseInspector;
 import io.datakernel.csp.*;
 import io.datakernel.csp.dsl.WithChannelTransformer;
+import io.datakernel.eventloop.jmx.EventStats;
 import io.datakernel.eventloop.jmx.ValueStats;
 import io.datakernel.jmx.api.JmxAttribute;
 import net.jpountz.lz4.LZ4Compressor;
@@ -56,9 +58,19 @@ public final class ChannelLZ4Compressor extends AbstractCommunicatingProcess
 
 	private static final int MIN_BLOCK_SIZE = 64;
 
+	public static final int DEFAULT_SAMPLING_INTERVAL = 16;
+
 	private final LZ4Compressor compressor;
 	private final StreamingXXHash32 checksum = XXHashFactory.fastestInstance().newStreamingHash32(DEFAULT_SEED);
 
+	private int minCompressedBlockSize = 0;
+
+	// adaptive compression
+	private double maxCompressionRatio = 1.0;
+	private int samplingInterval = DEFAULT_SAMPLING_INTERVAL;
+	private int skippedBlocks;
+	private boolean incompressible;
+
 	private ChannelSupplier<ByteBuf> input;
 	private ChannelConsumer<ByteBuf> output;
 
@@ -67,6 +79,9 @@ public final class ChannelLZ4Compressor extends AbstractCommunicatingProcess
 
 	public interface Inspector extends BaseInspector<Inspector> {
 		void onBuf(ByteBuf in, ByteBuf out);
+
+		default void onCompressionTime(long nanos) {
+		}
 	}
 
 	public static class JmxInspector extends AbstractInspector<Inspector> implements Inspector {
@@ -74,11 +89,28 @@ public final class ChannelLZ4Compressor extends AbstractCommunicatingProcess
 
 		private final ValueStats bytesIn = ValueStats.create(SMOOTHING_WINDOW);
 		private final ValueStats bytesOut = ValueStats.create(SMOOTHING_WINDOW);
+		private final ValueStats compressionRatio = ValueStats.create(SMOOTHING_WINDOW);
+		private final ValueStats compressionTime = ValueStats.create(SMOOTHING_WINDOW).withUnit("microseconds");
+		private final EventStats compressedBlocks = EventStats.create(SMOOTHING_WINDOW);
+		private final EventStats rawBlocks = EventStats.create(SMOOTHING_WINDOW);
 
 		@Override
 		public void onBuf(ByteBuf in, ByteBuf out) {
-			bytesIn.recordValue(in.readRemaining());
-			bytesOut.recordValue(out.readRemaining());
+			int inSize = in.readRemaining();
+			int outSize = out.readRemaining();
+			bytesIn.recordValue(inSize);
+			bytesOut.recordValue(outSize);
+			compressionRatio.recordValue((double) outSize / inSize);
+			if (outSize - HEADER_LENGTH < inSize) {
+				compressedBlocks.recordEvent();
+			} else {
+				rawBlocks.recordEvent();
+			}
+		}
+
+		@Override
+		public void onCompressionTime(long nanos) {
+			compressionTime.recordValue((int) (nanos / 1000));
 		}
 
 		@JmxAttribute
@@ -90,6 +122,27 @@ public final class ChannelLZ4Compressor extends AbstractCommunicatingProcess
 		public ValueStats getBytesOut() {
 			return bytesOut;
 		}
+
+		@JmxAttribute(description = "ratio of output block size to input block size, including headers")
+		public ValueStats getCompressionRatio() {
+			return compressionRatio;
+		}
+
+		@JmxAttribute(description = "CPU time spent on compression of a single block")
+		public ValueStats getCompressionTime() {
+			return compressionTime;
+		}
+
+		@JmxAttribute(description = "blocks which were sent compressed")
+		public EventStats getCompressedBlocks() {
+			return compressedBlocks;
+		}
+
+		@JmxAttribute(description = "blocks which were sent uncompressed, " +
+				"either because they are too small, incompressible or skipped by adaptive compression")
+		public EventStats getRawBlocks() {
+			return rawBlocks;
+		}
 	}
 
 	// region creators
@@ -117,6 +170,35 @@ public final class ChannelLZ4Compressor extends AbstractCommunicatingProcess
 		return new ChannelLZ4Compressor(LZ4Factory.fastestInstance().highCompressor(compressionLevel));
 	}
 
+	/**
+	 * Blocks smaller than given size are sent without an attempt to compress them,
+	 * as LZ4 hardly ever gains anything on small inputs
+	 */
+	public ChannelLZ4Compressor withMinCompressedBlockSize(MemSize minCompressedBlockSize) {
+		this.minCompressedBlockSize = minCompressedBlockSize.toInt();
+		return this;
+	}
+
+	/**
+	 * Enables adaptive compression. Once a block compresses worse than {@code maxCompressionRatio}
+	 * (the ratio of compressed size to original size), subsequent blocks are sent uncompressed,
+	 * and only every {@code samplingInterval}-th block is compressed to sample whether
+	 * the data became compressible again.
+	 * <p>
+	 * Output stays a valid LZ4 block stream, so no changes are needed on the decompressing side.
+	 */
+	public ChannelLZ4Compressor withAdaptiveCompression(double maxCompressionRatio, int samplingInterval) {
+		checkArgument(maxCompressionRatio > 0 && maxCompressionRatio <= 1.0, "Compression ratio must be in (0, 1]");
+		checkArgument(samplingInterval > 0, "Sampling interval must be positive");
+		this.maxCompressionRatio = maxCompressionRatio;
+		this.samplingInterval = samplingInterval;
+		return this;
+	}
+
+	public ChannelLZ4Compressor withAdaptiveCompression(double maxCompressionRatio) {
+		return withAdaptiveCompression(maxCompressionRatio, DEFAULT_SAMPLING_INTERVAL);
+	}
+
 	public ChannelLZ4Compressor withInspector(Inspector inspector) {
 		this.inspector = inspector;
 		return this;
@@ -147,8 +229,17 @@ public final class ChannelLZ4Compressor extends AbstractCommunicatingProcess
 		input.get()
 				.whenResult(buf -> {
 					if (buf != null) {
-						ByteBuf outputBuf = compressBlock(compressor, checksum, buf.array(), buf.head(), buf.readRemaining());
-						if (inspector != null) inspector.onBuf(buf, outputBuf);
+						long startTime = inspector != null ? System.nanoTime() : 0;
+						int len = buf.readRemaining();
+						LZ4Compressor blockCompressor = shouldCompress(len) ? compressor : null;
+						ByteBuf outputBuf = compressBlock(blockCompressor, checksum, buf.array(), buf.head(), len);
+						if (blockCompressor != null) {
+							updateCompressibility(len, outputBuf.readRemaining() - HEADER_LENGTH);
+						}
+						if (inspector != null) {
+							inspector.onCompressionTime(System.nanoTime() - startTime);
+							inspector.onBuf(buf, outputBuf);
+						}
 						buf.recycle();
 						output.accept(outputBuf)
 								.whenResult($ -> doProcess());
@@ -167,6 +258,18 @@ public final class ChannelLZ4Compressor extends AbstractCommunicatingProcess
 
 	// endregion
 
+	private boolean shouldCompress(int len) {
+		if (len < minCompressedBlockSize) return false;
+		if (!incompressible) return true;
+		if (++skippedBlocks < samplingInterval) return false;
+		skippedBlocks = 0;
+		return true;
+	}
+
+	private void updateCompressibility(int len, int compressedLength) {
+		incompressible = compressedLength > len * maxCompressionRatio;
+	}
+
 	private static int compressionLevel(int blockSize) {
 		int compressionLevel = 32 - Integer.numberOfLeadingZeros(blockSize - 1); // ceil of log2
 		checkArgument((1 << compressionLevel) >= blockSize);
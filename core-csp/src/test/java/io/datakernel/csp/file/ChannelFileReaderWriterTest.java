@@ -16,11 +16,14 @@
 
 package io.datakernel.csp.file;
 
+import io.datakernel.async.file.MemoryMappedAsyncFileService;
+import io.datakernel.async.file.ReadAheadAsyncFileService;
 import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.bytebuf.ByteBufQueue;
 import io.datakernel.common.MemSize;
 import io.datakernel.csp.ChannelConsumer;
 import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.eventloop.Eventloop;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
 import io.datakernel.test.rules.ByteBufRule;
@@ -35,7 +38,12 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
 import static io.datakernel.promise.TestUtils.await;
 import static io.datakernel.promise.TestUtils.awaitException;
@@ -72,6 +80,30 @@ public final class ChannelFileReaderWriterTest {
 		assertArrayEquals(Files.readAllBytes(Paths.get("test_data/in.dat")), byteBuf.asArray());
 	}
 
+	@Test
+	public void streamFileReaderWithReadAhead() throws IOException {
+		Path file = randomFile(100_000);
+		ReadAheadAsyncFileService fileService = ReadAheadAsyncFileService.create(newCachedThreadPool(), 3);
+		ByteBuf byteBuf = await(ChannelFileReader.open(newCachedThreadPool(), fileService, file)
+				.then(cfr -> cfr.withBufferSize(MemSize.of(1000))
+						.withOffset(10)
+						.withLength(90_000)
+						.toCollector(ByteBufQueue.collector())));
+
+		assertArrayEquals(Arrays.copyOfRange(Files.readAllBytes(file), 10, 90_010), byteBuf.asArray());
+	}
+
+	@Test
+	public void streamFileReaderWithMemoryMapping() throws IOException {
+		Path file = randomFile(100_000);
+		MemoryMappedAsyncFileService fileService = MemoryMappedAsyncFileService.create(newCachedThreadPool(), 30_000);
+		ByteBuf byteBuf = await(ChannelFileReader.open(newCachedThreadPool(), fileService, file)
+				.then(cfr -> cfr.withBufferSize(MemSize.of(7000))
+						.toCollector(ByteBufQueue.collector())));
+
+		assertArrayEquals(Files.readAllBytes(file), byteBuf.asArray());
+	}
+
 	@Test
 	public void streamFileWriter() throws IOException {
 		Path tempPath = tempFolder.getRoot().toPath().resolve("out.dat");
@@ -99,6 +131,77 @@ public final class ChannelFileReaderWriterTest {
 		assertSame(exception, e);
 	}
 
+	@Test
+	public void streamFileWriterWithWriteCoalescing() throws IOException {
+		Path tempPath = tempFolder.getRoot().toPath().resolve("out.dat");
+		byte[] data = new byte[10_000];
+		ThreadLocalRandom.current().nextBytes(data);
+		List<ByteBuf> bufs = new ArrayList<>();
+		for (int i = 0; i < data.length; i += 100) {
+			bufs.add(ByteBuf.wrapForReading(Arrays.copyOfRange(data, i, i + 100)));
+		}
+
+		ChannelFileWriter.JmxInspector inspector = new ChannelFileWriter.JmxInspector();
+		await(ChannelSupplier.ofIterable(bufs)
+				.streamTo(ChannelFileWriter.open(newCachedThreadPool(), tempPath)
+						.map(writer -> writer
+								.withWriteCoalescing(MemSize.of(1000), Duration.ofMinutes(1))
+								.withInspector(inspector))));
+
+		assertArrayEquals(data, Files.readAllBytes(tempPath));
+		inspector.getWrites().refresh(System.currentTimeMillis());
+		assertEquals(10, inspector.getWrites().getTotalCount());
+	}
+
+	@Test
+	public void streamFileWriterFlushesCoalescedWritesOnDelay() throws IOException {
+		Path tempPath = tempFolder.getRoot().toPath().resolve("out.dat");
+
+		ChannelFileWriter.JmxInspector inspector = new ChannelFileWriter.JmxInspector();
+		await(ChannelSupplier.of(ByteBuf.wrapForReading("a".getBytes(UTF_8)), ByteBuf.wrapForReading("b".getBytes(UTF_8)))
+				.mapAsync(buf -> Promises.delay(100L, buf))
+				.streamTo(ChannelFileWriter.open(newCachedThreadPool(), tempPath)
+						.map(writer -> writer
+								.withWriteCoalescing(MemSize.kilobytes(64), Duration.ofMillis(10))
+								.withInspector(inspector))));
+
+		assertEquals("ab", new String(Files.readAllBytes(tempPath), UTF_8));
+		inspector.getWrites().refresh(System.currentTimeMillis());
+		assertEquals(2, inspector.getWrites().getTotalCount());
+	}
+
+	@Test
+	public void streamFileWritersWithFsyncGroup() throws IOException {
+		Path folder = tempFolder.newFolder().toPath();
+		FsyncGroup fsyncGroup = FsyncGroup.create(Eventloop.getCurrentEventloop(), newCachedThreadPool(), Duration.ofMillis(20));
+		ChannelFileWriter.JmxInspector inspector = new ChannelFileWriter.JmxInspector();
+
+		await(Promises.all(IntStream.range(0, 10)
+				.mapToObj(i -> ChannelSupplier.of(ByteBuf.wrapForReading(("file" + i).getBytes(UTF_8)))
+						.streamTo(ChannelFileWriter.open(newCachedThreadPool(), folder.resolve("file" + i))
+								.map(writer -> writer
+										.withFsyncGroup(fsyncGroup)
+										.withInspector(inspector))))));
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals("file" + i, new String(Files.readAllBytes(folder.resolve("file" + i)), UTF_8));
+		}
+		assertEquals(10, fsyncGroup.getFsyncsTotal());
+		inspector.getFsyncs().refresh(System.currentTimeMillis());
+		assertEquals(10, inspector.getFsyncs().getTotalCount());
+		fsyncGroup.getChannelsPerSync().refresh(System.currentTimeMillis());
+		assertTrue(fsyncGroup.getChannelsPerSync().getCount() < 10);
+		assertEquals(0, fsyncGroup.getDirtyChannels());
+	}
+
+	private Path randomFile(int size) throws IOException {
+		byte[] data = new byte[size];
+		ThreadLocalRandom.current().nextBytes(data);
+		Path file = tempFolder.newFolder().toPath().resolve("random.bin");
+		Files.write(file, data);
+		return file;
+	}
+
 	@Test
 	public void streamFileReaderWhenFileMultipleOfBuffer() throws IOException {
 		Path folder = tempFolder.newFolder().toPath();
@@ -22,6 +22,7 @@ import io.datakernel.common.parse.TruncatedDataException;
 import io.datakernel.csp.ChannelInput;
 import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.datastream.AbstractStreamSupplier;
+import io.datakernel.serializer.BinaryInput;
 import io.datakernel.serializer.BinarySerializer;
 
 import static java.lang.String.format;
@@ -35,6 +36,7 @@ import static java.lang.String.format;
 public final class ChannelDeserializer<T> extends AbstractStreamSupplier<T> implements WithChannelToStream<ChannelDeserializer<T>, ByteBuf, T> {
 	private ChannelSupplier<ByteBuf> input;
 	private final BinarySerializer<T> valueSerializer;
+	private boolean zeroCopy;
 
 	private final ByteBufQueue queue = new ByteBufQueue();
 
@@ -47,6 +49,19 @@ public final class ChannelDeserializer<T> extends AbstractStreamSupplier<T> impl
 		return new ChannelDeserializer<>(valueSerializer);
 	}
 
+	/**
+	 * Passes the {@code ByteBuf} which is being decoded to serializers as a source of {@link BinaryInput}, so that
+	 * {@link SerializerDefByteBuf#ofRetainedSlices(boolean) retaining} serializers
+	 * can decode {@code ByteBuf} fields as reference-counted slices of it instead of copies.
+	 * <p>
+	 * Each slice keeps the received buffer from being returned to the pool
+	 * until it is recycled by the owner of the decoded item.
+	 */
+	public ChannelDeserializer<T> withZeroCopy() {
+		this.zeroCopy = true;
+		return this;
+	}
+
 	@Override
 	public ChannelInput<ByteBuf> getInput() {
 		return input -> {
@@ -91,7 +106,7 @@ public final class ChannelDeserializer<T> extends AbstractStreamSupplier<T> impl
 				size = headerSize + dataSize;
 
 				if (firstBufRemaining >= size) {
-					T item = valueSerializer.decode(array, pos + headerSize);
+					T item = decode(firstBuf, pos + headerSize);
 					send(item);
 					if (firstBufRemaining != size) {
 						firstBuf.moveHead(size);
@@ -133,7 +148,7 @@ public final class ChannelDeserializer<T> extends AbstractStreamSupplier<T> impl
 				break;
 
 			queue.consume(size, buf -> {
-				T item = valueSerializer.decode(buf.array(), buf.head() + headerSize);
+				T item = decode(buf, buf.head() + headerSize);
 				send(item);
 			});
 		}
@@ -158,6 +173,12 @@ public final class ChannelDeserializer<T> extends AbstractStreamSupplier<T> impl
 		}
 	}
 
+	private T decode(ByteBuf buf, int pos) {
+		return zeroCopy ?
+				valueSerializer.decode(new BinaryInput(buf.array(), pos, buf)) :
+				valueSerializer.decode(buf.array(), pos);
+	}
+
 	@Override
 	protected void onError(Throwable e) {
 		queue.recycle();
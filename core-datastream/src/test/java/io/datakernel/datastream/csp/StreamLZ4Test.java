@@ -34,7 +34,7 @@ import java.util.stream.IntStream;
 
 import static io.datakernel.promise.TestUtils.await;
 import static java.util.stream.Collectors.toList;
-import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.*;
 
 public final class StreamLZ4Test {
 
@@ -78,6 +78,53 @@ public final class StreamLZ4Test {
 		doTest(ChannelLZ4Compressor.createHighCompressor(10));
 	}
 
+	@Test
+	public void testAdaptiveCompression() {
+		List<ByteBuf> buffers = IntStream.range(0, 200)
+				.mapToObj(i -> {
+					byte[] bytes = new byte[1024];
+					if (i < 100) {
+						ThreadLocalRandom.current().nextBytes(bytes);
+					}
+					return ByteBuf.wrapForReading(bytes);
+				})
+				.collect(toList());
+		byte[] expected = buffers.stream().map(ByteBuf::slice).collect(ByteBufQueue.collector()).asArray();
+
+		ChannelLZ4Compressor.JmxInspector inspector = new ChannelLZ4Compressor.JmxInspector();
+		ChannelSupplier<ByteBuf> supplier = ChannelSupplier.ofIterable(buffers)
+				.transformWith(ChannelLZ4Compressor.createFastCompressor()
+						.withAdaptiveCompression(0.9, 10)
+						.withInspector(inspector))
+				.transformWith(ChannelLZ4Decompressor.create());
+
+		ByteBuf collected = await(supplier.toCollector(ByteBufQueue.collector()));
+		assertArrayEquals(expected, collected.asArray());
+		refresh(inspector);
+		assertEquals(200, inspector.getCompressedBlocks().getTotalCount() + inspector.getRawBlocks().getTotalCount());
+		// incompressible blocks are only sampled, compressible ones are compressed once sampling detects them
+		assertTrue(inspector.getCompressedBlocks().getTotalCount() >= 90);
+		assertTrue(inspector.getRawBlocks().getTotalCount() >= 100);
+	}
+
+	@Test
+	public void testMinCompressedBlockSize() {
+		ChannelLZ4Compressor.JmxInspector inspector = new ChannelLZ4Compressor.JmxInspector();
+		byte[] data = new byte[100];
+
+		ChannelSupplier<ByteBuf> supplier = ChannelSupplier.of(ByteBuf.wrapForReading(data))
+				.transformWith(ChannelLZ4Compressor.createFastCompressor()
+						.withMinCompressedBlockSize(MemSize.of(128))
+						.withInspector(inspector))
+				.transformWith(ChannelLZ4Decompressor.create());
+
+		ByteBuf collected = await(supplier.toCollector(ByteBufQueue.collector()));
+		assertArrayEquals(data, collected.asArray());
+		refresh(inspector);
+		assertEquals(1, inspector.getRawBlocks().getTotalCount());
+		assertEquals(0, inspector.getCompressedBlocks().getTotalCount());
+	}
+
 	private void doTest(ChannelLZ4Compressor compressor) {
 		byte[] data = "1".getBytes();
 
@@ -89,6 +136,12 @@ public final class StreamLZ4Test {
 		assertArrayEquals(data, collected.asArray());
 	}
 
+	private static void refresh(ChannelLZ4Compressor.JmxInspector inspector) {
+		long timestamp = System.currentTimeMillis();
+		inspector.getCompressedBlocks().refresh(timestamp);
+		inspector.getRawBlocks().refresh(timestamp);
+	}
+
 	private static ByteBuf createRandomByteBuf() {
 		ThreadLocalRandom random = ThreadLocalRandom.current();
 		int offset = random.nextInt(10);
@@ -2,10 +2,56 @@ package io.datakernel.async.file;
 
 import io.datakernel.promise.Promise;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 public interface AsyncFileService {
 	Promise<Integer> read(FileChannel channel, long position, byte[] array, int offset, int size);
 
 	Promise<Integer> write(FileChannel channel, long position, byte[] array, int offset, int size);
+
+	/**
+	 * Writes the given buffers one after another, starting at a given position.
+	 * <p>
+	 * Default implementation copies buffers into a single array,
+	 * implementations may override it with a gathering write
+	 */
+	default Promise<Long> write(FileChannel channel, long position, ByteBuffer[] buffers) {
+		int size = 0;
+		for (ByteBuffer buffer : buffers) {
+			size += buffer.remaining();
+		}
+		byte[] array = new byte[size];
+		int offset = 0;
+		for (ByteBuffer buffer : buffers) {
+			int remaining = buffer.remaining();
+			buffer.get(array, offset, remaining);
+			offset += remaining;
+		}
+		return write(channel, position, array, 0, size)
+				.map(Integer::longValue);
+	}
+
+	/**
+	 * Forces any updates of the channel to be written to the storage device.
+	 * <p>
+	 * Default implementation blocks the calling thread,
+	 * implementations should override it to offload the call
+	 */
+	default Promise<Void> force(FileChannel channel, boolean metadata) {
+		try {
+			channel.force(metadata);
+			return Promise.complete();
+		} catch (IOException e) {
+			return Promise.ofException(e);
+		}
+	}
+
+	/**
+	 * Closes the channel and releases any resources which this service holds for it
+	 */
+	default void close(FileChannel channel) throws IOException {
+		channel.close();
+	}
 }
@@ -10,6 +10,7 @@ import java.nio.channels.FileChannel;
 import java.util.concurrent.Executor;
 
 import static io.datakernel.promise.Promise.ofBlockingCallable;
+import static io.datakernel.promise.Promise.ofBlockingRunnable;
 
 public final class ExecutorAsyncFileService implements AsyncFileService {
 	private final Executor executor;
@@ -55,4 +56,43 @@ public final class ExecutorAsyncFileService implements AsyncFileService {
 			return Math.toIntExact(pos - position);
 		});
 	}
+
+	/**
+	 * Writes buffers with a gathering write, which is a single system call in most cases.
+	 * <p>
+	 * Since {@link FileChannel} has no positional gathering write, channel position is changed while writing,
+	 * so the channel should not be concurrently written through its position
+	 */
+	@Override
+	public Promise<Long> write(FileChannel channel, long position, ByteBuffer[] buffers) {
+		if (buffers.length == 0) {
+			return Promise.of(0L);
+		}
+		return ofBlockingCallable(executor, () -> {
+			long written = 0;
+			try {
+				synchronized (channel) {
+					channel.position(position);
+					ByteBuffer last = buffers[buffers.length - 1];
+					do {
+						written += channel.write(buffers);
+					} while (last.hasRemaining());
+				}
+			} catch (IOException e) {
+				throw new UncheckedException(e);
+			}
+			return written;
+		});
+	}
+
+	@Override
+	public Promise<Void> force(FileChannel channel, boolean metadata) {
+		return ofBlockingRunnable(executor, () -> {
+			try {
+				channel.force(metadata);
+			} catch (IOException e) {
+				throw new UncheckedException(e);
+			}
+		});
+	}
 }
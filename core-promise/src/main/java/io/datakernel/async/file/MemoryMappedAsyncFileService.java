@@ -0,0 +1,220 @@
+package io.datakernel.async.file;
+
+import io.datakernel.common.exception.UncheckedException;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.promise.Promise.ofBlockingCallable;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+/**
+ * An {@link AsyncFileService} which serves reads from memory-mapped windows of files,
+ * copying the data straight from the mapped memory into the given arrays, without read system calls.
+ * <p>
+ * Windows are mapped lazily and remapped when a read goes past the end of the current window,
+ * so files which grow are read up to their current size.
+ * Copying may fault in pages which are not in page cache, so it is done on the executor.
+ * <p>
+ * A window is unmapped as soon as it is replaced by another one or its file is {@link #close closed},
+ * once there are no reads of it in progress.
+ * <p>
+ * Writes are delegated to the executor.
+ */
+public final class MemoryMappedAsyncFileService implements AsyncFileService {
+	private static final Logger logger = LoggerFactory.getLogger(MemoryMappedAsyncFileService.class);
+
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private final Executor executor;
+	private final ExecutorAsyncFileService fileService;
+	private final int windowSize;
+
+	// channels which are not closed through this service are still dropped by GC
+	private final Map<FileChannel, Window> windows = new WeakHashMap<>();
+
+	private MemoryMappedAsyncFileService(Executor executor, int windowSize) {
+		this.executor = executor;
+		this.fileService = new ExecutorAsyncFileService(executor);
+		this.windowSize = windowSize;
+	}
+
+	public static MemoryMappedAsyncFileService create(@NotNull Executor executor) {
+		return create(executor, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * @param windowSize maximum size of a single mapped region of a file
+	 */
+	public static MemoryMappedAsyncFileService create(@NotNull Executor executor, int windowSize) {
+		checkArgument(windowSize > 0, "Window size must be positive");
+		return new MemoryMappedAsyncFileService(executor, windowSize);
+	}
+
+	@Override
+	public Promise<Integer> read(FileChannel channel, long position, byte[] array, int offset, int size) {
+		return ofBlockingCallable(executor, () -> {
+			int bytesRead = 0;
+			while (bytesRead < size) {
+				Window window = acquireWindow(channel, position + bytesRead);
+				if (window == null) {
+					break;
+				}
+				try {
+					int windowOffset = (int) (position + bytesRead - window.position);
+					int n = Math.min(size - bytesRead, window.buffer.limit() - windowOffset);
+					// a duplicate has its own position, so that concurrent reads of the same window do not interfere
+					ByteBuffer buffer = window.buffer.duplicate();
+					buffer.position(windowOffset);
+					buffer.get(array, offset + bytesRead, n);
+					bytesRead += n;
+				} finally {
+					releaseWindow(window);
+				}
+			}
+			return bytesRead;
+		});
+	}
+
+	@Override
+	public Promise<Integer> write(FileChannel channel, long position, byte[] array, int offset, int size) {
+		return fileService.write(channel, position, array, offset, size);
+	}
+
+	@Override
+	public Promise<Long> write(FileChannel channel, long position, ByteBuffer[] buffers) {
+		return fileService.write(channel, position, buffers);
+	}
+
+	@Override
+	public Promise<Void> force(FileChannel channel, boolean metadata) {
+		return fileService.force(channel, metadata);
+	}
+
+	/**
+	 * Unmaps the window of the channel and closes it
+	 */
+	@Override
+	public void close(FileChannel channel) throws IOException {
+		synchronized (windows) {
+			Window window = windows.remove(channel);
+			if (window != null) {
+				retire(window);
+			}
+		}
+		channel.close();
+	}
+
+	/**
+	 * @return the window which contains the position, or {@code null} if the position is at the end of the file
+	 */
+	@Nullable
+	private Window acquireWindow(FileChannel channel, long position) {
+		synchronized (windows) {
+			Window window = windows.get(channel);
+			if (window == null || position < window.position || position >= window.position + window.buffer.limit()) {
+				long length;
+				MappedByteBuffer buffer;
+				try {
+					length = Math.min(windowSize, channel.size() - position);
+					if (length <= 0) {
+						return null;
+					}
+					buffer = channel.map(READ_ONLY, position, length);
+				} catch (IOException e) {
+					throw new UncheckedException(e);
+				}
+				if (window != null) {
+					retire(window);
+				}
+				window = new Window(position, buffer);
+				windows.put(channel, window);
+			}
+			window.readers++;
+			return window;
+		}
+	}
+
+	private void releaseWindow(Window window) {
+		synchronized (windows) {
+			if (--window.readers == 0 && window.retired) {
+				unmap(window.buffer);
+			}
+		}
+	}
+
+	private static void retire(Window window) {
+		window.retired = true;
+		if (window.readers == 0) {
+			unmap(window.buffer);
+		}
+	}
+
+	private static final class Window {
+		final long position;
+		final MappedByteBuffer buffer;
+		int readers;
+		boolean retired;
+
+		Window(long position, MappedByteBuffer buffer) {
+			this.position = position;
+			this.buffer = buffer;
+		}
+	}
+
+	// region unmapping buffers
+	@Nullable
+	private static final Object UNSAFE;
+	@Nullable
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException ignored) {
+			// Java 8, buffers are unmapped through their cleaners
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	/**
+	 * Unmaps a memory-mapped buffer. If it is not possible on this JVM, the buffer is left to be unmapped by GC
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			if (INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			} else {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.warn("Could not unmap buffer, leaving it to GC", e);
+		}
+	}
+	// endregion
+}
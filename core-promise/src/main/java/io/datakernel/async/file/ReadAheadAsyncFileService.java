@@ -0,0 +1,142 @@
+package io.datakernel.async.file;
+
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * An {@link AsyncFileService} which detects sequential reads of a file
+ * and keeps several following reads in flight on the executor,
+ * so that a sequential reader does not wait for an executor round trip on each read.
+ * <p>
+ * Two consecutive reads of the same size, the second one starting where the first one ended, are considered sequential.
+ * Blocks which were read ahead are copied into the arrays of later reads, and their buffers are reused for the next blocks.
+ * A read of any other position discards the blocks which were read ahead.
+ * <p>
+ * Writes are not affected. Reads of a file which is being written may see stale data.
+ * Instances are not thread-safe and should be used from a single eventloop thread.
+ */
+public final class ReadAheadAsyncFileService implements AsyncFileService {
+	public static final int DEFAULT_READ_AHEAD = 4;
+
+	private final ExecutorAsyncFileService fileService;
+	private final int readAhead;
+
+	private final Map<FileChannel, ReadAhead> readAheads = new WeakHashMap<>();
+
+	private ReadAheadAsyncFileService(ExecutorAsyncFileService fileService, int readAhead) {
+		this.fileService = fileService;
+		this.readAhead = readAhead;
+	}
+
+	public static ReadAheadAsyncFileService create(@NotNull Executor executor) {
+		return create(executor, DEFAULT_READ_AHEAD);
+	}
+
+	/**
+	 * @param readAhead number of blocks which are read ahead of a sequential reader
+	 */
+	public static ReadAheadAsyncFileService create(@NotNull Executor executor, int readAhead) {
+		checkArgument(readAhead > 0, "Number of blocks to read ahead must be positive");
+		return new ReadAheadAsyncFileService(new ExecutorAsyncFileService(executor), readAhead);
+	}
+
+	@Override
+	public Promise<Integer> read(FileChannel channel, long position, byte[] array, int offset, int size) {
+		ReadAhead state = readAheads.get(channel);
+		if (state != null && state.nextPosition == position && state.size == size) {
+			Block block = state.blocks.poll();
+			if (block == null) {
+				// the second sequential read, start reading ahead
+				state.nextPosition = position + size;
+				state.fill(channel);
+				return fileService.read(channel, position, array, offset, size);
+			}
+			state.nextPosition = position + size;
+			return block.promise
+					.map(bytesRead -> {
+						System.arraycopy(block.buffer, 0, array, offset, bytesRead);
+						if (bytesRead < size) {
+							state.eof = true;
+						}
+						state.recycle(channel, block.buffer);
+						return bytesRead;
+					})
+					.whenException(e -> readAheads.remove(channel));
+		}
+		readAheads.put(channel, new ReadAhead(position + size, size));
+		return fileService.read(channel, position, array, offset, size);
+	}
+
+	@Override
+	public Promise<Integer> write(FileChannel channel, long position, byte[] array, int offset, int size) {
+		return fileService.write(channel, position, array, offset, size);
+	}
+
+	@Override
+	public Promise<Long> write(FileChannel channel, long position, ByteBuffer[] buffers) {
+		return fileService.write(channel, position, buffers);
+	}
+
+	@Override
+	public Promise<Void> force(FileChannel channel, boolean metadata) {
+		return fileService.force(channel, metadata);
+	}
+
+	@Override
+	public void close(FileChannel channel) throws IOException {
+		readAheads.remove(channel);
+		channel.close();
+	}
+
+	private static final class Block {
+		final byte[] buffer;
+		final Promise<Integer> promise;
+
+		Block(byte[] buffer, Promise<Integer> promise) {
+			this.buffer = buffer;
+			this.promise = promise;
+		}
+	}
+
+	private final class ReadAhead {
+		final int size;
+		final ArrayDeque<Block> blocks = new ArrayDeque<>();
+		long nextPosition;
+		long readAheadPosition;
+		boolean eof;
+
+		ReadAhead(long nextPosition, int size) {
+			this.nextPosition = nextPosition;
+			this.readAheadPosition = nextPosition;
+			this.size = size;
+		}
+
+		void fill(FileChannel channel) {
+			readAheadPosition = Math.max(readAheadPosition, nextPosition);
+			while (blocks.size() < readAhead && !eof) {
+				readBlock(channel, new byte[size]);
+			}
+		}
+
+		void recycle(FileChannel channel, byte[] buffer) {
+			if (!eof) {
+				readBlock(channel, buffer);
+			}
+		}
+
+		private void readBlock(FileChannel channel, byte[] buffer) {
+			blocks.add(new Block(buffer, fileService.read(channel, readAheadPosition, buffer, 0, size)));
+			readAheadPosition += size;
+		}
+	}
+}
@@ -32,16 +32,27 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public final class BinaryInput {
 	public final byte[] array;
 	public int pos;
+	@Nullable
+	private final Object source;
 
 	private static final AtomicReference<char[]> BUF = new AtomicReference<>(new char[256]);
 
 	public BinaryInput(byte[] array) {
-		this.array = array;
+		this(array, 0, null);
 	}
 
 	public BinaryInput(byte[] array, int pos) {
+		this(array, pos, null);
+	}
+
+	/**
+	 * Creates an input over an array owned by {@code source}, such as a pooled buffer,
+	 * so that serializers may decode fields as views of the source instead of copies.
+	 */
+	public BinaryInput(byte[] array, int pos, @Nullable Object source) {
 		this.array = array;
 		this.pos = pos;
+		this.source = source;
 	}
 
 	public byte[] array() {
@@ -52,6 +63,11 @@ public final class BinaryInput {
 		return pos;
 	}
 
+	@Nullable
+	public Object getSource() {
+		return source;
+	}
+
 	public void pos(int pos) {
 		this.pos = pos;
 	}
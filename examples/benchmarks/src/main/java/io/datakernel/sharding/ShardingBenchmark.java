@@ -0,0 +1,88 @@
+package io.datakernel.sharding;
+
+import io.datakernel.common.sharding.BoundedLoadConsistentHash;
+import io.datakernel.common.sharding.ConsistentHashRing;
+import io.datakernel.common.sharding.JumpConsistentHash;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static io.datakernel.common.HashUtils.murmur3hash;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Measures cost of a single key lookup for different sharding schemes.
+ * See {@link ShardingKeyMovement} for the number of keys moved on membership change.
+ */
+@State(Scope.Benchmark)
+public class ShardingBenchmark {
+	@Param({"4", "16", "64"})
+	int nodes;
+
+	private int[] nodeHashes;
+	private ConsistentHashRing<Integer> ring;
+	private BoundedLoadConsistentHash<Integer> boundedLoad;
+	private int key;
+
+	@Setup
+	public void setup() {
+		List<Integer> nodeIds = IntStream.range(0, nodes).boxed().collect(toList());
+		nodeHashes = nodeIds.stream().mapToInt(Object::hashCode).toArray();
+		ring = ConsistentHashRing.create(nodeIds);
+		boundedLoad = BoundedLoadConsistentHash.create(ring);
+	}
+
+	@Benchmark
+	public int jumpConsistentHash() {
+		return JumpConsistentHash.shard(murmur3hash((long) key++), nodes);
+	}
+
+	@Benchmark
+	public int consistentHashRing() {
+		return ring.getShard(key++);
+	}
+
+	@Benchmark
+	public int boundedLoadConsistentHash() {
+		int shard = boundedLoad.acquire(key++);
+		boundedLoad.release(shard);
+		return shard;
+	}
+
+	@Benchmark
+	public int rendezvousHash() {
+		int k = key++;
+		int result = 0;
+		int max = Integer.MIN_VALUE;
+		for (int i = 0; i < nodeHashes.length; i++) {
+			int score = murmur3hash(nodeHashes[i], k);
+			if (score >= max) {
+				max = score;
+				result = i;
+			}
+		}
+		return result;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder()
+				.include(ShardingBenchmark.class.getSimpleName())
+				.forks(2)
+				.warmupIterations(3)
+				.warmupTime(TimeValue.seconds(1L))
+				.measurementIterations(5)
+				.measurementTime(TimeValue.seconds(2L))
+				.mode(Mode.AverageTime)
+				.timeUnit(TimeUnit.NANOSECONDS)
+				.build();
+
+		new Runner(opt).run();
+	}
+}
@@ -0,0 +1,60 @@
+package io.datakernel.sharding;
+
+import io.datakernel.common.sharding.ConsistentHashRing;
+import io.datakernel.common.sharding.JumpConsistentHash;
+
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+import java.util.stream.IntStream;
+
+import static io.datakernel.common.HashUtils.murmur3hash;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Prints a share of keys which change their shard when a node is added,
+ * compared to the ideal {@code 1 / (n + 1)}.
+ */
+public final class ShardingKeyMovement {
+	private static final int KEYS = 1_000_000;
+
+	public static void main(String[] args) {
+		for (int nodes : new int[]{4, 16, 64}) {
+			System.out.printf("%d -> %d nodes, ideal: %.4f%n", nodes, nodes + 1, 1.0 / (nodes + 1));
+			print("modulo", nodes, (key, n) -> Math.floorMod(murmur3hash(key), n));
+			print("jump consistent hash", nodes, (key, n) -> JumpConsistentHash.shard(murmur3hash((long) key), n));
+			print("rendezvous hash", nodes, ShardingKeyMovement::rendezvous);
+			ConsistentHashRing<Integer> before = ring(nodes);
+			ConsistentHashRing<Integer> after = ring(nodes + 1);
+			print("consistent hash ring", nodes, (key, n) -> (n == nodes ? before : after).getShard(key));
+			System.out.println();
+		}
+	}
+
+	private static void print(String name, int nodes, IntBinaryOperator sharding) {
+		int moved = 0;
+		for (int key = 0; key < KEYS; key++) {
+			if (sharding.applyAsInt(key, nodes) != sharding.applyAsInt(key, nodes + 1)) {
+				moved++;
+			}
+		}
+		System.out.printf("  %-22s moved: %.4f%n", name, (double) moved / KEYS);
+	}
+
+	private static int rendezvous(int key, int nodes) {
+		int result = 0;
+		int max = Integer.MIN_VALUE;
+		for (int i = 0; i < nodes; i++) {
+			int score = murmur3hash(Integer.hashCode(i), key);
+			if (score >= max) {
+				max = score;
+				result = i;
+			}
+		}
+		return result;
+	}
+
+	private static ConsistentHashRing<Integer> ring(int nodes) {
+		List<Integer> nodeIds = IntStream.range(0, nodes).boxed().collect(toList());
+		return ConsistentHashRing.create(nodeIds);
+	}
+}
@@ -0,0 +1,177 @@
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.common.MemSize;
+import io.datakernel.config.Config;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.di.annotation.Inject;
+import io.datakernel.di.annotation.Provides;
+import io.datakernel.di.module.Module;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.launcher.Launcher;
+import io.datakernel.net.AbstractServer;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.remotefs.RemoteFsClient;
+import io.datakernel.remotefs.RemoteFsClusterClient;
+import io.datakernel.remotefs.RemoteFsServer;
+import io.datakernel.service.ServiceGraphModule;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static io.datakernel.config.ConfigConverters.ofInteger;
+import static io.datakernel.config.ConfigConverters.ofMemSize;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+
+/**
+ * Compares upload and download bandwidth, as well as storage overhead,
+ * of a replicated RemoteFs cluster against an erasure-coded one
+ * which tolerates the same number of lost partitions
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ErasureCodingBenchmark extends Launcher {
+	private static final int FIRST_PORT = 6740;
+
+	private final ExecutorService executor = newCachedThreadPool();
+	private final List<RemoteFsServer> servers = new ArrayList<>();
+	private final List<Path> storages = new ArrayList<>();
+
+	private int rounds;
+	private int files;
+	private int dataShards;
+	private int parityShards;
+	private byte[] content;
+
+	@Inject
+	Eventloop eventloop;
+
+	@Inject
+	Config config;
+
+	@Provides
+	Eventloop eventloop() {
+		return Eventloop.create();
+	}
+
+	@Provides
+	Config config() {
+		return Config.create()
+				.overrideWith(Config.ofProperties(System.getProperties()).getChild("config"));
+	}
+
+	@Override
+	protected Module getModule() {
+		return ServiceGraphModule.create();
+	}
+
+	@Override
+	protected void onStart() throws Exception {
+		rounds = config.get(ofInteger(), "benchmark.rounds", 5);
+		files = config.get(ofInteger(), "benchmark.files", 8);
+		dataShards = config.get(ofInteger(), "benchmark.dataShards", 4);
+		parityShards = config.get(ofInteger(), "benchmark.parityShards", 2);
+		content = new byte[config.get(ofMemSize(), "benchmark.fileSize", MemSize.megabytes(8)).toInt()];
+		new Random(0).nextBytes(content);
+
+		for (int i = 0; i < dataShards + parityShards; i++) {
+			Path storage = Files.createTempDirectory("benchmark_storage");
+			storages.add(storage);
+			servers.add(RemoteFsServer.create(eventloop, executor, storage)
+					.withListenPort(FIRST_PORT + i));
+		}
+		eventloop.submit(() -> servers.forEach(server -> {
+			try {
+				server.listen();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		})).get();
+	}
+
+	@Override
+	protected void run() throws Exception {
+		for (int round = 0; round < rounds; round++) {
+			benchmark("Replication x" + (parityShards + 1), cluster().withReplicationCount(parityShards + 1), round);
+			benchmark("Erasure " + dataShards + "+" + parityShards, cluster().withErasureCoding(dataShards, parityShards), round);
+		}
+	}
+
+	@Override
+	protected void onStop() throws Exception {
+		eventloop.submit(() -> servers.forEach(AbstractServer::close)).get();
+		executor.shutdown();
+	}
+
+	private RemoteFsClusterClient cluster() {
+		RemoteFsClusterClient cluster = RemoteFsClusterClient.create(eventloop);
+		for (int i = 0; i < servers.size(); i++) {
+			cluster.withPartition("server" + i, RemoteFsClient.create(eventloop, new InetSocketAddress("localhost", FIRST_PORT + i)));
+		}
+		return cluster;
+	}
+
+	private void benchmark(String name, RemoteFsClusterClient client, int round) throws Exception {
+		String folder = name.replaceAll("\\W", "") + round;
+
+		long start = System.currentTimeMillis();
+		eventloop.submit(() -> Promises.all(IntStream.range(0, files)
+				.mapToObj(i -> upload(client, folder + "/file" + i))))
+				.get();
+		long uploadTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		eventloop.submit(() -> Promises.all(IntStream.range(0, files)
+				.mapToObj(i -> download(client, folder + "/file" + i))))
+				.get();
+		long downloadTime = System.currentTimeMillis() - start;
+
+		long stored = 0;
+		for (Path storage : storages) {
+			Path dir = storage.resolve(folder);
+			if (Files.isDirectory(dir)) {
+				try (Stream<Path> paths = Files.list(dir)) {
+					for (Path path : (Iterable<Path>) paths::iterator) {
+						stored += Files.size(path);
+					}
+				}
+			}
+		}
+		long total = (long) files * content.length;
+
+		System.out.println(name + " round " + round + ": " +
+				"uploads: " + total * 1000L / Math.max(1, uploadTime) / 1024 / 1024 + " MB/s; " +
+				"downloads: " + total * 1000L / Math.max(1, downloadTime) / 1024 / 1024 + " MB/s; " +
+				"storage overhead: " + String.format("%.2f", (double) stored / total) + "x");
+	}
+
+	private Promise<Void> upload(RemoteFsClusterClient client, String name) {
+		return ChannelSupplier.of(ByteBuf.wrapForReading(content))
+				.streamTo(ChannelConsumer.ofPromise(client.upload(name)));
+	}
+
+	private Promise<Void> download(RemoteFsClusterClient client, String name) {
+		return ChannelSupplier.ofPromise(client.download(name))
+				.toCollector(ByteBufQueue.collector())
+				.whenResult(buf -> {
+					if (buf.readRemaining() != content.length) {
+						throw new AssertionError("Downloaded " + buf.readRemaining() + " bytes of " + content.length);
+					}
+				})
+				.whenResult(ByteBuf::recycle)
+				.toVoid();
+	}
+
+	public static void main(String[] args) throws Exception {
+		new ErasureCodingBenchmark().launch(args);
+	}
+}
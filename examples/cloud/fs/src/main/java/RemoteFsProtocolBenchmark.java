@@ -0,0 +1,129 @@
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.config.Config;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.di.annotation.Inject;
+import io.datakernel.di.annotation.Provides;
+import io.datakernel.di.module.Module;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.launcher.Launcher;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.remotefs.RemoteFsClient;
+import io.datakernel.remotefs.RemoteFsServer;
+import io.datakernel.service.ServiceGraphModule;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.IntStream;
+
+import static io.datakernel.config.ConfigConverters.ofInteger;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+
+/**
+ * Compares rates of small file uploads and of listing many files
+ * between binary and JSON protocols of RemoteFs
+ */
+@SuppressWarnings("WeakerAccess")
+public final class RemoteFsProtocolBenchmark extends Launcher {
+	private static final int SERVER_PORT = 6733;
+	private static final byte[] CONTENT = new byte[100];
+
+	private final ExecutorService executor = newCachedThreadPool();
+	private Path storage;
+
+	private int rounds;
+	private int files;
+	private int concurrency;
+	private int lists;
+
+	@Inject
+	Eventloop eventloop;
+
+	@Inject
+	Config config;
+
+	@Inject
+	RemoteFsServer server;
+
+	@Provides
+	Eventloop eventloop() {
+		return Eventloop.create();
+	}
+
+	@Provides
+	Config config() {
+		return Config.create()
+				.overrideWith(Config.ofProperties(System.getProperties()).getChild("config"));
+	}
+
+	@Provides
+	RemoteFsServer server(Eventloop eventloop) throws IOException {
+		storage = Files.createTempDirectory("benchmark_storage");
+		return RemoteFsServer.create(eventloop, executor, storage)
+				.withListenPort(SERVER_PORT);
+	}
+
+	@Override
+	protected Module getModule() {
+		return ServiceGraphModule.create();
+	}
+
+	@Override
+	protected void onStart() {
+		rounds = config.get(ofInteger(), "benchmark.rounds", 5);
+		files = config.get(ofInteger(), "benchmark.files", 2000);
+		concurrency = config.get(ofInteger(), "benchmark.concurrency", 16);
+		lists = config.get(ofInteger(), "benchmark.lists", 100);
+	}
+
+	@Override
+	protected void run() throws Exception {
+		InetSocketAddress address = new InetSocketAddress("localhost", SERVER_PORT);
+		for (int round = 0; round < rounds; round++) {
+			benchmark("JSON  ", RemoteFsClient.create(eventloop, address).withBinaryProtocol(false), round);
+			benchmark("Binary", RemoteFsClient.create(eventloop, address).withBinaryProtocol(true), round);
+		}
+	}
+
+	@Override
+	protected void onStop() {
+		executor.shutdown();
+	}
+
+	private void benchmark(String name, RemoteFsClient client, int round) throws Exception {
+		String folder = name.trim() + round;
+
+		long start = System.currentTimeMillis();
+		eventloop.submit(() -> Promises.all(IntStream.range(0, concurrency)
+				.mapToObj(i -> upload(client, folder, i))))
+				.get();
+		long uploadTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		eventloop.submit(() -> Promises.sequence(IntStream.range(0, lists)
+				.mapToObj(i -> () -> client.list(folder + "/*").toVoid())))
+				.get();
+		long listTime = System.currentTimeMillis() - start;
+
+		System.out.println(name + " round " + round + ": " +
+				"uploads: " + files * 1000L / Math.max(1, uploadTime) + " files/s; " +
+				"lists of " + files + " files: " + lists * 1000L / Math.max(1, listTime) + " lists/s");
+	}
+
+	private Promise<Void> upload(RemoteFsClient client, String folder, int index) {
+		if (index >= files) {
+			return Promise.complete();
+		}
+		return ChannelSupplier.of(ByteBuf.wrapForReading(CONTENT))
+				.streamTo(ChannelConsumer.ofPromise(client.upload(folder + "/file" + index)))
+				.then($ -> upload(client, folder, index + concurrency));
+	}
+
+	public static void main(String[] args) throws Exception {
+		new RemoteFsProtocolBenchmark().launch(args);
+	}
+}
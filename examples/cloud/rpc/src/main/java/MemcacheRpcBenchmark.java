@@ -6,6 +6,7 @@ import io.datakernel.config.ConfigModule;
 import io.datakernel.di.annotation.Inject;
 import io.datakernel.di.annotation.Provides;
 import io.datakernel.di.annotation.ProvidesIntoSet;
+import io.datakernel.di.core.Injector;
 import io.datakernel.di.core.Key;
 import io.datakernel.di.module.Module;
 import io.datakernel.eventloop.Eventloop;
@@ -24,7 +25,7 @@ import io.datakernel.service.ServiceGraphModuleSettings;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.concurrent.CompletionStage;
-import java.util.function.Supplier;
+import java.util.function.Function;
 
 import static io.datakernel.config.ConfigConverters.ofInteger;
 import static io.datakernel.di.module.Modules.combine;
@@ -56,9 +57,6 @@ public class MemcacheRpcBenchmark extends Launcher {
 	@Inject
 	RawMemcacheClient client;
 
-	@Inject
-	RpcServer server;
-
 	@Inject
 	Config config;
 
@@ -90,6 +88,12 @@ public class MemcacheRpcBenchmark extends Launcher {
 		);
 	}
 
+	@Override
+	protected void onInit(Injector injector) {
+		// instantiate the server, so that service graph starts it
+		injector.getInstance(RpcServer.class);
+	}
+
 	@Override
 	protected void onStart() {
 		this.totalRequests = config.get(ofInteger(), "benchmark.totalRequests", TOTAL_REQUESTS);
@@ -105,7 +109,10 @@ public class MemcacheRpcBenchmark extends Launcher {
 		benchmark(this::roundGet, "Get");
 	}
 
-	private void benchmark(Supplier<Promise<Long>> function, String nameBenchmark) throws Exception {
+	/**
+	 * @return average requests per second of benchmark rounds
+	 */
+	protected final long benchmark(Function<RawMemcacheClient, Promise<Long>> function, String nameBenchmark) throws Exception {
 		long timeAllRounds = 0;
 		long bestTime = -1;
 		long worstTime = -1;
@@ -113,7 +120,7 @@ public class MemcacheRpcBenchmark extends Launcher {
 		System.out.println("Warming up ...");
 		for (int i = 0; i < warmupRounds; i++) {
 			long roundTime = round(function);
-			long rps = totalRequests * 1000L / roundTime;
+			long rps = totalRequests * concurrentClients() * 1000L / roundTime;
 			System.out.println("Round: " + (i + 1) + "; Round time: " + roundTime + "ms; RPS : " + rps);
 		}
 
@@ -130,111 +137,98 @@ public class MemcacheRpcBenchmark extends Launcher {
 				worstTime = roundTime;
 			}
 
-			long rps = totalRequests * 1000L / roundTime;
+			long rps = totalRequests * concurrentClients() * 1000L / roundTime;
 			System.out.println("Round: " + (i + 1) + "; Round time: " + roundTime + "ms; RPS : " + rps);
 		}
 
 		double avgTime = (double) timeAllRounds / benchmarkRounds;
-		long requestsPerSecond = (long) (totalRequests / avgTime * 1000);
+		long requestsPerSecond = (long) ((long) totalRequests * concurrentClients() / avgTime * 1000);
 		System.out.println("Time: " + timeAllRounds + "ms; Average time: " + avgTime + "ms; Best time: " +
 				bestTime + "ms; Worst time: " + worstTime + "ms; Requests per second: " + requestsPerSecond);
+		return requestsPerSecond;
 	}
 
-	private long round(Supplier<Promise<Long>> function) throws Exception {
-		return eventloop.submit(function).get();
+	/**
+	 * Runs a single round and returns its duration in milliseconds
+	 */
+	protected long round(Function<RawMemcacheClient, Promise<Long>> function) throws Exception {
+		return eventloop.submit(() -> function.apply(client)).get();
 	}
 
-	int sent;
-	int completed;
-
-	private Promise<Long> roundPut() {
-		SettablePromise<Long> promise = new SettablePromise<>();
+	/**
+	 * Number of clients which run each round concurrently, {@code totalRequests} each
+	 */
+	protected int concurrentClients() {
+		return 1;
+	}
 
-		Callback<Void> callback = new Callback<Void>() {
+	protected final Promise<Long> roundPut(RawMemcacheClient client) {
+		return new Round<Void>(activeRequestsMin) {
 			@Override
-			public void accept(Void result, @Nullable Throwable e) {
-				completed++;
+			void doRequest(int i) {
+				client.put(new byte[]{(byte) i}, new Slice(BYTES))
+						.whenComplete(this);
+			}
+		}.start();
+	}
 
-				int active = sent - completed;
+	protected final Promise<Long> roundGet(RawMemcacheClient client) {
+		return new Round<Slice>(activeRequestsMax) {
+			@Override
+			void doRequest(int i) {
+				client.get(new byte[]{(byte) i})
+						.whenComplete(this);
+			}
+		}.start();
+	}
 
-				if (e != null) {
-					promise.setException(new FailedRequestException());
-					return;
-				}
+	/**
+	 * Keeps between {@code activeRequestsMin} and {@code activeRequestsMax} requests in flight
+	 * until {@code totalRequests} are completed.
+	 * Each round has its own counters, so several rounds may run concurrently on different eventloops
+	 */
+	private abstract class Round<T> implements Callback<T> {
+		private final SettablePromise<Long> promise = new SettablePromise<>();
+		private final int refillThreshold;
+		private int sent;
+		private int completed;
+
+		Round(int refillThreshold) {
+			this.refillThreshold = refillThreshold;
+		}
 
-				if (completed == totalRequests) {
-					promise.set(null);
-					return;
-				}
+		abstract void doRequest(int i);
 
-				if (active <= activeRequestsMin) {
-					for (int i = 0; i < min(activeRequestsMax - active, totalRequests - sent); i++) {
-						doPut(this);
-						sent++;
-					}
-				}
+		Promise<Long> start() {
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < min(activeRequestsMax, totalRequests); i++) {
+				doRequest(sent++);
 			}
-		};
-		long start = System.currentTimeMillis();
-		sent = 0;
-		completed = 0;
-
-		for (int i = 0; i < min(activeRequestsMax, totalRequests); i++) {
-			doPut(callback);
-			sent++;
+			return promise.map($ -> System.currentTimeMillis() - start);
 		}
 
-		return promise.map($ -> System.currentTimeMillis() - start);
-	}
-
-	private Promise<Long> roundGet() {
-		SettablePromise<Long> promise = new SettablePromise<>();
+		@Override
+		public void accept(T result, @Nullable Throwable e) {
+			completed++;
 
-		Callback<Slice> callback = new Callback<Slice>() {
-			@Override
-			public void accept(Slice result, @Nullable Throwable e) {
-				completed++;
+			int active = sent - completed;
 
-				int active = sent - completed;
-
-				if (e != null) {
-					promise.setException(new FailedRequestException());
-					return;
-				}
+			if (e != null) {
+				promise.trySetException(new FailedRequestException());
+				return;
+			}
 
-				if (completed == totalRequests) {
-					promise.set(null);
-					return;
-				}
+			if (completed == totalRequests) {
+				promise.set(null);
+				return;
+			}
 
-				if (active <= activeRequestsMax) {
-					for (int i = 0; i < min(activeRequestsMax - active, totalRequests - sent); i++) {
-						doGet(this);
-						sent++;
-					}
+			if (active <= refillThreshold) {
+				for (int i = 0; i < min(activeRequestsMax - active, totalRequests - sent); i++) {
+					doRequest(sent++);
 				}
 			}
-		};
-		sent = 0;
-		completed = 0;
-		long start = System.currentTimeMillis();
-
-		for (int i = 0; i < min(activeRequestsMax, totalRequests); i++) {
-			doGet(callback);
-			sent++;
 		}
-
-		return promise.map($ -> System.currentTimeMillis() - start);
-	}
-
-	private void doPut(Callback<Void> callback) {
-		client.put(new byte[]{(byte) sent}, new Slice(BYTES))
-				.whenComplete(callback);
-	}
-
-	private void doGet(Callback<Slice> callback) {
-		client.get(new byte[]{(byte) sent})
-				.whenComplete(callback);
 	}
 
 	public static void main(String[] args) throws Exception {
@@ -0,0 +1,167 @@
+import io.datakernel.common.Initializer;
+import io.datakernel.config.ConfigModule;
+import io.datakernel.di.annotation.ProvidesIntoSet;
+import io.datakernel.di.core.Injector;
+import io.datakernel.di.core.Key;
+import io.datakernel.di.module.Module;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.launcher.OnStart;
+import io.datakernel.memcache.client.MemcacheClientModule;
+import io.datakernel.memcache.client.RawMemcacheClient;
+import io.datakernel.memcache.protocol.MemcacheRpcMessage.Slice;
+import io.datakernel.memcache.protocol.SerializerDefSlice;
+import io.datakernel.memcache.server.MemcacheShardedServerModule;
+import io.datakernel.net.PrimaryServer;
+import io.datakernel.promise.Promise;
+import io.datakernel.rpc.client.RpcClient;
+import io.datakernel.serializer.SerializerBuilder;
+import io.datakernel.service.ServiceGraphModule;
+import io.datakernel.service.ServiceGraphModuleSettings;
+import io.datakernel.worker.WorkerPoolModule;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static io.datakernel.config.ConfigConverters.*;
+import static io.datakernel.di.module.Modules.combine;
+import static io.datakernel.memcache.protocol.MemcacheRpcMessage.MESSAGE_TYPES;
+import static io.datakernel.rpc.client.sender.RpcStrategies.server;
+import static java.lang.Math.max;
+
+/**
+ * Measures how throughput of {@link MemcacheShardedServerModule} scales with the number of worker cores.
+ * <p>
+ * Runs the rounds of {@link MemcacheRpcBenchmark} against a server with 1, 2, ... {@code benchmark.maxWorkers} workers.
+ * Each client runs on its own eventloop with its own connection, and there are as many clients as workers
+ * (unless {@code benchmark.clients} is set), so that the client side does not become a bottleneck.
+ * The summary shows requests per second gained with each added core.
+ */
+public class MemcacheShardedRpcBenchmark extends MemcacheRpcBenchmark {
+	private static final int MAX_WORKERS = max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	private final List<Eventloop> clientEventloops = new ArrayList<>();
+	private final List<RpcClient> rpcClients = new ArrayList<>();
+	private final List<RawMemcacheClient> clients = new ArrayList<>();
+
+	private int workers;
+	private int numberClients;
+	private InetSocketAddress address;
+
+	private long putRps;
+	private long getRps;
+
+	@ProvidesIntoSet
+	Initializer<ServiceGraphModuleSettings> configureShardedServiceGraph() {
+		return settings -> settings.addDependency(Key.of(RpcClient.class), Key.of(PrimaryServer.class));
+	}
+
+	@Override
+	protected Module getModule() {
+		return combine(
+				ServiceGraphModule.create(),
+				WorkerPoolModule.create(),
+				ConfigModule.create()
+						.printEffectiveConfig()
+						.rebindImport(new Key<CompletionStage<Void>>() {}, new Key<CompletionStage<Void>>(OnStart.class) {}),
+				MemcacheShardedServerModule.create(),
+				MemcacheClientModule.create()
+		);
+	}
+
+	@Override
+	protected void onInit(Injector injector) {
+		injector.getInstance(PrimaryServer.class);
+	}
+
+	@Override
+	protected void onStart() {
+		super.onStart();
+		this.workers = config.get(ofInteger(), "memcache.workers");
+		this.numberClients = config.get(ofInteger(), "benchmark.clients", workers);
+		this.address = config.get(ofList(ofInetSocketAddress()), "server.listenAddresses").get(0);
+	}
+
+	@Override
+	protected void run() throws Exception {
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < numberClients; i++) {
+			Eventloop clientEventloop = Eventloop.create();
+			clientEventloop.keepAlive(true);
+			Thread thread = new Thread(clientEventloop, "client-" + i);
+			thread.start();
+			threads.add(thread);
+
+			RpcClient rpcClient = RpcClient.create(clientEventloop)
+					.withStrategy(server(address))
+					.withMessageTypes(MESSAGE_TYPES)
+					.withSerializerBuilder(SerializerBuilder.create(ClassLoader.getSystemClassLoader())
+							.withSerializer(Slice.class, new SerializerDefSlice()));
+			rpcClient.startFuture().get();
+
+			clientEventloops.add(clientEventloop);
+			rpcClients.add(rpcClient);
+			clients.add(RawMemcacheClient.create(rpcClient));
+		}
+
+		try {
+			System.out.println("Workers: " + workers + "; Clients: " + numberClients);
+			putRps = benchmark(this::roundPut, "Put");
+			getRps = benchmark(this::roundGet, "Get");
+		} finally {
+			for (RpcClient rpcClient : rpcClients) {
+				rpcClient.stopFuture().get();
+			}
+			for (Eventloop clientEventloop : clientEventloops) {
+				clientEventloop.keepAlive(false);
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+	}
+
+	@Override
+	protected long round(Function<RawMemcacheClient, Promise<Long>> function) throws Exception {
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		for (int i = 0; i < clients.size(); i++) {
+			RawMemcacheClient client = clients.get(i);
+			futures.add(clientEventloops.get(i).submit(() -> function.apply(client)));
+		}
+		long roundTime = 0;
+		for (CompletableFuture<Long> future : futures) {
+			roundTime = max(roundTime, future.get());
+		}
+		return roundTime;
+	}
+
+	@Override
+	protected int concurrentClients() {
+		return clients.size();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int maxWorkers = Integer.getInteger("config.benchmark.maxWorkers", MAX_WORKERS);
+		long[] putResults = new long[maxWorkers + 1];
+		long[] getResults = new long[maxWorkers + 1];
+
+		for (int workers = 1; workers <= maxWorkers; workers++) {
+			System.setProperty("config.memcache.workers", Integer.toString(workers));
+			MemcacheShardedRpcBenchmark benchmark = new MemcacheShardedRpcBenchmark();
+			benchmark.launch(args);
+			putResults[workers] = benchmark.putRps;
+			getResults[workers] = benchmark.getRps;
+		}
+
+		System.out.println();
+		System.out.println("Workers; Put RPS; Put RPS per added core; Get RPS; Get RPS per added core");
+		for (int workers = 1; workers <= maxWorkers; workers++) {
+			System.out.println(workers + "; " +
+					putResults[workers] + "; " + (putResults[workers] - putResults[workers - 1]) + "; " +
+					getResults[workers] + "; " + (getResults[workers] - getResults[workers - 1]));
+		}
+	}
+}
@@ -3,6 +3,7 @@ import io.datakernel.common.Initializer;
 import io.datakernel.common.MemSize;
 import io.datakernel.config.Config;
 import io.datakernel.config.ConfigModule;
+import io.datakernel.csp.process.ChannelLZ4Compressor;
 import io.datakernel.datastream.csp.ChannelSerializer;
 import io.datakernel.di.annotation.*;
 import io.datakernel.di.core.Key;
@@ -64,19 +65,24 @@ public class RpcBenchmark extends Launcher {
 
 	@Provides
 	public RpcClient rpcClient(@Named("client") Eventloop eventloop, Config config) {
-		return RpcClient.create(eventloop)
+		RpcClient rpcClient = RpcClient.create(eventloop)
 				.withStreamProtocol(
 						config.get(ofMemSize(), "rpc.defaultPacketSize", MemSize.kilobytes(256)),
 						ChannelSerializer.MAX_SIZE_1,
 						config.get(ofBoolean(), "rpc.compression", false))
 				.withMessageTypes(Integer.class)
 				.withStrategy(server(new InetSocketAddress(config.get(ofInteger(), "rpc.server.port"))));
+		return config.get(ofBoolean(), "rpc.compression.adaptive", false) ?
+				rpcClient.withAdaptiveCompression(
+						config.get(ofMemSize(), "rpc.compression.minBlockSize", MemSize.bytes(256)),
+						config.get(ofDouble(), "rpc.compression.maxRatio", 0.9)) :
+				rpcClient;
 	}
 
 	@Provides
 	@Eager
 	public RpcServer rpcServer(@Named("server") Eventloop eventloop, Config config) {
-		return RpcServer.create(eventloop)
+		RpcServer rpcServer = RpcServer.create(eventloop)
 				.withStreamProtocol(
 						config.get(ofMemSize(), "rpc.defaultPacketSize", MemSize.kilobytes(256)),
 						ChannelSerializer.MAX_SIZE_1,
@@ -84,7 +90,11 @@ public class RpcBenchmark extends Launcher {
 				.withListenPort(config.get(ofInteger(), "rpc.server.port"))
 				.withMessageTypes(Integer.class)
 				.withHandler(Integer.class, Integer.class, req -> Promise.of(req * 2));
-
+		return config.get(ofBoolean(), "rpc.compression.adaptive", false) ?
+				rpcServer.withAdaptiveCompression(
+						config.get(ofMemSize(), "rpc.compression.minBlockSize", MemSize.bytes(256)),
+						config.get(ofDouble(), "rpc.compression.maxRatio", 0.9)) :
+				rpcServer;
 	}
 
 	@ProvidesIntoSet
@@ -128,6 +138,32 @@ public class RpcBenchmark extends Launcher {
 	@Override
 	protected void run() throws Exception {
 		benchmark("RPC");
+		printCompressionStats();
+	}
+
+	/**
+	 * Run the benchmark with {@code -Dconfig.rpc.compression=true} and optionally
+	 * {@code -Dconfig.rpc.compression.adaptive=true} to compare plain and adaptive compression
+	 */
+	private void printCompressionStats() throws Exception {
+		ChannelLZ4Compressor.JmxInspector stats = rpcClient.getStatsCompressor();
+		if (stats == null) return;
+		eventloop.submit(() -> {
+			long timestamp = eventloop.currentTimeMillis();
+			stats.getBytesIn().refresh(timestamp);
+			stats.getBytesOut().refresh(timestamp);
+			stats.getCompressionRatio().refresh(timestamp);
+			stats.getCompressionTime().refresh(timestamp);
+			stats.getCompressedBlocks().refresh(timestamp);
+			stats.getRawBlocks().refresh(timestamp);
+			System.out.println("Compression" +
+					(config.get(ofBoolean(), "rpc.compression.adaptive", false) ? " (adaptive)" : "") +
+					": average block " + (long) stats.getBytesIn().getAverage() + " -> " + (long) stats.getBytesOut().getAverage() + " bytes" +
+					"; average ratio: " + stats.getCompressionRatio().getAverage() +
+					"; average CPU time per block: " + stats.getCompressionTime().getAverage() + "us" +
+					"; compressed blocks: " + stats.getCompressedBlocks().getTotalCount() +
+					"; raw blocks: " + stats.getRawBlocks().getTotalCount());
+		}).get();
 	}
 
 	/**
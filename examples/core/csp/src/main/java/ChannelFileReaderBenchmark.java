@@ -0,0 +1,141 @@
+import io.datakernel.async.file.AsyncFileService;
+import io.datakernel.async.file.ExecutorAsyncFileService;
+import io.datakernel.async.file.MemoryMappedAsyncFileService;
+import io.datakernel.async.file.ReadAheadAsyncFileService;
+import io.datakernel.config.Config;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.csp.file.ChannelFileReader;
+import io.datakernel.di.annotation.Inject;
+import io.datakernel.di.annotation.Provides;
+import io.datakernel.di.module.Module;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.launcher.Launcher;
+import io.datakernel.promise.Promise;
+import io.datakernel.service.ServiceGraphModule;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import static io.datakernel.config.ConfigConverters.ofInteger;
+import static io.datakernel.config.ConfigConverters.ofMemSize;
+import static io.datakernel.common.MemSize.kilobytes;
+import static io.datakernel.common.MemSize.megabytes;
+import static io.datakernel.di.module.Modules.combine;
+
+/**
+ * Compares sequential reads of a file by {@link ChannelFileReader} with different {@link AsyncFileService AsyncFileServices}
+ */
+@SuppressWarnings("WeakerAccess")
+public class ChannelFileReaderBenchmark extends Launcher {
+	private final static int WARMUP_ROUNDS = 3;
+	private final static int BENCHMARK_ROUNDS = 10;
+
+	@Inject
+	Eventloop eventloop;
+
+	@Inject
+	Config config;
+
+	@Provides
+	Eventloop eventloop() {
+		return Eventloop.create();
+	}
+
+	@Provides
+	Config config() {
+		return Config.create()
+				.overrideWith(Config.ofProperties(System.getProperties()).getChild("config"));
+	}
+
+	@Override
+	protected Module getModule() {
+		return combine(ServiceGraphModule.create());
+	}
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	private int warmupRounds;
+	private int benchmarkRounds;
+	private long fileSize;
+	private int bufferSize;
+	private int readAhead;
+	private Path file;
+
+	@Override
+	protected void onStart() throws Exception {
+		warmupRounds = config.get(ofInteger(), "benchmark.warmupRounds", WARMUP_ROUNDS);
+		benchmarkRounds = config.get(ofInteger(), "benchmark.benchmarkRounds", BENCHMARK_ROUNDS);
+		fileSize = config.get(ofMemSize(), "benchmark.fileSize", megabytes(256)).toLong();
+		bufferSize = config.get(ofMemSize(), "benchmark.bufferSize", kilobytes(256)).toInt();
+		readAhead = config.get(ofInteger(), "benchmark.readAhead", ReadAheadAsyncFileService.DEFAULT_READ_AHEAD);
+
+		file = Files.createTempFile("benchmark", ".dat");
+		byte[] block = new byte[1024 * 1024];
+		new Random(0).nextBytes(block);
+		try (OutputStream out = Files.newOutputStream(file)) {
+			for (long written = 0; written < fileSize; written += block.length) {
+				out.write(block, 0, (int) Math.min(block.length, fileSize - written));
+			}
+		}
+	}
+
+	@Override
+	protected void run() throws Exception {
+		benchmark("Executor", () -> new ExecutorAsyncFileService(executor));
+		benchmark("Read-ahead (" + readAhead + " blocks)", () -> ReadAheadAsyncFileService.create(executor, readAhead));
+		benchmark("Memory-mapped", () -> MemoryMappedAsyncFileService.create(executor));
+	}
+
+	@Override
+	protected void onStop() throws Exception {
+		executor.shutdown();
+		Files.deleteIfExists(file);
+	}
+
+	private void benchmark(String name, Supplier<AsyncFileService> fileServiceFactory) throws Exception {
+		System.out.println("Warming up " + name + " ...");
+		for (int i = 0; i < warmupRounds; i++) {
+			round(fileServiceFactory.get());
+		}
+
+		long time = 0;
+		long bestTime = -1;
+		long worstTime = -1;
+		for (int i = 0; i < benchmarkRounds; i++) {
+			long roundTime = round(fileServiceFactory.get());
+			time += roundTime;
+			if (bestTime == -1 || roundTime < bestTime) {
+				bestTime = roundTime;
+			}
+			if (worstTime == -1 || roundTime > worstTime) {
+				worstTime = roundTime;
+			}
+		}
+		double avgTime = (double) time / benchmarkRounds;
+		System.out.println(name + ": Average time: " + avgTime + "ms; Best time: " + bestTime + "ms; Worst time: " + worstTime +
+				"ms; Throughput: " + (long) (fileSize / 1024.0 / 1024.0 / avgTime * 1000) + " MB/s");
+	}
+
+	private long round(AsyncFileService fileService) throws Exception {
+		return eventloop.submit(() -> {
+			long start = System.currentTimeMillis();
+			return ChannelFileReader.open(executor, fileService, file)
+					.then(reader -> reader.withBufferSize(bufferSize)
+							.streamTo(ChannelConsumer.of(buf -> {
+								buf.recycle();
+								return Promise.complete();
+							})))
+					.map($ -> System.currentTimeMillis() - start);
+		}).get();
+	}
+
+	public static void main(String[] args) throws Exception {
+		ChannelFileReaderBenchmark benchmark = new ChannelFileReaderBenchmark();
+		benchmark.launch(args);
+	}
+}
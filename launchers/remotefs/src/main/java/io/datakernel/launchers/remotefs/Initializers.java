@@ -17,6 +17,7 @@
 package io.datakernel.launchers.remotefs;
 
 import io.datakernel.common.Initializer;
+import io.datakernel.common.MemSize;
 import io.datakernel.config.Config;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.remotefs.RemoteFsClient;
@@ -28,8 +29,10 @@ import java.util.Map;
 
 import static io.datakernel.common.Preconditions.checkState;
 import static io.datakernel.config.Config.THIS;
+import static io.datakernel.config.ConfigConverters.ofBoolean;
 import static io.datakernel.config.ConfigConverters.ofInetSocketAddress;
 import static io.datakernel.config.ConfigConverters.ofInteger;
+import static io.datakernel.config.ConfigConverters.ofMemSize;
 import static io.datakernel.launchers.initializers.Initializers.ofAbstractServer;
 
 public final class Initializers {
@@ -40,9 +43,18 @@ public final class Initializers {
 	}
 
 	public static Initializer<RemoteFsRepartitionController> ofRepartitionController(Config config) {
-		return controller -> controller
-				.withGlob(config.get("glob", "**"))
-				.withNegativeGlob(config.get("negativeGlob", ""));
+		return controller -> {
+			controller
+					.withGlob(config.get("glob", "**"))
+					.withNegativeGlob(config.get("negativeGlob", ""))
+					.withConcurrency(config.get(ofInteger(), "concurrency", 1))
+					.withBatchSize(config.get(ofInteger(), "batchSize", RemoteFsRepartitionController.DEFAULT_BATCH_SIZE))
+					.withDiffMode(config.get(ofBoolean(), "diffMode", false));
+			MemSize bandwidthLimit = config.get(ofMemSize(), "bandwidthLimit", MemSize.ZERO);
+			if (bandwidthLimit.toLong() != 0) {
+				controller.withBandwidthLimit(bandwidthLimit);
+			}
+		};
 	}
 
 	public static Initializer<RemoteFsClusterClient> ofRemoteFsCluster(Eventloop eventloop, Config config) {